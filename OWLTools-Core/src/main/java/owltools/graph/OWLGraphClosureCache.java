@@ -0,0 +1,258 @@
+package owltools.graph;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.semanticweb.owlapi.model.OWLObject;
+
+import owltools.graph.OWLGraphWrapperEdges.Config;
+
+/**
+ * Closure cache of an {@link OWLGraphWrapperEdges}, by source or target.
+ * <p>
+ * The cache is bounded by {@link Config#closureCacheMaxEntries}, the number
+ * of closures, and by {@link Config#closureCacheMaxEdges}, the number of
+ * edges of all closures, which is a measure of their memory. The bounds
+ * apply to each cache of the graph separately, and are read from the
+ * configuration of the graph when a closure is added, so they can be
+ * changed at any time. When a bound is exceeded, closures are evicted in
+ * the order given by {@link Config#closureCacheEviction}, until the cache
+ * is within 90% of its bounds, so that evictions are infrequent.
+ * <p>
+ * A {@link Loader} may be set to provide closures that are not cached, such
+ * as those of a closure snapshot. Loaded closures are added to the cache,
+ * subject to its bounds; an evicted closure is loaded again when next
+ * requested.
+ * <p>
+ * Lookups do not lock. The entry set is a snapshot, and does not include
+ * closures that have not been loaded yet.
+ */
+public class OWLGraphClosureCache extends AbstractMap<OWLObject,Set<OWLGraphEdge>> {
+
+	private static final Logger LOG = Logger.getLogger(OWLGraphClosureCache.class);
+
+	/**
+	 * Order in which closures are evicted
+	 */
+	public enum Eviction {
+		/**
+		 * least recently used first
+		 */
+		LRU,
+		/**
+		 * closures with the most edges first; this frees the most memory
+		 * with the fewest evictions, but evicts the most costly closures
+		 */
+		LARGEST_FIRST
+	}
+
+	/**
+	 * Provides closures on a cache miss
+	 */
+	public interface Loader {
+
+		/**
+		 * @param key
+		 * @return closure of key; null if not available from this loader
+		 */
+		public Set<OWLGraphEdge> load(OWLObject key);
+	}
+
+	private final OWLGraphWrapperEdges graph;
+	private final AtomicLong evictions;
+	private final ConcurrentMap<OWLObject,CacheEntry> entries = new ConcurrentHashMap<OWLObject,CacheEntry>();
+	private final AtomicLong numberOfEdges = new AtomicLong();
+	private final Object evictionMutex = new Object();
+	private volatile Loader loader = null;
+
+	/**
+	 * @param graph - graph whose configuration holds the bounds
+	 * @param evictions - incremented for each evicted closure
+	 */
+	OWLGraphClosureCache(OWLGraphWrapperEdges graph, AtomicLong evictions) {
+		this.graph = graph;
+		this.evictions = evictions;
+	}
+
+	/**
+	 * @param loader - consulted on a cache miss; null for none
+	 */
+	public void setLoader(Loader loader) {
+		this.loader = loader;
+	}
+
+	@Override
+	public Set<OWLGraphEdge> get(Object key) {
+		CacheEntry e = entries.get(key);
+		if (e == null) {
+			return load(key);
+		}
+		e.lastAccess = System.nanoTime();
+		return e.edges;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return entries.containsKey(key) || get(key) != null;
+	}
+
+	private Set<OWLGraphEdge> load(Object key) {
+		Loader l = loader;
+		if (l == null || !(key instanceof OWLObject)) {
+			return null;
+		}
+		Set<OWLGraphEdge> edges = l.load((OWLObject) key);
+		if (edges == null) {
+			return null;
+		}
+		CacheEntry existing = entries.putIfAbsent((OWLObject) key, new CacheEntry(edges));
+		if (existing != null) {
+			// loaded by another thread in the meantime
+			return existing.edges;
+		}
+		numberOfEdges.addAndGet(edges.size());
+		evictIfRequired();
+		return edges;
+	}
+
+	@Override
+	public Set<OWLGraphEdge> put(OWLObject key, Set<OWLGraphEdge> edges) {
+		CacheEntry old = entries.put(key, new CacheEntry(edges));
+		numberOfEdges.addAndGet(edges.size() - (old == null ? 0 : old.edges.size()));
+		evictIfRequired();
+		return old == null ? null : old.edges;
+	}
+
+	@Override
+	public Set<OWLGraphEdge> remove(Object key) {
+		CacheEntry old = entries.remove(key);
+		if (old == null) {
+			return null;
+		}
+		numberOfEdges.addAndGet(-old.edges.size());
+		return old.edges;
+	}
+
+	@Override
+	public void clear() {
+		for (OWLObject key : new ArrayList<OWLObject>(entries.keySet())) {
+			remove(key);
+		}
+	}
+
+	@Override
+	public int size() {
+		return entries.size();
+	}
+
+	@Override
+	public Set<Map.Entry<OWLObject,Set<OWLGraphEdge>>> entrySet() {
+		Set<Map.Entry<OWLObject,Set<OWLGraphEdge>>> snapshot = new HashSet<Map.Entry<OWLObject,Set<OWLGraphEdge>>>();
+		for (Map.Entry<OWLObject,CacheEntry> e : entries.entrySet()) {
+			snapshot.add(new SimpleImmutableEntry<OWLObject,Set<OWLGraphEdge>>(e.getKey(), e.getValue().edges));
+		}
+		return Collections.unmodifiableSet(snapshot);
+	}
+
+	/**
+	 * @return number of edges of all cached closures
+	 */
+	public long getNumberOfEdges() {
+		return numberOfEdges.get();
+	}
+
+	private void evictIfRequired() {
+		Config config = graph.getConfig();
+		int maxEntries = config.closureCacheMaxEntries;
+		long maxEdges = config.closureCacheMaxEdges;
+		if (!isOver(maxEntries, maxEdges)) {
+			return;
+		}
+		synchronized (evictionMutex) {
+			if (!isOver(maxEntries, maxEdges)) {
+				return;
+			}
+			int targetEntries = maxEntries - maxEntries / 10;
+			long targetEdges = maxEdges - maxEdges / 10;
+			// access times are copied, as they may change while sorting
+			List<Candidate> candidates = new ArrayList<Candidate>(entries.size());
+			for (Map.Entry<OWLObject,CacheEntry> e : entries.entrySet()) {
+				candidates.add(new Candidate(e.getKey(), e.getValue()));
+			}
+			Collections.sort(candidates, config.closureCacheEviction == Eviction.LARGEST_FIRST ?
+					LARGEST_FIRST : LEAST_RECENTLY_USED);
+			int n = 0;
+			for (Candidate c : candidates) {
+				if (!isOver(targetEntries, targetEdges)) {
+					break;
+				}
+				// unless replaced in the meantime
+				if (entries.remove(c.key, c.entry)) {
+					numberOfEdges.addAndGet(-c.entry.edges.size());
+					n++;
+				}
+			}
+			evictions.addAndGet(n);
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Evicted "+n+" closures; closures: "+size()+" edges: "+getNumberOfEdges());
+			}
+		}
+	}
+
+	private boolean isOver(int maxEntries, long maxEdges) {
+		return (maxEntries > 0 && entries.size() > maxEntries) ||
+				(maxEdges > 0 && numberOfEdges.get() > maxEdges);
+	}
+
+	private static final Comparator<Candidate> LEAST_RECENTLY_USED = new Comparator<Candidate>() {
+
+		@Override
+		public int compare(Candidate c1, Candidate c2) {
+			// nanoTime values are compared by difference
+			long d = c1.lastAccess - c2.lastAccess;
+			return d < 0 ? -1 : (d == 0 ? 0 : 1);
+		}
+	};
+
+	private static final Comparator<Candidate> LARGEST_FIRST = new Comparator<Candidate>() {
+
+		@Override
+		public int compare(Candidate c1, Candidate c2) {
+			int s1 = c1.entry.edges.size();
+			int s2 = c2.entry.edges.size();
+			return s1 > s2 ? -1 : (s1 == s2 ? 0 : 1);
+		}
+	};
+
+	private static class Candidate {
+		final OWLObject key;
+		final CacheEntry entry;
+		final long lastAccess;
+
+		Candidate(OWLObject key, CacheEntry entry) {
+			this.key = key;
+			this.entry = entry;
+			this.lastAccess = entry.lastAccess;
+		}
+	}
+
+	private static class CacheEntry {
+		final Set<OWLGraphEdge> edges;
+		// written without synchronization; an approximate order is sufficient
+		volatile long lastAccess = System.nanoTime();
+
+		CacheEntry(Set<OWLGraphEdge> edges) {
+			this.edges = edges;
+		}
+	}
+}
@@ -0,0 +1,590 @@
+package owltools.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.log4j.Logger;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLNamedObject;
+import org.semanticweb.owlapi.model.OWLObject;
+import org.semanticweb.owlapi.model.OWLObjectPropertyExpression;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLPropertyExpression;
+
+import owltools.graph.OWLGraphEdge.OWLGraphEdgeSet;
+
+/**
+ * Read-only view of the edges of a graph, for services that query a graph
+ * that no longer changes.
+ * <p>
+ * Each node, named or anonymous, has an integer id. The primitive edges are
+ * stored in compressed sparse row form, in both directions: for each node,
+ * a range of an array of neighbour ids and an array of edge label ids. An
+ * edge label is the quantified property list, ontology, distance and GCI
+ * fields of an edge; labels are interned, so most are shared by many edges.
+ * Closures are cached in the same way, as (target, label) pairs for each
+ * node, instead of sets of {@link OWLGraphEdge}.
+ * <p>
+ * The queries return the same edges as the corresponding methods of
+ * {@link OWLGraphWrapperEdges}, created on demand; they are composed with
+ * the graph's {@link OWLGraphWrapperEdges#combineEdgePair(OWLObject, OWLGraphEdge, OWLGraphEdge, int)}.
+ * Edges returned by the view do not carry their underlying axioms.
+ * <p>
+ * The view is a snapshot; it does not reflect later changes to the ontology
+ * or the configuration of the graph. It does not use the edge or closure
+ * caches of the graph, which can be released with
+ * {@link OWLGraphWrapperEdges#clearCachedEdges()}. The view is thread-safe.
+ *
+ * @see OWLGraphWrapperEdges#freeze()
+ */
+public class OWLGraphFrozenView {
+
+	private static final Logger LOG = Logger.getLogger(OWLGraphFrozenView.class);
+
+	private final OWLGraphWrapperEdges graph;
+	private final Map<OWLObject,Integer> nodeIds;
+	private final OWLObject[] nodes;
+	// primitive edges by source: outTargets[outOffsets[v]..outOffsets[v+1]]
+	private final int[] outOffsets;
+	private final int[] outTargets;
+	private final int[] outLabels;
+	// the same edges by target
+	private final int[] inOffsets;
+	private final int[] inSources;
+	private final int[] inLabels;
+
+	private final Map<EdgeLabel,Integer> labelIds = new HashMap<EdgeLabel,Integer>();
+	// grown under the lock of labelIds; published by the volatile write
+	private volatile EdgeLabel[] labels = new EdgeLabel[64];
+	private int numLabels = 0;
+
+	// (target, label) and (source, label) pairs by node id, filled as requested
+	private final AtomicReferenceArray<int[]> outgoingClosures;
+	private final AtomicReferenceArray<int[]> incomingClosures;
+
+	private OWLGraphFrozenView(OWLGraphWrapperEdges graph, Map<OWLObject,Integer> nodeIds, OWLObject[] nodes,
+			List<Set<OWLGraphEdge>> edgesBySource) {
+		this.graph = graph;
+		this.nodeIds = nodeIds;
+		this.nodes = nodes;
+		int size = nodes.length;
+		int numEdges = 0;
+		for (Set<OWLGraphEdge> edges : edgesBySource) {
+			numEdges += edges.size();
+		}
+		outOffsets = new int[size + 1];
+		outTargets = new int[numEdges];
+		outLabels = new int[numEdges];
+		int[] inDegree = new int[size];
+		int k = 0;
+		for (int v = 0; v < size; v++) {
+			outOffsets[v] = k;
+			for (OWLGraphEdge e : edgesBySource.get(v)) {
+				int w = nodeIds.get(e.getTarget());
+				outTargets[k] = w;
+				outLabels[k] = getLabelId(e);
+				inDegree[w]++;
+				k++;
+			}
+		}
+		outOffsets[size] = k;
+
+		inOffsets = new int[size + 1];
+		for (int v = 0; v < size; v++) {
+			inOffsets[v + 1] = inOffsets[v] + inDegree[v];
+		}
+		inSources = new int[numEdges];
+		inLabels = new int[numEdges];
+		int[] next = Arrays.copyOf(inOffsets, size);
+		for (int v = 0; v < size; v++) {
+			for (int i = outOffsets[v]; i < outOffsets[v + 1]; i++) {
+				int w = outTargets[i];
+				inSources[next[w]] = v;
+				inLabels[next[w]] = outLabels[i];
+				next[w]++;
+			}
+		}
+		outgoingClosures = new AtomicReferenceArray<int[]>(size);
+		incomingClosures = new AtomicReferenceArray<int[]>(size);
+	}
+
+	/**
+	 * @param g
+	 * @return view of the primitive edges of all objects of the graph, and
+	 * the class expressions reachable from them
+	 */
+	public static OWLGraphFrozenView create(OWLGraphWrapperEdges g) {
+		long t = System.currentTimeMillis();
+		// as in OWLGraphWrapperEdges#cacheEdges()
+		Map<OWLObject,Integer> nodeIds = new HashMap<OWLObject,Integer>();
+		List<OWLObject> nodeList = new ArrayList<OWLObject>();
+		for (OWLObject obj : g.getAllOWLObjects()) {
+			nodeIds.put(obj, nodeList.size());
+			nodeList.add(obj);
+		}
+		List<Set<OWLGraphEdge>> edgesBySource = new ArrayList<Set<OWLGraphEdge>>();
+		for (int v = 0; v < nodeList.size(); v++) {
+			Set<OWLGraphEdge> edges = g.getPrimitiveOutgoingEdges(nodeList.get(v));
+			for (OWLGraphEdge e : edges) {
+				OWLObject target = e.getTarget();
+				if (!nodeIds.containsKey(target)) {
+					nodeIds.put(target, nodeList.size());
+					nodeList.add(target);
+				}
+			}
+			edgesBySource.add(edges);
+		}
+		OWLGraphFrozenView view = new OWLGraphFrozenView(g, nodeIds,
+				nodeList.toArray(new OWLObject[nodeList.size()]), edgesBySource);
+		LOG.info("Frozen graph: "+view.getNumberOfNodes()+" nodes, "+view.getNumberOfEdges()+
+				" edges, "+view.getNumberOfEdgeLabels()+" labels, ms = "+(System.currentTimeMillis() - t));
+		return view;
+	}
+
+	/**
+	 * @return number of nodes
+	 */
+	public int getNumberOfNodes() {
+		return nodes.length;
+	}
+
+	/**
+	 * @return number of primitive edges
+	 */
+	public int getNumberOfEdges() {
+		return outTargets.length;
+	}
+
+	/**
+	 * @return number of distinct edge labels, including those of cached closures
+	 */
+	public int getNumberOfEdgeLabels() {
+		synchronized (labelIds) {
+			return numLabels;
+		}
+	}
+
+	/**
+	 * @param x
+	 * @return id of x, or -1 if x is not in the view
+	 */
+	public int getNodeId(OWLObject x) {
+		Integer id = nodeIds.get(x);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @param id
+	 * @return node with this id
+	 */
+	public OWLObject getNode(int id) {
+		return nodes[id];
+	}
+
+	// ----------------------------------------
+	// EDGES
+	// ----------------------------------------
+
+	/**
+	 * @param s
+	 * @return as {@link OWLGraphWrapperEdges#getPrimitiveOutgoingEdges(OWLObject)}
+	 */
+	public Set<OWLGraphEdge> getPrimitiveOutgoingEdges(OWLObject s) {
+		return getPrimitiveOutgoingEdges(s, null);
+	}
+
+	/**
+	 * @param s
+	 * @param overProperties
+	 * @return as {@link OWLGraphWrapperEdges#getPrimitiveOutgoingEdges(OWLObject, Set)}
+	 */
+	public Set<OWLGraphEdge> getPrimitiveOutgoingEdges(OWLObject s, Set<? extends OWLPropertyExpression> overProperties) {
+		Set<OWLGraphEdge> edges = new OWLGraphEdgeSet();
+		int v = getNodeId(s);
+		if (v >= 0) {
+			EdgeLabel[] labels = this.labels;
+			for (int i = outOffsets[v]; i < outOffsets[v + 1]; i++) {
+				edges.add(createEdge(s, nodes[outTargets[i]], labels[outLabels[i]]));
+			}
+			if (overProperties != null) {
+				graph.filterEdges(edges, overProperties);
+			}
+		}
+		return edges;
+	}
+
+	/**
+	 * @param t
+	 * @return as {@link OWLGraphWrapperEdges#getPrimitiveIncomingEdges(OWLObject)}
+	 */
+	public Set<OWLGraphEdge> getPrimitiveIncomingEdges(OWLObject t) {
+		Set<OWLGraphEdge> edges = new OWLGraphEdgeSet();
+		int v = getNodeId(t);
+		if (v >= 0) {
+			EdgeLabel[] labels = this.labels;
+			for (int i = inOffsets[v]; i < inOffsets[v + 1]; i++) {
+				edges.add(createEdge(nodes[inSources[i]], t, labels[inLabels[i]]));
+			}
+		}
+		return edges;
+	}
+
+	/**
+	 * @param s
+	 * @return as {@link OWLGraphWrapperEdges#getOutgoingEdges(OWLObject)}
+	 */
+	public Set<OWLGraphEdge> getOutgoingEdges(OWLObject s) {
+		return getOutgoingEdges(s, null);
+	}
+
+	/**
+	 * @param s
+	 * @param props
+	 * @return as {@link OWLGraphWrapperEdges#getOutgoingEdges(OWLObject, Set)}
+	 */
+	public Set<OWLGraphEdge> getOutgoingEdges(OWLObject s, Set<? extends OWLPropertyExpression> props) {
+		Set<OWLGraphEdge> edges = new OWLGraphEdgeSet();
+		for (OWLGraphEdge e : getPrimitiveOutgoingEdges(s)) {
+			if (e.isTargetNamedObject()) {
+				edges.add(e);
+				continue;
+			}
+			// unfold the target, as OWLGraphWrapperEdges#primitiveEdgeToFullEdges(OWLGraphEdge)
+			Set<OWLGraphEdge> unfolded = new OWLGraphEdgeSet();
+			for (OWLGraphEdge e2 : getOutgoingEdges(e.getTarget())) {
+				OWLGraphEdge nu = graph.combineEdgePair(s, e, e2, 1);
+				if (nu != null)
+					unfolded.add(nu);
+			}
+			graph.filterEdges(unfolded, null);
+			edges.addAll(unfolded);
+		}
+		if (props != null) {
+			graph.filterEdges(edges, props);
+		}
+		return edges;
+	}
+
+	/**
+	 * @param t
+	 * @return as {@link OWLGraphWrapperEdges#getIncomingEdges(OWLObject)}
+	 */
+	public Set<OWLGraphEdge> getIncomingEdges(OWLObject t) {
+		Set<OWLGraphEdge> edges = new OWLGraphEdgeSet();
+		for (OWLGraphEdge e : getPrimitiveIncomingEdges(t)) {
+			if (e.isSourceNamedObject()) {
+				edges.add(e);
+				continue;
+			}
+			// unfold the source, as OWLGraphWrapperEdges#unfoldEdgeSource(OWLGraphEdge)
+			Set<OWLGraphEdge> unfolded = new OWLGraphEdgeSet();
+			for (OWLGraphEdge e2 : getIncomingEdges(e.getSource())) {
+				OWLGraphEdge nu = graph.combineEdgePairDown(e, e2, 1);
+				if (nu != null)
+					unfolded.add(nu);
+			}
+			graph.filterEdges(unfolded, null);
+			edges.addAll(unfolded);
+		}
+		return edges;
+	}
+
+	// ----------------------------------------
+	// CLOSURES
+	// ----------------------------------------
+
+	/**
+	 * @param s
+	 * @return as {@link OWLGraphWrapperEdges#getOutgoingEdgesClosure(OWLObject)}
+	 */
+	public Set<OWLGraphEdge> getOutgoingEdgesClosure(OWLObject s) {
+		int v = getNodeId(s);
+		if (v < 0) {
+			return new OWLGraphEdgeSet();
+		}
+		int[] closure = outgoingClosures.get(v);
+		if (closure == null) {
+			// computing a closure twice is harmless
+			Set<OWLGraphEdge> edges = computeOutgoingEdgesClosure(s, null);
+			outgoingClosures.set(v, toPairs(edges, true));
+			return edges;
+		}
+		Set<OWLGraphEdge> edges = new OWLGraphEdgeSet();
+		EdgeLabel[] labels = this.labels;
+		for (int i = 0; i < closure.length; i += 2) {
+			edges.add(createEdge(s, nodes[closure[i]], labels[closure[i + 1]]));
+		}
+		return edges;
+	}
+
+	/**
+	 * Closures over a set of properties are not cached.
+	 *
+	 * @param s
+	 * @param overProperties
+	 * @return as {@link OWLGraphWrapperEdges#getOutgoingEdgesClosure(OWLObject, Set)}
+	 */
+	public Set<OWLGraphEdge> getOutgoingEdgesClosure(OWLObject s, Set<? extends OWLPropertyExpression> overProperties) {
+		if (overProperties == null) {
+			return getOutgoingEdgesClosure(s);
+		}
+		if (getNodeId(s) < 0) {
+			return new OWLGraphEdgeSet();
+		}
+		return computeOutgoingEdgesClosure(s, overProperties);
+	}
+
+	/**
+	 * @param t
+	 * @return as {@link OWLGraphWrapperEdges#getIncomingEdgesClosure(OWLObject)}
+	 */
+	public Set<OWLGraphEdge> getIncomingEdgesClosure(OWLObject t) {
+		int v = getNodeId(t);
+		if (v < 0) {
+			return new OWLGraphEdgeSet();
+		}
+		int[] closure = incomingClosures.get(v);
+		if (closure == null) {
+			Set<OWLGraphEdge> edges = computeIncomingEdgesClosure(t);
+			incomingClosures.set(v, toPairs(edges, false));
+			return edges;
+		}
+		Set<OWLGraphEdge> edges = new OWLGraphEdgeSet();
+		EdgeLabel[] labels = this.labels;
+		for (int i = 0; i < closure.length; i += 2) {
+			edges.add(createEdge(nodes[closure[i]], t, labels[closure[i + 1]]));
+		}
+		return edges;
+	}
+
+	/**
+	 * @param x
+	 * @return as {@link OWLGraphWrapperEdges#getAncestors(OWLObject)}
+	 */
+	public Set<OWLObject> getAncestors(OWLObject x) {
+		Set<OWLObject> ancs = new HashSet<OWLObject>();
+		for (OWLGraphEdge e : getOutgoingEdgesClosure(x)) {
+			ancs.add(e.getTarget());
+		}
+		return ancs;
+	}
+
+	/**
+	 * @param x
+	 * @return as {@link OWLGraphWrapperEdges#getNamedAncestors(OWLObject)}
+	 */
+	public Set<OWLObject> getNamedAncestors(OWLObject x) {
+		Set<OWLObject> ancs = new HashSet<OWLObject>();
+		for (OWLGraphEdge e : getOutgoingEdgesClosure(x)) {
+			if (e.isTargetNamedObject())
+				ancs.add(e.getTarget());
+		}
+		return ancs;
+	}
+
+	/**
+	 * @param x
+	 * @return as {@link OWLGraphWrapperEdges#getDescendants(OWLObject)}
+	 */
+	public Set<OWLObject> getDescendants(OWLObject x) {
+		Set<OWLObject> descs = new HashSet<OWLObject>();
+		for (OWLGraphEdge e : getIncomingEdgesClosure(x)) {
+			descs.add(e.getSource());
+		}
+		return descs;
+	}
+
+	/**
+	 * Same search as OWLGraphWrapperEdges#computeOutgoingEdgesClosure, over
+	 * the primitive edges of the view.
+	 */
+	private Set<OWLGraphEdge> computeOutgoingEdgesClosure(OWLObject s, Set<? extends OWLPropertyExpression> overProperties) {
+		boolean isIncludeClassExpressions = graph.getConfig().isIncludeClassExpressionsInClosure;
+		Stack<OWLGraphEdge> edgeStack = new Stack<OWLGraphEdge>();
+		Set<OWLGraphEdge> closureSet = new OWLGraphEdgeSet();
+		Map<OWLObject,Set<OWLGraphEdge>> visitedMap = new HashMap<OWLObject,Set<OWLGraphEdge>>();
+		visitedMap.put(s, new OWLGraphEdgeSet());
+
+		edgeStack.addAll(getPrimitiveOutgoingEdges(s, overProperties));
+		closureSet.addAll(edgeStack);
+		while (!edgeStack.isEmpty()) {
+			OWLGraphEdge ne = edgeStack.pop();
+			int nextDist = ne.getDistance() + 1;
+			for (OWLGraphEdge extEdge : getPrimitiveOutgoingEdges(ne.getTarget(), overProperties)) {
+				OWLGraphEdge nu = graph.combineEdgePair(s, ne, extEdge, nextDist);
+				if (nu == null)
+					continue;
+				OWLObject nuTarget = nu.getTarget();
+				boolean isEdgeVisited = false;
+				Set<OWLGraphEdge> visited = visitedMap.get(nuTarget);
+				if (visited != null) {
+					for (OWLGraphEdge ve : visited) {
+						if (ve.getFinalQuantifiedProperty().equals(nu.getFinalQuantifiedProperty())) {
+							isEdgeVisited = true;
+						}
+					}
+					if (!isEdgeVisited) {
+						visited.add(nu);
+					}
+				}
+				else {
+					visited = new OWLGraphEdgeSet();
+					visited.add(nu);
+					visitedMap.put(nuTarget, visited);
+				}
+				if (!isEdgeVisited) {
+					if (nuTarget instanceof OWLNamedObject || isIncludeClassExpressions) {
+						closureSet.add(nu);
+					}
+					edgeStack.add(nu);
+				}
+			}
+		}
+		return closureSet;
+	}
+
+	/**
+	 * Same search as OWLGraphWrapperEdges#computeIncomingEdgesClosure, over
+	 * the primitive edges of the view.
+	 */
+	private Set<OWLGraphEdge> computeIncomingEdgesClosure(OWLObject t) {
+		boolean isIncludeClassExpressions = graph.getConfig().isIncludeClassExpressionsInClosure;
+		Stack<OWLGraphEdge> edgeStack = new Stack<OWLGraphEdge>();
+		Set<OWLGraphEdge> closureSet = new OWLGraphEdgeSet();
+		Map<OWLObject,Set<OWLGraphEdge>> visitedMap = new HashMap<OWLObject,Set<OWLGraphEdge>>();
+		visitedMap.put(t, new OWLGraphEdgeSet());
+
+		edgeStack.addAll(getPrimitiveIncomingEdges(t));
+		closureSet.addAll(edgeStack);
+		while (!edgeStack.isEmpty()) {
+			OWLGraphEdge ne = edgeStack.pop();
+			int nextDist = ne.getDistance() + 1;
+			for (OWLGraphEdge extEdge : getPrimitiveIncomingEdges(ne.getSource())) {
+				OWLGraphEdge nu = graph.combineEdgePair(extEdge.getSource(), extEdge, ne, nextDist);
+				if (nu == null)
+					continue;
+				OWLObject nuSource = nu.getSource();
+				boolean isEdgeVisited = false;
+				Set<OWLGraphEdge> visited = visitedMap.get(nuSource);
+				if (visited != null) {
+					for (OWLGraphEdge ve : visited) {
+						if (ve.getFirstQuantifiedProperty().equals(nu.getFirstQuantifiedProperty())) {
+							// always favor the shorter path
+							if (ve.getQuantifiedPropertyList().size() <= nu.getQuantifiedPropertyList().size()) {
+								isEdgeVisited = true;
+							}
+						}
+					}
+					if (!isEdgeVisited) {
+						visited.add(nu);
+					}
+				}
+				else {
+					visited = new OWLGraphEdgeSet();
+					visited.add(nu);
+					visitedMap.put(nuSource, visited);
+				}
+				if (!isEdgeVisited) {
+					if (nuSource instanceof OWLNamedObject || isIncludeClassExpressions) {
+						closureSet.add(nu);
+					}
+					edgeStack.add(nu);
+				}
+			}
+		}
+		return closureSet;
+	}
+
+	/**
+	 * @param edges
+	 * @param isByTarget
+	 * @return (target, label) pairs if isByTarget, else (source, label) pairs
+	 */
+	private int[] toPairs(Set<OWLGraphEdge> edges, boolean isByTarget) {
+		int[] pairs = new int[edges.size() * 2];
+		int k = 0;
+		for (OWLGraphEdge e : edges) {
+			// closures only reach nodes of the view
+			pairs[k++] = nodeIds.get(isByTarget ? e.getTarget() : e.getSource());
+			pairs[k++] = getLabelId(e);
+		}
+		return pairs;
+	}
+
+	private OWLGraphEdge createEdge(OWLObject s, OWLObject t, EdgeLabel label) {
+		// the list is copied, as callers may modify it
+		OWLGraphEdge e = new OWLGraphEdge(s, t, new Vector<OWLQuantifiedProperty>(label.quantifiedProperties),
+				label.ontology, null, label.gciFiller, label.gciRelation);
+		e.setDistance(label.distance);
+		return e;
+	}
+
+	private int getLabelId(OWLGraphEdge e) {
+		EdgeLabel label = new EdgeLabel(e);
+		synchronized (labelIds) {
+			Integer id = labelIds.get(label);
+			if (id == null) {
+				id = numLabels;
+				EdgeLabel[] current = labels;
+				if (id == current.length) {
+					current = Arrays.copyOf(current, current.length * 2);
+				}
+				current[id] = label;
+				labelIds.put(label, id);
+				numLabels++;
+				labels = current;
+			}
+			return id;
+		}
+	}
+
+	/**
+	 * Everything of an edge but its source, target and axioms
+	 */
+	private static class EdgeLabel {
+		final List<OWLQuantifiedProperty> quantifiedProperties;
+		final OWLOntology ontology;
+		final int distance;
+		final OWLClass gciFiller;
+		final OWLObjectPropertyExpression gciRelation;
+		final int hashCode;
+
+		EdgeLabel(OWLGraphEdge e) {
+			quantifiedProperties = new ArrayList<OWLQuantifiedProperty>(e.getQuantifiedPropertyList());
+			ontology = e.getOntology();
+			distance = e.getDistance();
+			gciFiller = e.getGCIFiller();
+			gciRelation = e.getGCIRelation();
+			hashCode = Arrays.hashCode(new Object[]{quantifiedProperties, ontology, distance, gciFiller, gciRelation});
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof EdgeLabel))
+				return false;
+			EdgeLabel other = (EdgeLabel) obj;
+			return distance == other.distance && ontology == other.ontology &&
+					quantifiedProperties.equals(other.quantifiedProperties) &&
+					isEq(gciFiller, other.gciFiller) && isEq(gciRelation, other.gciRelation);
+		}
+
+		private static boolean isEq(Object a, Object b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+}
@@ -0,0 +1,346 @@
+package owltools.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.semanticweb.owlapi.model.OWLNamedObject;
+import org.semanticweb.owlapi.model.OWLObject;
+import org.semanticweb.owlapi.model.OWLPropertyExpression;
+
+/**
+ * Precomputed reachability over the primitive edges of a graph, optionally
+ * restricted to a set of properties.
+ * <p>
+ * Each node, named or anonymous, has an integer id; for each node the ids
+ * of its ancestors and descendants are stored as sorted arrays. Nodes in
+ * the same cycle share a single ancestor array. This answers
+ * {@link #isReachable(OWLObject, OWLObject)} with a binary search, and
+ * closure queries without creating any {@link OWLGraphEdge}.
+ * <p>
+ * As edge composition only fails for excluded properties, the ancestors are
+ * the same as the targets of {@link OWLGraphWrapperEdges#getOutgoingEdgesClosure(OWLObject, Set)},
+ * unless the graph has an edge include or exclude set, or GCI edges.
+ * <p>
+ * The index is a snapshot; it does not reflect later changes to the ontology.
+ *
+ * @see OWLGraphWrapperEdges#getReachabilityIndex(Set)
+ */
+public class OWLGraphReachabilityIndex {
+
+	private static final Logger LOG = Logger.getLogger(OWLGraphReachabilityIndex.class);
+
+	private final Map<OWLObject,Integer> nodeIds;
+	private final OWLObject[] nodes;
+	// by node id, sorted
+	private final int[][] ancestors;
+	private final int[][] descendants;
+
+	private OWLGraphReachabilityIndex(Map<OWLObject,Integer> nodeIds, OWLObject[] nodes,
+			int[][] ancestors, int[][] descendants) {
+		this.nodeIds = nodeIds;
+		this.nodes = nodes;
+		this.ancestors = ancestors;
+		this.descendants = descendants;
+	}
+
+	/**
+	 * @param g
+	 * @param overProperties - only follow edges over these properties, and subclass
+	 * and instance edges; if null, follow all edges
+	 * @return index of all objects of the graph, and the class expressions reachable from them
+	 */
+	public static OWLGraphReachabilityIndex create(OWLGraphWrapperEdges g,
+			Set<? extends OWLPropertyExpression> overProperties) {
+		long t = System.currentTimeMillis();
+
+		// assign ids, starting with all named objects, as in OWLGraphWrapperEdges#cacheEdges()
+		Map<OWLObject,Integer> nodeIds = new HashMap<OWLObject,Integer>();
+		List<OWLObject> nodeList = new ArrayList<OWLObject>();
+		for (OWLObject obj : g.getAllOWLObjects()) {
+			nodeIds.put(obj, nodeList.size());
+			nodeList.add(obj);
+		}
+		List<int[]> successorList = new ArrayList<int[]>();
+		for (int v = 0; v < nodeList.size(); v++) {
+			Set<OWLGraphEdge> edges = g.getPrimitiveOutgoingEdges(nodeList.get(v), overProperties);
+			int[] succ = new int[edges.size()];
+			int n = 0;
+			for (OWLGraphEdge e : edges) {
+				OWLObject target = e.getTarget();
+				Integer w = nodeIds.get(target);
+				if (w == null) {
+					// class expressions are added as they are found
+					w = nodeList.size();
+					nodeIds.put(target, w);
+					nodeList.add(target);
+				}
+				succ[n++] = w;
+			}
+			successorList.add(unique(succ, n));
+		}
+		int size = nodeList.size();
+		int[][] successors = successorList.toArray(new int[size][]);
+
+		int[][] ancestors = computeAncestors(successors);
+		int[][] descendants = invert(ancestors);
+		OWLGraphReachabilityIndex index = new OWLGraphReachabilityIndex(nodeIds,
+				nodeList.toArray(new OWLObject[size]), ancestors, descendants);
+		LOG.info("Reachability index: "+size+" nodes, "+index.getNumberOfPairs()+
+				" reachable pairs, ms = "+(System.currentTimeMillis() - t));
+		return index;
+	}
+
+	private static int[] unique(int[] a, int n) {
+		Arrays.sort(a, 0, n);
+		int m = 0;
+		for (int k = 0; k < n; k++) {
+			if (m == 0 || a[m - 1] != a[k])
+				a[m++] = a[k];
+		}
+		return m == a.length ? a : Arrays.copyOf(a, m);
+	}
+
+	/**
+	 * Finds the strongly connected components with Tarjan's algorithm, without
+	 * recursion. A component is completed after all components reachable from
+	 * it, so the ancestors of each component can be computed from the ancestors
+	 * of its successors as it is completed.
+	 */
+	private static int[][] computeAncestors(int[][] successors) {
+		int size = successors.length;
+		int[][] ancestors = new int[size][];
+		int[] index = new int[size];
+		int[] lowLink = new int[size];
+		Arrays.fill(index, -1);
+		boolean[] isOnStack = new boolean[size];
+		int[] componentStack = new int[size];
+		int componentStackSize = 0;
+		// depth-first search state: node and position in its successors
+		int[] callStack = new int[size];
+		int[] callPosition = new int[size];
+		int nextIndex = 0;
+
+		// scratch space for the ancestors of one component
+		int[] mark = new int[size];
+		int[] touched = new int[size];
+		int componentNumber = 0;
+
+		for (int root = 0; root < size; root++) {
+			if (index[root] >= 0)
+				continue;
+			int depth = 0;
+			callStack[0] = root;
+			callPosition[0] = 0;
+			index[root] = lowLink[root] = nextIndex++;
+			componentStack[componentStackSize++] = root;
+			isOnStack[root] = true;
+			while (depth >= 0) {
+				int v = callStack[depth];
+				if (callPosition[depth] < successors[v].length) {
+					int w = successors[v][callPosition[depth]++];
+					if (index[w] < 0) {
+						index[w] = lowLink[w] = nextIndex++;
+						componentStack[componentStackSize++] = w;
+						isOnStack[w] = true;
+						depth++;
+						callStack[depth] = w;
+						callPosition[depth] = 0;
+					}
+					else if (isOnStack[w]) {
+						lowLink[v] = Math.min(lowLink[v], index[w]);
+					}
+					continue;
+				}
+				// all successors of v visited
+				if (lowLink[v] == index[v]) {
+					// pop the component of v
+					int first = componentStackSize;
+					do {
+						first--;
+						isOnStack[componentStack[first]] = false;
+					} while (componentStack[first] != v);
+					componentNumber++;
+					int n = 0;
+					boolean isCyclic = componentStackSize - first > 1;
+					for (int k = first; k < componentStackSize; k++) {
+						// members are marked first, so that they are only added if cyclic
+						mark[componentStack[k]] = -componentNumber;
+					}
+					for (int k = first; k < componentStackSize; k++) {
+						for (int w : successors[componentStack[k]]) {
+							if (mark[w] == -componentNumber) {
+								isCyclic = true;
+								continue;
+							}
+							// once added, the ancestors of w have been added too
+							if (mark[w] == componentNumber)
+								continue;
+							mark[w] = componentNumber;
+							touched[n++] = w;
+							for (int a : ancestors[w]) {
+								if (mark[a] != componentNumber && mark[a] != -componentNumber) {
+									mark[a] = componentNumber;
+									touched[n++] = a;
+								}
+							}
+						}
+					}
+					if (isCyclic) {
+						for (int k = first; k < componentStackSize; k++) {
+							touched[n++] = componentStack[k];
+						}
+					}
+					int[] componentAncestors = Arrays.copyOf(touched, n);
+					Arrays.sort(componentAncestors);
+					for (int k = first; k < componentStackSize; k++) {
+						ancestors[componentStack[k]] = componentAncestors;
+					}
+					componentStackSize = first;
+				}
+				depth--;
+				if (depth >= 0) {
+					int parent = callStack[depth];
+					lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+				}
+			}
+		}
+		return ancestors;
+	}
+
+	private static int[][] invert(int[][] ancestors) {
+		int size = ancestors.length;
+		int[] n = new int[size];
+		for (int[] ancs : ancestors) {
+			for (int a : ancs) {
+				n[a]++;
+			}
+		}
+		int[][] descendants = new int[size][];
+		for (int v = 0; v < size; v++) {
+			descendants[v] = new int[n[v]];
+		}
+		Arrays.fill(n, 0);
+		// filled in increasing order of descendant
+		for (int v = 0; v < size; v++) {
+			for (int a : ancestors[v]) {
+				descendants[a][n[a]++] = v;
+			}
+		}
+		return descendants;
+	}
+
+	/**
+	 * @return number of nodes
+	 */
+	public int getNumberOfNodes() {
+		return nodes.length;
+	}
+
+	/**
+	 * @return number of (node, ancestor) pairs
+	 */
+	public long getNumberOfPairs() {
+		long n = 0;
+		for (int[] ds : descendants) {
+			n += ds.length;
+		}
+		return n;
+	}
+
+	/**
+	 * @param x
+	 * @return id of x, or -1 if x is not in the index
+	 */
+	public int getNodeId(OWLObject x) {
+		Integer id = nodeIds.get(x);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @param id
+	 * @return node with this id
+	 */
+	public OWLObject getNode(int id) {
+		return nodes[id];
+	}
+
+	/**
+	 * @param id
+	 * @return ids of the ancestors of the node, in increasing order
+	 */
+	public int[] getAncestorIds(int id) {
+		return ancestors[id].clone();
+	}
+
+	/**
+	 * @param id
+	 * @return ids of the descendants of the node, in increasing order
+	 */
+	public int[] getDescendantIds(int id) {
+		return descendants[id].clone();
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return true if there is a path of at least one edge from x to y
+	 */
+	public boolean isReachable(OWLObject x, OWLObject y) {
+		int xid = getNodeId(x);
+		int yid = getNodeId(y);
+		if (xid < 0 || yid < 0)
+			return false;
+		return Arrays.binarySearch(ancestors[xid], yid) >= 0;
+	}
+
+	/**
+	 * @param x
+	 * @return all nodes that can be reached from x; empty if x is not in the index
+	 */
+	public Set<OWLObject> getAncestors(OWLObject x) {
+		return getNodes(x, ancestors, false);
+	}
+
+	/**
+	 * @param x
+	 * @return as {@link #getAncestors(OWLObject)}, excluding class expressions
+	 */
+	public Set<OWLObject> getNamedAncestors(OWLObject x) {
+		return getNodes(x, ancestors, true);
+	}
+
+	/**
+	 * @param x
+	 * @return all nodes from which x can be reached; empty if x is not in the index
+	 */
+	public Set<OWLObject> getDescendants(OWLObject x) {
+		return getNodes(x, descendants, false);
+	}
+
+	/**
+	 * @param x
+	 * @return as {@link #getDescendants(OWLObject)}, excluding class expressions
+	 */
+	public Set<OWLObject> getNamedDescendants(OWLObject x) {
+		return getNodes(x, descendants, true);
+	}
+
+	private Set<OWLObject> getNodes(OWLObject x, int[][] ids, boolean isNamedOnly) {
+		int xid = getNodeId(x);
+		if (xid < 0)
+			return Collections.emptySet();
+		Set<OWLObject> objs = new HashSet<OWLObject>();
+		for (int id : ids[xid]) {
+			if (!isNamedOnly || nodes[id] instanceof OWLNamedObject)
+				objs.add(nodes[id]);
+		}
+		return objs;
+	}
+}
@@ -96,6 +96,7 @@ public class OWLGraphWrapperBasic {
 		mergeOntology(extOnt);
 		if (isRemoveFromSupportList) {
 			this.supportOntologySet.remove(extOnt);
+			ontologySetChanged();
 		}
 	}
 
@@ -111,6 +112,7 @@ public class OWLGraphWrapperBasic {
 		mergeOntology(extOnt);
 		if (isRemoveFromSupportList) {
 			this.supportOntologySet.remove(extOnt);
+			ontologySetChanged();
 		}
 	}
 
@@ -129,6 +131,7 @@ public class OWLGraphWrapperBasic {
 
 	public void setSourceOntology(OWLOntology sourceOntology) {
 		this.sourceOntology = sourceOntology;
+		ontologySetChanged();
 	}
 
 	/**
@@ -144,13 +147,25 @@ public class OWLGraphWrapperBasic {
 
 	public void setSupportOntologySet(Set<OWLOntology> supportOntologySet) {
 		this.supportOntologySet = supportOntologySet;
+		ontologySetChanged();
 	}
 
 	public void addSupportOntology(OWLOntology o) {
 		this.supportOntologySet.add(o);
+		ontologySetChanged();
 	}
 	public void removeSupportOntology(OWLOntology o) {
 		this.supportOntologySet.remove(o);
+		ontologySetChanged();
+	}
+
+	/**
+	 * Called whenever the source ontology or the set of support ontologies
+	 * is replaced or changed through this wrapper; changes made directly to
+	 * the set returned by {@link #getSupportOntologySet()} are not reported.
+	 */
+	protected void ontologySetChanged() {
+		// nothing to do
 	}
 
 	/**
@@ -207,6 +222,7 @@ public class OWLGraphWrapperBasic {
 		addSupportOntologiesFromImportsClosure();
 		OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
 		sourceOntology = manager.createOntology(sourceOntology.getAxioms(), ontologyIRI);
+		ontologySetChanged();
 	}
 
 	/**
@@ -10,6 +10,12 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.obolibrary.obo2owl.Obo2Owl;
@@ -73,10 +79,32 @@ public class OWLGraphWrapperEdges extends OWLGraphWrapperExtended {
 	OWLReasoner reasoner = null;
 	Config config = new Config();
 
-	private Map<OWLObject,Set<OWLGraphEdge>> edgeBySource = null;
-	private Map<OWLObject,Set<OWLGraphEdge>> edgeByTarget = null;
-	public Map<OWLObject,Set<OWLGraphEdge>> inferredEdgeBySource = null; // public to serialize
-	private Map<OWLObject,Set<OWLGraphEdge>> inferredEdgeByTarget = null;
+	// primitive edges; built in one go by cacheEdges(), and replaced rather than modified
+	private volatile Map<OWLObject,Set<OWLGraphEdge>> edgeBySource = null;
+	private volatile Map<OWLObject,Set<OWLGraphEdge>> edgeByTarget = null;
+
+	// closure cache statistics; hits and misses of outgoing closures only, with or without a property set
+	private final AtomicLong closureCacheHits = new AtomicLong();
+	private final AtomicLong closureCacheMisses = new AtomicLong();
+	private final AtomicLong closureCacheEvictions = new AtomicLong();
+	private final AtomicLong closureCacheLoadTime = new AtomicLong();
+
+	// closure caches; may be read and filled by several threads
+	public volatile Map<OWLObject,Set<OWLGraphEdge>> inferredEdgeBySource = createClosureCache(); // public to serialize
+	private volatile Map<OWLObject,Set<OWLGraphEdge>> inferredEdgeByTarget = createClosureCache();
+	// closures being computed, so that each is only computed once
+	private final ConcurrentMap<OWLObject,FutureTask<Set<OWLGraphEdge>>> pendingEdgeBySource =
+			new ConcurrentHashMap<OWLObject,FutureTask<Set<OWLGraphEdge>>>();
+	private final ConcurrentMap<OWLObject,FutureTask<Set<OWLGraphEdge>>> pendingEdgeByTarget =
+			new ConcurrentHashMap<OWLObject,FutureTask<Set<OWLGraphEdge>>>();
+	// outgoing closures over a set of properties, by property set
+	private volatile ConcurrentMap<Set<OWLPropertyExpression>,PropertySetClosureCache> closureCacheByPropertySet =
+			new ConcurrentHashMap<Set<OWLPropertyExpression>,PropertySetClosureCache>();
+	// reachability indices, built on first use
+	private volatile OWLGraphReachabilityIndex reachabilityIndex = null;
+	private volatile ConcurrentMap<Set<OWLPropertyExpression>,OWLGraphReachabilityIndex> reachabilityIndexByPropertySet =
+			new ConcurrentHashMap<Set<OWLPropertyExpression>,OWLGraphReachabilityIndex>();
+	private final Object reachabilityIndexMutex = new Object();
 
 	// used to store mappings child->parent, where
 	// parent = UnionOf( ..., child, ...)
@@ -86,8 +114,9 @@ public class OWLGraphWrapperEdges extends OWLGraphWrapperExtended {
     // parent = UnionOf( ..., child, ...)
 	// we store the OWLGraphEdges outgoing from the child, rather than simply the parents, 
 	// to be able to store the underlying OWLEquivalentClassesAxioms. 
-	private Map<OWLObject, Set<OWLGraphEdge>> extraSubClassOfEdges = null;
+	private volatile Map<OWLObject, Set<OWLGraphEdge>> extraSubClassOfEdges = null;
 
+	// only held while building the primitive edge caches
 	private final Object edgeCacheMutex = new Object();
 	
 	protected Profiler profiler = new Profiler();
@@ -106,6 +135,10 @@ public class OWLGraphWrapperEdges extends OWLGraphWrapperExtended {
 		public boolean isFollowComplementOfInClosure = false;
 
 		public boolean isCacheClosure = true;
+		// bounds of each closure cache, 0 for no bound; see OWLGraphClosureCache
+		public int closureCacheMaxEntries = 0;
+		public long closureCacheMaxEdges = 0;
+		public OWLGraphClosureCache.Eviction closureCacheEviction = OWLGraphClosureCache.Eviction.LRU;
 		public boolean isMonitorMemory = false;
 
 		// if set to non-null, this constrains graph traversal. TODO
@@ -286,21 +319,24 @@ public class OWLGraphWrapperEdges extends OWLGraphWrapperExtended {
 	 *                 the reversed {@code OWLObjectUnionOf}s.
 	 */
 	private Set<OWLGraphEdge> getOutgoingEdgesViaReverseUnion(OWLObject child) {
-		synchronized (edgeCacheMutex) {
-			if (extraSubClassOfEdges == null)
-				cacheReverseUnionMap();
-			
-			if (extraSubClassOfEdges.containsKey(child)) 
-			    return new OWLGraphEdgeSet(extraSubClassOfEdges.get(child));
-			
-		    return new OWLGraphEdgeSet();
+		Map<OWLObject, Set<OWLGraphEdge>> extraEdges = extraSubClassOfEdges;
+		if (extraEdges == null) {
+			synchronized (edgeCacheMutex) {
+				if (extraSubClassOfEdges == null)
+					cacheReverseUnionMap();
+				extraEdges = extraSubClassOfEdges;
+			}
 		}
+		if (extraEdges.containsKey(child)) 
+		    return new OWLGraphEdgeSet(extraEdges.get(child));
+		
+	    return new OWLGraphEdgeSet();
 	}
 
 
 	private void cacheReverseUnionMap() {
 		synchronized (edgeCacheMutex) {
-			extraSubClassOfEdges = new HashMap<OWLObject, Set<OWLGraphEdge>>();
+			Map<OWLObject, Set<OWLGraphEdge>> extraSubClassOfEdges = new HashMap<OWLObject, Set<OWLGraphEdge>>();
 			for (OWLOntology o : getAllOntologies()) {
 				for (OWLClass cls : o.getClassesInSignature()) {
 					for (OWLEquivalentClassesAxiom eca : o.getEquivalentClassesAxioms(cls)) {
@@ -318,6 +354,7 @@ public class OWLGraphWrapperEdges extends OWLGraphWrapperExtended {
 					}
 				}
 			}
+			this.extraSubClassOfEdges = extraSubClassOfEdges;
 		}
 	}
 
@@ -602,8 +639,9 @@ public class OWLGraphWrapperEdges extends OWLGraphWrapperExtended {
 	 */
 	public void cacheEdges() {
 		synchronized (edgeCacheMutex) {
-			edgeBySource = new HashMap<OWLObject,Set<OWLGraphEdge>>();
-			edgeByTarget = new HashMap<OWLObject,Set<OWLGraphEdge>>();
+			// readers see either the previous maps or the complete new ones
+			Map<OWLObject,Set<OWLGraphEdge>> edgeBySource = new HashMap<OWLObject,Set<OWLGraphEdge>>();
+			Map<OWLObject,Set<OWLGraphEdge>> edgeByTarget = new HashMap<OWLObject,Set<OWLGraphEdge>>();
 	
 			// initialize with all named objects in ontology
 			Stack<OWLObject> allObjs = new Stack<OWLObject>();
@@ -633,6 +671,8 @@ public class OWLGraphWrapperEdges extends OWLGraphWrapperExtended {
 					}
 				}
 			}
+			this.edgeBySource = edgeBySource;
+			this.edgeByTarget = edgeByTarget;
 		}
 	}
 	
@@ -646,10 +686,16 @@ public class OWLGraphWrapperEdges extends OWLGraphWrapperExtended {
 		synchronized (edgeCacheMutex) {
 			edgeBySource = null;
 			edgeByTarget = null;
-			inferredEdgeBySource = null;
-			inferredEdgeByTarget = null;
+			// closures still being computed are stored in the discarded maps
+			inferredEdgeBySource = createClosureCache();
+			inferredEdgeByTarget = createClosureCache();
+			closureCacheByPropertySet = new ConcurrentHashMap<Set<OWLPropertyExpression>,PropertySetClosureCache>();
 			extraSubClassOfEdges = null;
 		}
+		synchronized (reachabilityIndexMutex) {
+			reachabilityIndex = null;
+			reachabilityIndexByPropertySet = new ConcurrentHashMap<Set<OWLPropertyExpression>,OWLGraphReachabilityIndex>();
+		}
 	}
 
 	/**
@@ -657,7 +703,7 @@ public class OWLGraphWrapperEdges extends OWLGraphWrapperExtended {
 	 * @return all edges that have t as a direct target
 	 */
 	public Set<OWLGraphEdge> getIncomingEdges(OWLObject t) {
-		ensureEdgesCached();
+		Map<OWLObject,Set<OWLGraphEdge>> edgeByTarget = getCachedEdgesByTarget();
 		if (edgeByTarget.containsKey(t)) {
 			HashSet<OWLGraphEdge> edges = new OWLGraphEdgeSet();
 			for (OWLGraphEdge e :edgeByTarget.get(t)) {
@@ -670,7 +716,7 @@ public class OWLGraphWrapperEdges extends OWLGraphWrapperExtended {
 	}
 
 	public Set<OWLGraphEdge> getPrimitiveIncomingEdges(OWLObject t) {
-		ensureEdgesCached();
+		Map<OWLObject,Set<OWLGraphEdge>> edgeByTarget = getCachedEdgesByTarget();
 		if (edgeByTarget.containsKey(t)) {
 			return new OWLGraphEdgeSet(edgeByTarget.get(t));
 		}
@@ -678,15 +724,233 @@ public class OWLGraphWrapperEdges extends OWLGraphWrapperExtended {
 		return new OWLGraphEdgeSet();
 	}
 
-	private void ensureEdgesCached() {
-		boolean buildCache = false;
-		synchronized (edgeCacheMutex) {
-			buildCache = (edgeByTarget == null || edgeBySource == null);
+	private Map<OWLObject,Set<OWLGraphEdge>> getCachedEdgesByTarget() {
+		Map<OWLObject,Set<OWLGraphEdge>> edges = edgeByTarget;
+		if (edges == null) {
+			synchronized (edgeCacheMutex) {
+				if (edgeByTarget == null) {
+					cacheEdges();
+				}
+				edges = edgeByTarget;
+			}
+		}
+		return edges;
+	}
+
+	/**
+	 * Returns the cached closure for key, computing it if required. The
+	 * closure of a given key is only computed once, even if requested by
+	 * several threads at the same time; other keys are computed concurrently.
+	 * 
+	 * @param key
+	 * @param cache
+	 * @param pending - closures currently being computed
+	 * @param computation
+	 * @param hits - incremented if the closure is not computed by this call; may be null
+	 * @param misses - incremented if the closure is computed by this call; may be null
+	 * @return copy of the closure
+	 */
+	private Set<OWLGraphEdge> getCachedClosure(OWLObject key, Map<OWLObject,Set<OWLGraphEdge>> cache,
+			ConcurrentMap<OWLObject,FutureTask<Set<OWLGraphEdge>>> pending,
+			Callable<Set<OWLGraphEdge>> computation, AtomicLong hits, AtomicLong misses) {
+		Set<OWLGraphEdge> edges = cache.get(key);
+		boolean isComputed = false;
+		if (edges == null) {
+			FutureTask<Set<OWLGraphEdge>> task = new FutureTask<Set<OWLGraphEdge>>(computation);
+			FutureTask<Set<OWLGraphEdge>> existing = pending.putIfAbsent(key, task);
+			if (existing == null) {
+				try {
+					// may have been completed since the first lookup
+					edges = cache.get(key);
+					if (edges == null) {
+						isComputed = true;
+						long t = System.nanoTime();
+						task.run();
+						edges = getClosureResult(task);
+						closureCacheLoadTime.addAndGet(System.nanoTime() - t);
+						cache.put(key, edges);
+					}
+				}
+				finally {
+					pending.remove(key, task);
+				}
+			}
+			else {
+				edges = getClosureResult(existing);
+			}
+		}
+		AtomicLong counter = isComputed ? misses : hits;
+		if (counter != null)
+			counter.incrementAndGet();
+		return new OWLGraphEdgeSet(edges);
+	}
+
+	/**
+	 * Outgoing closures over one set of properties
+	 */
+	private static class PropertySetClosureCache {
+		final Map<OWLObject,Set<OWLGraphEdge>> edgeBySource;
+		final ConcurrentMap<OWLObject,FutureTask<Set<OWLGraphEdge>>> pendingEdgeBySource =
+				new ConcurrentHashMap<OWLObject,FutureTask<Set<OWLGraphEdge>>>();
+
+		PropertySetClosureCache(Map<OWLObject,Set<OWLGraphEdge>> edgeBySource) {
+			this.edgeBySource = edgeBySource;
+		}
+	}
+
+	private Map<OWLObject,Set<OWLGraphEdge>> createClosureCache() {
+		return new OWLGraphClosureCache(this, closureCacheEvictions);
+	}
+
+	/**
+	 * Sets are equal regardless of their implementation and order, so a
+	 * copy is only made the first time a property set is seen; the copy
+	 * guards the key against later changes to the caller's set.
+	 * 
+	 * @param overProperties
+	 * @return closure cache for the property set
+	 */
+	private PropertySetClosureCache getPropertySetClosureCache(Set<? extends OWLPropertyExpression> overProperties) {
+		ConcurrentMap<Set<OWLPropertyExpression>,PropertySetClosureCache> caches = closureCacheByPropertySet;
+		PropertySetClosureCache cache = caches.get(overProperties);
+		if (cache == null) {
+			Set<OWLPropertyExpression> key =
+					Collections.unmodifiableSet(new HashSet<OWLPropertyExpression>(overProperties));
+			cache = new PropertySetClosureCache(createClosureCache());
+			PropertySetClosureCache existing = caches.putIfAbsent(key, cache);
+			if (existing != null)
+				cache = existing;
 		}
-		if (buildCache) {
-			cacheEdges();
+		return cache;
+	}
+
+	/**
+	 * @return number of outgoing closure requests served from the closure
+	 * caches, with or without a property set
+	 * @see #getOutgoingEdgesClosure(OWLObject, Set)
+	 */
+	public long getClosureCacheHits() {
+		return closureCacheHits.get();
+	}
+
+	/**
+	 * @return number of outgoing closures computed and added to the closure
+	 * caches, with or without a property set
+	 * @see #getOutgoingEdgesClosure(OWLObject, Set)
+	 */
+	public long getClosureCacheMisses() {
+		return closureCacheMisses.get();
+	}
+
+	/**
+	 * @return number of closures evicted from the closure caches
+	 * @see Config#closureCacheMaxEntries
+	 * @see Config#closureCacheMaxEdges
+	 */
+	public long getClosureCacheEvictions() {
+		return closureCacheEvictions.get();
+	}
+
+	/**
+	 * @return time in milliseconds spent computing closures for the closure
+	 * caches, in all threads
+	 */
+	public long getClosureCacheLoadTime() {
+		return closureCacheLoadTime.get() / 1000000;
+	}
+
+	/**
+	 * @return number of edges of all cached closures, which is a measure of
+	 * the memory used by the closure caches
+	 */
+	public long getCachedClosureEdgeCount() {
+		long n = 0;
+		List<Map<OWLObject,Set<OWLGraphEdge>>> caches = new ArrayList<Map<OWLObject,Set<OWLGraphEdge>>>();
+		caches.add(inferredEdgeBySource);
+		caches.add(inferredEdgeByTarget);
+		for (PropertySetClosureCache cache : closureCacheByPropertySet.values()) {
+			caches.add(cache.edgeBySource);
+		}
+		for (Map<OWLObject,Set<OWLGraphEdge>> cache : caches) {
+			if (cache instanceof OWLGraphClosureCache) {
+				n += ((OWLGraphClosureCache) cache).getNumberOfEdges();
+			}
+			else if (cache != null) {
+				// restored from a file
+				for (Set<OWLGraphEdge> edges : cache.values()) {
+					n += edges.size();
+				}
+			}
 		}
+		return n;
+	}
 
+	/**
+	 * Sets the closure cache statistics as counters of the profiler, so that
+	 * they are included in {@link Profiler#report()}; the load time is in
+	 * milliseconds.
+	 * 
+	 * @see #getProfiler()
+	 */
+	public void updateClosureCacheCounters() {
+		profiler.setCounter("closureCacheHits", getClosureCacheHits());
+		profiler.setCounter("closureCacheMisses", getClosureCacheMisses());
+		profiler.setCounter("closureCacheEvictions", getClosureCacheEvictions());
+		profiler.setCounter("closureCacheEdges", getCachedClosureEdgeCount());
+		profiler.setCounter("closureCacheLoadTime", getClosureCacheLoadTime());
+	}
+
+	/**
+	 * Sets the loader of outgoing closures without a property set, such as a
+	 * closure snapshot. Loaded closures are cached within the bounds of the
+	 * closure cache. The loader is discarded by {@link #clearCachedEdges()}.
+	 * 
+	 * @param loader
+	 * @see OWLGraphClosureCache#setLoader(OWLGraphClosureCache.Loader)
+	 */
+	public void setOutgoingClosureLoader(OWLGraphClosureCache.Loader loader) {
+		synchronized (edgeCacheMutex) {
+			if (!(inferredEdgeBySource instanceof OWLGraphClosureCache)) {
+				// restored from a file into an unbounded map
+				Map<OWLObject,Set<OWLGraphEdge>> cache = createClosureCache();
+				if (inferredEdgeBySource != null) {
+					cache.putAll(inferredEdgeBySource);
+				}
+				inferredEdgeBySource = cache;
+			}
+			((OWLGraphClosureCache) inferredEdgeBySource).setLoader(loader);
+		}
+	}
+
+	/**
+	 * @return property sets that currently have an outgoing closure cache
+	 */
+	public Set<Set<OWLPropertyExpression>> getCachedClosurePropertySets() {
+		return Collections.unmodifiableSet(closureCacheByPropertySet.keySet());
+	}
+
+	private Set<OWLGraphEdge> getClosureResult(FutureTask<Set<OWLGraphEdge>> task) {
+		boolean isInterrupted = false;
+		try {
+			while (true) {
+				try {
+					return task.get();
+				} catch (InterruptedException e) {
+					// the closure is needed regardless; keep waiting
+					isInterrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		} finally {
+			if (isInterrupted)
+				Thread.currentThread().interrupt();
+		}
 	}
 
 
@@ -802,101 +1066,113 @@ public class OWLGraphWrapperEdges extends OWLGraphWrapperExtended {
 	 * and there exists a property chain Q o R --> P, then be sure to include Q and R in
 	 * the specified set
 	 * 
+	 * If closures are cached, there is a separate cache for each distinct
+	 * set of properties.
+	 * 
 	 * @param s
 	 * @param overProperties
 	 * @return
 	 */
-	public Set<OWLGraphEdge> getOutgoingEdgesClosure(OWLObject s, Set<? extends OWLPropertyExpression> overProperties) {
-		synchronized (edgeCacheMutex) {
-			// never use cache if a property list is specified (in future we may have one
-			// cache per property set)
-			if (config.isCacheClosure && overProperties == null) {
-				if (inferredEdgeBySource == null)
-					inferredEdgeBySource = new HashMap<OWLObject,Set<OWLGraphEdge>>();
-				if (inferredEdgeBySource.containsKey(s)) {
-					return new OWLGraphEdgeSet(inferredEdgeBySource.get(s));
-				}
-			}
-			profiler.startTaskNotify("getOutgoingEdgesClosure");
+	public Set<OWLGraphEdge> getOutgoingEdgesClosure(final OWLObject s, final Set<? extends OWLPropertyExpression> overProperties) {
+		if (!config.isCacheClosure) {
+			return computeOutgoingEdgesClosure(s, overProperties);
+		}
+		if (overProperties == null) {
+			return getCachedClosure(s, inferredEdgeBySource, pendingEdgeBySource,
+					new Callable<Set<OWLGraphEdge>>() {
+						@Override
+						public Set<OWLGraphEdge> call() {
+							return computeOutgoingEdgesClosure(s, null);
+						}
+					}, closureCacheHits, closureCacheMisses);
+		}
+		PropertySetClosureCache cache = getPropertySetClosureCache(overProperties);
+		return getCachedClosure(s, cache.edgeBySource, cache.pendingEdgeBySource,
+				new Callable<Set<OWLGraphEdge>>() {
+					@Override
+					public Set<OWLGraphEdge> call() {
+						return computeOutgoingEdgesClosure(s, overProperties);
+					}
+				}, closureCacheHits, closureCacheMisses);
+	}
+
+	private Set<OWLGraphEdge> computeOutgoingEdgesClosure(OWLObject s, Set<? extends OWLPropertyExpression> overProperties) {
+		profiler.startTaskNotify("getOutgoingEdgesClosure");
 	
-			Stack<OWLGraphEdge> edgeStack = new Stack<OWLGraphEdge>();
-			Set<OWLGraphEdge> closureSet = new OWLGraphEdgeSet();
-			//Set<OWLGraphEdge> visitedSet = new HashSet<OWLGraphEdge>();
-			Set<OWLObject> visitedObjs = new HashSet<OWLObject>();
-			Map<OWLObject,Set<OWLGraphEdge>> visitedMap = new HashMap<OWLObject,Set<OWLGraphEdge>>();
-			visitedObjs.add(s);
-			visitedMap.put(s, new OWLGraphEdgeSet());
+		Stack<OWLGraphEdge> edgeStack = new Stack<OWLGraphEdge>();
+		Set<OWLGraphEdge> closureSet = new OWLGraphEdgeSet();
+		//Set<OWLGraphEdge> visitedSet = new HashSet<OWLGraphEdge>();
+		Set<OWLObject> visitedObjs = new HashSet<OWLObject>();
+		Map<OWLObject,Set<OWLGraphEdge>> visitedMap = new HashMap<OWLObject,Set<OWLGraphEdge>>();
+		visitedObjs.add(s);
+		visitedMap.put(s, new OWLGraphEdgeSet());
 	
-			// initialize. we seed the search with a reflexive identity edge DEPR
-			//edgeStack.add(new OWLGraphEdge(s,s,null,Quantifier.IDENTITY,ontology));
+		// initialize. we seed the search with a reflexive identity edge DEPR
+		//edgeStack.add(new OWLGraphEdge(s,s,null,Quantifier.IDENTITY,ontology));
 	
-			// seed stack
-			edgeStack.addAll(getPrimitiveOutgoingEdges(s, overProperties));
-			closureSet.addAll(edgeStack);
-			while (!edgeStack.isEmpty()) {
-				OWLGraphEdge ne = edgeStack.pop();
-				//System.out.println("NEXT: "+ne+" //stack: "+edgeStack);
-				int nextDist = ne.getDistance() + 1;
-				Set<OWLGraphEdge> extSet = getPrimitiveOutgoingEdges(ne.getTarget(), overProperties);
-				for (OWLGraphEdge extEdge : extSet) {
-					//System.out.println("   EXT:"+extEdge);
-					OWLGraphEdge nu = combineEdgePair(s, ne, extEdge, nextDist);
-					if (nu == null)
-						continue;
-					//if (!isKeepEdge(nu))
-					//	continue;
+		// seed stack
+		edgeStack.addAll(getPrimitiveOutgoingEdges(s, overProperties));
+		closureSet.addAll(edgeStack);
+		while (!edgeStack.isEmpty()) {
+			OWLGraphEdge ne = edgeStack.pop();
+			//System.out.println("NEXT: "+ne+" //stack: "+edgeStack);
+			int nextDist = ne.getDistance() + 1;
+			Set<OWLGraphEdge> extSet = getPrimitiveOutgoingEdges(ne.getTarget(), overProperties);
+			for (OWLGraphEdge extEdge : extSet) {
+				//System.out.println("   EXT:"+extEdge);
+				OWLGraphEdge nu = combineEdgePair(s, ne, extEdge, nextDist);
+				if (nu == null)
+					continue;
+				//if (!isKeepEdge(nu))
+				//	continue;
 	
-					OWLObject nuTarget = nu.getTarget();
-					//System.out.println("     COMBINED:"+nu);
+				OWLObject nuTarget = nu.getTarget();
+				//System.out.println("     COMBINED:"+nu);
 	
-					// check for cycles. this is not as simple as
-					// checking if we have visited the node, as we are interested
-					// in different paths to the same node.
-					// todo - check if there is an existing path to this node
-					//  that is shorter
-					//if (!visitedSet.contains(nu)) {
-					boolean isEdgeVisited = false;
-					if (visitedObjs.contains(nuTarget)) {
-						// we have potentially visited this edge before
-						//System.out.println("checking to see if  visisted "+nu);
-						//System.out.println(nu.getFinalQuantifiedProperty());
-						for (OWLGraphEdge ve : visitedMap.get(nuTarget)) {
-							//System.out.println(" ve:"+ve.getFinalQuantifiedProperty());
-							if (ve.getFinalQuantifiedProperty().equals(nu.getFinalQuantifiedProperty())) {
-								//System.out.println("already visited: "+nu+" via: "+ve);
-								isEdgeVisited = true;
-							}
-						}
-						if (!isEdgeVisited) {
-						    visitedMap.get(nuTarget).add(nu);
+				// check for cycles. this is not as simple as
+				// checking if we have visited the node, as we are interested
+				// in different paths to the same node.
+				// todo - check if there is an existing path to this node
+				//  that is shorter
+				//if (!visitedSet.contains(nu)) {
+				boolean isEdgeVisited = false;
+				if (visitedObjs.contains(nuTarget)) {
+					// we have potentially visited this edge before
+					//System.out.println("checking to see if  visisted "+nu);
+					//System.out.println(nu.getFinalQuantifiedProperty());
+					for (OWLGraphEdge ve : visitedMap.get(nuTarget)) {
+						//System.out.println(" ve:"+ve.getFinalQuantifiedProperty());
+						if (ve.getFinalQuantifiedProperty().equals(nu.getFinalQuantifiedProperty())) {
+							//System.out.println("already visited: "+nu+" via: "+ve);
+							isEdgeVisited = true;
 						}
 					}
-					else {
-						visitedObjs.add(nuTarget);
-						visitedMap.put(nuTarget, new OWLGraphEdgeSet());
-						visitedMap.get(nuTarget).add(nu);
-					}
-	
 					if (!isEdgeVisited) {
-						//System.out.println("      *NOT VISITED:"+nu+" visistedSize:"+visitedSet.size());
-						if (nu.getTarget() instanceof OWLNamedObject || 
-								config.isIncludeClassExpressionsInClosure) {
-						    closureSet.add(nu);
-						}
-						edgeStack.add(nu);
-						//visitedSet.add(nu);		
+					    visitedMap.get(nuTarget).add(nu);
+					}
+				}
+				else {
+					visitedObjs.add(nuTarget);
+					visitedMap.put(nuTarget, new OWLGraphEdgeSet());
+					visitedMap.get(nuTarget).add(nu);
+				}
 	
+				if (!isEdgeVisited) {
+					//System.out.println("      *NOT VISITED:"+nu+" visistedSize:"+visitedSet.size());
+					if (nu.getTarget() instanceof OWLNamedObject || 
+							config.isIncludeClassExpressionsInClosure) {
+					    closureSet.add(nu);
 					}
+					edgeStack.add(nu);
+					//visitedSet.add(nu);		
 	
 				}
-			}
 	
-			if (config.isCacheClosure && overProperties == null) {
-				inferredEdgeBySource.put(s, new OWLGraphEdgeSet(closureSet));
 			}
-			profiler.endTaskNotify("getOutgoingEdgesClosure");
-			return closureSet;
 		}
+	
+		profiler.endTaskNotify("getOutgoingEdgesClosure");
+		return closureSet;
 	}
 
 	/**
@@ -1213,6 +1489,62 @@ public class OWLGraphWrapperEdges extends OWLGraphWrapperExtended {
 		return ancs;
 	}
 
+	/**
+	 * @return reachability index over all edges
+	 * @see #getReachabilityIndex(Set)
+	 */
+	public OWLGraphReachabilityIndex getReachabilityIndex() {
+		return getReachabilityIndex(null);
+	}
+
+	/**
+	 * Returns an index answering ancestor and descendant queries without
+	 * computing any edge closure. The index is built on first use, once for
+	 * each property set, and is discarded by {@link #clearCachedEdges()}.
+	 * 
+	 * @param overProperties - if null, all edges are followed
+	 * @return reachability index over subclass edges and the specified properties
+	 * @see OWLGraphReachabilityIndex
+	 */
+	public OWLGraphReachabilityIndex getReachabilityIndex(Set<? extends OWLPropertyExpression> overProperties) {
+		OWLGraphReachabilityIndex index = overProperties == null ? 
+				reachabilityIndex : reachabilityIndexByPropertySet.get(overProperties);
+		if (index == null) {
+			synchronized (reachabilityIndexMutex) {
+				if (overProperties == null) {
+					if (reachabilityIndex == null)
+						reachabilityIndex = OWLGraphReachabilityIndex.create(this, null);
+					index = reachabilityIndex;
+				}
+				else {
+					index = reachabilityIndexByPropertySet.get(overProperties);
+					if (index == null) {
+						Set<OWLPropertyExpression> key =
+								Collections.unmodifiableSet(new HashSet<OWLPropertyExpression>(overProperties));
+						index = OWLGraphReachabilityIndex.create(this, key);
+						reachabilityIndexByPropertySet.put(key, index);
+					}
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Returns a compact, read-only view of the edges of this graph. Unlike
+	 * the reachability index, the view is not kept by the graph; each call
+	 * builds a new one, from the ontologies as they are now.
+	 * <p>
+	 * If the graph is only queried through the view, its own edge caches
+	 * can be released with {@link #clearCachedEdges()}.
+	 * 
+	 * @return frozen view of all edges
+	 * @see OWLGraphFrozenView
+	 */
+	public OWLGraphFrozenView freeze() {
+		return OWLGraphFrozenView.create(this);
+	}
+
 	public Set<OWLObject> getAncestorsReflexive(OWLObject x) {
 		Set<OWLObject> ancs = new HashSet<OWLObject>(getAncestors(x));
 		ancs.add(x);
@@ -1355,99 +1687,97 @@ public class OWLGraphWrapperEdges extends OWLGraphWrapperExtended {
 	 * @param t target
 	 * @return all edges connecting all descendants of target to target
 	 */
-	public Set<OWLGraphEdge> getIncomingEdgesClosure(OWLObject t) {
-		synchronized (edgeCacheMutex) {
-			if (config.isCacheClosure) {
-				if (inferredEdgeByTarget == null)
-					inferredEdgeByTarget = new HashMap<OWLObject,Set<OWLGraphEdge>>();
-				if (inferredEdgeByTarget.containsKey(t)) {
-					return new OWLGraphEdgeSet(inferredEdgeByTarget.get(t));
-				}
-			}
-			profiler.startTaskNotify("getIncomingEdgesClosure");
+	public Set<OWLGraphEdge> getIncomingEdgesClosure(final OWLObject t) {
+		if (config.isCacheClosure) {
+			return getCachedClosure(t, inferredEdgeByTarget, pendingEdgeByTarget,
+					new Callable<Set<OWLGraphEdge>>() {
+						@Override
+						public Set<OWLGraphEdge> call() {
+							return computeIncomingEdgesClosure(t);
+						}
+					}, null, null);
+		}
+		return computeIncomingEdgesClosure(t);
+	}
+
+	private Set<OWLGraphEdge> computeIncomingEdgesClosure(OWLObject t) {
+		profiler.startTaskNotify("getIncomingEdgesClosure");
 	
-			Stack<OWLGraphEdge> edgeStack = new Stack<OWLGraphEdge>();
-			Set<OWLGraphEdge> closureSet = new OWLGraphEdgeSet();
-			//Set<OWLGraphEdge> visitedSet = new HashSet<OWLGraphEdge>();
-			Set<OWLObject> visitedObjs = new HashSet<OWLObject>();
-			Map<OWLObject,Set<OWLGraphEdge>> visitedMap = new HashMap<OWLObject,Set<OWLGraphEdge>>();
-			visitedObjs.add(t);
-			visitedMap.put(t, new OWLGraphEdgeSet());
+		Stack<OWLGraphEdge> edgeStack = new Stack<OWLGraphEdge>();
+		Set<OWLGraphEdge> closureSet = new OWLGraphEdgeSet();
+		//Set<OWLGraphEdge> visitedSet = new HashSet<OWLGraphEdge>();
+		Set<OWLObject> visitedObjs = new HashSet<OWLObject>();
+		Map<OWLObject,Set<OWLGraphEdge>> visitedMap = new HashMap<OWLObject,Set<OWLGraphEdge>>();
+		visitedObjs.add(t);
+		visitedMap.put(t, new OWLGraphEdgeSet());
 	
-			// initialize -
-			// note that edges are always from src to tgt. here we are extending down from tgt to src
+		// initialize -
+		// note that edges are always from src to tgt. here we are extending down from tgt to src
 	
-			//edgeStack.add(new OWLGraphEdge(t,t,ontology,new OWLQuantifiedProperty()));
-			edgeStack.addAll(getPrimitiveIncomingEdges(t));
-			closureSet.addAll(edgeStack);
+		//edgeStack.add(new OWLGraphEdge(t,t,ontology,new OWLQuantifiedProperty()));
+		edgeStack.addAll(getPrimitiveIncomingEdges(t));
+		closureSet.addAll(edgeStack);
 	
-			while (!edgeStack.isEmpty()) {
-				OWLGraphEdge ne = edgeStack.pop();
+		while (!edgeStack.isEmpty()) {
+			OWLGraphEdge ne = edgeStack.pop();
 	
-				int nextDist = ne.getDistance() + 1;
+			int nextDist = ne.getDistance() + 1;
 	
-				// extend down from this edge; e.g. [s, extEdge + ne, tgt] 
-				Set<OWLGraphEdge> extSet = getPrimitiveIncomingEdges(ne.getSource());
-				for (OWLGraphEdge extEdge : extSet) {
+			// extend down from this edge; e.g. [s, extEdge + ne, tgt] 
+			Set<OWLGraphEdge> extSet = getPrimitiveIncomingEdges(ne.getSource());
+			for (OWLGraphEdge extEdge : extSet) {
 	
-					// extEdge o ne --> nu
-					//OWLGraphEdge nu = combineEdgePairDown(ne, extEdge, nextDist);
-					OWLGraphEdge nu = combineEdgePair(extEdge.getSource(), extEdge, ne, nextDist);
-					if (nu == null)
-						continue;
+				// extEdge o ne --> nu
+				//OWLGraphEdge nu = combineEdgePairDown(ne, extEdge, nextDist);
+				OWLGraphEdge nu = combineEdgePair(extEdge.getSource(), extEdge, ne, nextDist);
+				if (nu == null)
+					continue;
 	
-					// TODO - no longer required?
-					//if (!isKeepEdge(nu))
-					//	continue;
+				// TODO - no longer required?
+				//if (!isKeepEdge(nu))
+				//	continue;
 	
-					OWLObject nusource = nu.getSource();
+				OWLObject nusource = nu.getSource();
 	
-					boolean isEdgeVisited = false;
-					if (visitedObjs.contains(nusource)) {
-						//isEdgeVisited = true;
-						for (OWLGraphEdge ve : visitedMap.get(nusource)) {
-							//System.out.println(" ve:"+ve.getFinalQuantifiedProperty());
-							if (ve.getFirstQuantifiedProperty().equals(nu.getFirstQuantifiedProperty())) {
-								//System.out.println("already visited: "+nu);
-								// always favor the shorter path
-								if (ve.getQuantifiedPropertyList().size() <= nu.getQuantifiedPropertyList().size()) {
-									isEdgeVisited = true;
-								}
+				boolean isEdgeVisited = false;
+				if (visitedObjs.contains(nusource)) {
+					//isEdgeVisited = true;
+					for (OWLGraphEdge ve : visitedMap.get(nusource)) {
+						//System.out.println(" ve:"+ve.getFinalQuantifiedProperty());
+						if (ve.getFirstQuantifiedProperty().equals(nu.getFirstQuantifiedProperty())) {
+							//System.out.println("already visited: "+nu);
+							// always favor the shorter path
+							if (ve.getQuantifiedPropertyList().size() <= nu.getQuantifiedPropertyList().size()) {
+								isEdgeVisited = true;
 							}
 						}
-						if (!isEdgeVisited) {
-						    visitedMap.get(nusource).add(nu);
-						}
-	
 					}
-					else {
-						visitedObjs.add(nusource);
-						visitedMap.put(nusource, new OWLGraphEdgeSet());
-						visitedMap.get(nusource).add(nu);
+					if (!isEdgeVisited) {
+					    visitedMap.get(nusource).add(nu);
 					}
 	
-					if (!isEdgeVisited) {
-						if (nu.getSource() instanceof OWLNamedObject || 
-								config.isIncludeClassExpressionsInClosure) {
-						    closureSet.add(nu);
-						}
-						edgeStack.add(nu);
-						//visitedSet.add(nu);		
+				}
+				else {
+					visitedObjs.add(nusource);
+					visitedMap.put(nusource, new OWLGraphEdgeSet());
+					visitedMap.get(nusource).add(nu);
+				}
 	
+				if (!isEdgeVisited) {
+					if (nu.getSource() instanceof OWLNamedObject || 
+							config.isIncludeClassExpressionsInClosure) {
+					    closureSet.add(nu);
 					}
+					edgeStack.add(nu);
+					//visitedSet.add(nu);		
 	
 				}
-			}
 	
-			if (config.isCacheClosure) {
-				inferredEdgeByTarget.put(t, new OWLGraphEdgeSet(closureSet));
 			}
-	
-	
-	
-			profiler.endTaskNotify("getIncomingEdgesClosure");
-			return closureSet;
 		}
+	
+		profiler.endTaskNotify("getIncomingEdgesClosure");
+		return closureSet;
 	}
 
 	/**
@@ -1537,7 +1867,7 @@ public class OWLGraphWrapperEdges extends OWLGraphWrapperExtended {
 	 * @param nextDist
 	 * @return edge
 	 */
-	private OWLGraphEdge combineEdgePairDown(OWLGraphEdge tgtEdge, OWLGraphEdge srcEdge, int nextDist) {
+	OWLGraphEdge combineEdgePairDown(OWLGraphEdge tgtEdge, OWLGraphEdge srcEdge, int nextDist) {
 		// fill in edge label later
 		// todo
 	    OWLGraphEdge nu = this.createMergedEdge(srcEdge.getSource(), srcEdge, tgtEdge);
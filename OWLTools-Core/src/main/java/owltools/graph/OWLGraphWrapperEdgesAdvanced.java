@@ -113,6 +113,7 @@ public class OWLGraphWrapperEdgesAdvanced extends OWLGraphWrapperEdgesExtended i
 			reasoner = null;
 			isSynchronized = false;
 		}
+		removeAnnotationChangeListeners();
 	}
 
 	/**
@@ -1,5 +1,6 @@
 package owltools.graph;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -7,6 +8,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.obolibrary.obo2owl.Obo2OWLConstants.Obo2OWLVocabulary;
 import org.obolibrary.obo2owl.Obo2Owl;
@@ -20,6 +24,7 @@ import org.semanticweb.owlapi.model.OWLAnnotationAssertionAxiom;
 import org.semanticweb.owlapi.model.OWLAnnotationProperty;
 import org.semanticweb.owlapi.model.OWLAnnotationSubject;
 import org.semanticweb.owlapi.model.OWLAnnotationValue;
+import org.semanticweb.owlapi.model.OWLAxiom;
 import org.semanticweb.owlapi.model.OWLClass;
 import org.semanticweb.owlapi.model.OWLClassExpression;
 import org.semanticweb.owlapi.model.OWLDeclarationAxiom;
@@ -32,7 +37,10 @@ import org.semanticweb.owlapi.model.OWLNamedObject;
 import org.semanticweb.owlapi.model.OWLObject;
 import org.semanticweb.owlapi.model.OWLObjectProperty;
 import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyChangeListener;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
 import org.semanticweb.owlapi.model.OWLReflexiveObjectPropertyAxiom;
 import org.semanticweb.owlapi.model.OWLSymmetricObjectPropertyAxiom;
 import org.semanticweb.owlapi.model.OWLTransitiveObjectPropertyAxiom;
@@ -50,6 +58,23 @@ public class OWLGraphWrapperExtended extends OWLGraphWrapperBasic {
 
 	private Map<String,OWLObject> altIdMap = null;
 
+	// annotations by entity IRI and property, filled as entities are requested
+	private final ConcurrentMap<IRI,Map<OWLAnnotationProperty,Set<OWLAnnotation>>> annotationCache =
+			new ConcurrentHashMap<IRI,Map<OWLAnnotationProperty,Set<OWLAnnotation>>>();
+	// label, synonym and property id index; built on first use
+	private volatile LookupIndex lookupIndex = null;
+	// IRIs for OBO-style identifiers, as computed by obo2owl
+	private final ConcurrentMap<String,IRI> iriByOboId = new ConcurrentHashMap<String,IRI>();
+
+	// the caches are cleared on any change to annotations or declarations
+	private final Set<OWLOntologyManager> listenedManagers = new HashSet<OWLOntologyManager>();
+	private volatile boolean isListening = false;
+	private final OWLOntologyChangeListener annotationChangeListener =
+			new AnnotationChangeListener(this, listenedManagers);
+	// incremented before the caches are invalidated; a cache entry is only
+	// kept if no change happened while it was built
+	private final AtomicLong annotationGeneration = new AtomicLong();
+
 	protected OWLGraphWrapperExtended(OWLOntology ontology) {
 		super(ontology);
 	}
@@ -160,15 +185,10 @@ public class OWLGraphWrapperExtended extends OWLGraphWrapperBasic {
 	 * @return value
 	 */
 	public String getAnnotationValue(OWLObject c, OWLAnnotationProperty lap) {
-		Set<OWLAnnotation>anns = new HashSet<OWLAnnotation>();
-		if (c instanceof OWLEntity) {
-			for (OWLOntology ont : getAllOntologies()) {
-				anns.addAll(((OWLEntity) c).getAnnotations(ont,lap));
-			}
-		}
-		else {
+		if (!(c instanceof OWLEntity)) {
 			return null;
 		}
+		Set<OWLAnnotation> anns = getCachedAnnotations((OWLEntity) c, lap);
 		for (OWLAnnotation a : anns) {
 			if (a.getValue() instanceof OWLLiteral) {
 				OWLLiteral val = (OWLLiteral) a.getValue();
@@ -186,15 +206,10 @@ public class OWLGraphWrapperExtended extends OWLGraphWrapperBasic {
 	 * @return list of values or null
 	 */
 	public List<String> getAnnotationValues(OWLObject c, OWLAnnotationProperty lap) {
-		Set<OWLAnnotation>anns = new HashSet<OWLAnnotation>();
-		if (c instanceof OWLEntity) {
-			for (OWLOntology ont : getAllOntologies()) {
-				anns.addAll(((OWLEntity) c).getAnnotations(ont,lap));
-			}
-		}
-		else {
+		if (!(c instanceof OWLEntity)) {
 			return null;
 		}
+		Set<OWLAnnotation> anns = getCachedAnnotations((OWLEntity) c, lap);
 
 		List<String> list = new ArrayList<String>();
 		for (OWLAnnotation a : anns) {
@@ -213,6 +228,212 @@ public class OWLGraphWrapperExtended extends OWLGraphWrapperBasic {
 	}
 
 
+	/**
+	 * @param e
+	 * @param lap
+	 * @return annotations of e for lap in all ontologies; must not be modified
+	 */
+	private Set<OWLAnnotation> getCachedAnnotations(OWLEntity e, OWLAnnotationProperty lap) {
+		ensureChangeListeners();
+		IRI iri = e.getIRI();
+		Map<OWLAnnotationProperty,Set<OWLAnnotation>> annsByProperty = annotationCache.get(iri);
+		if (annsByProperty == null) {
+			long generation = annotationGeneration.get();
+			annsByProperty = new HashMap<OWLAnnotationProperty,Set<OWLAnnotation>>();
+			for (OWLOntology ont : getAllOntologies()) {
+				for (OWLAnnotationAssertionAxiom aa : ont.getAnnotationAssertionAxioms(iri)) {
+					Set<OWLAnnotation> anns = annsByProperty.get(aa.getProperty());
+					if (anns == null) {
+						anns = new HashSet<OWLAnnotation>();
+						annsByProperty.put(aa.getProperty(), anns);
+					}
+					anns.add(aa.getAnnotation());
+				}
+			}
+			annotationCache.put(iri, annsByProperty);
+			if (annotationGeneration.get() != generation) {
+				// possibly stale; the change may have been handled before the put
+				annotationCache.remove(iri, annsByProperty);
+			}
+		}
+		Set<OWLAnnotation> anns = annsByProperty.get(lap);
+		if (anns == null)
+			return Collections.emptySet();
+		return anns;
+	}
+
+	/**
+	 * Clears the annotation cache and the label, synonym and identifier
+	 * indexes. This is done automatically when annotations or declarations
+	 * change, or the set of ontologies is changed through this wrapper; call
+	 * this after modifying the set returned by {@link #getSupportOntologySet()}.
+	 */
+	public void clearAnnotationCaches() {
+		annotationGeneration.incrementAndGet();
+		annotationCache.clear();
+		lookupIndex = null;
+	}
+
+	private void annotationsChanged(List<? extends OWLOntologyChange> changes) {
+		for (OWLOntologyChange change : changes) {
+			if (!change.isAxiomChange()) {
+				// imports or ontology annotations
+				clearAnnotationCaches();
+				return;
+			}
+			OWLAxiom axiom = change.getAxiom();
+			if (axiom instanceof OWLAnnotationAssertionAxiom) {
+				annotationGeneration.incrementAndGet();
+				OWLAnnotationSubject subject = ((OWLAnnotationAssertionAxiom) axiom).getSubject();
+				if (subject instanceof IRI)
+					annotationCache.remove(subject);
+				lookupIndex = null;
+			}
+			else if (axiom instanceof OWLDeclarationAxiom) {
+				annotationGeneration.incrementAndGet();
+				lookupIndex = null;
+			}
+		}
+	}
+
+	@Override
+	protected void ontologySetChanged() {
+		super.ontologySetChanged();
+		isListening = false;
+		clearAnnotationCaches();
+	}
+
+	/**
+	 * Makes sure the caches are notified of changes to any of the ontologies
+	 */
+	private void ensureChangeListeners() {
+		if (isListening)
+			return;
+		synchronized (listenedManagers) {
+			if (!isListening) {
+				for (OWLOntology ont : getAllOntologies()) {
+					OWLOntologyManager manager = ont.getOWLOntologyManager();
+					if (manager != null && listenedManagers.add(manager)) {
+						manager.addOntologyChangeListener(annotationChangeListener);
+					}
+				}
+				isListening = true;
+			}
+		}
+	}
+
+	/**
+	 * Stops listening for ontology changes, and clears the annotation caches
+	 */
+	protected void removeAnnotationChangeListeners() {
+		synchronized (listenedManagers) {
+			for (OWLOntologyManager manager : listenedManagers) {
+				manager.removeOntologyChangeListener(annotationChangeListener);
+			}
+			listenedManagers.clear();
+			isListening = false;
+		}
+		clearAnnotationCaches();
+	}
+
+	/**
+	 * Only weakly references the wrapper, so that the managers do not keep
+	 * discarded wrappers and their caches reachable; once the wrapper has
+	 * been collected, the listener removes itself on the next change.
+	 */
+	private static class AnnotationChangeListener implements OWLOntologyChangeListener {
+		private final WeakReference<OWLGraphWrapperExtended> wrapper;
+		// shared with the wrapper, which adds the managers
+		private final Set<OWLOntologyManager> managers;
+
+		AnnotationChangeListener(OWLGraphWrapperExtended wrapper, Set<OWLOntologyManager> managers) {
+			this.wrapper = new WeakReference<OWLGraphWrapperExtended>(wrapper);
+			this.managers = managers;
+		}
+
+		@Override
+		public void ontologiesChanged(List<? extends OWLOntologyChange> changes) {
+			OWLGraphWrapperExtended w = wrapper.get();
+			if (w != null) {
+				w.annotationsChanged(changes);
+				return;
+			}
+			// the managers copy their listeners before notifying them
+			synchronized (managers) {
+				for (OWLOntologyManager manager : managers) {
+					manager.removeOntologyChangeListener(this);
+				}
+				managers.clear();
+			}
+		}
+	}
+
+	/**
+	 * IRIs by label, exact synonym and object property shorthand or id,
+	 * over all ontologies. Lists are in the order the axioms were found.
+	 */
+	private static class LookupIndex {
+		final Map<String,List<IRI>> iriByLabel = new HashMap<String,List<IRI>>();
+		final Map<String,List<IRI>> iriByExactSynonym = new HashMap<String,List<IRI>>();
+		final Map<String,IRI> propertyIRIById = new HashMap<String,IRI>();
+
+		static void add(Map<String,List<IRI>> map, String key, IRI iri) {
+			List<IRI> iris = map.get(key);
+			if (iris == null) {
+				iris = new ArrayList<IRI>(1);
+				map.put(key, iris);
+			}
+			if (!iris.contains(iri))
+				iris.add(iri);
+		}
+	}
+
+	private LookupIndex getLookupIndex() {
+		ensureChangeListeners();
+		LookupIndex index = lookupIndex;
+		if (index == null) {
+			long generation = annotationGeneration.get();
+			index = new LookupIndex();
+			IRI exactSynonym = Obo2OWLVocabulary.IRI_OIO_hasExactSynonym.getIRI();
+			OWLAnnotationProperty shortHand = getDataFactory().getOWLAnnotationProperty(Obo2OWLVocabulary.IRI_OIO_shorthand.getIRI());
+			OWLAnnotationProperty oboIdInOwl = getDataFactory().getOWLAnnotationProperty(Obo2Owl.trTagToIRI(OboFormatTag.TAG_ID.getTag()));
+			for (OWLOntology o : getAllOntologies()) {
+				for (OWLAnnotationAssertionAxiom aa : o.getAxioms(AxiomType.ANNOTATION_ASSERTION)) {
+					OWLAnnotationValue v = aa.getValue();
+					OWLAnnotationSubject subject = aa.getSubject();
+					if (!(v instanceof OWLLiteral) || !(subject instanceof IRI))
+						continue;
+					OWLAnnotationProperty property = aa.getProperty();
+					if (property.isLabel()) {
+						LookupIndex.add(index.iriByLabel, ((OWLLiteral) v).getLiteral(), (IRI) subject);
+					}
+					else if (property.getIRI().equals(exactSynonym)) {
+						LookupIndex.add(index.iriByExactSynonym, ((OWLLiteral) v).getLiteral(), (IRI) subject);
+					}
+				}
+				for (OWLObjectProperty p : o.getObjectPropertiesInSignature()) {
+					for (OWLAnnotation owlAnnotation : p.getAnnotations(o)) {
+						OWLAnnotationProperty property = owlAnnotation.getProperty();
+						if (shortHand.equals(property) || oboIdInOwl.equals(property)) {
+							OWLAnnotationValue value = owlAnnotation.getValue();
+							if (value instanceof OWLLiteral) {
+								String id = ((OWLLiteral) value).getLiteral();
+								if (!index.propertyIRIById.containsKey(id))
+									index.propertyIRIById.put(id, p.getIRI());
+							}
+						}
+					}
+				}
+			}
+			lookupIndex = index;
+			if (annotationGeneration.get() != generation && lookupIndex == index) {
+				// possibly stale; the change may have been handled before publishing
+				lookupIndex = null;
+			}
+		}
+		return index;
+	}
+
 	/**
 	 * Gets the textual definition of an OWLObject
 	 * <p>
@@ -860,38 +1081,23 @@ public class OWLGraphWrapperExtended extends OWLGraphWrapperBasic {
 		// This is the case for relations (OWLObject properties) with a short hand
 		// or for relations with a non identifiers with-out a colon, e.g. negative_regulation
 		if (!id.contains(":")) {
-			final OWLAnnotationProperty shortHand = getDataFactory().getOWLAnnotationProperty(Obo2OWLVocabulary.IRI_OIO_shorthand.getIRI());
-			final OWLAnnotationProperty oboIdInOwl = getDataFactory().getOWLAnnotationProperty(Obo2Owl.trTagToIRI(OboFormatTag.TAG_ID.getTag()));
-			for (OWLOntology o : getAllOntologies()) {
-				for(OWLObjectProperty p : o.getObjectPropertiesInSignature()) {
-					// check for short hand or obo ID in owl
-					Set<OWLAnnotation> annotations = p.getAnnotations(o);
-					if (annotations != null) {
-						for (OWLAnnotation owlAnnotation : annotations) {
-							OWLAnnotationProperty property = owlAnnotation.getProperty();
-							if ((shortHand != null && shortHand.equals(property)) 
-									|| (oboIdInOwl != null && oboIdInOwl.equals(property)))
-							{
-								OWLAnnotationValue value = owlAnnotation.getValue();
-								if (value != null && value instanceof OWLLiteral) {
-									OWLLiteral literal = (OWLLiteral) value;
-									String shortHandLabel = literal.getLiteral();
-									if (id.equals(shortHandLabel)) {
-										return p.getIRI();
-									}
-								}
-							}
-						}
-					}
-				}
+			// check for short hand or obo ID in owl
+			IRI iri = getLookupIndex().propertyIRIById.get(id);
+			if (iri != null) {
+				return iri;
 			}
 		}
 
-
-		// otherwise use the obo2owl method
-		Obo2Owl b = new Obo2Owl();
-		b.setObodoc(new OBODoc());
-		return b.oboIdToIRI(id);
+		// otherwise use the obo2owl method; this does not depend on the ontologies
+		IRI iri = iriByOboId.get(id);
+		if (iri == null) {
+			Obo2Owl b = new Obo2Owl();
+			b.setObodoc(new OBODoc());
+			iri = b.oboIdToIRI(id);
+			if (iri != null)
+				iriByOboId.put(id, iri);
+		}
+		return iri;
 	}
 
 	/**
@@ -1001,7 +1207,8 @@ public class OWLGraphWrapperExtended extends OWLGraphWrapperBasic {
 	/**
 	 * fetches an OWL IRI by rdfs:label, optionally testing for uniqueness
 	 * <p>
-	 * TODO: index labels. This currently scans all labels in the ontology, which is expensive
+	 * Labels are indexed on first use; the index is rebuilt after any change
+	 * to the annotations.
 	 * 
 	 * @param label
 	 * @param isEnforceUnivocal
@@ -1009,34 +1216,26 @@ public class OWLGraphWrapperExtended extends OWLGraphWrapperBasic {
 	 * @throws SharedLabelException if >1 IRI shares input label
 	 */
 	public IRI getIRIByLabel(String label, boolean isEnforceUnivocal) throws SharedLabelException {
-		IRI iri = null;
-		for (OWLOntology o : getAllOntologies()) {
-			Set<OWLAnnotationAssertionAxiom> aas = o.getAxioms(AxiomType.ANNOTATION_ASSERTION);
-			for (OWLAnnotationAssertionAxiom aa : aas) {
-				OWLAnnotationValue v = aa.getValue();
-				OWLAnnotationProperty property = aa.getProperty();
-				if (property.isLabel() && v instanceof OWLLiteral) {
-					if (label.equals( ((OWLLiteral)v).getLiteral())) {
-						OWLAnnotationSubject subject = aa.getSubject();
-						if (subject instanceof IRI) {
-							if (isEnforceUnivocal) {
-								if (iri != null && !iri.equals((IRI)subject)) {
-									throw new SharedLabelException(label,iri,(IRI)subject);
-								}
-								iri = (IRI)subject;
-							}
-							else {
-								return (IRI)subject;
-							}
-						}
-						else {
-							//return null;
-						}
-					}
-				}
-			}
+		List<IRI> iris = getLookupIndex().iriByLabel.get(label);
+		if (iris == null)
+			return null;
+		if (isEnforceUnivocal && iris.size() > 1) {
+			throw new SharedLabelException(label, iris.get(0), iris.get(1));
 		}
-		return iri;
+		return iris.get(0);
+	}
+
+	/**
+	 * fetches the IRIs of all objects with an exact synonym
+	 * 
+	 * @param synonym
+	 * @return IRIs, empty if none
+	 */
+	public Set<IRI> getIRIsByExactSynonym(String synonym) {
+		List<IRI> iris = getLookupIndex().iriByExactSynonym.get(synonym);
+		if (iris == null)
+			return Collections.emptySet();
+		return new HashSet<IRI>(iris);
 	}
 
 	/**
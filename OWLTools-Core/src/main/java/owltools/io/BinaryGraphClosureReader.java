@@ -0,0 +1,218 @@
+package owltools.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLNamedObject;
+import org.semanticweb.owlapi.model.OWLObject;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+import owltools.graph.OWLGraphClosureCache;
+import owltools.graph.OWLGraphEdge;
+import owltools.graph.OWLGraphEdge.OWLGraphEdgeSet;
+import owltools.graph.OWLGraphWrapper;
+import owltools.graph.OWLQuantifiedProperty;
+import owltools.graph.OWLQuantifiedProperty.Quantifier;
+
+/**
+ * Restores a closure snapshot written by {@link BinaryGraphClosureRenderer}.
+ * <p>
+ * Only the identifier and source tables are read up front. The snapshot is
+ * set as the loader of the closure cache of the graph, which decodes the
+ * edges of a source the first time they are requested, so the size of the
+ * closure cache only reflects the sources used so far. Decoded closures are
+ * subject to the bounds of the closure cache; an evicted closure is decoded
+ * again when next requested. Closures already in the cache are kept.
+ * <p>
+ * {@link #read(String)} memory-maps the file; {@link #read()} reads the
+ * stream into memory.
+ * <p>
+ * Note that the ontology must be loaded prior to restoring a closure
+ * snapshot, and that the snapshot is discarded by
+ * {@link OWLGraphWrapper#clearCachedEdges()}.
+ */
+public class BinaryGraphClosureReader extends AbstractClosureReader {
+
+	private static final Logger LOG = Logger.getLogger(BinaryGraphClosureReader.class);
+
+	public BinaryGraphClosureReader(OWLGraphWrapper g) {
+		super(g);
+	}
+
+	@Override
+	public void read(String file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Closure snapshot exceeds 2GB: "+file);
+			}
+			// the mapping remains valid after the channel is closed
+			read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), file);
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	@Override
+	public void read() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1 << 16];
+		int n;
+		while ((n = stream.read(buffer)) >= 0) {
+			bytes.write(buffer, 0, n);
+		}
+		stream.close();
+		read(ByteBuffer.wrap(bytes.toByteArray()), "stream");
+	}
+
+	private void read(ByteBuffer buffer, String name) throws IOException {
+		long t = System.currentTimeMillis();
+		Snapshot snapshot = new Snapshot(buffer, name, graph.getDataFactory(), graph.getSourceOntology());
+		graph.setOutgoingClosureLoader(snapshot);
+		LOG.info("Closure snapshot "+name+": "+snapshot.getNumberOfSources()+
+				" sources, ms = "+(System.currentTimeMillis() - t));
+	}
+
+	/**
+	 * Decodes edge records from the snapshot; thread-safe, as the buffer is
+	 * only accessed by absolute position.
+	 */
+	private static class Snapshot implements OWLGraphClosureCache.Loader {
+		private final ByteBuffer buffer;
+		private final OWLDataFactory dataFactory;
+		private final OWLOntology ontology;
+		private final String[] iris;
+		private final byte[] types;
+		// resolved as required
+		private final OWLObject[] objects;
+		// edge record offset by IRI of source
+		private final Map<String,Integer> sourceOffsets;
+
+		Snapshot(ByteBuffer buffer, String name, OWLDataFactory dataFactory, OWLOntology ontology)
+				throws IOException {
+			this.buffer = buffer;
+			this.dataFactory = dataFactory;
+			this.ontology = ontology;
+			int size = buffer.limit();
+			if (size < 28 || buffer.getLong(0) != BinaryGraphClosureRenderer.MAGIC ||
+					buffer.getLong(size - 8) != BinaryGraphClosureRenderer.MAGIC) {
+				throw new IOException("Not a complete closure snapshot: "+name);
+			}
+			int version = buffer.getInt(8);
+			if (version != BinaryGraphClosureRenderer.VERSION) {
+				throw new IOException("Unsupported closure snapshot version "+version+" in "+name);
+			}
+			int identifierTableOffset = buffer.getInt(size - 16);
+			int sourceTableOffset = buffer.getInt(size - 12);
+
+			int numIdentifiers = buffer.getInt(identifierTableOffset);
+			iris = new String[numIdentifiers];
+			types = new byte[numIdentifiers];
+			objects = new OWLObject[numIdentifiers];
+			int[] pos = {identifierTableOffset + 4};
+			byte[] bytes = new byte[256];
+			for (int i = 0; i < numIdentifiers; i++) {
+				types[i] = buffer.get(pos[0]++);
+				int len = readVarInt(pos);
+				if (bytes.length < len)
+					bytes = new byte[len];
+				for (int k = 0; k < len; k++) {
+					bytes[k] = buffer.get(pos[0]++);
+				}
+				iris[i] = new String(bytes, 0, len, "UTF-8");
+			}
+
+			int numSources = buffer.getInt(sourceTableOffset);
+			sourceOffsets = new HashMap<String,Integer>(numSources * 2);
+			for (int k = 0; k < numSources; k++) {
+				int p = sourceTableOffset + 4 + 8 * k;
+				sourceOffsets.put(iris[buffer.getInt(p)], buffer.getInt(p + 4));
+			}
+		}
+
+		int getNumberOfSources() {
+			return sourceOffsets.size();
+		}
+
+		/**
+		 * @param src
+		 * @return closure of src; null if src is not in the snapshot
+		 */
+		@Override
+		public Set<OWLGraphEdge> load(OWLObject src) {
+			if (!(src instanceof OWLNamedObject))
+				return null;
+			Integer offset = sourceOffsets.get(((OWLNamedObject) src).getIRI().toString());
+			if (offset == null)
+				return null;
+			int[] pos = {offset};
+			int numEdges = readVarInt(pos);
+			Set<OWLGraphEdge> edges = new OWLGraphEdgeSet();
+			Quantifier[] quantifiers = Quantifier.values();
+			for (int e = 0; e < numEdges; e++) {
+				OWLObject tgt = getObject(readVarInt(pos));
+				int dist = readVarInt(pos);
+				OWLQuantifiedProperty[] qpa = new OWLQuantifiedProperty[readVarInt(pos)];
+				for (int i = 0; i < qpa.length; i++) {
+					int code = readVarInt(pos);
+					int property = code >>> 4;
+					Quantifier q = quantifiers[code & 0xF];
+					qpa[i] = property == 0 ? new OWLQuantifiedProperty(q) :
+						new OWLQuantifiedProperty((OWLObjectProperty) getObject(property - 1), q);
+				}
+				List<OWLQuantifiedProperty> qpl = Arrays.asList(qpa); // fixed length, cannot be appended to
+				OWLGraphEdge edge = new OWLGraphEdge(src, tgt, qpl, ontology);
+				edge.setDistance(dist);
+				edges.add(edge);
+			}
+			return edges;
+		}
+
+		private OWLObject getObject(int i) {
+			OWLObject obj = objects[i];
+			if (obj == null) {
+				// the data factory returns equal objects, so a race is harmless
+				IRI iri = IRI.create(iris[i]);
+				switch (types[i]) {
+				case BinaryGraphClosureRenderer.TYPE_CLASS:
+					obj = dataFactory.getOWLClass(iri); break;
+				case BinaryGraphClosureRenderer.TYPE_INDIVIDUAL:
+					obj = dataFactory.getOWLNamedIndividual(iri); break;
+				case BinaryGraphClosureRenderer.TYPE_OBJECT_PROPERTY:
+					obj = dataFactory.getOWLObjectProperty(iri); break;
+				default:
+					throw new IllegalStateException("Unknown identifier type "+types[i]+" for "+iris[i]);
+				}
+				objects[i] = obj;
+			}
+			return obj;
+		}
+
+		private int readVarInt(int[] pos) {
+			int v = 0;
+			int shift = 0;
+			while (true) {
+				byte b = buffer.get(pos[0]++);
+				v |= (b & 0x7F) << shift;
+				if (b >= 0)
+					return v;
+				shift += 7;
+			}
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package owltools.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLNamedObject;
+import org.semanticweb.owlapi.model.OWLObject;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+
+import owltools.graph.OWLGraphEdge;
+import owltools.graph.OWLGraphWrapper;
+import owltools.graph.OWLQuantifiedProperty;
+
+/**
+ * Writes the graph closure as a binary snapshot, to be read with
+ * {@link BinaryGraphClosureReader}. Covers the same objects and edges as
+ * {@link CompactGraphClosureRenderer}.
+ * <p>
+ * File format (big-endian; offsets are from the start of the file):
+ * <ul>
+ * <li>magic number (long), format version (int)
+ * <li>edge records, one for each source: the number of edges, then for each
+ * edge the target, the distance, the number of quantified properties, and
+ * for each quantified property (property+1) &lt;&lt; 4 | quantifier ordinal,
+ * where property is 0 if there is none; all as unsigned varints, with
+ * identifiers as indices in the identifier table
+ * <li>identifier table: number of identifiers (int), then for each identifier
+ * its type (byte, see TYPE_*), the length of its IRI in UTF-8 bytes (varint)
+ * and the bytes
+ * <li>source table: number of sources (int), then for each source its
+ * identifier index (int) and the offset of its edge record (int)
+ * <li>offset of the identifier table (int), offset of the source table (int),
+ * magic number (long)
+ * </ul>
+ * Identifiers are interned, so each IRI is written once. As the offsets are
+ * ints, a snapshot is limited to 2GB.
+ */
+public class BinaryGraphClosureRenderer implements GraphRenderer {
+
+	// "OWLGCLOS"
+	static final long MAGIC = 0x4F574C47434C4F53L;
+	static final int VERSION = 1;
+
+	static final byte TYPE_CLASS = 0;
+	static final byte TYPE_INDIVIDUAL = 1;
+	static final byte TYPE_OBJECT_PROPERTY = 2;
+
+	private final OutputStream outputStream;
+
+	private final Map<OWLObject,Integer> identifierIndex = new HashMap<OWLObject,Integer>();
+	private final List<OWLNamedObject> identifiers = new ArrayList<OWLNamedObject>();
+
+	public BinaryGraphClosureRenderer(OutputStream stream) {
+		this.outputStream = stream;
+	}
+
+	public BinaryGraphClosureRenderer(String file) throws IOException {
+		this(new FileOutputStream(file));
+	}
+
+	@Override
+	public void render(OWLGraphWrapper g) {
+		try {
+			write(g);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write closure snapshot", e);
+		}
+	}
+
+	/**
+	 * Writes the closure of all classes and individuals in the source
+	 * ontology, and closes the stream.
+	 *
+	 * @param g
+	 * @throws IOException
+	 */
+	public void write(OWLGraphWrapper g) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream, 1 << 16));
+		try {
+			out.writeLong(MAGIC);
+			out.writeInt(VERSION);
+
+			Set<OWLObject> objs = new HashSet<OWLObject>(g.getSourceOntology().getClassesInSignature(false));
+			objs.addAll(g.getSourceOntology().getIndividualsInSignature(false));
+			List<int[]> sources = new ArrayList<int[]>();
+			for (OWLObject obj : objs) {
+				int source = getIdentifier(obj);
+				if (source < 0)
+					continue;
+				List<OWLGraphEdge> edges = new ArrayList<OWLGraphEdge>();
+				for (OWLGraphEdge e : g.getOutgoingEdgesClosure(obj)) {
+					if (e.getTarget() instanceof OWLNamedObject && getIdentifier(e.getTarget()) >= 0)
+						edges.add(e);
+				}
+				sources.add(new int[]{source, checkOffset(out)});
+				writeVarInt(out, edges.size());
+				for (OWLGraphEdge e : edges) {
+					writeVarInt(out, getIdentifier(e.getTarget()));
+					writeVarInt(out, e.getDistance());
+					List<OWLQuantifiedProperty> qps = e.getQuantifiedPropertyList();
+					writeVarInt(out, qps.size());
+					for (OWLQuantifiedProperty qp : qps) {
+						int property = qp.hasProperty() ? getIdentifier(qp.getProperty()) + 1 : 0;
+						writeVarInt(out, property << 4 | qp.getQuantifier().ordinal());
+					}
+				}
+			}
+
+			int identifierTableOffset = checkOffset(out);
+			out.writeInt(identifiers.size());
+			for (OWLNamedObject obj : identifiers) {
+				out.writeByte(getType(obj));
+				byte[] iri = obj.getIRI().toString().getBytes("UTF-8");
+				writeVarInt(out, iri.length);
+				out.write(iri);
+			}
+			int sourceTableOffset = checkOffset(out);
+			out.writeInt(sources.size());
+			for (int[] source : sources) {
+				out.writeInt(source[0]);
+				out.writeInt(source[1]);
+			}
+			out.writeInt(identifierTableOffset);
+			out.writeInt(sourceTableOffset);
+			out.writeLong(MAGIC);
+			checkOffset(out);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @param obj
+	 * @return index of obj in the identifier table, added if required; -1
+	 * if obj cannot be identified
+	 */
+	private int getIdentifier(OWLObject obj) {
+		Integer ix = identifierIndex.get(obj);
+		if (ix == null) {
+			if (getType(obj) < 0)
+				return -1;
+			ix = identifiers.size();
+			identifiers.add((OWLNamedObject) obj);
+			identifierIndex.put(obj, ix);
+		}
+		return ix;
+	}
+
+	private static byte getType(OWLObject obj) {
+		if (obj instanceof OWLClass)
+			return TYPE_CLASS;
+		if (obj instanceof OWLNamedIndividual)
+			return TYPE_INDIVIDUAL;
+		if (obj instanceof OWLObjectProperty)
+			return TYPE_OBJECT_PROPERTY;
+		return -1;
+	}
+
+	private static int checkOffset(DataOutputStream out) throws IOException {
+		// size() stops at Integer.MAX_VALUE
+		int offset = out.size();
+		if (offset == Integer.MAX_VALUE)
+			throw new IOException("Closure snapshot exceeds 2GB");
+		return offset;
+	}
+
+	private static void writeVarInt(DataOutputStream out, int v) throws IOException {
+		while ((v & ~0x7F) != 0) {
+			out.writeByte((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+}
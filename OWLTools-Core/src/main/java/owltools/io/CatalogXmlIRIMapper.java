@@ -23,6 +23,8 @@ import org.xml.sax.helpers.DefaultHandler;
 
 /**
  * {@link OWLOntologyIRIMapper} using the mappings from a catalog.xml file.
+ * The mappings are not modified after creation, so lookups are thread-safe,
+ * see {@link ParserWrapper#setImportLoadThreads(int)}.
  */
 public class CatalogXmlIRIMapper implements OWLOntologyIRIMapper {
 
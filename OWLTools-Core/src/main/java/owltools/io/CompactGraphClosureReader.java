@@ -5,10 +5,10 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.obolibrary.obo2owl.Obo2OWLConstants;
 import org.semanticweb.owlapi.model.OWLObject;
@@ -39,7 +39,7 @@ public class CompactGraphClosureReader extends AbstractClosureReader {
 		OWLOntology ont = graph.getSourceOntology();
 		String row;
 		if (graph.inferredEdgeBySource == null) {
-			graph.inferredEdgeBySource = new HashMap<OWLObject,Set<OWLGraphEdge>>();
+			graph.inferredEdgeBySource = new ConcurrentHashMap<OWLObject,Set<OWLGraphEdge>>();
 		}
 		while (true) {
 			row = reader.readLine();
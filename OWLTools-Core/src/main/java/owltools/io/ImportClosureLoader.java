@@ -0,0 +1,320 @@
+package owltools.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+import org.semanticweb.owlapi.model.AddImport;
+import org.semanticweb.owlapi.model.AddOntologyAnnotation;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotation;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLImportsDeclaration;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyFormat;
+import org.semanticweb.owlapi.model.OWLOntologyID;
+import org.semanticweb.owlapi.model.OWLOntologyIRIMapper;
+import org.semanticweb.owlapi.model.OWLOntologyLoaderConfiguration;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.model.UnloadableImportException;
+import org.semanticweb.owlapi.util.NonMappingOntologyIRIMapper;
+
+import uk.ac.manchester.cs.owl.owlapi.EmptyInMemOWLOntologyFactory;
+import uk.ac.manchester.cs.owl.owlapi.OWLOntologyManagerImpl;
+import uk.ac.manchester.cs.owl.owlapi.ParsableOWLOntologyFactory;
+
+/**
+ * Loads an ontology and its import closure, parsing independent imports
+ * concurrently.
+ * <p>
+ * Each document is parsed by its own manager, which records the import
+ * requests of the parser instead of loading them. The recorded imports are
+ * then submitted to the pool, unless already loaded or submitted, so the
+ * import graph is resolved as its documents are parsed. Each parsed
+ * ontology is copied into the manager of the {@link ParserWrapper} as soon
+ * as it is parsed, and then released, so that at most one copy of each
+ * ontology is held. Finally, the import requests are made in the manager of
+ * the {@link ParserWrapper}, which finds the ontologies already present.
+ * Only imports the parser requests are followed, as with serial loading.
+ * <p>
+ * The IRI mappers of the {@link ParserWrapper} are shared by the workers, so
+ * they must be thread-safe for lookups.
+ *
+ * @see ParserWrapper#setImportLoadThreads(int)
+ */
+class ImportClosureLoader {
+
+	private static final Logger LOG = Logger.getLogger(ImportClosureLoader.class);
+
+	private final ParserWrapper pw;
+	private final OWLOntologyManager manager;
+	private final int threads;
+
+	ImportClosureLoader(ParserWrapper pw, int threads) {
+		this.pw = pw;
+		this.manager = pw.getManager();
+		this.threads = threads;
+	}
+
+	/**
+	 * @param iri
+	 * @return ontology loaded from iri, with its import closure
+	 * @throws OWLOntologyCreationException
+	 */
+	OWLOntology load(IRI iri) throws OWLOntologyCreationException {
+		long t = System.currentTimeMillis();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		// in order of completion
+		List<ParsedDocument> documents = new ArrayList<ParsedDocument>();
+		// copies added to the manager, removed again if loading fails
+		List<OWLOntology> added = new ArrayList<OWLOntology>();
+		OWLOntology ont = null;
+		boolean isLoaded = false;
+		try {
+			CompletionService<ParsedDocument> completion = new ExecutorCompletionService<ParsedDocument>(pool);
+			Set<IRI> submitted = new HashSet<IRI>();
+			submitted.add(iri);
+			completion.submit(new ParseTask(iri, null));
+			int pending = 1;
+			while (pending > 0) {
+				ParsedDocument doc = completion.take().get();
+				pending--;
+				documents.add(doc);
+				// imports of this ontology by its own IRI, as in a cycle
+				OWLOntologyID id = doc.ontology.getOntologyID();
+				// the manager is only accessed from this thread
+				OWLOntology copy = addToManager(doc.ontology, added);
+				if (ont == null) {
+					// the root is parsed first
+					ont = copy;
+				}
+				doc.release();
+				if (id.getOntologyIRI() != null) {
+					submitted.add(id.getOntologyIRI());
+				}
+				if (id.getVersionIRI() != null) {
+					submitted.add(id.getVersionIRI());
+				}
+				for (OWLImportsDeclaration d : doc.importRequests) {
+					IRI importIRI = d.getIRI();
+					if (submitted.add(importIRI) && !pw.isLoaded(importIRI)) {
+						completion.submit(new ParseTask(importIRI, d));
+						pending++;
+					}
+				}
+			}
+			isLoaded = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OWLOntologyCreationException("Interrupted while loading "+iri, e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof OWLOntologyCreationException) {
+				throw (OWLOntologyCreationException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new OWLOntologyCreationException("Could not load "+iri, cause);
+		}
+		finally {
+			pool.shutdownNow();
+			for (ParsedDocument doc : documents) {
+				doc.release();
+			}
+			if (!isLoaded) {
+				for (OWLOntology o : added) {
+					manager.removeOntology(o);
+				}
+			}
+		}
+
+		for (ParsedDocument doc : documents) {
+			for (OWLImportsDeclaration d : doc.importRequests) {
+				manager.makeLoadImportRequest(d);
+			}
+		}
+		logTimes(iri, documents, System.currentTimeMillis() - t);
+		return ont;
+	}
+
+	/**
+	 * @param parsed
+	 * @param added - the copy is added to this list, unless already present
+	 * @return copy of parsed in the manager of the {@link ParserWrapper}
+	 * @throws OWLOntologyCreationException
+	 */
+	private OWLOntology addToManager(OWLOntology parsed, List<OWLOntology> added) throws OWLOntologyCreationException {
+		if (manager.contains(parsed.getOntologyID())) {
+			// the same document under different import IRIs
+			return manager.getOntology(parsed.getOntologyID());
+		}
+		OWLOntologyManager parsedManager = parsed.getOWLOntologyManager();
+		OWLOntology ont = manager.createOntology(parsed.getOntologyID());
+		manager.setOntologyDocumentIRI(ont, parsedManager.getOntologyDocumentIRI(parsed));
+		OWLOntologyFormat format = parsedManager.getOntologyFormat(parsed);
+		if (format != null) {
+			manager.setOntologyFormat(ont, format);
+		}
+		List<OWLOntologyChange> changes = new ArrayList<OWLOntologyChange>();
+		for (OWLAnnotation a : parsed.getAnnotations()) {
+			changes.add(new AddOntologyAnnotation(ont, a));
+		}
+		for (OWLImportsDeclaration d : parsed.getImportsDeclarations()) {
+			changes.add(new AddImport(ont, d));
+		}
+		added.add(ont);
+		manager.applyChanges(changes);
+		manager.addAxioms(ont, parsed.getAxioms());
+		return ont;
+	}
+
+	private void logTimes(IRI iri, List<ParsedDocument> documents, long totalTime) {
+		List<ParsedDocument> sorted = new ArrayList<ParsedDocument>(documents);
+		Collections.sort(sorted, new Comparator<ParsedDocument>() {
+
+			@Override
+			public int compare(ParsedDocument d1, ParsedDocument d2) {
+				return d1.time < d2.time ? 1 : (d1.time > d2.time ? -1 : 0);
+			}
+		});
+		long parseTime = 0;
+		for (ParsedDocument doc : sorted) {
+			parseTime += doc.time;
+			pw.addLoadTime(doc.documentIRI, doc.time);
+			LOG.info("Import "+doc.iri+" parsed from "+doc.documentIRI+" in ms = "+doc.time+
+					(doc.isFromSnapshot ? " (snapshot)" : ""));
+		}
+		LOG.info("Loaded "+iri+" with "+documents.size()+" ontologies on "+threads+
+				" threads, ms = "+totalTime+", sum of parse times ms = "+parseTime);
+	}
+
+	private static class ParsedDocument {
+		final IRI iri;
+		final IRI documentIRI;
+		// null once released
+		OWLOntology ontology;
+		final List<OWLImportsDeclaration> importRequests;
+		final long time;
+		final boolean isFromSnapshot;
+
+		ParsedDocument(IRI iri, OWLOntology ontology, List<OWLImportsDeclaration> importRequests,
+				long time, boolean isFromSnapshot) {
+			this.iri = iri;
+			this.documentIRI = ontology.getOWLOntologyManager().getOntologyDocumentIRI(ontology);
+			this.ontology = ontology;
+			this.importRequests = importRequests;
+			this.time = time;
+			this.isFromSnapshot = isFromSnapshot;
+		}
+
+		/**
+		 * Removes the parsed ontology from the manager of its worker, once it
+		 * has been copied or is no longer needed.
+		 */
+		void release() {
+			if (ontology != null) {
+				ontology.getOWLOntologyManager().removeOntology(ontology);
+				ontology = null;
+			}
+		}
+	}
+
+	private class ParseTask implements Callable<ParsedDocument> {
+
+		private final IRI iri;
+		// null for the root
+		private final OWLImportsDeclaration declaration;
+
+		ParseTask(IRI iri, OWLImportsDeclaration declaration) {
+			this.iri = iri;
+			this.declaration = declaration;
+		}
+
+		@Override
+		public ParsedDocument call() throws Exception {
+			long t = System.currentTimeMillis();
+			ImportRecordingManager m = new ImportRecordingManager(manager.getOWLDataFactory(), pw.getIRIMappers());
+			OWLOntology ont = null;
+			boolean isFromSnapshot = false;
+			try {
+				OntologySnapshotCache snapshotCache = pw.getSnapshotCache();
+				File source = snapshotCache != null ? pw.getLocalFile(iri) : null;
+				if (source != null && source.isFile()) {
+					IRI documentIRI = IRI.create(source);
+					try {
+						ont = snapshotCache.load(m, documentIRI, source);
+					} catch (IOException e) {
+						throw new OWLOntologyCreationException("Could not read ontology document: "+source, e);
+					}
+					isFromSnapshot = ont != null;
+					if (ont == null) {
+						ont = m.loadOntology(iri);
+						snapshotCache.save(ont, documentIRI, source);
+					}
+				}
+				else {
+					ont = m.loadOntology(iri);
+				}
+			} catch (OWLOntologyCreationException e) {
+				if (declaration != null) {
+					throw new UnloadableImportException(e, declaration);
+				}
+				throw e;
+			}
+			return new ParsedDocument(iri, ont, m.importRequests, System.currentTimeMillis() - t, isFromSnapshot);
+		}
+	}
+
+	/**
+	 * Manager for a single document, which records import requests instead
+	 * of loading them.
+	 */
+	private static class ImportRecordingManager extends OWLOntologyManagerImpl {
+
+		private static final long serialVersionUID = -3570712843563474390L;
+
+		final List<OWLImportsDeclaration> importRequests = new ArrayList<OWLImportsDeclaration>();
+
+		ImportRecordingManager(OWLDataFactory dataFactory, List<OWLOntologyIRIMapper> mappers) {
+			super(dataFactory);
+			// as in OWLManager, without storers
+			addIRIMapper(new NonMappingOntologyIRIMapper());
+			// each mapper is added in front
+			List<OWLOntologyIRIMapper> reverse = new ArrayList<OWLOntologyIRIMapper>(mappers);
+			Collections.reverse(reverse);
+			for (OWLOntologyIRIMapper mapper : reverse) {
+				addIRIMapper(mapper);
+			}
+			addOntologyFactory(new EmptyInMemOWLOntologyFactory());
+			addOntologyFactory(new ParsableOWLOntologyFactory());
+		}
+
+		@Override
+		public void makeLoadImportRequest(OWLImportsDeclaration declaration) {
+			importRequests.add(declaration);
+		}
+
+		@Override
+		public void makeLoadImportRequest(OWLImportsDeclaration declaration,
+				OWLOntologyLoaderConfiguration configuration) {
+			if (!configuration.isIgnoredImport(declaration.getIRI())) {
+				importRequests.add(declaration);
+			}
+		}
+	}
+}
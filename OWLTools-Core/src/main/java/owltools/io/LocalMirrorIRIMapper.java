@@ -24,6 +24,9 @@ import org.semanticweb.owlapi.model.OWLOntologyIRIMapper;
  * (2) Substitution (typically a local or global path in the users filesystem)
  * 
  * {@link OWLOntologyIRIMapper} using the mappings to a local directory
+ * 
+ * The mappings are not modified after creation, so lookups are thread-safe,
+ * see {@link ParserWrapper#setImportLoadThreads(int)}.
  */
 public class LocalMirrorIRIMapper implements OWLOntologyIRIMapper {
 
@@ -0,0 +1,315 @@
+package owltools.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddImport;
+import org.semanticweb.owlapi.model.AddOntologyAnnotation;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotation;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLImportsDeclaration;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyFormat;
+import org.semanticweb.owlapi.model.OWLOntologyID;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.vocab.PrefixOWLOntologyFormat;
+
+/**
+ * On-disk cache of parsed ontologies, used by {@link ParserWrapper} when
+ * enabled with {@link ParserWrapper#setSnapshotCache(OntologySnapshotCache)}.
+ * <p>
+ * A snapshot holds the ontology id, format, imports declarations, ontology
+ * annotations and axioms of a single local ontology document, as serialized
+ * OWL-API objects. It is keyed by a SHA-1 hash of the document content, the
+ * document IRI (which is used as default ontology IRI for OBO files) and the
+ * OWL-API version, so a changed source is parsed again, and the stale
+ * snapshot replaced. Imports are not part of the snapshot; they are loaded
+ * by the manager as usual.
+ * <p>
+ * File format: magic number (long), format version (int), key (UTF), then an
+ * object stream.
+ */
+public class OntologySnapshotCache {
+
+	private static final Logger LOG = Logger.getLogger(OntologySnapshotCache.class);
+
+	// "OWLSNAPS"
+	static final long MAGIC = 0x4F574C534E415053L;
+	static final int VERSION = 1;
+
+	private static final String SUFFIX = ".snapshot";
+
+	private final File directory;
+
+	/**
+	 * @param directory - created if required
+	 */
+	public OntologySnapshotCache(File directory) {
+		this.directory = directory;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @param manager
+	 * @param documentIRI
+	 * @param source - local file of documentIRI
+	 * @return ontology restored from the snapshot of source, or null if there
+	 * is no valid snapshot
+	 * @throws IOException if the source cannot be read
+	 */
+	public OWLOntology load(OWLOntologyManager manager, IRI documentIRI, File source) throws IOException {
+		String key = getKey(documentIRI, source);
+		File file = getSnapshotFile(documentIRI, key);
+		if (!file.isFile()) {
+			return null;
+		}
+		long t = System.currentTimeMillis();
+		OWLOntology ont = null;
+		ObjectInputStream in = null;
+		try {
+			InputStream stream = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+			DataInputStream header = new DataInputStream(stream);
+			if (header.readLong() != MAGIC || header.readInt() != VERSION || !key.equals(header.readUTF())) {
+				LOG.warn("Ignoring invalid ontology snapshot: "+file);
+				stream.close();
+				return null;
+			}
+			in = new ObjectInputStream(stream);
+			OWLOntologyID id = (OWLOntologyID) in.readObject();
+			if (manager.contains(id)) {
+				LOG.info("Skip already loaded ontology: "+documentIRI);
+				return manager.getOntology(id);
+			}
+			String formatClass = (String) in.readObject();
+			@SuppressWarnings("unchecked")
+			Map<String,String> prefixes = (Map<String,String>) in.readObject();
+			@SuppressWarnings("unchecked")
+			List<OWLImportsDeclaration> imports = (List<OWLImportsDeclaration>) in.readObject();
+			@SuppressWarnings("unchecked")
+			List<OWLAnnotation> annotations = (List<OWLAnnotation>) in.readObject();
+			@SuppressWarnings("unchecked")
+			List<OWLAxiom> axioms = (List<OWLAxiom>) in.readObject();
+
+			ont = manager.createOntology(id);
+			manager.setOntologyDocumentIRI(ont, documentIRI);
+			OWLOntologyFormat format = createFormat(formatClass, prefixes);
+			if (format != null) {
+				manager.setOntologyFormat(ont, format);
+			}
+			List<OWLOntologyChange> changes = new ArrayList<OWLOntologyChange>();
+			for (OWLAnnotation a : annotations) {
+				changes.add(new AddOntologyAnnotation(ont, a));
+			}
+			for (OWLImportsDeclaration d : imports) {
+				changes.add(new AddImport(ont, d));
+			}
+			manager.applyChanges(changes);
+			manager.addAxioms(ont, new HashSet<OWLAxiom>(axioms));
+			LOG.info("Restored ontology "+id+" from snapshot "+file+", ms = "+(System.currentTimeMillis() - t));
+			for (OWLImportsDeclaration d : imports) {
+				manager.makeLoadImportRequest(d);
+			}
+			return ont;
+		}
+		catch (OWLOntologyCreationException e) {
+			LOG.warn("Could not restore ontology snapshot: "+file, e);
+		}
+		catch (ClassNotFoundException e) {
+			LOG.warn("Could not restore ontology snapshot: "+file, e);
+		}
+		catch (ClassCastException e) {
+			LOG.warn("Could not restore ontology snapshot: "+file, e);
+		}
+		catch (IOException e) {
+			// truncated or corrupt, parse the source instead
+			LOG.warn("Could not restore ontology snapshot: "+file, e);
+		}
+		finally {
+			IOUtils.closeQuietly(in);
+		}
+		if (ont != null) {
+			manager.removeOntology(ont);
+		}
+		return null;
+	}
+
+	/**
+	 * Writes a snapshot of ont, replacing any snapshot of a previous version of
+	 * source. Failures are logged, as the cache is optional.
+	 *
+	 * @param ont
+	 * @param documentIRI
+	 * @param source - local file from which ont was loaded
+	 */
+	public void save(OWLOntology ont, IRI documentIRI, File source) {
+		File tmp = null;
+		try {
+			String key = getKey(documentIRI, source);
+			final String prefix = getFilePrefix(documentIRI);
+			File file = getSnapshotFile(documentIRI, key);
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Could not create snapshot directory: "+directory);
+			}
+			long t = System.currentTimeMillis();
+			tmp = File.createTempFile(prefix, ".tmp", directory);
+			write(ont, key, tmp);
+			// remove stale snapshots of the same document
+			File[] stale = directory.listFiles(new FilenameFilter() {
+
+				@Override
+				public boolean accept(File dir, String name) {
+					return name.startsWith(prefix) && name.endsWith(SUFFIX);
+				}
+			});
+			if (stale != null) {
+				for (File f : stale) {
+					f.delete();
+				}
+			}
+			if (!tmp.renameTo(file)) {
+				throw new IOException("Could not rename "+tmp+" to "+file);
+			}
+			LOG.info("Saved ontology snapshot "+file+", ms = "+(System.currentTimeMillis() - t));
+		}
+		catch (IOException e) {
+			LOG.warn("Could not save ontology snapshot of "+documentIRI, e);
+			if (tmp != null) {
+				tmp.delete();
+			}
+		}
+	}
+
+	private void write(OWLOntology ont, String key, File file) throws IOException {
+		OWLOntologyManager manager = ont.getOWLOntologyManager();
+		OWLOntologyFormat format = manager.getOntologyFormat(ont);
+		Map<String,String> prefixes = null;
+		if (format instanceof PrefixOWLOntologyFormat) {
+			prefixes = new HashMap<String,String>(((PrefixOWLOntologyFormat) format).getPrefixName2PrefixMap());
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		ObjectOutputStream objects = null;
+		try {
+			out.writeLong(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(key);
+			objects = new ObjectOutputStream(out);
+			objects.writeObject(ont.getOntologyID());
+			objects.writeObject(format != null ? format.getClass().getName() : null);
+			objects.writeObject(prefixes);
+			objects.writeObject(new ArrayList<OWLImportsDeclaration>(ont.getImportsDeclarations()));
+			objects.writeObject(new ArrayList<OWLAnnotation>(ont.getAnnotations()));
+			objects.writeObject(new ArrayList<OWLAxiom>(ont.getAxioms()));
+		}
+		finally {
+			IOUtils.closeQuietly(objects);
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+	private static OWLOntologyFormat createFormat(String formatClass, Map<String,String> prefixes) {
+		if (formatClass == null) {
+			return null;
+		}
+		try {
+			OWLOntologyFormat format = (OWLOntologyFormat) Class.forName(formatClass).newInstance();
+			if (prefixes != null && format instanceof PrefixOWLOntologyFormat) {
+				for (Entry<String,String> e : prefixes.entrySet()) {
+					((PrefixOWLOntologyFormat) format).setPrefix(e.getKey(), e.getValue());
+				}
+			}
+			return format;
+		} catch (Exception e) {
+			LOG.warn("Could not restore ontology format: "+formatClass, e);
+			return null;
+		}
+	}
+
+	/**
+	 * @param documentIRI
+	 * @param source
+	 * @return hex encoded SHA-1 of the settings and the content of source
+	 * @throws IOException
+	 */
+	String getKey(IRI documentIRI, File source) throws IOException {
+		MessageDigest digest = createDigest();
+		digest.update(("v"+VERSION+"\n"+getOWLAPIVersion()+"\n"+documentIRI+"\n").getBytes("UTF-8"));
+		InputStream in = new FileInputStream(source);
+		try {
+			byte[] buffer = new byte[1 << 16];
+			int n;
+			while ((n = in.read(buffer)) >= 0) {
+				digest.update(buffer, 0, n);
+			}
+		}
+		finally {
+			in.close();
+		}
+		return toHex(digest.digest());
+	}
+
+	private File getSnapshotFile(IRI documentIRI, String key) throws IOException {
+		return new File(directory, getFilePrefix(documentIRI)+key+SUFFIX);
+	}
+
+	/**
+	 * Snapshots of the same document share a prefix, so that they can be
+	 * replaced.
+	 */
+	private static String getFilePrefix(IRI documentIRI) throws IOException {
+		String name = new File(documentIRI.toURI().getPath()).getName().replaceAll("[^A-Za-z0-9._-]", "_");
+		MessageDigest digest = createDigest();
+		String hash = toHex(digest.digest(documentIRI.toString().getBytes("UTF-8"))).substring(0, 8);
+		return name+"-"+hash+"-";
+	}
+
+	private static String getOWLAPIVersion() {
+		Package p = OWLManager.class.getPackage();
+		String version = p != null ? p.getImplementationVersion() : null;
+		return version != null ? version : "unknown";
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform is required to support SHA-1
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+}
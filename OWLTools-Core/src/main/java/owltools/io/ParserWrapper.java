@@ -10,7 +10,10 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
@@ -53,6 +56,10 @@ public class ParserWrapper {
 	private final List<OWLOntologyIRIMapper> mappers = new ArrayList<OWLOntologyIRIMapper>();
 	OBODoc obodoc;
 	boolean isCheckOboDoc = true;
+	OntologySnapshotCache snapshotCache = null;
+	int importLoadThreads = 1;
+	private final Map<IRI,Long> loadTimes = Collections.synchronizedMap(new LinkedHashMap<IRI,Long>());
+	private final Map<IRI,Long> loadStartTimes = new ConcurrentHashMap<IRI,Long>();
 	
 	
 	public ParserWrapper() {
@@ -65,13 +72,22 @@ public class ParserWrapper {
 				IRI id = event.getOntologyID().getOntologyIRI();
 				IRI source = event.getDocumentIRI();
 				LOG.info("Start loading ontology: "+id+" from: "+source);
+				loadStartTimes.put(source, System.currentTimeMillis());
 			}
 
 			@Override
 			public void finishedLoadingOntology(LoadingFinishedEvent event) {
 				IRI id = event.getOntologyID().getOntologyIRI();
 				IRI source = event.getDocumentIRI();
-				LOG.info("Finished loading ontology: "+id+" from: "+source);
+				Long start = loadStartTimes.remove(source);
+				if (start != null) {
+					long time = System.currentTimeMillis() - start;
+					addLoadTime(source, time);
+					LOG.info("Finished loading ontology: "+id+" from: "+source+" ms = "+time);
+				}
+				else {
+					LOG.info("Finished loading ontology: "+id+" from: "+source);
+				}
 			}
 		};
 		manager.addOntologyLoaderListener(listener);
@@ -109,6 +125,54 @@ public class ParserWrapper {
 		this.isCheckOboDoc = isCheckOboDoc;
 	}
 
+	public OntologySnapshotCache getSnapshotCache() {
+		return snapshotCache;
+	}
+
+	/**
+	 * Enables reuse of parsed local ontology documents across runs; null
+	 * (default) disables it.
+	 * 
+	 * @param snapshotCache
+	 * @see OntologySnapshotCache
+	 */
+	public void setSnapshotCache(OntologySnapshotCache snapshotCache) {
+		this.snapshotCache = snapshotCache;
+	}
+
+	public int getImportLoadThreads() {
+		return importLoadThreads;
+	}
+
+	/**
+	 * With more than one thread, the imports of an ontology are parsed
+	 * concurrently, each import as soon as the ontology importing it has been
+	 * parsed. The IRI mappers must be thread-safe for lookups.
+	 * 
+	 * @param importLoadThreads - default 1, serial loading by the manager
+	 * @see ImportClosureLoader
+	 */
+	public void setImportLoadThreads(int importLoadThreads) {
+		this.importLoadThreads = importLoadThreads;
+	}
+
+	/**
+	 * With serial loading, the time of an ontology includes the time of its
+	 * imports; with concurrent loading, each time is for a single document.
+	 * 
+	 * @return time in ms to load each ontology document (by IRI) since the
+	 * creation of this wrapper, in order of completion
+	 */
+	public Map<IRI,Long> getLoadTimes() {
+		synchronized (loadTimes) {
+			return new LinkedHashMap<IRI,Long>(loadTimes);
+		}
+	}
+
+	void addLoadTime(IRI iri, long time) {
+		loadTimes.put(iri, time);
+	}
+
 	public void addIRIMapper(OWLOntologyIRIMapper mapper) {
 		manager.addIRIMapper(mapper);
 		mappers.add(0, mapper);
@@ -167,6 +231,77 @@ public class ParserWrapper {
 		if (LOG.isDebugEnabled()) {
 			LOG.debug("parsing: "+iri.toString()+" using "+manager);
 		}
+		if (importLoadThreads > 1 && !isLoaded(iri)) {
+			return new ImportClosureLoader(this, importLoadThreads).load(iri);
+		}
+		if (snapshotCache != null) {
+			File source = getLocalFile(iri);
+			if (source != null && source.isFile()) {
+				return parseOWLWithSnapshot(iri, source);
+			}
+		}
+		return loadOntology(iri);
+	}
+
+	/**
+	 * @param iri
+	 * @return true, if the manager has an ontology with iri as ontology,
+	 * version or document IRI
+	 */
+	boolean isLoaded(IRI iri) {
+		if (manager.contains(iri)) {
+			return true;
+		}
+		for (OWLOntology ont : manager.getOntologies()) {
+			if (iri.equals(ont.getOntologyID().getVersionIRI()) || iri.equals(manager.getOntologyDocumentIRI(ont))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private OWLOntology parseOWLWithSnapshot(IRI iri, File source) throws OWLOntologyCreationException {
+		IRI documentIRI = IRI.create(source);
+		OWLOntology ont;
+		try {
+			ont = snapshotCache.load(manager, documentIRI, source);
+		} catch (IOException e) {
+			throw new OWLOntologyCreationException("Could not read ontology document: "+source, e);
+		}
+		if (ont == null) {
+			ont = loadOntology(iri);
+			snapshotCache.save(ont, documentIRI, source);
+		}
+		return ont;
+	}
+
+	/**
+	 * @param iri
+	 * @return local file for iri, either a file IRI or mapped to one, or null
+	 */
+	File getLocalFile(IRI iri) {
+		IRI documentIRI = iri;
+		if (!"file".equals(iri.getScheme())) {
+			documentIRI = null;
+			for (OWLOntologyIRIMapper mapper : mappers) {
+				documentIRI = mapper.getDocumentIRI(iri);
+				if (documentIRI != null) {
+					break;
+				}
+			}
+		}
+		if (documentIRI != null && "file".equals(documentIRI.getScheme())) {
+			try {
+				return new File(documentIRI.toURI());
+			} catch (IllegalArgumentException e) {
+				// not a hierarchical file URI
+				return null;
+			}
+		}
+		return null;
+	}
+
+	private OWLOntology loadOntology(IRI iri) throws OWLOntologyCreationException {
 		OWLOntology ont;
 		try {
 			ont = manager.loadOntology(iri);
@@ -186,7 +321,8 @@ public class ParserWrapper {
 			ont = manager.getOntology(duplicate);
 			if (ont == null) {
 				for(OWLOntology managed : manager.getOntologies()) {
-					if(duplicate.equals(managed.getOntologyID().getOntologyIRI())) {
+					if(duplicate.equals(managed.getOntologyID().getOntologyIRI()) ||
+							duplicate.equals(manager.getOntologyDocumentIRI(managed))) {
 						LOG.info("Skip already loaded ontology: "+iri);
 						ont = managed;
 						break;
@@ -3,10 +3,21 @@ package owltools.profile;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Accumulates the time spent in named tasks, and holds named counters. May
+ * be shared by several threads: start times are recorded per thread, and
+ * totals across threads.
+ */
 public class Profiler {
 	
 	Map<String,Long> taskTotalTimeMap = new HashMap<String,Long>();
-	Map<String,Long> taskInitTimeMap = new HashMap<String,Long>();
+	Map<String,Long> counterMap = new HashMap<String,Long>();
+	private final ThreadLocal<Map<String,Long>> taskInitTimeMap = new ThreadLocal<Map<String,Long>>() {
+		@Override
+		protected Map<String, Long> initialValue() {
+			return new HashMap<String,Long>();
+		}
+	};
 
 	public Profiler() {
 		super();
@@ -14,22 +25,51 @@ public class Profiler {
 	}
 	
 	public void startTaskNotify(String task) {
-		taskInitTimeMap.put(task, System.nanoTime());
+		taskInitTimeMap.get().put(task, System.nanoTime());
 	}
 
 	public void endTaskNotify(String task) {
-		long ct = 0;
-		if (taskTotalTimeMap.containsKey(task)) {
-			ct = taskTotalTimeMap.get(task);
-		}
-		long t1 = taskInitTimeMap.get(task);
+		long t1 = taskInitTimeMap.get().get(task);
 		long t2 = System.nanoTime();
-		taskTotalTimeMap.put(task, ct + (t2-t1));
+		synchronized (taskTotalTimeMap) {
+			long ct = 0;
+			if (taskTotalTimeMap.containsKey(task)) {
+				ct = taskTotalTimeMap.get(task);
+			}
+			taskTotalTimeMap.put(task, ct + (t2-t1));
+		}
 	}
 	
+	/**
+	 * @param counter
+	 * @param value - replaces the previous value of the counter
+	 */
+	public void setCounter(String counter, long value) {
+		synchronized (counterMap) {
+			counterMap.put(counter, value);
+		}
+	}
+
+	/**
+	 * @param counter
+	 * @return value of the counter, null if it has not been set
+	 */
+	public Long getCounter(String counter) {
+		synchronized (counterMap) {
+			return counterMap.get(counter);
+		}
+	}
+
 	public void report() {
-		for (String task : taskTotalTimeMap.keySet()) {
-			System.out.println("TASK:"+task+" TIME:"+((float)taskTotalTimeMap.get(task)) / 1000000000);
+		synchronized (taskTotalTimeMap) {
+			for (String task : taskTotalTimeMap.keySet()) {
+				System.out.println("TASK:"+task+" TIME:"+((float)taskTotalTimeMap.get(task)) / 1000000000);
+			}
+		}
+		synchronized (counterMap) {
+			for (String counter : counterMap.keySet()) {
+				System.out.println("COUNTER:"+counter+" VALUE:"+counterMap.get(counter));
+			}
 		}
 	}
 	
@@ -3,8 +3,18 @@ package owltools.graph;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 import org.obolibrary.oboformat.parser.OBOFormatParserException;
@@ -16,10 +26,12 @@ import org.semanticweb.owlapi.model.OWLClass;
 import org.semanticweb.owlapi.model.OWLDataFactory;
 import org.semanticweb.owlapi.model.OWLNamedObject;
 import org.semanticweb.owlapi.model.OWLObject;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
 import org.semanticweb.owlapi.model.OWLObjectSomeValuesFrom;
 import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.model.OWLPropertyExpression;
 import org.semanticweb.owlapi.model.OWLSubClassOfAxiom;
 
 import owltools.OWLToolsTestBasics;
@@ -239,4 +251,220 @@ public class OWLGraphWrapperEdgeTest extends OWLToolsTestBasics {
         
 	}
 	
+	/**
+	 * Closures computed by concurrent threads through the cache must be the
+	 * same as closures computed one at a time without it.
+	 */
+	@Test
+	public void testConcurrentClosureCache() throws Exception {
+		final OWLGraphWrapper g = getGraph("caro.obo");
+		OWLGraphWrapper expectedGraph = getGraph("caro.obo");
+		expectedGraph.getConfig().isCacheClosure = false;
+
+		final List<OWLObject> objs = new ArrayList<OWLObject>(g.getAllOWLObjects());
+		Map<OWLObject, Set<OWLGraphEdge>> expectedOutgoing = new HashMap<OWLObject, Set<OWLGraphEdge>>();
+		Map<OWLObject, Set<OWLGraphEdge>> expectedIncoming = new HashMap<OWLObject, Set<OWLGraphEdge>>();
+		for (OWLObject obj : objs) {
+			expectedOutgoing.put(obj, expectedGraph.getOutgoingEdgesClosure(obj));
+			expectedIncoming.put(obj, expectedGraph.getIncomingEdgesClosure(obj));
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		List<Future<Map<OWLObject, Set<OWLGraphEdge>>>> results =
+				new ArrayList<Future<Map<OWLObject, Set<OWLGraphEdge>>>>();
+		for (int n = 0; n < 8; n++) {
+			final boolean isOutgoing = n % 2 == 0;
+			final long seed = n;
+			results.add(pool.submit(new Callable<Map<OWLObject, Set<OWLGraphEdge>>>() {
+				@Override
+				public Map<OWLObject, Set<OWLGraphEdge>> call() {
+					List<OWLObject> shuffled = new ArrayList<OWLObject>(objs);
+					Collections.shuffle(shuffled, new Random(seed));
+					Map<OWLObject, Set<OWLGraphEdge>> closures = new HashMap<OWLObject, Set<OWLGraphEdge>>();
+					for (OWLObject obj : shuffled) {
+						closures.put(obj, isOutgoing ? g.getOutgoingEdgesClosure(obj) : g.getIncomingEdgesClosure(obj));
+					}
+					return closures;
+				}
+			}));
+		}
+		pool.shutdown();
+		for (int n = 0; n < results.size(); n++) {
+			Map<OWLObject, Set<OWLGraphEdge>> closures = results.get(n).get();
+			assertEquals(n % 2 == 0 ? expectedOutgoing : expectedIncoming, closures);
+		}
+		assertEquals(objs.size(), g.inferredEdgeBySource.size());
+	}
+
+	/**
+	 * Closures over a property set are cached per set, regardless of which
+	 * set instance is used for the request.
+	 */
+	@Test
+	public void testPropertySetClosureCache() throws Exception {
+		OWLGraphWrapper g = getGraph("caro.obo");
+		OWLGraphWrapper expectedGraph = getGraph("caro.obo");
+		expectedGraph.getConfig().isCacheClosure = false;
+
+		Set<OWLObjectProperty> partOf = Collections.singleton(g.getOWLObjectPropertyByIdentifier("part_of"));
+		Set<OWLObjectProperty> partOfOverlaps = new HashSet<OWLObjectProperty>();
+		partOfOverlaps.add(g.getOWLObjectPropertyByIdentifier("overlaps"));
+		partOfOverlaps.add(g.getOWLObjectPropertyByIdentifier("part_of"));
+
+		List<OWLObject> objs = new ArrayList<OWLObject>(g.getAllOWLObjects());
+		for (OWLObject obj : objs) {
+			assertEquals(expectedGraph.getOutgoingEdgesClosure(obj, partOf), g.getOutgoingEdgesClosure(obj, partOf));
+		}
+		assertEquals(0, g.getClosureCacheHits());
+		assertEquals(objs.size(), g.getClosureCacheMisses());
+
+		// an equal set is served from the same cache
+		Set<OWLObjectProperty> partOfCopy = new HashSet<OWLObjectProperty>(partOf);
+		for (OWLObject obj : objs) {
+			assertEquals(expectedGraph.getOutgoingEdgesClosure(obj, partOf), g.getOutgoingEdgesClosure(obj, partOfCopy));
+		}
+		assertEquals(objs.size(), g.getClosureCacheHits());
+		assertEquals(objs.size(), g.getClosureCacheMisses());
+		assertEquals(1, g.getCachedClosurePropertySets().size());
+
+		for (OWLObject obj : objs) {
+			assertEquals(expectedGraph.getOutgoingEdgesClosure(obj, partOfOverlaps), g.getOutgoingEdgesClosure(obj, partOfOverlaps));
+			assertEquals(expectedGraph.getOutgoingEdgesClosure(obj), g.getOutgoingEdgesClosure(obj));
+		}
+		assertEquals(2, g.getCachedClosurePropertySets().size());
+		assertEquals(3 * objs.size(), g.getClosureCacheMisses());
+
+		g.clearCachedEdges();
+		assertTrue(g.getCachedClosurePropertySets().isEmpty());
+	}
+
+	/**
+	 * A bounded closure cache must stay within its bounds and still return
+	 * the same closures.
+	 */
+	@Test
+	public void testBoundedClosureCache() throws Exception {
+		OWLGraphWrapper g = getGraph("caro.obo");
+		OWLGraphWrapper expectedGraph = getGraph("caro.obo");
+		expectedGraph.getConfig().isCacheClosure = false;
+		g.getConfig().closureCacheMaxEntries = 10;
+
+		List<OWLObject> objs = new ArrayList<OWLObject>(g.getAllOWLObjects());
+		assertTrue(objs.size() > 10);
+		for (OWLObject obj : objs) {
+			assertEquals(expectedGraph.getOutgoingEdgesClosure(obj), g.getOutgoingEdgesClosure(obj));
+			assertEquals(expectedGraph.getIncomingEdgesClosure(obj), g.getIncomingEdgesClosure(obj));
+			assertTrue(g.inferredEdgeBySource.size() <= 10);
+		}
+		assertEquals(0, g.getClosureCacheHits());
+		assertEquals(objs.size(), g.getClosureCacheMisses());
+		assertTrue(g.getClosureCacheEvictions() > 0);
+		assertTrue(g.getClosureCacheLoadTime() >= 0);
+
+		// the most recently used closure is kept
+		OWLObject last = objs.get(objs.size() - 1);
+		g.getOutgoingEdgesClosure(last);
+		assertEquals(1, g.getClosureCacheHits());
+
+		// bounded by edges, evicting the largest closures first
+		g.clearCachedEdges();
+		g.getConfig().closureCacheMaxEntries = 0;
+		g.getConfig().closureCacheMaxEdges = 20;
+		g.getConfig().closureCacheEviction = OWLGraphClosureCache.Eviction.LARGEST_FIRST;
+		long evictions = g.getClosureCacheEvictions();
+		for (OWLObject obj : objs) {
+			assertEquals(expectedGraph.getOutgoingEdgesClosure(obj), g.getOutgoingEdgesClosure(obj));
+			assertTrue(((OWLGraphClosureCache) g.inferredEdgeBySource).getNumberOfEdges() <= 20);
+		}
+		assertTrue(g.getClosureCacheEvictions() > evictions);
+		assertTrue(g.getCachedClosureEdgeCount() <= 20);
+
+		// unbounded
+		g.clearCachedEdges();
+		g.getConfig().closureCacheMaxEdges = 0;
+		long edges = 0;
+		for (OWLObject obj : objs) {
+			edges += g.getOutgoingEdgesClosure(obj).size();
+		}
+		assertEquals(objs.size(), g.inferredEdgeBySource.size());
+		assertEquals(edges, g.getCachedClosureEdgeCount());
+
+		// reported by the profiler
+		g.updateClosureCacheCounters();
+		assertEquals(Long.valueOf(edges), g.getProfiler().getCounter("closureCacheEdges"));
+		assertEquals(Long.valueOf(g.getClosureCacheEvictions()), g.getProfiler().getCounter("closureCacheEvictions"));
+	}
+
+	/**
+	 * The reachability index must agree with the ancestors and descendants
+	 * computed from the edge closures.
+	 */
+	@Test
+	public void testReachabilityIndex() throws Exception {
+		OWLGraphWrapper g = getGraph("caro.obo");
+		Set<OWLPropertyExpression> partOf = new HashSet<OWLPropertyExpression>();
+		partOf.add(g.getOWLObjectPropertyByIdentifier("part_of"));
+
+		OWLGraphReachabilityIndex index = g.getReachabilityIndex();
+		OWLGraphReachabilityIndex partOfIndex = g.getReachabilityIndex(partOf);
+		assertSame(index, g.getReachabilityIndex());
+		assertSame(partOfIndex, g.getReachabilityIndex(new HashSet<OWLPropertyExpression>(partOf)));
+		int n = 0;
+		for (OWLObject obj : g.getAllOWLObjects()) {
+			Set<OWLObject> ancs = g.getAncestors(obj);
+			assertEquals(ancs, index.getAncestors(obj));
+			assertEquals(g.getNamedAncestors(obj), index.getNamedAncestors(obj));
+			assertEquals(g.getDescendants(obj), index.getDescendants(obj));
+			assertEquals(g.getAncestors(obj, partOf), partOfIndex.getAncestors(obj));
+			for (OWLObject anc : ancs) {
+				assertTrue(index.isReachable(obj, anc));
+			}
+			n += ancs.size();
+		}
+		assertTrue(n > 0);
+		// the index also includes the class expressions reachable from the objects
+		assertTrue(index.getNumberOfPairs() >= n);
+
+		g.clearCachedEdges();
+		assertNotSame(index, g.getReachabilityIndex());
+	}
+
+	/**
+	 * The frozen view must return the same edges and closures as the graph.
+	 */
+	@Test
+	public void testFrozenView() throws Exception {
+		OWLGraphWrapper g = getGraph("caro.obo");
+		Set<OWLPropertyExpression> partOf = new HashSet<OWLPropertyExpression>();
+		partOf.add(g.getOWLObjectPropertyByIdentifier("part_of"));
+
+		OWLGraphFrozenView view = g.freeze();
+		assertTrue(view.getNumberOfNodes() >= g.getAllOWLObjects().size());
+		assertTrue(view.getNumberOfEdgeLabels() < view.getNumberOfEdges());
+		int n = 0;
+		for (int i = 0; i < view.getNumberOfNodes(); i++) {
+			OWLObject obj = view.getNode(i);
+			assertEquals(i, view.getNodeId(obj));
+			assertEquals(g.getPrimitiveOutgoingEdges(obj), view.getPrimitiveOutgoingEdges(obj));
+			assertEquals(g.getPrimitiveIncomingEdges(obj), view.getPrimitiveIncomingEdges(obj));
+			assertEquals(g.getOutgoingEdges(obj), view.getOutgoingEdges(obj));
+			assertEquals(g.getIncomingEdges(obj), view.getIncomingEdges(obj));
+			assertEquals(g.getOutgoingEdgesClosure(obj, partOf), view.getOutgoingEdgesClosure(obj, partOf));
+			Set<OWLGraphEdge> closure = g.getOutgoingEdgesClosure(obj);
+			assertEquals(closure, view.getOutgoingEdgesClosure(obj));
+			assertEquals(g.getIncomingEdgesClosure(obj), view.getIncomingEdgesClosure(obj));
+			n += closure.size();
+		}
+		assertTrue(n > 0);
+		// again, from the cached closures
+		for (OWLObject obj : g.getAllOWLObjects()) {
+			assertEquals(g.getOutgoingEdgesClosure(obj), view.getOutgoingEdgesClosure(obj));
+			assertEquals(g.getIncomingEdgesClosure(obj), view.getIncomingEdgesClosure(obj));
+			assertEquals(g.getAncestors(obj), view.getAncestors(obj));
+			assertEquals(g.getNamedAncestors(obj), view.getNamedAncestors(obj));
+			assertEquals(g.getDescendants(obj), view.getDescendants(obj));
+		}
+		assertEquals(-1, view.getNodeId(g.getDataFactory().getOWLClass(IRI.create("http://example.org/unknown"))));
+		assertTrue(view.getOutgoingEdgesClosure(g.getDataFactory().getOWLClass(IRI.create("http://example.org/unknown"))).isEmpty());
+	}
 }
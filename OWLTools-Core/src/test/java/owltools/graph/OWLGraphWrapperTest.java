@@ -4,7 +4,9 @@ import static org.junit.Assert.*;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
+import java.lang.ref.WeakReference;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -15,9 +17,14 @@ import org.obolibrary.obo2owl.Obo2Owl;
 import org.obolibrary.oboformat.model.OBODoc;
 import org.obolibrary.oboformat.parser.OBOFormatConstants.OboFormatTag;
 import org.obolibrary.oboformat.parser.OBOFormatParser;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
 import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
 import org.semanticweb.owlapi.model.OWLObject;
 import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
 
 import owltools.OWLToolsTestBasics;
 import owltools.graph.OWLGraphWrapper.ISynonym;
@@ -165,4 +172,68 @@ public class OWLGraphWrapperTest extends OWLToolsTestBasics {
 		OWLGraphWrapper wrapper = new OWLGraphWrapper(ontology);
 		return wrapper;
 	}
+
+	/**
+	 * Label, synonym and identifier lookups go through indexes and caches,
+	 * which must follow changes to the ontologies.
+	 */
+	@Test
+	public void testAnnotationIndex() throws Exception {
+		OWLGraphWrapper wrapper = getOBO2OWLOntologyWrapper("caro.obo");
+		OWLDataFactory f = wrapper.getDataFactory();
+		OWLOntologyManager m = wrapper.getManager();
+		OWLClass cls = wrapper.getOWLClass(OWLGraphWrapper.DEFAULT_IRI_PREFIX + "CARO_0001001");
+		OWLClass other = wrapper.getOWLClass(OWLGraphWrapper.DEFAULT_IRI_PREFIX + "CARO_0000000");
+		String label = wrapper.getLabel(cls);
+		assertNotNull(label);
+		assertEquals(cls.getIRI(), wrapper.getIRIByLabel(label));
+		assertEquals(Collections.singleton(cls.getIRI()), wrapper.getIRIsByExactSynonym("nerve fiber bundle"));
+		assertTrue(wrapper.getIRIsByExactSynonym("no such synonym").isEmpty());
+		assertEquals(wrapper.getOWLObjectPropertyByIdentifier("part_of").getIRI(), wrapper.getIRIByIdentifier("part_of"));
+
+		// relabel
+		OWLAxiom oldLabel = f.getOWLAnnotationAssertionAxiom(f.getRDFSLabel(), cls.getIRI(), f.getOWLLiteral(label));
+		OWLAxiom newLabel = f.getOWLAnnotationAssertionAxiom(f.getRDFSLabel(), cls.getIRI(), f.getOWLLiteral("new label"));
+		m.addAxiom(wrapper.getSourceOntology(), newLabel);
+		assertEquals(cls.getIRI(), wrapper.getIRIByLabel("new label"));
+		assertEquals(2, wrapper.getAnnotationValues(cls, f.getRDFSLabel()).size());
+		m.removeAxiom(wrapper.getSourceOntology(), oldLabel);
+		assertNull(wrapper.getIRIByLabel(label));
+		assertEquals("new label", wrapper.getLabel(cls));
+
+		// shared label
+		m.addAxiom(wrapper.getSourceOntology(),
+				f.getOWLAnnotationAssertionAxiom(f.getRDFSLabel(), other.getIRI(), f.getOWLLiteral("new label")));
+		try {
+			wrapper.getIRIByLabel("new label", true);
+			fail("shared label not detected");
+		}
+		catch (SharedLabelException e) {
+			// expected
+		}
+
+		// support ontology, in another manager
+		OWLOntologyManager m2 = OWLManager.createOWLOntologyManager();
+		OWLOntology support = m2.createOntology();
+		IRI supportIRI = IRI.create("http://example.org/support_1");
+		m2.addAxiom(support, f.getOWLAnnotationAssertionAxiom(f.getRDFSLabel(), supportIRI, f.getOWLLiteral("support label")));
+		assertNull(wrapper.getIRIByLabel("support label"));
+		wrapper.addSupportOntology(support);
+		assertEquals(supportIRI, wrapper.getIRIByLabel("support label"));
+		m2.addAxiom(support, f.getOWLAnnotationAssertionAxiom(f.getRDFSLabel(), supportIRI, f.getOWLLiteral("support label 2")));
+		assertEquals(supportIRI, wrapper.getIRIByLabel("support label 2"));
+		assertEquals(2, wrapper.getAnnotationValues(f.getOWLClass(supportIRI), f.getRDFSLabel()).size());
+
+		// the manager does not keep a discarded wrapper reachable
+		WeakReference<OWLGraphWrapper> discarded = new WeakReference<OWLGraphWrapper>(new OWLGraphWrapper(wrapper.getSourceOntology()));
+		assertEquals("new label", discarded.get().getLabel(cls));
+		for (int n = 0; n < 50 && discarded.get() != null; n++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		assertNull(discarded.get());
+		// its listener is removed, and the remaining wrapper is still notified
+		m.removeAxiom(wrapper.getSourceOntology(), newLabel);
+		assertNull(wrapper.getLabel(cls));
+	}
 }
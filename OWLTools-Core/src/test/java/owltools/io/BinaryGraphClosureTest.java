@@ -0,0 +1,82 @@
+package owltools.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLNamedObject;
+import org.semanticweb.owlapi.model.OWLObject;
+
+import owltools.OWLToolsTestBasics;
+import owltools.graph.OWLGraphEdge;
+import owltools.graph.OWLGraphWrapper;
+
+public class BinaryGraphClosureTest extends OWLToolsTestBasics {
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		OWLGraphWrapper g = getGraph("go-module.obo");
+		File file = new File("target/closure-snapshot-test.bin");
+		new BinaryGraphClosureRenderer(file.getPath()).render(g);
+
+		Map<OWLObject, Set<OWLGraphEdge>> expected = new HashMap<OWLObject, Set<OWLGraphEdge>>();
+		for (OWLClass c : g.getSourceOntology().getClassesInSignature(false)) {
+			// as in the compact format, only edges to named objects are kept
+			Set<OWLGraphEdge> edges = new HashSet<OWLGraphEdge>();
+			for (OWLGraphEdge e : g.getOutgoingEdgesClosure(c)) {
+				if (e.getTarget() instanceof OWLNamedObject)
+					edges.add(e);
+			}
+			expected.put(c, edges);
+		}
+
+		// memory-mapped
+		OWLGraphWrapper g2 = getGraph("go-module.obo");
+		new BinaryGraphClosureReader(g2).read(file.getPath());
+		assertEquals(0, g2.inferredEdgeBySource.size());
+		for (OWLObject c : expected.keySet()) {
+			assertEquals(expected.get(c), g2.getOutgoingEdgesClosure(c));
+		}
+		// all served from the snapshot
+		assertEquals(0, g2.getClosureCacheMisses());
+		assertEquals(expected.size(), g2.inferredEdgeBySource.size());
+
+		// from a stream, within the bounds of the closure cache
+		OWLGraphWrapper g3 = getGraph("go-module.obo");
+		g3.getConfig().closureCacheMaxEntries = 5;
+		BinaryGraphClosureReader reader = new BinaryGraphClosureReader(g3);
+		reader.setStream(new FileInputStream(file));
+		reader.read();
+		for (OWLObject c : expected.keySet()) {
+			assertEquals(expected.get(c), g3.getOutgoingEdgesClosure(c));
+		}
+		assertTrue(g3.inferredEdgeBySource.size() <= 5);
+		assertTrue(g3.getClosureCacheEvictions() > 0);
+		// evicted closures are decoded again
+		for (OWLObject c : expected.keySet()) {
+			assertEquals(expected.get(c), g3.getOutgoingEdgesClosure(c));
+		}
+		assertEquals(0, g3.getClosureCacheMisses());
+
+		// truncated
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 1);
+		raf.close();
+		try {
+			new BinaryGraphClosureReader(g3).read(file.getPath());
+			fail("truncated snapshot not detected");
+		}
+		catch (IOException e) {
+			// expected
+		}
+	}
+}
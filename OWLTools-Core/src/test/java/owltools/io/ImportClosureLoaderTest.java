@@ -0,0 +1,70 @@
+package owltools.io;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyID;
+
+import owltools.OWLToolsTestBasics;
+
+public class ImportClosureLoaderTest extends OWLToolsTestBasics {
+
+	@Test
+	public void testImportChain() throws Exception {
+		// root imports a and b, a imports a2
+		compareWithSerialLoading("test-import-chain-root.owl", 4);
+	}
+
+	@Test
+	public void testMutualImports() throws Exception {
+		compareWithSerialLoading("mutual-import-1.owl", 2);
+	}
+
+	private void compareWithSerialLoading(String file, int n) throws Exception {
+		ParserWrapper serial = new ParserWrapper();
+		serial.addIRIMapper(new CatalogXmlIRIMapper("src/test/resources/catalog-v001.xml"));
+		OWLOntology expected = serial.parse(getResourceIRIString(file));
+
+		ParserWrapper parallel = new ParserWrapper();
+		parallel.addIRIMapper(new CatalogXmlIRIMapper("src/test/resources/catalog-v001.xml"));
+		parallel.setImportLoadThreads(3);
+		OWLOntology ont = parallel.parse(getResourceIRIString(file));
+
+		assertEquals(expected.getOntologyID(), ont.getOntologyID());
+		assertEquals(n, ont.getImportsClosure().size());
+		assertEquals(getIds(expected.getImportsClosure()), getIds(ont.getImportsClosure()));
+		assertEquals(getIds(expected.getDirectImports()), getIds(ont.getDirectImports()));
+		assertEquals(getAxioms(expected.getImportsClosure()), getAxioms(ont.getImportsClosure()));
+
+		// one time for each document
+		Map<IRI, Long> times = parallel.getLoadTimes();
+		assertEquals(n, times.size());
+		assertTrue(times.containsKey(getResourceIRI(file)));
+
+		// already loaded
+		assertSame(ont, parallel.parse(getResourceIRIString(file)));
+	}
+
+	private static Set<OWLOntologyID> getIds(Set<OWLOntology> onts) {
+		Set<OWLOntologyID> ids = new HashSet<OWLOntologyID>();
+		for (OWLOntology o : onts) {
+			ids.add(o.getOntologyID());
+		}
+		return ids;
+	}
+
+	private static Set<OWLAxiom> getAxioms(Set<OWLOntology> onts) {
+		Set<OWLAxiom> axioms = new HashSet<OWLAxiom>();
+		for (OWLOntology o : onts) {
+			axioms.addAll(o.getAxioms());
+		}
+		return axioms;
+	}
+}
@@ -0,0 +1,68 @@
+package owltools.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+import owltools.OWLToolsTestBasics;
+
+public class OntologySnapshotCacheTest extends OWLToolsTestBasics {
+
+	@Test
+	public void testSnapshotCache() throws Exception {
+		File dir = new File("target/snapshot-cache-test");
+		FileUtils.deleteQuietly(dir);
+		File source = new File(dir, "caro.obo");
+		FileUtils.copyFile(getResource("caro.obo"), source);
+		File cacheDir = new File(dir, "cache");
+		OntologySnapshotCache cache = new OntologySnapshotCache(cacheDir);
+		IRI documentIRI = IRI.create(source);
+
+		// parsed and saved
+		ParserWrapper pw = new ParserWrapper();
+		pw.setSnapshotCache(cache);
+		OWLOntology parsed = pw.parse(source.getPath());
+		assertEquals(1, cacheDir.listFiles().length);
+
+		// restored
+		assertNotNull(cache.load(OWLManager.createOWLOntologyManager(), documentIRI, source));
+		ParserWrapper pw2 = new ParserWrapper();
+		pw2.setSnapshotCache(cache);
+		OWLOntology restored = pw2.parse(source.getPath());
+		assertEquals(parsed.getOntologyID(), restored.getOntologyID());
+		assertEquals(parsed.getAxioms(), restored.getAxioms());
+		assertEquals(parsed.getAnnotations(), restored.getAnnotations());
+		assertEquals(pw.getManager().getOntologyFormat(parsed).getClass(),
+				pw2.getManager().getOntologyFormat(restored).getClass());
+		assertEquals(documentIRI, pw2.getManager().getOntologyDocumentIRI(restored));
+
+		// source changed
+		FileWriter w = new FileWriter(source, true);
+		w.write("\n[Term]\nid: CARO:9999999\nname: snapshot test term\n");
+		w.close();
+		assertNull(cache.load(OWLManager.createOWLOntologyManager(), documentIRI, source));
+		ParserWrapper pw3 = new ParserWrapper();
+		pw3.setSnapshotCache(cache);
+		OWLOntology changed = pw3.parse(source.getPath());
+		assertTrue(changed.getAxiomCount() > parsed.getAxiomCount());
+		// stale snapshot replaced
+		assertEquals(1, cacheDir.listFiles().length);
+
+		// corrupt snapshot is ignored
+		RandomAccessFile raf = new RandomAccessFile(cacheDir.listFiles()[0], "rw");
+		raf.setLength(raf.length() / 2);
+		raf.close();
+		ParserWrapper pw4 = new ParserWrapper();
+		pw4.setSnapshotCache(cache);
+		assertEquals(changed.getAxioms(), pw4.parse(source.getPath()).getAxioms());
+		assertEquals(1, pw4.getManager().getOntologies().size());
+	}
+}
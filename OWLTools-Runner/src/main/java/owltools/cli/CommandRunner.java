@@ -141,6 +141,7 @@ import owltools.gfx.GraphicsConfig;
 import owltools.gfx.GraphicsConfig.RelationConfig;
 import owltools.gfx.OWLGraphLayoutRenderer;
 import owltools.graph.AxiomAnnotationTools;
+import owltools.graph.OWLGraphClosureCache;
 import owltools.graph.OWLGraphEdge;
 import owltools.graph.OWLGraphWrapper;
 import owltools.graph.OWLGraphWrapper.ISynonym;
@@ -149,6 +150,8 @@ import owltools.graph.OWLQuantifiedProperty.Quantifier;
 import owltools.idmap.IDMapPairWriter;
 import owltools.idmap.IDMappingPIRParser;
 import owltools.idmap.UniProtIDMapParser;
+import owltools.io.BinaryGraphClosureReader;
+import owltools.io.BinaryGraphClosureRenderer;
 import owltools.io.CatalogXmlIRIMapper;
 import owltools.io.ChadoGraphClosureRenderer;
 import owltools.io.CompactGraphClosureReader;
@@ -161,6 +164,7 @@ import owltools.io.ImportClosureSlurper;
 import owltools.io.InferredParentRenderer;
 import owltools.io.OWLJSONFormat;
 import owltools.io.OWLPrettyPrinter;
+import owltools.io.OntologySnapshotCache;
 import owltools.io.ParserWrapper;
 import owltools.io.ParserWrapper.OWLGraphWrapperNameProvider;
 import owltools.io.StanzaToOWLConverter;
@@ -488,6 +492,14 @@ public class CommandRunner {
 				opts.info("CATALOG-FILE", "uses the specified file as a catalog");
 				pw.addIRIMapper(new CatalogXmlIRIMapper(opts.nextOpt()));
 			}
+			else if (opts.nextEq("--snapshot-cache")) {
+				opts.info("DIR", "reuses parsed local ontology files from snapshots in DIR; a snapshot is replaced when its source changes");
+				pw.setSnapshotCache(new OntologySnapshotCache(new File(opts.nextOpt())));
+			}
+			else if (opts.nextEq("--parallel-imports")) {
+				opts.info("THREADS", "parses the imports of subsequently loaded ontologies on THREADS threads, and logs the parse time of each import");
+				pw.setImportLoadThreads(Integer.parseInt(opts.nextOpt()));
+			}
 			else if (opts.nextEq("--map-ontology-iri")) {
 				opts.info("OntologyIRI FILEPATH", "maps an ontology IRI to a file in your filesystem");
 				OWLOntologyIRIMapper iriMapper = 
@@ -800,20 +812,31 @@ public class CommandRunner {
 				FileUtils.writeLines(new File(filename), lines);
 			}
 			else if (opts.nextEq("--save-closure")) {
-				opts.info("[-c] FILENAME", "write out closure of graph.");
+				opts.info("[-c|-b] FILENAME", "write out closure of graph.");
 				GraphRenderer gcw;
 				if (opts.nextEq("-c")) {
 					opts.info("", "compact storage option.");
 					gcw = new CompactGraphClosureRenderer(opts.nextOpt());					
 				}
+				else if (opts.nextEq("-b")) {
+					opts.info("", "binary snapshot option; read with --read-closure -b.");
+					gcw = new BinaryGraphClosureRenderer(opts.nextOpt());
+				}
 				else {
 					gcw = new GraphClosureRenderer(opts.nextOpt());
 				}
 				gcw.render(g);				
 			}
 			else if (opts.nextEq("--read-closure")) {
-				opts.info("FILENAME", "reads closure previously saved using --save-closure (compact format only)");
-				GraphReader gr = new CompactGraphClosureReader(g);
+				opts.info("[-b] FILENAME", "reads closure previously saved using --save-closure (compact or binary format only)");
+				GraphReader gr;
+				if (opts.nextEq("-b")) {
+					opts.info("", "binary snapshot; edges are restored as they are requested.");
+					gr = new BinaryGraphClosureReader(g);
+				}
+				else {
+					gr = new CompactGraphClosureReader(g);
+				}
 				gr.read(opts.nextOpt());	
 				LOG.info("RESTORED CLOSURE CACHE");
 				LOG.info("size="+g.inferredEdgeBySource.size());
@@ -3903,11 +3926,30 @@ public class CommandRunner {
 				g.getManager().addAxioms(g.getSourceOntology(), newAxioms);
 			}
 			else if (opts.nextEq("--report-profile")) {
+				g.updateClosureCacheCounters();
 				g.getProfiler().report();
 			}
 			else if (opts.nextEq("--no-cache")) {
 				g.getConfig().isCacheClosure = false;
 			}
+			else if (opts.nextEq("--closure-cache-limit")) {
+				opts.info("[--max-entries N] [--max-edges N] [--largest-first]",
+						"bounds each closure cache by N closures and/or N edges; least recently used closures are evicted first, unless --largest-first");
+				while (opts.hasOpts()) {
+					if (opts.nextEq("--max-entries")) {
+						g.getConfig().closureCacheMaxEntries = Integer.parseInt(opts.nextOpt());
+					}
+					else if (opts.nextEq("--max-edges")) {
+						g.getConfig().closureCacheMaxEdges = Long.parseLong(opts.nextOpt());
+					}
+					else if (opts.nextEq("--largest-first")) {
+						g.getConfig().closureCacheEviction = OWLGraphClosureCache.Eviction.LARGEST_FIRST;
+					}
+					else {
+						break;
+					}
+				}
+			}
 			else if (opts.nextEq("--repeat")) {
 				List<String> ops = new ArrayList<String>();
 				while (opts.hasArgs()) {
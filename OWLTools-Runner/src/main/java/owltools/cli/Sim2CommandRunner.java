@@ -1,6 +1,7 @@
 package owltools.cli;
 
 import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -8,12 +9,15 @@ import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.Vector;
@@ -49,6 +53,7 @@ import owltools.sim2.CutoffException;
 import owltools.sim2.EnrichmentConfig;
 import owltools.sim2.EnrichmentResult;
 import owltools.sim2.FastOwlSim;
+import owltools.sim2.FastOwlSim.LCSStrategy;
 import owltools.sim2.FastOwlSimFactory;
 import owltools.sim2.OwlSim;
 import owltools.sim2.OwlSim.ScoreAttributeSetPair;
@@ -61,7 +66,10 @@ import owltools.sim2.SimpleOwlSim.OutputFormat;
 import owltools.sim2.SimpleOwlSim.ScoreAttributePair;
 import owltools.sim2.SimpleOwlSim.SimConfigurationProperty;
 import owltools.sim2.SimpleOwlSimFactory;
+import owltools.sim2.TiledAttributeComparison;
 import owltools.sim2.UnknownOWLClassException;
+import owltools.sim2.kb.NullScoreDistribution;
+import owltools.sim2.io.AbstractRenderer;
 import owltools.sim2.io.DelimitedLineRenderer;
 import owltools.sim2.io.FormattedRenderer;
 import owltools.sim2.io.JSONRenderer;
@@ -1031,6 +1039,10 @@ public class Sim2CommandRunner extends SimCommandRunner {
 		// assumes that individuals in abox are of types named classes in tbox
 		setOwlSimFactory(new FastOwlSimFactory());
 		String targetIdSpace = null;
+		int numberOfThreads = 1;
+		Integer topK = null;
+		LCSStrategy lcsStrategy = LCSStrategy.BITMAP;
+		String nullDistributionFile = null;
 		loadProperties(opts);
 		OWLNamedIndividual i = null;
 		while (opts.hasOpts()) {
@@ -1041,19 +1053,57 @@ public class Sim2CommandRunner extends SimCommandRunner {
 				IRI iri = g.getIRIByIdentifier(opts.nextOpt());
 				i = g.getDataFactory().getOWLNamedIndividual(iri);
 			}
+			else if (opts.nextEq("--null-distribution")) {
+				nullDistributionFile = opts.nextOpt();
+			}
+			else if (opts.nextEq("--threads")) {
+				numberOfThreads = Integer.parseInt(opts.nextOpt());
+			}
+			else if (opts.nextEq("-k|--top")) {
+				topK = Integer.parseInt(opts.nextOpt());
+			}
+			else if (opts.nextEq("--lcs-strategy")) {
+				opts.info("BITMAP|SORTED_ANCESTORS", "method used to find the LCS of uncached pairs");
+				lcsStrategy = LCSStrategy.valueOf(opts.nextOpt());
+			}
 			else {
 				break;
 			}
 		}
 
+		if (topK != null && nullDistributionFile != null) {
+			// the null distribution is built from the combined scores of findMatches,
+			// which are normalized differently from those of the top k search
+			LOG.error("--null-distribution cannot be combined with -k");
+			exit(1);
+			return;
+		}
+
 		try {
 			if (owlsim == null) {
 				owlsim = getOwlSimFactory().createOwlSim(g.getSourceOntology());
 				owlsim.createElementAttributeMapFromOntology();
 			}
+			if (owlsim instanceof FastOwlSim) {
+				((FastOwlSim) owlsim).setNumberOfThreads(numberOfThreads);
+				((FastOwlSim) owlsim).setLCSStrategy(lcsStrategy);
+			}
 			owlsim.setSimProperties(simProperties);
 			LOG.info("Query: "+i);
-			List<ElementPairScores> matches = owlsim.findMatches(i, targetIdSpace);
+			List<ElementPairScores> matches;
+			if (topK != null && owlsim instanceof FastOwlSim) {
+				matches = ((FastOwlSim) owlsim).findTopMatches(i, topK, targetIdSpace);
+			}
+			else {
+				matches = owlsim.findMatches(i, targetIdSpace, getMinimumSimJPct(), getMinimumMaxIC());
+			}
+			if (nullDistributionFile != null) {
+				// only calibrated for the search parameters it was sampled with
+				NullScoreDistribution nsd = 
+						NullScoreDistribution.load(new File(nullDistributionFile), getNullDistributionFingerprint(),
+								targetIdSpace, getMinimumSimJPct(), getMinimumMaxIC());
+				nsd.annotate(matches, owlsim.getAttributesForElement(i).size());
+			}
 			SimResultRenderer renderer = setRenderer();
 			for (int n=0; n<matches.size(); n++) {
 				//renderer.getResultOutStream().println("Rank: " + (n+1));
@@ -1066,16 +1116,94 @@ public class Sim2CommandRunner extends SimCommandRunner {
 		}
 	}
 
+	@CLIMethod("--sim-save-null-distribution")
+	public void simSaveNullDistribution(Opts opts) throws Exception {
+		opts.info("[-t TARGET-ID-SPACE] [-n NUMPROFILES] [-q NUMQUANTILES] [-s SIZE,...] [--seed SEED] OUTFILE",
+				"searches with random profiles, and saves the quantiles of the match scores for each profile size."+
+				" The file can be used to annotate the results of --fsim-find-matches with p-values,"+
+				" for the same target ID space and cutoffs");
+		String targetIdSpace = null;
+		int numProfiles = 100;
+		int numQuantiles = 1000;
+		int[] sizes = NullScoreDistribution.DEFAULT_PROFILE_SIZES;
+		long seed = 0;
+		loadProperties(opts);
+		while (opts.hasOpts()) {
+			if (opts.nextEq("-t|--target-id-space")) {
+				targetIdSpace = opts.nextOpt();
+			}
+			else if (opts.nextEq("-n|--profiles")) {
+				numProfiles = Integer.parseInt(opts.nextOpt());
+			}
+			else if (opts.nextEq("-q|--quantiles")) {
+				numQuantiles = Integer.parseInt(opts.nextOpt());
+			}
+			else if (opts.nextEq("-s|--sizes")) {
+				String[] toks = opts.nextOpt().split(",");
+				sizes = new int[toks.length];
+				for (int k = 0; k < toks.length; k++) {
+					sizes[k] = Integer.parseInt(toks[k].trim());
+				}
+			}
+			else if (opts.nextEq("--seed")) {
+				seed = Long.parseLong(opts.nextOpt());
+			}
+			else {
+				break;
+			}
+		}
+		if (owlsim == null) {
+			owlsim = getOwlSimFactory().createOwlSim(g.getSourceOntology());
+			owlsim.createElementAttributeMapFromOntology();
+		}
+		owlsim.setSimProperties(simProperties);
+		NullScoreDistribution nsd = NullScoreDistribution.create(owlsim, targetIdSpace,
+				getMinimumSimJPct(), getMinimumMaxIC(), sizes, numProfiles, numQuantiles,
+				seed, getNullDistributionFingerprint());
+		nsd.save(new File(opts.nextOpt()));
+	}
+
+	// cutoffs of findMatches, as a percentage for SimJ
+	private double getMinimumSimJPct() {
+		String v = getProperty(SimConfigurationProperty.minimumSimJ);
+		return (v == null ? 0.05 : Double.valueOf(v)) * 100;
+	}
+
+	private double getMinimumMaxIC() {
+		String v = getProperty(SimConfigurationProperty.minimumMaxIC);
+		return v == null ? 2.5 : Double.valueOf(v);
+	}
+
+	private long getNullDistributionFingerprint() throws UnknownOWLClassException {
+		if (owlsim instanceof FastOwlSim) {
+			return ((FastOwlSim) owlsim).getClassIndexFingerprint();
+		}
+		return 0;
+	}
+
 	@CLIMethod("--fsim-search-all")
 	public void fsimSearchAll(Opts opts) throws Exception {
-		opts.info("", "iterates through all individuals and finds all matches");
+		opts.info("[-t TARGET-ID-SPACE] [--threads N] [-k K]", "iterates through all individuals and finds all matches, searching the individuals as a batch");
 		setOwlSimFactory(new FastOwlSimFactory());
 		String targetIdSpace = null;
+		int numberOfThreads = 1;
+		Integer topK = null;
+		LCSStrategy lcsStrategy = LCSStrategy.BITMAP;
 		loadProperties(opts);
 		while (opts.hasOpts()) {
 			if (opts.nextEq("-t|--target-id-space")) {
 				targetIdSpace = opts.nextOpt();
 			}
+			else if (opts.nextEq("--threads")) {
+				numberOfThreads = Integer.parseInt(opts.nextOpt());
+			}
+			else if (opts.nextEq("-k|--top")) {
+				topK = Integer.parseInt(opts.nextOpt());
+			}
+			else if (opts.nextEq("--lcs-strategy")) {
+				opts.info("BITMAP|SORTED_ANCESTORS", "method used to find the LCS of uncached pairs");
+				lcsStrategy = LCSStrategy.valueOf(opts.nextOpt());
+			}
 			else {
 				break;
 			}
@@ -1086,19 +1214,19 @@ public class Sim2CommandRunner extends SimCommandRunner {
 				owlsim = getOwlSimFactory().createOwlSim(g.getSourceOntology());
 				owlsim.createElementAttributeMapFromOntology();
 			}
+			if (owlsim instanceof FastOwlSim) {
+				((FastOwlSim) owlsim).setNumberOfThreads(numberOfThreads);
+				((FastOwlSim) owlsim).setLCSStrategy(lcsStrategy);
+			}
 			owlsim.setSimProperties(simProperties);
-			Set<OWLNamedIndividual> inds = owlsim.getAllElements();
-			for (OWLNamedIndividual i : inds) {
-				//LOG.info("Query: "+i);
-				List<ElementPairScores> matches = owlsim.findMatches(i, targetIdSpace);
-				SimResultRenderer renderer = setRenderer();
-				for (int n=0; n<matches.size(); n++) {
-					//renderer.getResultOutStream().println("Rank: " + (n+1));
-					ElementPairScores m = matches.get(n);
-					renderer.printPairScores(m);
-
-				}
+			// all individuals are searched as a single batch
+			Map<OWLNamedIndividual, Set<OWLClass>> queries = 
+					new LinkedHashMap<OWLNamedIndividual, Set<OWLClass>>();
+			for (OWLNamedIndividual i : owlsim.getAllElements()) {
+				queries.put(i, owlsim.getAttributesForElement(i));
 			}
+			SimResultRenderer renderer = setRenderer();
+			owlsim.findMatchesForAll(queries, targetIdSpace, topK == null ? 0 : topK, renderer);
 		} finally {
 			owlsim.dispose();
 		}
@@ -1151,13 +1279,127 @@ public class Sim2CommandRunner extends SimCommandRunner {
 	public void fsimCompareAtts(Opts opts) throws Exception {
 		// assumes that individuals in abox are of types named classes in tbox
 		loadProperties(opts);
+		Integer numberOfThreads = null;
+		Integer tileSize = null;
+		File checkpointFile = null;
+		File outputFile = null;
+		while (opts.hasOpts()) {
+			if (opts.nextEq("--threads")) {
+				opts.info("N", "compare tiles of class pairs in N threads");
+				numberOfThreads = Integer.parseInt(opts.nextOpt());
+			}
+			else if (opts.nextEq("--tile-size")) {
+				opts.info("N", "number of classes along each side of a tile");
+				tileSize = Integer.parseInt(opts.nextOpt());
+			}
+			else if (opts.nextEq("--checkpoint")) {
+				opts.info("FILE", "records written tiles, and resumes after the last one if FILE exists. Requires --output");
+				checkpointFile = new File(opts.nextOpt());
+			}
+			else if (opts.nextEq("--output")) {
+				opts.info("FILE", "results file, appended to when resuming from a checkpoint; use instead of -o");
+				outputFile = new File(opts.nextOpt());
+			}
+			else {
+				break;
+			}
+		}
 		owlsim = new FastOwlSim(g.getSourceOntology());
 		owlsim.createElementAttributeMapFromOntology();
-		attributeAllByAll(owlsim, opts);
+		if (numberOfThreads != null || tileSize != null || checkpointFile != null || outputFile != null) {
+			attributeAllByAllTiled(owlsim, numberOfThreads, tileSize, checkpointFile, outputFile);
+		}
+		else {
+			attributeAllByAll(owlsim, opts);
+		}
 		((FastOwlSim) owlsim).showTimings();
 
 	}
 
+	/**
+	 * Same comparisons as {@link #attributeAllByAll(OwlSim, Opts)}, but each pair
+	 * is only scored once, in parallel tiles; results are written in tile order.
+	 * 
+	 * @param sim
+	 * @param numberOfThreads - may be null
+	 * @param tileSize - may be null
+	 * @param checkpointFile - may be null
+	 * @param outputFile - required with a checkpoint file
+	 * @throws Exception
+	 */
+	private void attributeAllByAllTiled(OwlSim sim, Integer numberOfThreads, Integer tileSize,
+			File checkpointFile, File outputFile) throws Exception {
+		Set<OWLClass> rows = new HashSet<OWLClass>();
+		Set<OWLClass> cols = new HashSet<OWLClass>();
+		String cmp = getProperty(SimConfigurationProperty.compare);
+		for (OWLClass c : sim.getAllAttributeClasses()) {
+			if (g.getIsObsolete(c))
+				continue;
+			if (cmp == null) {
+				rows.add(c);
+				cols.add(c);
+			}
+			else {
+				String[] idspaces = cmp.split(",");
+				if (c.getIRI().toString().contains("/" + idspaces[0] + "_"))
+					rows.add(c);
+				if (c.getIRI().toString().contains("/" + idspaces[1] + "_"))
+					cols.add(c);
+			}
+		}
+		boolean isDescendingPairsOnly = false;
+		if (cmp == null) {
+			Boolean bidi = getPropertyAsBoolean(SimConfigurationProperty.bidirectional);
+			isDescendingPairsOnly = bidi == null || !bidi;
+		}
+
+		TiledAttributeComparison comparison =
+				new TiledAttributeComparison(sim, rows, cols, isDescendingPairsOnly);
+		Set<Metric> metrics = getMetrics();
+		LOG.info("Metrics:" +metrics);
+		comparison.setMetrics(metrics);
+		comparison.setMinimumSimJ(getPropertyAsDouble(SimConfigurationProperty.minimumSimJ));
+		comparison.setBestOnly(getPropertyAsBoolean(SimConfigurationProperty.bestOnly));
+		if (numberOfThreads != null)
+			comparison.setNumberOfThreads(numberOfThreads);
+		if (tileSize != null)
+			comparison.setTileSize(tileSize);
+
+		boolean isResuming = false;
+		if (checkpointFile != null) {
+			if (outputFile == null) {
+				LOG.error("--checkpoint requires --output");
+				exit(1);
+				return;
+			}
+			isResuming = comparison.openCheckpoint(checkpointFile, outputFile);
+		}
+		if (outputFile != null) {
+			IOUtils.closeQuietly(resultOutStream);
+			resultOutStream = new PrintStream(new BufferedOutputStream(
+					new FileOutputStream(outputFile, isResuming)));
+		}
+		SimResultRenderer renderer = setRenderer();
+		try {
+			if (isResuming) {
+				if (renderer instanceof AbstractRenderer) {
+					((AbstractRenderer) renderer).setHeaderLine(false);
+				}
+			}
+			else {
+				// print a header in the file that details what was done
+				for (Object k : simProperties.keySet()) {
+					renderer.printComment(k + " = "
+							+ simProperties.getProperty(k.toString()));
+				}
+			}
+			comparison.run(renderer);
+			renderer.dispose();
+		} finally {
+			IOUtils.closeQuietly(resultOutStream);
+		}
+	}
+
 	// get an attribute set for comparison based on compare property;
 	// if n=0, setA; if n=1, setB
 	private Set<OWLClass> getAttSet(int n) {
@@ -1219,6 +1461,16 @@ public class Sim2CommandRunner extends SimCommandRunner {
 	public void fsimCompareAttsLCS(Opts opts) throws Exception {
 
 		loadProperties(opts);
+		List<LCSStrategy> strategies = new ArrayList<LCSStrategy>();
+		while (opts.hasOpts()) {
+			if (opts.nextEq("--compare-strategies")) {
+				opts.info("", "times each LCS strategy with the LCS cache disabled, and checks they agree");
+				strategies.addAll(Arrays.asList(LCSStrategy.values()));
+			}
+			else {
+				break;
+			}
+		}
 		setOwlSimFactory(new FastOwlSimFactory());
 		owlsim = getOwlSimFactory().createOwlSim(g.getSourceOntology());
 		owlsim.createElementAttributeMapFromOntology();
@@ -1227,6 +1479,10 @@ public class Sim2CommandRunner extends SimCommandRunner {
 		Set<OWLClass> ds = getAttSet(1);
 		LOG.info("|cs|="+cs.size());
 		LOG.info("|ds|="+ds.size());
+		if (!strategies.isEmpty()) {
+			benchLCSStrategies((FastOwlSim) owlsim, strategies, cs, ds);
+			return;
+		}
 		long t = System.currentTimeMillis();
 		int n=0;
 		for (OWLClass c : cs) {
@@ -1241,6 +1497,38 @@ public class Sim2CommandRunner extends SimCommandRunner {
 		LOG.info("fsim-bench-simj t(All x All)="+tdelta(t)+" comparisons:"+cs.size() +" * "+ds.size());
 	}
 
+	private void benchLCSStrategies(FastOwlSim fsim, List<LCSStrategy> strategies,
+			Set<OWLClass> cs, Set<OWLClass> ds) throws UnknownOWLClassException {
+		fsim.setDisableLCSCache(true);
+		Map<LCSStrategy, double[]> scoresByStrategy = new HashMap<LCSStrategy, double[]>();
+		for (LCSStrategy strategy : strategies) {
+			fsim.setLCSStrategy(strategy);
+			// any index is built before timing
+			fsim.getLowestCommonSubsumerWithIC(cs.iterator().next(), ds.iterator().next());
+			double[] scores = new double[cs.size() * ds.size()];
+			long t = System.currentTimeMillis();
+			int n = 0;
+			for (OWLClass c : cs) {
+				for (OWLClass d : ds) {
+					scores[n++] = fsim.getLowestCommonSubsumerWithIC(c, d).score;
+				}
+			}
+			LOG.info("fsim-bench-lcs strategy: "+strategy+" t(All x All)="+tdelta(t)+" comparisons:"+cs.size() +" * "+ds.size());
+			scoresByStrategy.put(strategy, scores);
+		}
+		double[] expected = scoresByStrategy.get(strategies.get(0));
+		for (LCSStrategy strategy : strategies) {
+			int numMismatches = 0;
+			double[] scores = scoresByStrategy.get(strategy);
+			for (int n = 0; n < scores.length; n++) {
+				if (Math.abs(scores[n] - expected[n]) > 0.000001) {
+					numMismatches++;
+				}
+			}
+			LOG.info("fsim-bench-lcs strategy: "+strategy+" mismatches with "+strategies.get(0)+": "+numMismatches);
+		}
+	}
+
 	@CLIMethod("--fsim-att-top-simj")
 	public void fsimAttTopSimJ(Opts opts) throws Exception {
 		opts.info("OWLSIMPARAMS", 
@@ -1426,7 +1714,7 @@ public class Sim2CommandRunner extends SimCommandRunner {
 
 	@CLIMethod("--sim-load-lcs-cache")
 	public void simLoadLCSCache(Opts opts) throws Exception {
-		opts.info("INFILE", "loads a LCS cache from a file");
+		opts.info("INFILE", "loads a LCS cache from a file written by --sim-save-lcs-cache. Fails if the ontology or the data changed");
 		if (owlsim == null) {
 			owlsim = getOwlSimFactory().createOwlSim(g.getSourceOntology());
 			owlsim.createElementAttributeMapFromOntology();
@@ -1434,6 +1722,81 @@ public class Sim2CommandRunner extends SimCommandRunner {
 		owlsim.loadLCSCache(opts.nextOpt());
 	}
 
+	@CLIMethod("--sim-map-lcs-cache")
+	public void simMapLCSCache(Opts opts) throws Exception {
+		opts.info("[-r] FILE", "uses a memory-mapped file as LCS cache. The file is created if it does not exist");
+		boolean isReadOnly = false;
+		while (opts.hasOpts()) {
+			if (opts.nextEq("-r|--read-only")) {
+				opts.info("", "the file is not modified, and can be shared between processes");
+				isReadOnly = true;
+			}
+			else {
+				break;
+			}
+		}
+		if (owlsim == null) {
+			owlsim = getOwlSimFactory().createOwlSim(g.getSourceOntology());
+			owlsim.createElementAttributeMapFromOntology();
+		}
+		if (!(owlsim instanceof FastOwlSim)) {
+			LOG.error("memory-mapped LCS cache requires FastOwlSim");
+			return;
+		}
+		((FastOwlSim) owlsim).useMappedLCSCache(new File(opts.nextOpt()), isReadOnly);
+	}
+
+	@CLIMethod("--sim-save-coannotation-matrix")
+	public void simSaveCoAnnotationMatrix(Opts opts) throws Exception {
+		opts.info("OUTFILE", "saves the co-annotation counts of all classes in a binary file");
+		if (owlsim == null) {
+			owlsim = getOwlSimFactory().createOwlSim(g.getSourceOntology());
+			owlsim.createElementAttributeMapFromOntology();
+		}
+		if (!(owlsim instanceof FastOwlSim)) {
+			LOG.error("co-annotation matrix file requires FastOwlSim");
+			return;
+		}
+		((FastOwlSim) owlsim).saveCoAnnotationMatrix(opts.nextOpt());
+	}
+
+	@CLIMethod("--sim-load-coannotation-matrix")
+	public void simLoadCoAnnotationMatrix(Opts opts) throws Exception {
+		opts.info("INFILE", "loads co-annotation counts written by --sim-save-coannotation-matrix. Fails if the ontology or the data changed");
+		if (owlsim == null) {
+			owlsim = getOwlSimFactory().createOwlSim(g.getSourceOntology());
+			owlsim.createElementAttributeMapFromOntology();
+		}
+		if (!(owlsim instanceof FastOwlSim)) {
+			LOG.error("co-annotation matrix file requires FastOwlSim");
+			return;
+		}
+		((FastOwlSim) owlsim).loadCoAnnotationMatrix(opts.nextOpt());
+	}
+
+	@CLIMethod("--sim-save-snapshot")
+	public void simSaveSnapshot(Opts opts) throws Exception {
+		opts.info("OUTFILE", "saves the indexed classes, ancestors, annotations and ICs in a binary file");
+		if (owlsim == null) {
+			owlsim = getOwlSimFactory().createOwlSim(g.getSourceOntology());
+			owlsim.createElementAttributeMapFromOntology();
+		}
+		if (!(owlsim instanceof FastOwlSim)) {
+			LOG.error("snapshots require FastOwlSim");
+			return;
+		}
+		((FastOwlSim) owlsim).saveSnapshot(opts.nextOpt());
+	}
+
+	@CLIMethod("--sim-load-snapshot")
+	public void simLoadSnapshot(Opts opts) throws Exception {
+		opts.info("INFILE", "restores a sim from a file written by --sim-save-snapshot, without reasoning over the ontology. "+
+				"The ontology must be the one used to create the snapshot. Use before --start-sim-server");
+		FastOwlSim fsim = new FastOwlSim(g.getSourceOntology());
+		fsim.loadSnapshot(opts.nextOpt());
+		owlsim = fsim;
+	}
+
 	@CLIMethod("--sim-save-ic-cache")
 	public void simSaveICCache(Opts opts) throws Exception {
 		opts.info("OUTFILE", "saves ICs as RDF/turtle cache");
@@ -1610,7 +1973,7 @@ public class Sim2CommandRunner extends SimCommandRunner {
 	// NEW
 	@CLIMethod("--all-by-all-enrichment-analysis")
 	public void owlsimEnrichmentAnalysisAllByAll(Opts opts) throws Exception {
-		opts.info("[-p pValCutOff] [-i IC_Cutoff] SAMPLECLASS TESTCLASS", 
+		opts.info("[-p pValCutOff] [-i IC_Cutoff] [--threads N] SAMPLECLASS TESTCLASS", 
 				"performs all by all enrichment on every c x d where c Sub SAMPLECLASS and d Sub TESTCLASS");
 		OWLPrettyPrinter owlpp = getPrettyPrinter();
 		if (owlsim == null) {
@@ -1624,6 +1987,8 @@ public class Sim2CommandRunner extends SimCommandRunner {
 			} else if (opts.nextEq("-i")) {
 				ec.attributeInformationContentCutoff = Double.parseDouble(opts
 						.nextOpt());
+			} else if (opts.nextEq("--threads")) {
+				ec.numberOfThreads = Integer.parseInt(opts.nextOpt());
 			} else
 				break;
 		}
@@ -0,0 +1,67 @@
+package owltools.sim2.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+import owltools.sim2.FastOwlSim;
+
+/**
+ * Benchmark of {@link FastOwlSim#createElementAttributeMapFromOntology()},
+ * including classification of the ontology by a new reasoner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ElementAttributeMapBenchmark {
+
+	@Param({SimBenchmarkData.BUNDLED, SimBenchmarkData.SYNTHETIC})
+	public String dataset;
+
+	@Param({"2000"})
+	public int numClasses;
+
+	@Param({"500"})
+	public int numIndividuals;
+
+	@Param({"20"})
+	public int numAttributesPerIndividual;
+
+	@Param({"42"})
+	public long seed;
+
+	private OWLOntology ont;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		ont = SimBenchmarkData.createOntology(dataset, numClasses,
+				numIndividuals, numAttributesPerIndividual, seed);
+	}
+
+	@Benchmark
+	public FastOwlSim createElementAttributeMap() throws Exception {
+		FastOwlSim owlsim = new FastOwlSim(ont);
+		try {
+			owlsim.createElementAttributeMapFromOntology();
+		}
+		finally {
+			owlsim.getReasoner().dispose();
+		}
+		return owlsim;
+	}
+}
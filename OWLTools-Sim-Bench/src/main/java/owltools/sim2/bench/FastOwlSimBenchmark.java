@@ -0,0 +1,155 @@
+package owltools.sim2.bench;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+import owltools.sim2.FastOwlSim;
+
+/**
+ * Benchmarks of the {@link FastOwlSim} operations used when comparing
+ * classes and individuals.
+ * <p>
+ * The pairs and queries are drawn once per trial from a seeded random
+ * generator over classes and individuals sorted by IRI, so that the same work is
+ * done in each run. Each invocation processes all pairs; scores are reported per pair.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class FastOwlSimBenchmark {
+
+	private static final int NUM_CLASS_PAIRS = 1000;
+	private static final int NUM_INDIVIDUAL_PAIRS = 100;
+	private static final int NUM_QUERIES = 10;
+
+	@Param({SimBenchmarkData.BUNDLED, SimBenchmarkData.SYNTHETIC})
+	public String dataset;
+
+	@Param({"2000"})
+	public int numClasses;
+
+	@Param({"500"})
+	public int numIndividuals;
+
+	@Param({"20"})
+	public int numAttributesPerIndividual;
+
+	@Param({"42"})
+	public long seed;
+
+	// LCS cache enabled, and filled for all class pairs
+	private FastOwlSim owlsim;
+	// LCS cache disabled
+	private FastOwlSim uncachedOwlsim;
+
+	private OWLClass[] cs = new OWLClass[NUM_CLASS_PAIRS];
+	private OWLClass[] ds = new OWLClass[NUM_CLASS_PAIRS];
+	private OWLNamedIndividual[] is = new OWLNamedIndividual[NUM_INDIVIDUAL_PAIRS];
+	private OWLNamedIndividual[] js = new OWLNamedIndividual[NUM_INDIVIDUAL_PAIRS];
+	private OWLNamedIndividual[] queries = new OWLNamedIndividual[NUM_QUERIES];
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		OWLOntology ont = SimBenchmarkData.createOntology(dataset, numClasses,
+				numIndividuals, numAttributesPerIndividual, seed);
+		owlsim = new FastOwlSim(ont);
+		owlsim.createElementAttributeMapFromOntology();
+		uncachedOwlsim = new FastOwlSim(ont);
+		uncachedOwlsim.createElementAttributeMapFromOntology();
+		uncachedOwlsim.setDisableLCSCache(true);
+
+		Random random = new Random(seed);
+		List<OWLClass> atts = SimBenchmarkData.sorted(owlsim.getAllAttributeClasses());
+		List<OWLNamedIndividual> inds = SimBenchmarkData.sorted(owlsim.getAllElements());
+		for (int n = 0; n < NUM_CLASS_PAIRS; n++) {
+			cs[n] = atts.get(random.nextInt(atts.size()));
+			ds[n] = atts.get(random.nextInt(atts.size()));
+		}
+		for (int n = 0; n < NUM_INDIVIDUAL_PAIRS; n++) {
+			is[n] = inds.get(random.nextInt(inds.size()));
+			js[n] = inds.get(random.nextInt(inds.size()));
+		}
+		for (int n = 0; n < NUM_QUERIES; n++) {
+			queries[n] = inds.get(random.nextInt(inds.size()));
+		}
+
+		for (int n = 0; n < NUM_CLASS_PAIRS; n++) {
+			owlsim.getLowestCommonSubsumerWithIC(cs[n], ds[n]);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		owlsim.dispose();
+		uncachedOwlsim.dispose();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_CLASS_PAIRS)
+	public double attributeJaccardSimilarity() throws Exception {
+		double sum = 0;
+		for (int n = 0; n < NUM_CLASS_PAIRS; n++) {
+			sum += owlsim.getAttributeJaccardSimilarity(cs[n], ds[n]);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_CLASS_PAIRS)
+	public double lowestCommonSubsumerCached() throws Exception {
+		double sum = 0;
+		for (int n = 0; n < NUM_CLASS_PAIRS; n++) {
+			sum += owlsim.getLowestCommonSubsumerWithIC(cs[n], ds[n]).score;
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_CLASS_PAIRS)
+	public double lowestCommonSubsumerUncached() throws Exception {
+		double sum = 0;
+		for (int n = 0; n < NUM_CLASS_PAIRS; n++) {
+			sum += uncachedOwlsim.getLowestCommonSubsumerWithIC(cs[n], ds[n]).score;
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_INDIVIDUAL_PAIRS)
+	public void groupwiseSimilarity(Blackhole bh) throws Exception {
+		for (int n = 0; n < NUM_INDIVIDUAL_PAIRS; n++) {
+			bh.consume(owlsim.getGroupwiseSimilarity(is[n], js[n]));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_QUERIES)
+	public void findMatches(Blackhole bh) throws Exception {
+		for (int n = 0; n < NUM_QUERIES; n++) {
+			bh.consume(owlsim.findMatches(queries[n], null));
+		}
+	}
+}
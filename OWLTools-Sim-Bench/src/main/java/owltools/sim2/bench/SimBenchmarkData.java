@@ -0,0 +1,159 @@
+package owltools.sim2.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLObject;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+
+import owltools.graph.OWLGraphWrapper;
+import owltools.io.ParserWrapper;
+import owltools.io.TableToAxiomConverter;
+
+/**
+ * Ontologies with annotated individuals, used by the benchmarks.
+ * <p>
+ * Either the MP subset and MGI associations bundled with the OWLTools-Sim
+ * tests, or a synthetic ontology: a random DAG of classes, plus individuals
+ * annotated with random classes. Synthetic data only depends on its
+ * parameters (including the seed), so results can be compared between releases.
+ */
+public class SimBenchmarkData {
+
+	public static final String BUNDLED = "bundled";
+	public static final String SYNTHETIC = "synthetic";
+
+	private static final String SYNTHETIC_ONTOLOGY_IRI = "http://purl.obolibrary.org/obo/syn.owl";
+	private static final String SYNTHETIC_CLASS_PREFIX = "http://purl.obolibrary.org/obo/SYN_";
+	private static final String SYNTHETIC_INDIVIDUAL_PREFIX = "http://purl.obolibrary.org/obo/SYNI_";
+
+	/**
+	 * @param dataset - {@link #BUNDLED} or {@link #SYNTHETIC}
+	 * @param numClasses - synthetic only
+	 * @param numIndividuals - synthetic only
+	 * @param numAttributesPerIndividual - synthetic only
+	 * @param seed - synthetic only
+	 * @return ontology with class assertions for each individual
+	 * @throws OWLOntologyCreationException
+	 * @throws IOException
+	 */
+	public static OWLOntology createOntology(String dataset, int numClasses, int numIndividuals,
+			int numAttributesPerIndividual, long seed) throws OWLOntologyCreationException, IOException {
+		if (BUNDLED.equals(dataset)) {
+			return loadBundledOntology();
+		}
+		if (SYNTHETIC.equals(dataset)) {
+			return createSyntheticOntology(numClasses, numIndividuals, numAttributesPerIndividual, seed);
+		}
+		throw new IllegalArgumentException("Unknown dataset: "+dataset);
+	}
+
+	/**
+	 * @return MP subset, with MGI gene associations as class assertions
+	 * @throws OWLOntologyCreationException
+	 * @throws IOException
+	 */
+	public static OWLOntology loadBundledOntology() throws OWLOntologyCreationException, IOException {
+		File obo = copyResource("sim/mp-subset-1.obo");
+		File associations = copyResource("sim/mgi-gene2mp-subset-1.tbl");
+		ParserWrapper pw = new ParserWrapper();
+		OWLOntology ont = pw.parseOWL(IRI.create(obo));
+		OWLGraphWrapper g = new OWLGraphWrapper(ont);
+		TableToAxiomConverter ttac = new TableToAxiomConverter(g);
+		ttac.config.axiomType = AxiomType.CLASS_ASSERTION;
+		ttac.config.isSwitchSubjectObject = true;
+		ttac.parse(associations);
+		return ont;
+	}
+
+	// resources may be packaged in a jar, but the parsers require files
+	private static File copyResource(String name) throws IOException {
+		InputStream in = SimBenchmarkData.class.getClassLoader().getResourceAsStream(name);
+		if (in == null) {
+			throw new IOException("Missing resource: "+name);
+		}
+		File f = File.createTempFile("owlsim-bench", "-"+new File(name).getName());
+		f.deleteOnExit();
+		OutputStream out = new FileOutputStream(f);
+		try {
+			IOUtils.copy(in, out);
+		}
+		finally {
+			in.close();
+			out.close();
+		}
+		return f;
+	}
+
+	/**
+	 * Creates a random DAG: each class except the first has one parent, or
+	 * two for a quarter of the classes, drawn from the classes created before it.
+	 * Each individual is annotated with distinct random classes.
+	 *
+	 * @param numClasses
+	 * @param numIndividuals
+	 * @param numAttributesPerIndividual
+	 * @param seed
+	 * @return synthetic ontology
+	 * @throws OWLOntologyCreationException
+	 */
+	public static OWLOntology createSyntheticOntology(int numClasses, int numIndividuals,
+			int numAttributesPerIndividual, long seed) throws OWLOntologyCreationException {
+		Random random = new Random(seed);
+		OWLOntologyManager m = OWLManager.createOWLOntologyManager();
+		OWLDataFactory df = m.getOWLDataFactory();
+		OWLOntology ont = m.createOntology(IRI.create(SYNTHETIC_ONTOLOGY_IRI));
+		for (int i = 1; i < numClasses; i++) {
+			int numParents = (i > 1 && random.nextInt(4) == 0) ? 2 : 1;
+			for (int n = 0; n < numParents; n++) {
+				m.addAxiom(ont, df.getOWLSubClassOfAxiom(
+						df.getOWLClass(getSyntheticClassIRI(i)),
+						df.getOWLClass(getSyntheticClassIRI(random.nextInt(i)))));
+			}
+		}
+		int numAttributes = Math.min(numAttributesPerIndividual, numClasses);
+		for (int j = 0; j < numIndividuals; j++) {
+			Set<Integer> cixs = new HashSet<Integer>();
+			while (cixs.size() < numAttributes) {
+				cixs.add(random.nextInt(numClasses));
+			}
+			for (Integer cix : cixs) {
+				m.addAxiom(ont, df.getOWLClassAssertionAxiom(
+						df.getOWLClass(getSyntheticClassIRI(cix)),
+						df.getOWLNamedIndividual(IRI.create(SYNTHETIC_INDIVIDUAL_PREFIX+j))));
+			}
+		}
+		return ont;
+	}
+
+	private static IRI getSyntheticClassIRI(int i) {
+		return IRI.create(SYNTHETIC_CLASS_PREFIX+i);
+	}
+
+	/**
+	 * @param objs
+	 * @return objs in a fixed order, independent of hashing
+	 */
+	public static <T extends OWLObject> List<T> sorted(Collection<T> objs) {
+		List<T> list = new ArrayList<T>(objs);
+		Collections.sort(list);
+		return list;
+	}
+}
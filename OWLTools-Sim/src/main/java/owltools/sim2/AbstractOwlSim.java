@@ -34,8 +34,10 @@ import org.semanticweb.owlapi.reasoner.Node;
 import org.semanticweb.owlapi.reasoner.OWLReasoner;
 
 import owltools.mooncat.ontologymetadata.OntologySetMetadata;
+import owltools.sim2.FastOwlSim.ClassCount;
 import owltools.sim2.SimpleOwlSim.Metric;
 import owltools.sim2.SimpleOwlSim.SimConfigurationProperty;
+import owltools.sim2.io.SimResultRenderer;
 import owltools.sim2.scores.ElementPairScores;
 import owltools.vocab.OBOUpperVocabulary;
 
@@ -363,6 +365,20 @@ public abstract class AbstractOwlSim implements OwlSim {
 		return matches;
 	}
 
+	// searches one query at a time; implementations may override to share work between queries
+	public void findMatchesForAll(Map<OWLNamedIndividual, Set<OWLClass>> queries, String targetIdSpace, int k, SimResultRenderer renderer) throws Exception {
+		for (Map.Entry<OWLNamedIndividual, Set<OWLClass>> e : queries.entrySet()) {
+			List<ElementPairScores> matches = findMatches(e.getValue(), targetIdSpace);
+			if (k > 0 && matches.size() > k) {
+				matches = matches.subList(0, k);
+			}
+			for (ElementPairScores m : matches) {
+				m.i = e.getKey();
+				renderer.printPairScores(m);
+			}
+		}
+	}
+
 
 	//		
 
@@ -493,25 +509,6 @@ public abstract class AbstractOwlSim implements OwlSim {
 		this.enrichmentConfig = enrichmentConfig;
 	}
 
-	private void addEnrichmentResult(EnrichmentResult result,
-			List<EnrichmentResult> results) throws UnknownOWLClassException {
-		if (result == null)
-			return;
-		if (enrichmentConfig != null) {
-			if (enrichmentConfig.pValueCorrectedCutoff != null
-					&& result.pValueCorrected > enrichmentConfig.pValueCorrectedCutoff) {
-				return;
-			}
-			if (enrichmentConfig.attributeInformationContentCutoff != null
-					&& this.getInformationContentForAttribute(result.enrichedClass) < enrichmentConfig.attributeInformationContentCutoff) {
-				return;
-			}
-
-		}
-		LOG.info(result);
-		results.add(result);
-	}
-
 	public List<EnrichmentResult> calculateAllByAllEnrichment() throws MathException, UnknownOWLClassException {
 		OWLClass thing = this.getSourceOntology().getOWLOntologyManager().getOWLDataFactory().getOWLThing();
 		return calculateAllByAllEnrichment(thing, thing, thing);
@@ -531,50 +528,7 @@ public abstract class AbstractOwlSim implements OwlSim {
 	public List<EnrichmentResult> calculateAllByAllEnrichment(
 			OWLClass populationClass, OWLClass pc1, OWLClass pc2)
 					throws MathException, UnknownOWLClassException {
-		List<EnrichmentResult> results = new Vector<EnrichmentResult>();
-		OWLClass nothing = getSourceOntology().getOWLOntologyManager().getOWLDataFactory().getOWLNothing();
-		for (OWLClass sampleSetClass : getReasoner().getSubClasses(pc1, false)
-				.getFlattened()) {
-			if (sampleSetClass.equals(nothing)) {
-				continue;
-			}
-			int sampleSetSize = getNumElementsForAttribute(sampleSetClass); // todo - optimize
-			LOG.info("sample set class:" + sampleSetClass + " size="+sampleSetSize);
-			if (sampleSetSize < 2)
-				continue;
-			if (sampleSetSize > enrichmentConfig.maximumClassSize) {
-				LOG.info("  skipping sample set, larger than max size");
-				continue;
-			}
-			List<EnrichmentResult> resultsInner = new Vector<EnrichmentResult>();
-			for (OWLClass enrichedClass : this.getReasoner()
-					.getSubClasses(pc2, false).getFlattened()) {
-				if (enrichedClass.equals(nothing)) continue;
-				//LOG.info(" population class:" + enrichedClass + " size="+getNumElementsForAttribute(enrichedClass));
-				if (getNumElementsForAttribute(enrichedClass) < 2)
-					continue;
-				if (getNumElementsForAttribute(enrichedClass) > enrichmentConfig.maximumClassSize) {
-					//LOG.info("  skipping test set, larger than max size");
-					continue;
-				}
-				if (sampleSetClass.equals(enrichedClass)
-						|| this.getNamedSubsumers(enrichedClass).contains(sampleSetClass)
-						|| this.getNamedSubsumers(sampleSetClass).contains(enrichedClass)) {
-					continue;
-				}
-				EnrichmentResult result = calculatePairwiseEnrichment(populationClass,
-						sampleSetClass, enrichedClass);
-				addEnrichmentResult(result, resultsInner);
-			}
-			// LOG.info("sorting results:"+resultsInner.size());
-			Collections.sort(resultsInner);
-			// LOG.info("sorted results:"+resultsInner.size());
-			results.addAll(resultsInner);
-		}
-		LOG.info("enrichment completed");
-		// Collections.sort(results);
-		results = filterEnrichmentResults(results);
-		return results;
+		return new AllByAllEnrichment(this, populationClass, pc1, pc2).calculate();
 	}
 
 	public List<EnrichmentResult> filterEnrichmentResults(List<EnrichmentResult> resultsIn) {
@@ -711,7 +665,7 @@ public abstract class AbstractOwlSim implements OwlSim {
 	// hardcode bonferoni for now
 	Integer correctionFactor = null; // todo - robust cacheing
 
-	private int getCorrectionFactor(OWLClass populationClass) throws UnknownOWLClassException {
+	int getCorrectionFactor(OWLClass populationClass) throws UnknownOWLClassException {
 		if (correctionFactor == null) {
 			int n = 0;
 			for (OWLClass sc : this.getReasoner()
@@ -1087,6 +1041,25 @@ public abstract class AbstractOwlSim implements OwlSim {
 	}
 
 
+	/**
+	 * Truncates the result of {@link #getCoannotatedClassesForAttribute(OWLClass, Double, int)}
+	 * 
+	 * @param c
+	 * @param cutoff
+	 * @param numIndividualsInBackground
+	 * @param limit - maximum number of classes
+	 * @return at most limit classes co-annotated with c
+	 * @throws Exception
+	 */
+	public List<ClassCount> getCoannotatedClassesForAttribute(OWLClass c, Double cutoff, 
+			int numIndividualsInBackground, int limit) throws Exception {
+		List<ClassCount> classes = getCoannotatedClassesForAttribute(c, cutoff, numIndividualsInBackground);
+		if (classes == null || classes.size() <= limit) {
+			return classes;
+		}
+		return new ArrayList<ClassCount>(classes.subList(0, limit));
+	}
+
 	public OwlSimMetadata getMetadata() {
 		OwlSimMetadata md = new OwlSimMetadata();
 		md.ontologySet = new OntologySetMetadata(this.getSourceOntology());
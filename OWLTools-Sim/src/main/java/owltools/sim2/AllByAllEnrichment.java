@@ -0,0 +1,401 @@
+package owltools.sim2;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.reasoner.Node;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+
+/**
+ * All by all enrichment analysis: for each sample set class (a subclass of
+ * the sample set root) and each enriched class (a subclass of the enriched set root),
+ * the probability of the elements of the sample set class being enriched for
+ * the enriched class, using the hypergeometric distribution.
+ * <p>
+ * All data required from the {@link OwlSim} is fetched once, before scoring:
+ * the elements of each class as a bitmap, the subsumers of each class as a bitmap over
+ * the sample set and enriched classes, and the information content of the
+ * enriched classes. The overlap of a pair is then a single bitmap intersection.
+ * <p>
+ * P-values are computed from a table of log factorials, and memoized by
+ * (enriched size, sample size, overlap), as many pairs share the same counts.
+ * Results are filtered against the {@link EnrichmentConfig} cutoffs as they are
+ * produced, so only significant results are held in memory.
+ * <p>
+ * Sample set classes are scored concurrently, one task per class, using
+ * {@link EnrichmentConfig#numberOfThreads} threads. The results are the same as
+ * when scored sequentially, and are in the same order: by sample set class,
+ * then by increasing p-value.
+ */
+public class AllByAllEnrichment {
+
+	private static Logger LOG = Logger.getLogger(AllByAllEnrichment.class);
+
+	private final AbstractOwlSim sim;
+	private final OWLClass populationClass;
+	private final OWLClass sampleSetRoot;
+	private final OWLClass enrichedRoot;
+	private final EnrichmentConfig config;
+
+	// sample set and enriched classes, by local class index
+	private List<OWLClass> classes;
+	private Map<OWLClass, Integer> classIndex;
+	private int[] sampleSetClassIxs;
+	private int[] enrichedClassIxs;
+	private EWAHCompressedBitmap[] elementBitmaps;
+	private int[] classSizes;
+	// proper named subsumers of each class, as local class indices
+	private EWAHCompressedBitmap[] subsumerBitmaps;
+	// enriched class passes the IC cutoff, by local class index
+	private boolean[] isAboveICCutoff;
+	// population; null for all elements
+	private EWAHCompressedBitmap populationBitmap;
+	private int populationSize;
+	private int correctionFactor;
+
+	// logFactorials[n] = ln(n!)
+	private double[] logFactorials;
+	private final Map<Long, Double> pValueCache = new ConcurrentHashMap<Long, Double>();
+
+	/**
+	 * @param sim
+	 * @param populationClass - if null, the population is all elements
+	 * @param sampleSetRoot
+	 * @param enrichedRoot
+	 */
+	public AllByAllEnrichment(AbstractOwlSim sim, OWLClass populationClass,
+			OWLClass sampleSetRoot, OWLClass enrichedRoot) {
+		this.sim = sim;
+		this.populationClass = populationClass;
+		this.sampleSetRoot = sampleSetRoot;
+		this.enrichedRoot = enrichedRoot;
+		EnrichmentConfig ec = sim.getEnrichmentConfig();
+		this.config = ec == null ? new EnrichmentConfig() : ec;
+	}
+
+	/**
+	 * @return enrichment results, by sample set class and increasing p-value,
+	 * excluding results for an enriched class that subsumes a better enriched
+	 * class of the same sample set class
+	 * @throws UnknownOWLClassException
+	 */
+	public List<EnrichmentResult> calculate() throws UnknownOWLClassException {
+		long t = System.currentTimeMillis();
+		prepare();
+		int nThreads = Math.max(1, config.numberOfThreads);
+		LOG.info("All by all enrichment for "+sampleSetClassIxs.length+" sample set classes, "+
+				enrichedClassIxs.length+" enriched classes, population size: "+populationSize+
+				", threads: "+nThreads+"; prepared in ms = "+(System.currentTimeMillis() - t));
+
+		List<EnrichmentResult> results = new ArrayList<EnrichmentResult>();
+		if (nThreads == 1) {
+			for (int six : sampleSetClassIxs) {
+				results.addAll(calculateRow(six));
+			}
+		}
+		else {
+			ExecutorService pool = createPool(nThreads);
+			try {
+				calculateRows(pool, nThreads, results);
+			}
+			finally {
+				pool.shutdownNow();
+			}
+		}
+		LOG.info("FINISHED All by all enrichment, results: "+results.size()+
+				", distinct p-values computed: "+pValueCache.size()+
+				", ms = "+(System.currentTimeMillis() - t));
+		return results;
+	}
+
+	private void calculateRows(ExecutorService pool, int nThreads, List<EnrichmentResult> results)
+			throws UnknownOWLClassException {
+		// a bounded window of rows in progress, consumed in order
+		ArrayDeque<Future<List<EnrichmentResult>>> window =
+				new ArrayDeque<Future<List<EnrichmentResult>>>();
+		int maxPending = 4 * nThreads;
+		int next = 0;
+		while (next < sampleSetClassIxs.length || !window.isEmpty()) {
+			while (next < sampleSetClassIxs.length && window.size() < maxPending) {
+				final int six = sampleSetClassIxs[next++];
+				window.add(pool.submit(new Callable<List<EnrichmentResult>>() {
+
+					@Override
+					public List<EnrichmentResult> call() throws Exception {
+						return calculateRow(six);
+					}
+				}));
+			}
+			try {
+				results.addAll(window.poll().get());
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted during enrichment analysis", e);
+			}
+			catch (ExecutionException e) {
+				if (e.getCause() instanceof UnknownOWLClassException) {
+					throw (UnknownOWLClassException) e.getCause();
+				}
+				throw new RuntimeException("Failed to calculate enrichment: "+e.getCause().getMessage(),
+						e.getCause());
+			}
+		}
+	}
+
+	private ExecutorService createPool(int nThreads) {
+		return Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+			private int n = 0;
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "owlsim-enrichment-worker-"+(n++));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Fetches all data required for scoring from the sim; not thread safe,
+	 * as the sim may not support concurrent access.
+	 */
+	private void prepare() throws UnknownOWLClassException {
+		OWLClass nothing = sim.getSourceOntology().getOWLOntologyManager().getOWLDataFactory().getOWLNothing();
+		classIndex = new HashMap<OWLClass, Integer>();
+		classes = new ArrayList<OWLClass>();
+		List<Integer> sizes = new ArrayList<Integer>();
+		sampleSetClassIxs = getCandidateClasses(sampleSetRoot, nothing, sizes);
+		enrichedClassIxs = getCandidateClasses(enrichedRoot, nothing, sizes);
+		classSizes = new int[classes.size()];
+		for (int cix = 0; cix < classSizes.length; cix++) {
+			classSizes[cix] = sizes.get(cix);
+		}
+
+		Map<OWLNamedIndividual, Integer> elementIndex = new HashMap<OWLNamedIndividual, Integer>();
+		elementBitmaps = new EWAHCompressedBitmap[classes.size()];
+		subsumerBitmaps = new EWAHCompressedBitmap[classes.size()];
+		for (int cix = 0; cix < classes.size(); cix++) {
+			OWLClass c = classes.get(cix);
+			elementBitmaps[cix] = getElementBitmap(c, elementIndex);
+			List<Integer> subsumers = new ArrayList<Integer>();
+			for (Node<OWLClass> node : sim.getNamedSubsumers(c)) {
+				for (OWLClass s : node.getEntities()) {
+					Integer six = classIndex.get(s);
+					if (six != null)
+						subsumers.add(six);
+				}
+			}
+			subsumerBitmaps[cix] = toBitmap(subsumers);
+		}
+
+		isAboveICCutoff = new boolean[classes.size()];
+		for (int eix : enrichedClassIxs) {
+			if (config.attributeInformationContentCutoff == null) {
+				isAboveICCutoff[eix] = true;
+			}
+			else {
+				Double ic = sim.getInformationContentForAttribute(classes.get(eix));
+				isAboveICCutoff[eix] = ic != null && ic >= config.attributeInformationContentCutoff;
+			}
+		}
+
+		OWLClass correctionClass = populationClass;
+		if (populationClass != null) {
+			populationSize = sim.getNumElementsForAttribute(populationClass);
+			populationBitmap = getElementBitmap(populationClass, elementIndex);
+		}
+		else {
+			populationSize = sim.getCorpusSize();
+			populationBitmap = null;
+			correctionClass =
+					sim.getSourceOntology().getOWLOntologyManager().getOWLDataFactory().getOWLThing();
+		}
+		correctionFactor = sim.getCorrectionFactor(correctionClass);
+
+		logFactorials = new double[populationSize + 1];
+		for (int n = 2; n <= populationSize; n++) {
+			logFactorials[n] = logFactorials[n - 1] + Math.log(n);
+		}
+	}
+
+	private int[] getCandidateClasses(OWLClass root, OWLClass nothing, List<Integer> sizes)
+			throws UnknownOWLClassException {
+		List<Integer> ixs = new ArrayList<Integer>();
+		for (OWLClass c : sim.getReasoner().getSubClasses(root, false).getFlattened()) {
+			if (c.equals(nothing))
+				continue;
+			int size = sim.getNumElementsForAttribute(c);
+			if (size < 2 || size > config.maximumClassSize)
+				continue;
+			Integer cix = classIndex.get(c);
+			if (cix == null) {
+				cix = classes.size();
+				classes.add(c);
+				sizes.add(size);
+				classIndex.put(c, cix);
+			}
+			ixs.add(cix);
+		}
+		int[] arr = new int[ixs.size()];
+		for (int n = 0; n < arr.length; n++) {
+			arr[n] = ixs.get(n);
+		}
+		return arr;
+	}
+
+	private EWAHCompressedBitmap getElementBitmap(OWLClass c, Map<OWLNamedIndividual, Integer> elementIndex)
+			throws UnknownOWLClassException {
+		Set<OWLNamedIndividual> elements = sim.getElementsForAttribute(c);
+		List<Integer> eixs = new ArrayList<Integer>(elements.size());
+		for (OWLNamedIndividual e : elements) {
+			Integer eix = elementIndex.get(e);
+			if (eix == null) {
+				eix = elementIndex.size();
+				elementIndex.put(e, eix);
+			}
+			eixs.add(eix);
+		}
+		return toBitmap(eixs);
+	}
+
+	private static EWAHCompressedBitmap toBitmap(List<Integer> ixs) {
+		int[] arr = new int[ixs.size()];
+		for (int n = 0; n < arr.length; n++) {
+			arr[n] = ixs.get(n);
+		}
+		Arrays.sort(arr);
+		EWAHCompressedBitmap bm = new EWAHCompressedBitmap();
+		int prev = -1;
+		for (int ix : arr) {
+			if (ix != prev)
+				bm.set(ix);
+			prev = ix;
+		}
+		return bm;
+	}
+
+	/**
+	 * @param six - local index of the sample set class
+	 * @return significant, non-redundant results for the sample set class, by increasing p-value
+	 */
+	private List<EnrichmentResult> calculateRow(int six) {
+		OWLClass sampleSetClass = classes.get(six);
+		EWAHCompressedBitmap sampleBM = elementBitmaps[six];
+		int sampleSetSize = classSizes[six];
+		List<EnrichmentResult> row = new ArrayList<EnrichmentResult>();
+		for (int eix : enrichedClassIxs) {
+			if (eix == six || subsumerBitmaps[six].get(eix) || subsumerBitmaps[eix].get(six))
+				continue;
+			// cheap filter first; the IC does not depend on the sample set
+			if (!isAboveICCutoff[eix])
+				continue;
+			int enrichedSize;
+			if (populationBitmap == null) {
+				enrichedSize = classSizes[eix];
+			}
+			else {
+				enrichedSize = elementBitmaps[eix].andCardinality(populationBitmap);
+			}
+			if (enrichedSize == 0)
+				continue;
+			int overlap = sampleBM.andCardinality(elementBitmaps[eix]);
+			if (overlap == 0)
+				continue;
+			double p = getPValue(enrichedSize, sampleSetSize, overlap);
+			double pCorrected = p * correctionFactor;
+			if (config.pValueCorrectedCutoff != null && pCorrected > config.pValueCorrectedCutoff)
+				continue;
+			row.add(new EnrichmentResult(sampleSetClass, classes.get(eix), p, pCorrected,
+					populationSize, sampleSetSize, enrichedSize, overlap));
+		}
+		// stable, so ties keep the enriched class order
+		Collections.sort(row);
+		return filterRedundant(row);
+	}
+
+	/**
+	 * As {@link AbstractOwlSim#filterEnrichmentResults(List)}, for the results
+	 * of a single sample set class
+	 */
+	private List<EnrichmentResult> filterRedundant(List<EnrichmentResult> row) {
+		List<EnrichmentResult> filtered = new ArrayList<EnrichmentResult>(row.size());
+		List<Integer> betters = new ArrayList<Integer>();
+		for (EnrichmentResult r : row) {
+			int eix = classIndex.get(r.enrichedClass);
+			boolean isRedundant = false;
+			for (int bix : betters) {
+				if (subsumerBitmaps[bix].get(eix)) {
+					isRedundant = true;
+					break;
+				}
+			}
+			if (!isRedundant)
+				filtered.add(r);
+			betters.add(eix);
+		}
+		return filtered;
+	}
+
+	/**
+	 * @param enrichedSize - K, elements of the enriched class in the population
+	 * @param sampleSetSize - n, elements in the sample set
+	 * @param overlap - k, elements in both
+	 * @return P(X >= k), X ~ Hypergeometric(N, K, n)
+	 */
+	double getPValue(int enrichedSize, int sampleSetSize, int overlap) {
+		Long key = null;
+		if (enrichedSize < (1 << 21) && sampleSetSize < (1 << 21) && overlap < (1 << 21)) {
+			key = ((long) enrichedSize << 42) | ((long) sampleSetSize << 21) | overlap;
+			Double p = pValueCache.get(key);
+			if (p != null)
+				return p;
+		}
+		int N = populationSize;
+		int K = enrichedSize;
+		int n = Math.min(sampleSetSize, N);
+		int lo = Math.max(overlap, n + K - N);
+		int hi = Math.min(n, K);
+		double p = 0;
+		if (lo <= hi) {
+			// sum of the terms, scaled by the largest, to avoid underflow
+			double[] logTerms = new double[hi - lo + 1];
+			double max = Double.NEGATIVE_INFINITY;
+			double logDenominator = logChoose(N, n);
+			for (int x = lo; x <= hi; x++) {
+				double lt = logChoose(K, x) + logChoose(N - K, n - x) - logDenominator;
+				logTerms[x - lo] = lt;
+				if (lt > max)
+					max = lt;
+			}
+			double sum = 0;
+			for (double lt : logTerms) {
+				sum += Math.exp(lt - max);
+			}
+			p = Math.min(1.0, Math.exp(max) * sum);
+		}
+		if (key != null)
+			pValueCache.put(key, p);
+		return p;
+	}
+
+	private double logChoose(int n, int k) {
+		return logFactorials[n] - logFactorials[k] - logFactorials[n - k];
+	}
+}
@@ -0,0 +1,108 @@
+package owltools.sim2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import com.googlecode.javaewah.IntIterator;
+
+/**
+ * Inverted index from informative classes to the elements they subsume.
+ * <p>
+ * A class is informative if its information content (IC) is above a floor.
+ * Its posting list is the bitmap of the elements (individuals) that have
+ * it as an inferred type, using the same element numbering as
+ * the element bitmaps of {@link FastOwlSim}.
+ * <p>
+ * Any element that shares an ancestor with IC above the floor with a query
+ * profile is in the union of the posting lists of the informative classes in the
+ * profile. A search with a minimum maxIC of at least the floor can therefore
+ * restrict its candidates to that union, without losing any match.
+ * <p>
+ * The index is immutable; it must be rebuilt if the class index, the element
+ * index or the ICs change.
+ */
+public class CandidateIndex {
+
+	private final EWAHCompressedBitmap[] postings;
+	private final double icFloor;
+	private final int numberOfElements;
+
+	/**
+	 * @param elementTypeBitmaps - inferred types of each element, by element index
+	 * @param ic - IC by class index
+	 * @param icFloor - only classes with a higher IC are indexed
+	 */
+	public CandidateIndex(EWAHCompressedBitmap[] elementTypeBitmaps, double[] ic, double icFloor) {
+		this.icFloor = icFloor;
+		this.numberOfElements = elementTypeBitmaps.length;
+		postings = new EWAHCompressedBitmap[ic.length];
+		// elements are visited in increasing order, as bits must be set in order
+		for (int eix = 0; eix < elementTypeBitmaps.length; eix++) {
+			if (elementTypeBitmaps[eix] == null)
+				continue;
+			IntIterator it = elementTypeBitmaps[eix].intIterator();
+			while (it.hasNext()) {
+				int cix = it.next();
+				if (!(ic[cix] > icFloor))
+					continue;
+				if (postings[cix] == null)
+					postings[cix] = new EWAHCompressedBitmap();
+				postings[cix].set(eix);
+			}
+		}
+	}
+
+	/**
+	 * @return classes with an IC at or below this value are not indexed
+	 */
+	public double getICFloor() {
+		return icFloor;
+	}
+
+	/**
+	 * @param cix
+	 * @return elements of class, or null if the class is not informative
+	 */
+	public EWAHCompressedBitmap getPostings(int cix) {
+		return postings[cix];
+	}
+
+	/**
+	 * @param profileBM - reflexive closure of a query profile, as class indices
+	 * @return elements that share at least one informative class with the profile
+	 */
+	public EWAHCompressedBitmap getCandidates(EWAHCompressedBitmap profileBM) {
+		List<EWAHCompressedBitmap> bms = new ArrayList<EWAHCompressedBitmap>();
+		IntIterator it = profileBM.intIterator();
+		while (it.hasNext()) {
+			int cix = it.next();
+			if (cix < postings.length && postings[cix] != null)
+				bms.add(postings[cix]);
+		}
+		if (bms.isEmpty())
+			return new EWAHCompressedBitmap();
+		if (bms.size() == 1)
+			return bms.get(0);
+		return EWAHCompressedBitmap.or(bms.toArray(new EWAHCompressedBitmap[bms.size()]));
+	}
+
+	/**
+	 * @return number of indexed elements
+	 */
+	public int getNumberOfElements() {
+		return numberOfElements;
+	}
+
+	/**
+	 * @return number of classes with a posting list
+	 */
+	public int getNumberOfIndexedClasses() {
+		int n = 0;
+		for (EWAHCompressedBitmap bm : postings) {
+			if (bm != null)
+				n++;
+		}
+		return n;
+	}
+}
@@ -0,0 +1,379 @@
+package owltools.sim2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+
+/**
+ * Sparse, symmetric matrix of co-annotation counts between classes, by class index.
+ * <p>
+ * For a pair of classes (c,d), the count is the number of (element, c, d)
+ * combinations where c is an inferred type and d a direct type of the element,
+ * or vice versa. On the diagonal, this is the number of elements with c as a
+ * direct type.
+ * <p>
+ * Only non-zero counts are stored: for each row, the column indices in
+ * increasing order, and their counts. Rows are computed independently, and
+ * can therefore be computed concurrently.
+ * <p>
+ * File format (big-endian): magic number (long), format version (int), number
+ * of classes (int), fingerprint (long), number of non-zero counts (long),
+ * followed by the number of entries of each row, then the columns and the counts of all rows. The fingerprint is supplied
+ * by the caller, and should change whenever the class index or the elements change.
+ */
+public class CoAnnotationMatrix {
+
+	/**
+	 * Scores an entry of a row, for {@link CoAnnotationMatrix#getTopColumns(int, int, double, ColumnScorer)}
+	 */
+	public interface ColumnScorer {
+
+		/**
+		 * @param column
+		 * @param count - non-zero count of the entry
+		 * @return score
+		 */
+		public double score(int column, int count);
+	}
+
+	// "OWLSIMCO"
+	private static final long MAGIC = 0x4F574C53494D434FL;
+	private static final int VERSION = 1;
+	// shared by empty rows, which are common for small sets of elements
+	private static final int[] EMPTY = new int[0];
+
+	private final int size;
+	// by row
+	private final int[][] columns;
+	private final int[][] counts;
+	private final long numEntries;
+
+	private CoAnnotationMatrix(int size, int[][] columns, int[][] counts) {
+		this.size = size;
+		this.columns = columns;
+		this.counts = counts;
+		long n = 0;
+		for (int r = 0; r < size; r++) {
+			n += columns[r].length;
+		}
+		numEntries = n;
+	}
+
+	/**
+	 * @param size - number of classes in the class index
+	 * @param elementTypes - inferred types of each element, as class indices
+	 * @param elementDirectTypes - direct types of each element, as class indices
+	 * @param pool - if non-null, rows are computed on this pool
+	 * @param numTasks - number of tasks the rows are split into, if a pool is used
+	 * @return co-annotation counts
+	 * @throws Exception
+	 */
+	public static CoAnnotationMatrix create(final int size, EWAHCompressedBitmap[] elementTypes,
+			int[][] elementDirectTypes, ExecutorService pool, int numTasks) throws Exception {
+		final int[][] types = new int[elementTypes.length][];
+		for (int eix = 0; eix < elementTypes.length; eix++) {
+			types[eix] = elementTypes[eix] == null ? new int[0] : elementTypes[eix].toArray();
+		}
+		final int[][] directTypes = new int[elementDirectTypes.length][];
+		for (int eix = 0; eix < elementDirectTypes.length; eix++) {
+			directTypes[eix] = elementDirectTypes[eix] == null ? new int[0] : elementDirectTypes[eix];
+		}
+		// inverted indices: elements by inferred and by direct type
+		final int[][] elementsByType = invert(size, types);
+		final int[][] elementsByDirectType = invert(size, directTypes);
+
+		final int[][] columns = new int[size][];
+		final int[][] counts = new int[size][];
+		if (pool == null || numTasks <= 1) {
+			new RowBuilder(size, types, directTypes, elementsByType, elementsByDirectType)
+			.build(0, size, columns, counts);
+		}
+		else {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			// rows are interleaved, as low class indices tend to be more general,
+			// and therefore have more elements
+			final int stride = numTasks;
+			for (int t = 0; t < numTasks; t++) {
+				final int first = t;
+				futures.add(pool.submit(new Callable<Void>() {
+
+					@Override
+					public Void call() throws Exception {
+						RowBuilder rb =
+								new RowBuilder(size, types, directTypes, elementsByType, elementsByDirectType);
+						for (int r = first; r < size; r += stride) {
+							rb.build(r, r + 1, columns, counts);
+						}
+						return null;
+					}
+				}));
+			}
+			try {
+				for (Future<?> future : futures) {
+					future.get();
+				}
+			} catch (ExecutionException e) {
+				for (Future<?> future : futures) {
+					future.cancel(true);
+				}
+				if (e.getCause() instanceof Exception) {
+					throw (Exception) e.getCause();
+				}
+				throw e;
+			}
+		}
+		return new CoAnnotationMatrix(size, columns, counts);
+	}
+
+	private static int[][] invert(int size, int[][] elementTypes) {
+		int[] n = new int[size];
+		for (int[] cixs : elementTypes) {
+			for (int cix : cixs) {
+				n[cix]++;
+			}
+		}
+		int[][] inverted = new int[size][];
+		for (int cix = 0; cix < size; cix++) {
+			inverted[cix] = n[cix] == 0 ? EMPTY : new int[n[cix]];
+		}
+		Arrays.fill(n, 0);
+		for (int eix = 0; eix < elementTypes.length; eix++) {
+			for (int cix : elementTypes[eix]) {
+				inverted[cix][n[cix]++] = eix;
+			}
+		}
+		return inverted;
+	}
+
+	/**
+	 * Accumulates rows in a dense scratch array; one per thread
+	 */
+	private static class RowBuilder {
+		private final int[][] types;
+		private final int[][] directTypes;
+		private final int[][] elementsByType;
+		private final int[][] elementsByDirectType;
+		private final int[] scratch;
+		private final int[] touched;
+
+		RowBuilder(int size, int[][] types, int[][] directTypes, int[][] elementsByType,
+				int[][] elementsByDirectType) {
+			this.types = types;
+			this.directTypes = directTypes;
+			this.elementsByType = elementsByType;
+			this.elementsByDirectType = elementsByDirectType;
+			scratch = new int[size];
+			touched = new int[size];
+		}
+
+		void build(int from, int to, int[][] columns, int[][] counts) {
+			for (int r = from; r < to; r++) {
+				int n = 0;
+				// r inferred, d direct
+				for (int eix : elementsByType[r]) {
+					for (int d : directTypes[eix]) {
+						if (scratch[d]++ == 0)
+							touched[n++] = d;
+					}
+				}
+				// r direct, c inferred; the diagonal is only counted once
+				for (int eix : elementsByDirectType[r]) {
+					for (int c : types[eix]) {
+						if (c == r)
+							continue;
+						if (scratch[c]++ == 0)
+							touched[n++] = c;
+					}
+				}
+				if (n == 0) {
+					columns[r] = EMPTY;
+					counts[r] = EMPTY;
+					continue;
+				}
+				Arrays.sort(touched, 0, n);
+				int[] rowColumns = new int[n];
+				int[] rowCounts = new int[n];
+				for (int k = 0; k < n; k++) {
+					rowColumns[k] = touched[k];
+					rowCounts[k] = scratch[touched[k]];
+					scratch[touched[k]] = 0;
+				}
+				columns[r] = rowColumns;
+				counts[r] = rowCounts;
+			}
+		}
+	}
+
+	/**
+	 * @param row
+	 * @param column
+	 * @return count for the pair; 0 if there is no entry
+	 */
+	public int get(int row, int column) {
+		int k = Arrays.binarySearch(columns[row], column);
+		return k < 0 ? 0 : counts[row][k];
+	}
+
+	/**
+	 * @param row
+	 * @return columns with a non-zero count, in increasing order
+	 */
+	public int[] getColumns(int row) {
+		return columns[row].clone();
+	}
+
+	/**
+	 * @param row
+	 * @param n - maximum number of columns
+	 * @param cutoff - only columns with a score above this value are returned
+	 * @param scorer
+	 * @return the n highest scoring columns of the row, by decreasing score
+	 */
+	public int[] getTopColumns(int row, int n, double cutoff, ColumnScorer scorer) {
+		if (n <= 0)
+			return new int[0];
+		final int[] rowColumns = columns[row];
+		final double[] scores = new double[rowColumns.length];
+		// min-heap of positions in the row, lowest score at the head
+		PriorityQueue<Integer> heap = new PriorityQueue<Integer>(Math.min(n, rowColumns.length) + 1,
+				new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int c = Double.compare(scores[a], scores[b]);
+				// on ties, prefer the lower class index
+				return c != 0 ? c : (rowColumns[b] < rowColumns[a] ? -1 : (rowColumns[b] > rowColumns[a] ? 1 : 0));
+			}
+		});
+		for (int k = 0; k < rowColumns.length; k++) {
+			double score = scorer.score(rowColumns[k], counts[row][k]);
+			if (!(score > cutoff))
+				continue;
+			scores[k] = score;
+			if (heap.size() < n) {
+				heap.add(k);
+			}
+			else if (heap.comparator().compare(k, heap.peek()) > 0) {
+				heap.poll();
+				heap.add(k);
+			}
+		}
+		int[] top = new int[heap.size()];
+		for (int i = top.length - 1; i >= 0; i--) {
+			top[i] = rowColumns[heap.poll()];
+		}
+		return top;
+	}
+
+	/**
+	 * @return number of classes in the class index
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return number of non-zero counts
+	 */
+	public long getNumberOfEntries() {
+		return numEntries;
+	}
+
+	/**
+	 * @param f
+	 * @param fingerprint
+	 * @throws IOException
+	 */
+	public void save(File f, long fingerprint) throws IOException {
+		DataOutputStream out =
+				new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+		try {
+			out.writeLong(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(size);
+			out.writeLong(fingerprint);
+			out.writeLong(getNumberOfEntries());
+			for (int r = 0; r < size; r++) {
+				out.writeInt(columns[r].length);
+			}
+			for (int r = 0; r < size; r++) {
+				for (int c : columns[r]) {
+					out.writeInt(c);
+				}
+			}
+			for (int r = 0; r < size; r++) {
+				for (int c : counts[r]) {
+					out.writeInt(c);
+				}
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @param f
+	 * @param size - number of classes in the class index
+	 * @param fingerprint
+	 * @return matrix written by {@link #save(File, long)}
+	 * @throws IOException - if the file is not a co-annotation matrix, or was
+	 * created for a different class index or set of elements
+	 */
+	public static CoAnnotationMatrix load(File f, int size, long fingerprint) throws IOException {
+		DataInputStream in =
+				new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+		try {
+			if (in.readLong() != MAGIC) {
+				throw new IOException("Not a co-annotation matrix file: "+f);
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported co-annotation matrix version "+version+" in "+f);
+			}
+			int fileSize = in.readInt();
+			long fileFingerprint = in.readLong();
+			if (fileSize != size || fileFingerprint != fingerprint) {
+				throw new IOException("Co-annotation matrix "+f+" was created for a different ontology or set of elements"+
+						" (classes: "+fileSize+", expected: "+size+")");
+			}
+			in.readLong();
+			int[][] columns = new int[size][];
+			int[][] counts = new int[size][];
+			for (int r = 0; r < size; r++) {
+				int n = in.readInt();
+				columns[r] = new int[n];
+				counts[r] = new int[n];
+			}
+			for (int r = 0; r < size; r++) {
+				for (int k = 0; k < columns[r].length; k++) {
+					columns[r][k] = in.readInt();
+				}
+			}
+			for (int r = 0; r < size; r++) {
+				for (int k = 0; k < counts[r].length; k++) {
+					counts[r][k] = in.readInt();
+				}
+			}
+			return new CoAnnotationMatrix(size, columns, counts);
+		}
+		finally {
+			in.close();
+		}
+	}
+}
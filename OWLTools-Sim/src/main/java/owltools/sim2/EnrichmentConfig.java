@@ -6,4 +6,9 @@ public class EnrichmentConfig {
 	public Double attributeInformationContentCutoff;
 	
 	public int maximumClassSize = 1000;
+
+	/**
+	 * number of threads used for all by all enrichment analysis
+	 */
+	public int numberOfThreads = 1;
 }
\ No newline at end of file
@@ -1,19 +1,40 @@
 package owltools.sim2;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.LineIterator;
@@ -21,8 +42,10 @@ import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 import org.apache.commons.math3.util.MultidimensionalCounter.Iterator;
 import org.apache.log4j.Logger;
 import org.semanticweb.elk.owlapi.ElkReasonerFactory;
+import org.semanticweb.owlapi.model.OWLAxiom;
 import org.semanticweb.owlapi.model.IRI;
 import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
 import org.semanticweb.owlapi.model.OWLNamedIndividual;
 import org.semanticweb.owlapi.model.OWLNamedObject;
 import org.semanticweb.owlapi.model.OWLOntology;
@@ -34,6 +57,7 @@ import org.semanticweb.owlapi.reasoner.impl.OWLClassNode;
 import owltools.sim2.SimpleOwlSim.Direction;
 import owltools.sim2.SimpleOwlSim.Metric;
 import owltools.sim2.SimpleOwlSim.SimConfigurationProperty;
+import owltools.sim2.io.SimResultRenderer;
 import owltools.sim2.io.SimResultRenderer.AttributesSimScores;
 import owltools.sim2.scores.AttributePairScores;
 import owltools.sim2.scores.ElementPairScores;
@@ -134,13 +158,18 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 	// same as elementToInferredAttributesMap.values()
 	private Set<OWLClass> allTypesInferred = null; 
 
-	// cache of information content, by class
+	// cache of information content, for classes outside the class index
+	// (e.g. classes with no members), or set before the index was created
 	private Map<OWLClass, Double> icCache = new HashMap<OWLClass,Double>();
 
 	private Map<OWLClass, Integer> numElementsCache = new HashMap<OWLClass,Integer>();
 
-	// cache of information content, by class index
-	Double[] icClassArray = null;
+	// cache of information content, by class index; NaN if not yet computed.
+	// primitive, so that scans over bitmaps do not unbox
+	double[] icClassArray = null;
+
+	// cache of number of elements, by class index; -1 if not yet computed
+	private int[] numElementsArray = null;
 
 	//	private Map<ClassIntPair, Set<Integer>> classPairLCSMap;
 	//	private Map<ClassIntPair, ScoreAttributeSetPair> classPairICLCSMap;
@@ -150,20 +179,76 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 	//short[][] ciPairScaledScore;
 	ScoreAttributeSetPair[][] testCache = null;
 
-	//
-	// Symmetric 2D arrays
-	//  - for a lookup [cix][dix], ensure cix <= dix
-	boolean[][] ciPairIsCached = null;   // determins if there is an entry is ciPairLCS
-	int[][] ciPairLCS = null; // LCS ix for a (cix,dix) pair
+	// LCS ix for a (cix,dix) pair; upper triangle only.
+	// may be backed by a memory-mapped file
+	LCSCache lcsCache = null;
 
 	// maps an individual to a unique integer
 	Map<OWLNamedIndividual,Integer> individualIndex;
 
-	int[][] coaMatrix = null;
+	// true if elements were added, removed or modified since the element
+	// attribute map was created; the reasoner then no longer reflects the elements
+	private boolean isElementAttributeMapModified = false;
+
+	// co-annotation counts by class index; built on demand
+	private volatile CoAnnotationMatrix coAnnotationMatrix = null;
+
+	// number of threads used when searching for matches;
+	// the worker pool is created on demand
+	private int numberOfThreads = 1;
+	private ExecutorService workerPool = null;
+	private boolean isPreparedForConcurrentSearch = false;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Method used to find the LCS of a pair of classes, when it is not cached
+	 */
+	public enum LCSStrategy {
+		/**
+		 * intersects the ancestor bitmaps of both classes, then scans all common ancestors
+		 */
+		BITMAP,
+		/**
+		 * walks the ancestor lists of both classes, sorted by IC, up to the first
+		 * common ancestor; see {@link SortedAncestorIndex}
+		 */
+		SORTED_ANCESTORS
+	}
+
+	private LCSStrategy lcsStrategy = LCSStrategy.BITMAP;
+
+	// built on demand; null if out of date
+	private volatile SortedAncestorIndex sortedAncestorIndex = null;
+
+	// if true, searches only score candidates found in the candidate index
+	private boolean isUseCandidateIndex = true;
+	private double candidateIndexICFloor = 2.5;
+	// built on demand; null if out of date
+	private volatile CandidateIndex candidateIndex = null;
+
+	// parameters of the LSH index used by approximate SimJ searches
+	private int minHashBands = 32;
+	private int minHashRowsPerBand = 4;
+	// built on demand; null if out of date
+	private volatile MinHashIndex minHashIndex = null;
+
+	// number of candidates skipped by the last top k search, and by all top k searches
+	private volatile int lastSearchPrunedCount = 0;
+	private final AtomicLong prunedCount = new AtomicLong();
 
 	@Override
 	public void dispose() {
 		showTimings();
+		if (lcsCache != null) {
+			lcsCache.flush();
+		}
+		synchronized (this) {
+			if (workerPool != null) {
+				workerPool.shutdown();
+				workerPool = null;
+			}
+		}
 	}
 
 
@@ -343,7 +428,11 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 		// TODO - investigate if ordering elements makes a difference;
 		// e.g. if more frequent classes receive lower bit indices this
 		// may speed certain BitMap operations?
-		for (OWLClass c : cset) {
+		// Classes are sorted, so that the index is the same across runs;
+		// this is required for persisted caches (e.g. the LCS cache)
+		List<OWLClass> sortedClasses = new ArrayList<OWLClass>(cset);
+		Collections.sort(sortedClasses);
+		for (OWLClass c : sortedClasses) {
 			if (c.equals(owlThing()))
 				continue;
 			classArray[n] = c;
@@ -351,6 +440,16 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 			n++;
 		}
 
+		isElementAttributeMapModified = false;
+
+		// any counts and ICs by index are for a previous index
+		icClassArray = null;
+		numElementsArray = null;
+		sortedAncestorIndex = null;
+		candidateIndex = null;
+		minHashIndex = null;
+		isPreparedForConcurrentSearch = false;
+
 		// ensure cached
 		cset.add(owlThing());
 		for (OWLClass c : cset) {
@@ -378,6 +477,249 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 
 	}
 
+	/**
+	 * Replaces the direct attributes of an element, without rebuilding the
+	 * element attribute map. The element is added if it is new, and removed
+	 * if atts is empty.
+	 * <p>
+	 * The type bitmap of the element and the element counts of the classes
+	 * it gains or loses are updated in place. The IC is recomputed for the
+	 * classes whose count changed; if the number of elements changes, the IC of
+	 * every class changes by the same amount, and all are recomputed from the
+	 * cached counts. Cached LCSs are only removed for pairs of classes that
+	 * have a common subsumer whose IC did not change by that amount, as the LCS
+	 * of any other pair is unchanged.
+	 * <p>
+	 * The ontology is not modified; once an element has been updated, the
+	 * elements of a class are found from the cached types rather than the reasoner.
+	 * All attributes must be in the class index. Updates must not be
+	 * made while a search is in progress.
+	 * 
+	 * @param i
+	 * @param atts - new direct attributes
+	 * @throws UnknownOWLClassException - if an attribute is not in the class index
+	 */
+	public synchronized void setAttributesForElement(OWLNamedIndividual i, Set<OWLClass> atts) throws UnknownOWLClassException {
+		updateElement(i, atts);
+	}
+
+	/**
+	 * Adds direct attributes to an element, which is created if it is new
+	 * 
+	 * @see #setAttributesForElement(OWLNamedIndividual, Set)
+	 * @param i
+	 * @param atts
+	 * @throws UnknownOWLClassException
+	 */
+	public synchronized void addAttributesToElement(OWLNamedIndividual i, Set<OWLClass> atts) throws UnknownOWLClassException {
+		Set<OWLClass> newAtts = new HashSet<OWLClass>(atts);
+		if (elementToDirectAttributesMap != null && elementToDirectAttributesMap.containsKey(i)) {
+			newAtts.addAll(elementToDirectAttributesMap.get(i));
+		}
+		updateElement(i, newAtts);
+	}
+
+	/**
+	 * Removes direct attributes from an element; the element is removed if it
+	 * is left with no attributes
+	 * 
+	 * @see #setAttributesForElement(OWLNamedIndividual, Set)
+	 * @param i
+	 * @param atts
+	 * @throws UnknownOWLClassException
+	 */
+	public synchronized void removeAttributesFromElement(OWLNamedIndividual i, Set<OWLClass> atts) throws UnknownOWLClassException {
+		if (elementToDirectAttributesMap == null)
+			createElementAttributeMapFromOntology();
+		if (!elementToDirectAttributesMap.containsKey(i))
+			return;
+		Set<OWLClass> newAtts = getAttributesForElement(i);
+		newAtts.removeAll(atts);
+		updateElement(i, newAtts);
+	}
+
+	/**
+	 * Removes an element
+	 * 
+	 * @see #setAttributesForElement(OWLNamedIndividual, Set)
+	 * @param i
+	 * @throws UnknownOWLClassException
+	 */
+	public synchronized void removeElement(OWLNamedIndividual i) throws UnknownOWLClassException {
+		updateElement(i, Collections.<OWLClass>emptySet());
+	}
+
+	private void updateElement(OWLNamedIndividual i, Set<OWLClass> atts) throws UnknownOWLClassException {
+		if (elementToDirectAttributesMap == null)
+			createElementAttributeMapFromOntology();
+		long t = System.currentTimeMillis();
+
+		// as returned by the reasoner: without owl:Thing and redundant classes
+		EWAHCompressedBitmap typesBM = new EWAHCompressedBitmap();
+		EWAHCompressedBitmap redundantBM = new EWAHCompressedBitmap();
+		for (OWLClass c : atts) {
+			if (!getAllAttributeClasses().contains(c)) {
+				throw new UnknownOWLClassException(c);
+			}
+			if (c.equals(owlThing()))
+				continue;
+			typesBM = typesBM.or(ancsBitmapCachedModifiable(c));
+			redundantBM = redundantBM.or(ancsProperBitmapCachedModifiable(c));
+		}
+		Set<OWLClass> directAtts = new HashSet<OWLClass>();
+		for (OWLClass c : atts) {
+			if (!c.equals(owlThing()) &&
+					!redundantBM.get(getClassIndex(classTorepresentativeClassMap.get(c)))) {
+				directAtts.add(c);
+			}
+		}
+		boolean isNew = !elementToDirectAttributesMap.containsKey(i);
+		boolean isRemoved = directAtts.isEmpty();
+		if (isNew && isRemoved) {
+			return;
+		}
+
+		// all counts and ICs must be known before anything is modified,
+		// so that they can be compared and updated
+		double[] oldIC = new double[classArray.length];
+		for (int cix = 0; cix < classArray.length; cix++) {
+			if (classArray[cix] == null)
+				continue;
+			getNumElementsForAttribute(classArray[cix]);
+			oldIC[cix] = getInformationContentForAttribute(cix);
+		}
+		int oldCorpusSize = getCorpusSize();
+
+		EWAHCompressedBitmap oldTypesBM = isNew ? new EWAHCompressedBitmap() : ancsBitmapCachedModifiable(i);
+		boolean[] isCountChanged = new boolean[classArray.length];
+		IntIterator it = oldTypesBM.andNot(typesBM).intIterator();
+		while (it.hasNext()) {
+			int cix = it.next();
+			numElementsArray[cix]--;
+			isCountChanged[cix] = true;
+		}
+		it = typesBM.andNot(oldTypesBM).intIterator();
+		while (it.hasNext()) {
+			int cix = it.next();
+			numElementsArray[cix]++;
+			isCountChanged[cix] = true;
+		}
+
+		if (isRemoved) {
+			LOG.info("Removing element: "+i);
+			elementToDirectAttributesMap.remove(i);
+			elementToInferredAttributesMap.remove(i);
+			if (inferredTypesMap != null)
+				inferredTypesMap.remove(i);
+			if (inferredTypesIntMap != null)
+				inferredTypesIntMap.remove(i);
+			inferredTypesBitmapMap.remove(i);
+			if (individualIndex != null) {
+				// keep the index contiguous: the last element takes the place of i
+				int eix = individualIndex.remove(i);
+				for (Entry<OWLNamedIndividual, Integer> e : individualIndex.entrySet()) {
+					if (e.getValue() == individualIndex.size()) {
+						e.setValue(eix);
+						break;
+					}
+				}
+			}
+			corpusSize = oldCorpusSize - 1;
+		}
+		else {
+			Set<Node<OWLClass>> nodes = new HashSet<Node<OWLClass>>();
+			Set<Integer> ints = new HashSet<Integer>();
+			for (OWLClass c : directAtts) {
+				nodes.addAll(ancsCachedModifiable(c));
+				ints.addAll(ancsIntsCachedModifiable(c));
+			}
+			elementToDirectAttributesMap.put(i, directAtts);
+			elementToInferredAttributesMap.put(i, nodes);
+			if (inferredTypesMap == null)
+				inferredTypesMap = new HashMap<OWLNamedIndividual,Set<Node<OWLClass>>>();
+			inferredTypesMap.put(i, new HashSet<Node<OWLClass>>(nodes));
+			if (inferredTypesIntMap == null)
+				inferredTypesIntMap = new HashMap<OWLNamedIndividual,Set<Integer>>();
+			inferredTypesIntMap.put(i, ints);
+			inferredTypesBitmapMap.put(i, typesBM);
+			allTypesDirect.addAll(directAtts);
+			if (isNew) {
+				LOG.info("Adding element: "+i);
+				if (individualIndex != null)
+					individualIndex.put(i, individualIndex.size());
+				corpusSize = oldCorpusSize + 1;
+			}
+		}
+		isElementAttributeMapModified = true;
+		// owl:Thing is excluded from bitmaps
+		numElementsArray[0] += getCorpusSize() - oldCorpusSize;
+
+		// the IC of every class depends on the corpus size; if it is unchanged,
+		// only classes with a changed count, and those with no elements
+		// (which inherit the IC of their parents), need to be recomputed
+		boolean isCorpusSizeChanged = getCorpusSize() != oldCorpusSize;
+		for (int cix = 0; cix < classArray.length; cix++) {
+			if (isCorpusSizeChanged || isCountChanged[cix] || numElementsArray[cix] == 0) {
+				icClassArray[cix] = Double.NaN;
+			}
+		}
+		for (int cix = 0; cix < classArray.length; cix++) {
+			if (classArray[cix] != null)
+				getInformationContentForAttribute(cix);
+		}
+
+		// adding a constant to all ICs does not change any LCS
+		double shift = Math.log(getCorpusSize() / (double) oldCorpusSize) / Math.log(2);
+		Set<Integer> changedInts = new HashSet<Integer>();
+		for (int cix = 1; cix < classArray.length; cix++) {
+			if (classArray[cix] != null && Math.abs(icClassArray[cix] - oldIC[cix] - shift) > 1e-9) {
+				changedInts.add(cix);
+			}
+		}
+		invalidateLCSCache(convertIntsToBitmap(changedInts));
+
+		// derived caches are rebuilt on demand
+		testCache = null;
+		classToElementBitmapMap = null;
+		coAnnotationMatrix = null;
+		sortedAncestorIndex = null;
+		candidateIndex = null;
+		minHashIndex = null;
+		isPreparedForConcurrentSearch = false;
+		LOG.info("Updated element "+i+" in "+tdelta(t)+" ms; |changed IC|="+changedInts.size());
+	}
+
+	// removes the cached LCS of all pairs of classes that have a common
+	// subsumer in changedBM
+	private void invalidateLCSCache(EWAHCompressedBitmap changedBM) throws UnknownOWLClassException {
+		if (lcsCache == null || changedBM.cardinality() == 0)
+			return;
+		if (lcsCache.isReadOnly() || isLCSCacheFullyPopulated) {
+			// absent pairs are not recomputed, or present pairs cannot be removed
+			LOG.info("Discarding LCS cache");
+			closeLCSCache();
+			isLCSCacheFullyPopulated = false;
+			return;
+		}
+		List<Integer> affected = new ArrayList<Integer>();
+		for (int cix = 0; cix < classArray.length; cix++) {
+			if (classArray[cix] != null && ancsBitmapCachedModifiable(cix).andCardinality(changedBM) > 0) {
+				affected.add(cix);
+			}
+		}
+		long numPairs = LCSCache.getNumberOfSlots(affected.size());
+		if (numPairs > lcsCache.getNumberOfSlots() / 4) {
+			clearLCSCache();
+			return;
+		}
+		LOG.info("Removing cached LCS for "+numPairs+" pairs");
+		for (int n = 0; n < affected.size(); n++) {
+			for (int m = n; m < affected.size(); m++) {
+				lcsCache.remove(affected.get(n), affected.get(m));
+			}
+		}
+	}
+
 	// TODO - change set to be (ordered) List, to avoid sorting each time
 	private EWAHCompressedBitmap convertIntsToBitmap(Set<Integer> bits) {
 		EWAHCompressedBitmap bm = new EWAHCompressedBitmap();
@@ -570,9 +912,30 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 		if (!this.getAllAttributeClasses().contains(c)) {
 			throw new UnknownOWLClassException(c);
 		}
+		if (isElementAttributeMapModified) {
+			// the reasoner does not know about incremental updates
+			return getElementsForAttributeFromTypes(c);
+		}
 		return getReasoner().getInstances(c, false).getFlattened();
 	}
 
+	// scans the inferred types of all elements
+	private Set<OWLNamedIndividual> getElementsForAttributeFromTypes(OWLClass c) throws UnknownOWLClassException {
+		if (c.equals(owlThing())) {
+			// excluded from bitmaps
+			return new HashSet<OWLNamedIndividual>(getAllElements());
+		}
+		OWLClass rc = classTorepresentativeClassMap.get(c);
+		int cix = getClassIndex(rc == null ? c : rc);
+		Set<OWLNamedIndividual> inds = new HashSet<OWLNamedIndividual>();
+		for (OWLNamedIndividual i : getAllElements()) {
+			if (ancsBitmapCachedModifiable(i).get(cix)) {
+				inds.add(i);
+			}
+		}
+		return inds;
+	}
+
 	@Override
 	public int getNumSharedElements(OWLClass c, OWLClass d) throws UnknownOWLClassException {
 		EWAHCompressedBitmap cebm = getElementsForAttributeAsBitmao(c);
@@ -620,7 +983,17 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 	public int getNumElementsForAttribute(OWLClass c) {
 		if (numElementsCache == null)
 			numElementsCache = new HashMap<OWLClass, Integer>();
-		if (numElementsCache.containsKey(c)) {
+		Integer cix = classIndex == null ? null : classIndex.get(c);
+		if (cix != null) {
+			if (numElementsArray == null) {
+				numElementsArray = new int[classArray.length];
+				Arrays.fill(numElementsArray, -1);
+			}
+			if (numElementsArray[cix] >= 0) {
+				return numElementsArray[cix];
+			}
+		}
+		else if (numElementsCache.containsKey(c)) {
 			return numElementsCache.get(c);
 		}
 		int num = 0;
@@ -629,7 +1002,12 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 		} catch (UnknownOWLClassException e) {
 			//return 0;
 		}
-		numElementsCache.put(c, num);
+		if (cix != null) {
+			numElementsArray[cix] = num;
+		}
+		else {
+			numElementsCache.put(c, num);
+		}
 		return num;
 	}
 
@@ -652,14 +1030,33 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 
 	@Override
 	public Double getInformationContentForAttribute(OWLClass c) throws UnknownOWLClassException {
+		Integer cix = classIndex == null ? null : classIndex.get(c);
+		if (cix != null) {
+			return getInformationContentForAttribute(cix.intValue());
+		}
 		if (icCache.containsKey(c)) return icCache.get(c);
+		Double ic = computeInformationContentForAttribute(c);
+		icCache.put(c, ic);
+		return ic;
+	}
+
+	// returns the IC of c if it has already been computed, otherwise null
+	private Double getCachedInformationContentForAttribute(OWLClass c) {
+		Integer cix = classIndex == null ? null : classIndex.get(c);
+		if (cix != null && icClassArray != null && !Double.isNaN(icClassArray[cix])) {
+			return icClassArray[cix];
+		}
+		return icCache.get(c);
+	}
+
+	private Double computeInformationContentForAttribute(OWLClass c) throws UnknownOWLClassException {
 		int freq = getNumElementsForAttribute(c);
 		if (freq == 0) {
 			LOG.warn("Frequency of 0 for " + c);
 			for ( OWLClass x : getReasoner().getEquivalentClasses(c) ) {
-				if (icCache.containsKey(x)) {
-					icCache.put(c, icCache.get(x));
-					return icCache.get(c);
+				Double xic = getCachedInformationContentForAttribute(x);
+				if (xic != null) {
+					return xic;
 				}
 			}
 			Double bestParentIC = 0.0;
@@ -676,7 +1073,6 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 			// so currently this is conservative
 			double ic = bestParentIC;
 			LOG.info("DEFAULT: "+c+" = "+ic);
-			icCache.put(c, ic);
 			return ic;
 		
 			
@@ -698,33 +1094,76 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 			}
 			ic += bump;
 		}
-		icCache.put(c, ic);
 		return ic;
 	}
 
 	// gets IC by class index, cacheing if required
-	// note this is a 'double cache', as the equivalent call by class is
-	// also cached.
-	Double getInformationContentForAttribute(int cix) throws UnknownOWLClassException {
+	double getInformationContentForAttribute(int cix) throws UnknownOWLClassException {
 		// check if present in cache; if so, use cached value
-		if (icClassArray != null && icClassArray[cix] != null) {
-			return icClassArray[cix];
+		if (icClassArray != null) {
+			double ic = icClassArray[cix];
+			if (!Double.isNaN(ic)) {
+				return ic;
+			}
 		}
 
-		// not cached - retrieve IC using the class
+		// not cached - use a value set before the index was created, or compute it
 		OWLClass c = classArray[cix];
-		Double ic = getInformationContentForAttribute(c);
+		Double ic = icCache.get(c);
+		if (ic == null) {
+			ic = computeInformationContentForAttribute(c);
+		}
 		if (debugClass != null && c.equals(debugClass)) {
 			LOG.info("DEBUG "+c+" IX:"+cix+" IC= "+ic);
 		}
 		// place results in cache, creating a new cache if none exists
 		if (icClassArray == null) {
-			icClassArray = new Double[classArray.length];
+			icClassArray = createICArray();
 		}
 		icClassArray[cix] = ic;
 		return ic;
 	}
 
+	private double[] createICArray() {
+		double[] ics = new double[classArray.length];
+		Arrays.fill(ics, Double.NaN);
+		return ics;
+	}
+
+	/**
+	 * Sums the IC over a set of classes, without creating any intermediate
+	 * array or boxed values
+	 * 
+	 * @param bm - bitmap of class indices
+	 * @return sum of IC(c) for all c in bm
+	 * @throws UnknownOWLClassException
+	 */
+	double getSumOfInformationContent(EWAHCompressedBitmap bm) throws UnknownOWLClassException {
+		double sum = 0;
+		IntIterator it = bm.intIterator();
+		while (it.hasNext()) {
+			sum += getInformationContentForAttribute(it.next());
+		}
+		return sum;
+	}
+
+	/**
+	 * @param bm - bitmap of class indices
+	 * @return max IC(c) for all c in bm, or 0 if bm is empty
+	 * @throws UnknownOWLClassException
+	 */
+	double getMaxInformationContent(EWAHCompressedBitmap bm) throws UnknownOWLClassException {
+		double max = 0;
+		IntIterator it = bm.intIterator();
+		while (it.hasNext()) {
+			double ic = getInformationContentForAttribute(it.next());
+			if (ic > max) {
+				max = ic;
+			}
+		}
+		return max;
+	}
+
 
 	@Override
 	public Set<Node<OWLClass>> getInferredAttributes(OWLNamedIndividual a) {
@@ -1270,25 +1709,18 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 		}
 
 		// if the cache does not exist, initialize it
-		if (ciPairIsCached == null) {
-			// Estimates: 350mb for MP
-			// 5.4Gb for 30k classes
-			//int size = this.getAllAttributeClasses().size();
+		if (lcsCache == null) {
+			// Estimates: 1.8Gb for 30k classes
 			int size = classArray.length;
-			LOG.info("Creating 2D cache of "+size+" * "+size);
-			ciPairIsCached = new boolean[size][size];
-			ciPairLCS = new int[size][size];
+			LOG.info("Creating triangular LCS cache of "+size+" * "+size);
+			lcsCache = new LCSCache(size);
 			LOG.info("Created LCS cache"+size+" * "+size);
-			//ciPairScaledScore = new short[size][size];
-			//LOG.info("Created score cache cache"+size+" * "+size);
 		}
 
 		// if either (1) an entry exists in the cache or (2) we are
 		// building the cache from fresh, then do a lookup
-		if (!isNoLookupForLCSCache && ciPairIsCached[cix][dix]) {
-			// TODO null vs 0
-			int lcsix = ciPairLCS[cix][dix];
-
+		int lcsix = isNoLookupForLCSCache ? LCSCache.NOT_CACHED : lcsCache.get(cix, dix);
+		if (lcsix != LCSCache.NOT_CACHED) {
 			// we lookup the IC on-the-fly
 			// TODO: hook in here to getAttributeTriadScore to produce other scores
 			return new ScoreAttributeSetPair(icClassArray[lcsix],
@@ -1314,14 +1746,18 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 		if (thresh != null && sap.score < thresh) {			
 			return null;
 		}
+		if (lcsCache.isReadOnly()) {
+			// shared cache; cannot be extended
+			return sap;
+		}
 
-		ciPairIsCached[cix][dix] = true;
 		OWLClass lcsCls = null;
+		// if there is no LCS, the pair is cached with the root (index 0)
+		lcsix = 0;
 		if (sap.attributeClassSet != null && !sap.attributeClassSet.isEmpty()) {
 			// we take an arbitrary member
 			lcsCls = sap.attributeClassSet.iterator().next();
-			int lcsix = classIndex.get(lcsCls);
-			ciPairLCS[cix][dix] = lcsix;
+			lcsix = classIndex.get(lcsCls);
 			if (debugClass != null && lcsCls.equals(debugClass) && debugClassMessages2 < 100) {
 				LOG.info("DEBUG2 "+lcsix+" " +sap.attributeClassSet+" sap.score="+sap.score);
 				debugClassMessages2++;
@@ -1333,6 +1769,7 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 			LOG.warn("uh oh"+classArray[cix] + " "+
 					classArray[dix]+" "+sap.attributeClassSet);
 		}
+		lcsCache.put(cix, dix, lcsix);
 
 		return sap;
 	}
@@ -1351,12 +1788,17 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 
 	private ScoreAttributeSetPair getLowestCommonSubsumerWithICNoCache(int cix, int dix)
 			throws UnknownOWLClassException {
+		if (lcsStrategy == LCSStrategy.SORTED_ANCESTORS) {
+			return getLowestCommonSubsumerWithICBySortedAncestors(cix, dix);
+		}
 		long t = System.currentTimeMillis();
 		EWAHCompressedBitmap cad = getNamedLowestCommonSubsumersAsBitmap(cix, dix);
 
 		Set<OWLClass> lcsClasses = new HashSet<OWLClass>();
 		double maxScore = 0.0;
-		for (int ix : cad.toArray()) {
+		IntIterator it = cad.intIterator();
+		while (it.hasNext()) {
+			int ix = it.next();
 			// TODO: use getAttributeTriadScore here
 			double score = 
 					getInformationContentForAttribute(ix);
@@ -1390,11 +1832,211 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 		return new ScoreAttributeSetPair(maxScore, lcsClasses);
 	}
 
+	// merge-walk implementation of LCS.
+	// unlike the bitmap implementation, a single LCS is returned, even if there are ties
+	private ScoreAttributeSetPair getLowestCommonSubsumerWithICBySortedAncestors(int cix, int dix)
+			throws UnknownOWLClassException {
+		long t = System.currentTimeMillis();
+		SortedAncestorIndex index = getSortedAncestorIndex();
+		int lcsix = index.getLowestCommonSubsumer(cix, dix);
+		ScoreAttributeSetPair sap;
+		if (lcsix == SortedAncestorIndex.NONE) {
+			sap = new ScoreAttributeSetPair(0.0, new HashSet<OWLClass>());
+		}
+		else {
+			sap = new ScoreAttributeSetPair(index.getInformationContent(lcsix), classArray[lcsix]);
+		}
+		totalTimeLCSIC += tdelta(t);
+		this.totalCallsLCSIC++;
+		return sap;
+	}
+
+	/**
+	 * @return index of the ancestors of each class, sorted by IC; built if required
+	 * @throws UnknownOWLClassException
+	 */
+	SortedAncestorIndex getSortedAncestorIndex() throws UnknownOWLClassException {
+		SortedAncestorIndex index = sortedAncestorIndex;
+		if (index == null) {
+			index = createSortedAncestorIndex();
+		}
+		return index;
+	}
+
+	private synchronized SortedAncestorIndex createSortedAncestorIndex() throws UnknownOWLClassException {
+		if (sortedAncestorIndex != null)
+			return sortedAncestorIndex;
+		LOG.info("Creating sorted ancestor index");
+		EWAHCompressedBitmap[] bms = new EWAHCompressedBitmap[classArray.length];
+		for (int cix = 0; cix < classArray.length; cix++) {
+			if (classArray[cix] == null)
+				continue;
+			bms[cix] = ancsBitmapCachedModifiable(cix);
+			getInformationContentForAttribute(cix);
+		}
+		// copied, as ICs may later be replaced
+		SortedAncestorIndex index = new SortedAncestorIndex(bms, icClassArray.clone());
+		LOG.info("Created sorted ancestor index; entries: "+index.getNumberOfEntries());
+		sortedAncestorIndex = index;
+		return index;
+	}
+
+	/**
+	 * @return inverted index from informative classes to elements; built if required
+	 * @throws UnknownOWLClassException
+	 */
+	CandidateIndex getCandidateIndex() throws UnknownOWLClassException {
+		CandidateIndex index = candidateIndex;
+		if (index == null) {
+			index = createCandidateIndex();
+		}
+		return index;
+	}
+
+	private synchronized CandidateIndex createCandidateIndex() throws UnknownOWLClassException {
+		if (candidateIndex != null)
+			return candidateIndex;
+		LOG.info("Creating candidate index, IC floor: "+candidateIndexICFloor);
+		makeIndividualIndex();
+		EWAHCompressedBitmap[] bms = new EWAHCompressedBitmap[individualIndex.size()];
+		for (Entry<OWLNamedIndividual, Integer> e : individualIndex.entrySet()) {
+			bms[e.getValue()] = ancsBitmapCachedModifiable(e.getKey());
+		}
+		double[] ic = new double[classArray.length];
+		for (int cix = 0; cix < classArray.length; cix++) {
+			ic[cix] = classArray[cix] == null ? Double.NaN : getInformationContentForAttribute(cix);
+		}
+		CandidateIndex index = new CandidateIndex(bms, ic, candidateIndexICFloor);
+		LOG.info("Created candidate index; informative classes: "+index.getNumberOfIndexedClasses());
+		candidateIndex = index;
+		return index;
+	}
+
+	/**
+	 * @return true if searches use the candidate index
+	 */
+	public boolean isUseCandidateIndex() {
+		return isUseCandidateIndex;
+	}
+
+	/**
+	 * If set (the default), a search only scores candidates that share
+	 * at least one class with an IC above the candidate index floor with
+	 * the query profile. This does not change the results, provided the
+	 * minimum maxIC of the search is at least the floor; otherwise all
+	 * candidates are scored.
+	 * 
+	 * @param isUseCandidateIndex
+	 */
+	public void setUseCandidateIndex(boolean isUseCandidateIndex) {
+		this.isUseCandidateIndex = isUseCandidateIndex;
+	}
+
+	/**
+	 * @return classes with an IC at or below this value are not in the candidate index
+	 */
+	public double getCandidateIndexICFloor() {
+		return candidateIndexICFloor;
+	}
+
+	/**
+	 * A lower floor means the index is used by searches with a lower minimum
+	 * maxIC, but finds more candidates. Defaults to 2.5, the default minimum maxIC.
+	 * 
+	 * @param candidateIndexICFloor
+	 */
+	public synchronized void setCandidateIndexICFloor(double candidateIndexICFloor) {
+		this.candidateIndexICFloor = candidateIndexICFloor;
+		candidateIndex = null;
+		isPreparedForConcurrentSearch = false;
+	}
+
+	/**
+	 * @return LSH index over the inferred types of all elements; built if required
+	 * @throws UnknownOWLClassException
+	 */
+	MinHashIndex getMinHashIndex() throws UnknownOWLClassException {
+		MinHashIndex index = minHashIndex;
+		if (index == null) {
+			index = createMinHashIndex();
+		}
+		return index;
+	}
+
+	private synchronized MinHashIndex createMinHashIndex() throws UnknownOWLClassException {
+		if (minHashIndex != null)
+			return minHashIndex;
+		LOG.info("Creating MinHash index, bands: "+minHashBands+" rows per band: "+minHashRowsPerBand);
+		makeIndividualIndex();
+		OWLNamedIndividual[] elements = new OWLNamedIndividual[individualIndex.size()];
+		EWAHCompressedBitmap[] bms = new EWAHCompressedBitmap[individualIndex.size()];
+		for (Entry<OWLNamedIndividual, Integer> e : individualIndex.entrySet()) {
+			elements[e.getValue()] = e.getKey();
+			bms[e.getValue()] = ancsBitmapCachedModifiable(e.getKey());
+		}
+		MinHashIndex index = new MinHashIndex(elements, bms, minHashBands, minHashRowsPerBand, 0);
+		LOG.info("Created MinHash index; buckets: "+index.getNumberOfBuckets());
+		minHashIndex = index;
+		return index;
+	}
+
+	/**
+	 * @return number of bands of the LSH index used by approximate SimJ searches
+	 */
+	public int getMinHashBands() {
+		return minHashBands;
+	}
+
+	/**
+	 * @return number of rows per band of the LSH index used by approximate SimJ searches
+	 */
+	public int getMinHashRowsPerBand() {
+		return minHashRowsPerBand;
+	}
+
+	/**
+	 * Sets the parameters of the LSH index used by
+	 * {@link #findApproximateSimJMatches(Set, int, String, boolean)}.
+	 * An element with SimJ s to the query is a candidate with probability
+	 * 1 - (1 - s<sup>rows</sup>)<sup>bands</sup>. More bands give a higher
+	 * recall; more rows per band give fewer candidates, and so faster searches.
+	 * Defaults to 32 bands of 4 rows, which finds most elements with a SimJ
+	 * above 0.5.
+	 * 
+	 * @param bands
+	 * @param rowsPerBand
+	 */
+	public synchronized void setMinHashParameters(int bands, int rowsPerBand) {
+		if (bands < 1 || rowsPerBand < 1) {
+			throw new IllegalArgumentException("number of bands and rows per band must be >= 1");
+		}
+		this.minHashBands = bands;
+		this.minHashRowsPerBand = rowsPerBand;
+		minHashIndex = null;
+	}
+
+	/**
+	 * @return method used to find the LCS of a pair of classes, when it is not cached
+	 */
+	public LCSStrategy getLCSStrategy() {
+		return lcsStrategy;
+	}
+
+	/**
+	 * Selects the method used to find the LCS of a pair of classes, when it is not cached.
+	 * Both methods give the same IC for the LCS.
+	 * 
+	 * @param lcsStrategy
+	 */
+	public void setLCSStrategy(LCSStrategy lcsStrategy) {
+		this.lcsStrategy = lcsStrategy;
+	}
+
 	// given class indices for two classes (a,b), plus an IC score for their LCS,
 	// generate a weighted score that penalizes distance from the LCS
 	private double getAttributeTriadScore(int cix, int dix, double score) throws UnknownOWLClassException {
-		Double cIC = getInformationContentForAttribute(cix);
-		Double dIC = getInformationContentForAttribute(dix);
+		double cIC = getInformationContentForAttribute(cix);
+		double dIC = getInformationContentForAttribute(dix);
 		// TODO - allow a variety of scoring methods here
 		double m = Math.min(cIC, dIC);
 		return score - m / 2;
@@ -1402,9 +2044,14 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 
 	final private String OWLSIM_INDIVIDUAL_IRI = "http://owlsim.org/vocab/Self";
 
+	private OWLNamedIndividual selfIndividual = null;
+
 	// create an individual that represents the query profile
-	private OWLNamedIndividual getSelfIndividual() {
-		return getSourceOntology().getOWLOntologyManager().getOWLDataFactory().getOWLNamedIndividual(IRI.create(OWLSIM_INDIVIDUAL_IRI));
+	private synchronized OWLNamedIndividual getSelfIndividual() {
+		if (selfIndividual == null) {
+			selfIndividual = getSourceOntology().getOWLOntologyManager().getOWLDataFactory().getOWLNamedIndividual(IRI.create(OWLSIM_INDIVIDUAL_IRI));
+		}
+		return selfIndividual;
 	}
 	private boolean isSelfIndividual(OWLNamedIndividual i) {
 		return i.getIRI().toString().equals(OWLSIM_INDIVIDUAL_IRI);
@@ -1412,6 +2059,12 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 
 
 	public List<ElementPairScores> findMatches(Set<OWLClass> atts, String targetIdSpace, double minSimJPct, double minMaxIC) throws Exception {
+		Set<OWLNamedIndividual> candidateTargetSet = getCandidateTargetSet(targetIdSpace);
+		return findMatchesWithin(atts, candidateTargetSet, minSimJPct, minMaxIC);
+	}
+
+	// all elements, optionally restricted to an ID space
+	private Set<OWLNamedIndividual> getCandidateTargetSet(String targetIdSpace) {
 		Set<OWLNamedIndividual> candidateTargetSet;
 		
 		if (targetIdSpace == null) { 
@@ -1426,7 +2079,7 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 				
 			}
 		}
-		return findMatchesWithin(atts, candidateTargetSet, minSimJPct, minMaxIC);
+		return candidateTargetSet;
 	}
 
 	public List<ElementPairScores> findMatchesWithin(OWLNamedIndividual i,
@@ -1443,34 +2096,22 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 		return matches;
 	}
 	public List<ElementPairScores> findMatchesWithin(Set<OWLClass> atts, Set<OWLNamedIndividual> candidateTargetSet, double minSimJPct, double minMaxIC) throws Exception {
-		Set<OWLClass> csetFilteredDirect = new HashSet<OWLClass>(); // direct
-		Set<OWLClass> cset = new HashSet<OWLClass>(); // closure
-		Set<OWLClass> redundant = new HashSet<OWLClass>(); // closure
-		boolean isIgnoreUnknownClasses = false;
+		candidateTargetSet = 
+				new HashSet<OWLNamedIndividual>(candidateTargetSet);
+		candidateTargetSet.add(getSelfIndividual());
+		return findMatchesWithinIncludingSelf(atts, candidateTargetSet, minSimJPct, minMaxIC, numberOfThreads > 1);
+	}
+
+	// the candidates must include the self individual, which yields the
+	// normalization factors for the combined score
+	private List<ElementPairScores> findMatchesWithinIncludingSelf(Set<OWLClass> atts, Set<OWLNamedIndividual> candidateTargetSet,
+			double minSimJPct, double minMaxIC, boolean isParallel) throws Exception {
 		List<ElementPairScores> scoreSets = 
 				new ArrayList<ElementPairScores>();
 
 		// FIND CLOSURE
-		for (OWLClass c : atts) {
-			if (!this.getAllAttributeClasses().contains(c)) {
-				if (isIgnoreUnknownClasses)
-					continue;
-				throw new UnknownOWLClassException(c);
-			}
-			csetFilteredDirect.add(c);
-			for (Node<OWLClass> n : getNamedReflexiveSubsumers(c)) {
-				cset.add(getDeterministicRepresentative(n));
-			}
-			for (Node<OWLClass> n :getNamedSubsumers(c)) {
-				redundant.addAll(n.getEntities());
-			}
-		}
-
-		csetFilteredDirect.removeAll(redundant);
 		Vector<OWLClass> csetV = new Vector<OWLClass>(atts.size());
-		for (OWLClass c : csetFilteredDirect) {
-			csetV.add(c);
-		}
+		EWAHCompressedBitmap searchProfileBM = getSearchProfile(atts, csetV);
 
 		// benchmarking
 		long tSimJ = 0;
@@ -1487,34 +2128,25 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 		double maxMaxIC = 0.0;
 		double maxBMA = 0.0;
 
-		candidateTargetSet = 
-				new HashSet<OWLNamedIndividual>(candidateTargetSet);
-		candidateTargetSet.add(getSelfIndividual());
-		EWAHCompressedBitmap searchProfileBM = ancsBitmapCached(cset);
-		for (OWLNamedIndividual j : candidateTargetSet) {
-			boolean isSelf = isSelfIndividual(j);
-			// todo - provide other ways of filtering the set of candidates
-			// for now we limit this to the ID space
-			//if (!isSelf && targetIdSpace != null && !j.getIRI().toString().contains("/"+targetIdSpace+"_")) {
-			//					continue;
-			//}
-			long t = System.currentTimeMillis();
-			// SIMJ
-			EWAHCompressedBitmap jAttsBM;
-			if (isSelf) {
-				jAttsBM = searchProfileBM;
-			}
-			else {
-				jAttsBM = ancsBitmapCachedModifiable(j);
-			}
-			int cadSize = searchProfileBM.andCardinality(jAttsBM);
-			int cudSize = searchProfileBM.orCardinality(jAttsBM);
-			if (cudSize == 0) {
+		// the candidates are scored independently of one another (in parallel if
+		// isParallel); the results are then folded in candidate order, so
+		// that the outcome is identical to the sequential search
+		List<OWLNamedIndividual> candidates = 
+				selectCandidates(candidateTargetSet, searchProfileBM, minMaxIC);
+		List<CandidateMatch> candidateMatches;
+		if (isParallel && candidates.size() > 1) {
+			candidateMatches = scoreCandidatesInParallel(candidates, csetV, searchProfileBM, minSimJPct, minMaxIC);
+		}
+		else {
+			candidateMatches = scoreCandidates(candidates, csetV, searchProfileBM, minSimJPct, minMaxIC);
+		}
+
+		for (CandidateMatch m : candidateMatches) {
+			if (m.isEmptyUnion) {
 				return scoreSets;
 			}
-			int simJPct = (cadSize * 100) / cudSize;
 			nSimJ++;
-			tSimJ += tdelta(t);
+			tSimJ += m.tSimJ;
 
 			if (nSimJ % 1000 == 0) {
 				LOG.info("tSimJ = "+tSimJ +" / "+nSimJ);
@@ -1523,79 +2155,28 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 				LOG.info("tBMA = "+tBMA +" / "+nBMA);
 			}
 
-			if (simJPct < minSimJPct) {
-				//LOG.info("simJ pct too low : "+simJPct+" = "+cadSize+" / "+cudSize);
+			if (!m.isAboveMinSimJ) {
 				continue;
 			}
-			ElementPairScores s = new ElementPairScores(null, j);
-			s.simjScore = simJPct / (double) 100;
-			EWAHCompressedBitmap cad = searchProfileBM.and(jAttsBM);
-
-			// COMMON SUBSUMERS (ALL)
-			Set<OWLClass> csSet = new HashSet<OWLClass>();
-			for (int ix : cad.toArray()) {
-				csSet.add(classArray[ix]);
-			}
-
-			// MAXIC
-			// TODO - evaluate if this is optimal;
-			// MaxIC falls out of BMA calculation, but it may be useful
-			// to calculate here to test if more expensive AxA is required
-			t = System.currentTimeMillis();
-			double icBest = 0;
-			double icSumCAD = 0;
-			for (int ix : cad.toArray()) {
-				Double ic = getInformationContentForAttribute(ix);
-				//OWLClass c = n.getRepresentativeElement();
-				//Double ic = getInformationContentForAttribute(c);
-				if (ic > icBest) {
-					icBest = ic;
-				}
-				icSumCAD += ic;
-			}
-			tMaxIC += tdelta(t);
+			tMaxIC += m.tMaxIC;
 			nMaxIC++;
-			if (icBest > maxMaxIC) {
-				maxMaxIC = icBest;
+			if (m.icBest > maxMaxIC) {
+				maxMaxIC = m.icBest;
 			}
-			if (icBest <= minMaxIC) {
-				//LOG.info("maxIC too low : "+icBest);
+			if (m.scores == null) {
+				// maxIC too low
 				continue;
 			}
-			s.maxIC = icBest;
-			//LOG.info("computing simGIC");
-
-			// SIMGIC
-			t = System.currentTimeMillis();
-			EWAHCompressedBitmap cud = searchProfileBM.or(jAttsBM);
-			double icSumCUD = 0;
-			for (int ix : cud.toArray()) {
-				Double ic = getInformationContentForAttribute(ix);
-				icSumCUD += ic;
-			}
-			s.simGIC = icSumCAD / icSumCUD;
-			tSimGIC += tdelta(t);
+			ElementPairScores s = m.scores;
+			tSimGIC += m.tSimGIC;
 			nSimGIC++;
-
-			// BEST MATCHES
-			t = System.currentTimeMillis();
-			Vector<OWLClass> dsetV = new Vector<OWLClass>(atts.size());
-			if (isSelf) {
-				dsetV = csetV;
-			}
-			else {
-				for (OWLClass d : this.getAttributesForElement(j)) {
-					dsetV.add(d);
-				}
-			}
-			populateSimilarityMatrix(csetV, dsetV, s);
 			if (s.bmaSymIC > maxBMA) {
 				maxBMA = s.bmaAsymIC;
 			}
-			tBMA += tdelta(t);
+			tBMA += m.tBMA;
 			nBMA++;
 
-			if (!isSelf) {
+			if (!m.isSelf) {
 				scoreSets.add(s);
 			}
 		}
@@ -1614,6 +2195,713 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 		return scoreSets;
 	}
 
+	// returns the reflexive closure of a search profile as a bitmap;
+	// the non-redundant direct attributes are added to csetV.
+	// uses the cached bitmaps only, the reasoner is not consulted
+	private EWAHCompressedBitmap getSearchProfile(Set<OWLClass> atts, Vector<OWLClass> csetV) throws UnknownOWLClassException {
+		Set<OWLClass> csetFilteredDirect = new HashSet<OWLClass>(); // direct
+		EWAHCompressedBitmap closureBM = new EWAHCompressedBitmap();
+		EWAHCompressedBitmap redundantBM = new EWAHCompressedBitmap(); // proper ancestors
+		boolean isIgnoreUnknownClasses = false;
+		for (OWLClass c : atts) {
+			if (!this.getAllAttributeClasses().contains(c)) {
+				if (isIgnoreUnknownClasses)
+					continue;
+				throw new UnknownOWLClassException(c);
+			}
+			csetFilteredDirect.add(c);
+			closureBM = closureBM.or(ancsBitmapCachedModifiable(c));
+			redundantBM = redundantBM.or(ancsProperBitmapCachedModifiable(c));
+		}
+
+		for (OWLClass c : csetFilteredDirect) {
+			if (c.equals(owlThing())) {
+				// owl:Thing is excluded from bitmaps, but subsumes everything
+				if (csetFilteredDirect.size() > 1)
+					continue;
+			}
+			else if (redundantBM.get(getClassIndex(classTorepresentativeClassMap.get(c)))) {
+				continue;
+			}
+			csetV.add(c);
+		}
+		return closureBM;
+	}
+
+	// candidates in their original order, without those that cannot pass the minMaxIC
+	// cutoff as they share no class with an IC above the candidate index floor.
+	// candidates that are not indexed, e.g. the query itself, are always kept
+	private List<OWLNamedIndividual> selectCandidates(Set<OWLNamedIndividual> candidateTargetSet,
+			EWAHCompressedBitmap searchProfileBM, double minMaxIC) throws UnknownOWLClassException {
+		if (!isUseCandidateIndex || minMaxIC < candidateIndexICFloor) {
+			return new ArrayList<OWLNamedIndividual>(candidateTargetSet);
+		}
+		CandidateIndex index = getCandidateIndex();
+		EWAHCompressedBitmap candidatesBM = index.getCandidates(searchProfileBM);
+		List<OWLNamedIndividual> candidates = new ArrayList<OWLNamedIndividual>();
+		for (OWLNamedIndividual j : candidateTargetSet) {
+			Integer eix = individualIndex.get(j);
+			if (eix == null || candidatesBM.get(eix)) {
+				candidates.add(j);
+			}
+		}
+		LOG.info("|Candidates|="+candidates.size()+" / "+candidateTargetSet.size());
+		return candidates;
+	}
+
+	// result of scoring a single candidate j against a search profile.
+	// the fields mirror the cutoffs applied in findMatchesWithin
+	private class CandidateMatch {
+		boolean isSelf;
+		boolean isEmptyUnion = false;
+		boolean isAboveMinSimJ = false;
+		double icBest = 0;
+		// null if any cutoff was not passed
+		ElementPairScores scores = null;
+
+		// retained for deferred scoring (see findTopMatchesWithin)
+		EWAHCompressedBitmap jAttsBM;
+		double icSumCAD;
+
+		long tSimJ = 0;
+		long tMaxIC = 0;
+		long tSimGIC = 0;
+		long tBMA = 0;
+	}
+
+	private List<CandidateMatch> scoreCandidates(List<OWLNamedIndividual> candidates,
+			Vector<OWLClass> csetV, EWAHCompressedBitmap searchProfileBM,
+			double minSimJPct, double minMaxIC) throws UnknownOWLClassException {
+		List<CandidateMatch> matches = new ArrayList<CandidateMatch>(candidates.size());
+		for (OWLNamedIndividual j : candidates) {
+			CandidateMatch m = scoreCandidate(j, csetV, searchProfileBM, minSimJPct, minMaxIC);
+			matches.add(m);
+			if (m.isEmptyUnion) {
+				// the remaining candidates are never inspected
+				break;
+			}
+		}
+		return matches;
+	}
+
+	// shards the candidate list into contiguous blocks, scores each block
+	// on the worker pool, and concatenates the results in the original order
+	private List<CandidateMatch> scoreCandidatesInParallel(List<OWLNamedIndividual> candidates,
+			final Vector<OWLClass> csetV, final EWAHCompressedBitmap searchProfileBM,
+			final double minSimJPct, final double minMaxIC) throws Exception {
+		prepareForConcurrentSearch();
+
+		// use more shards than threads, to even out the load
+		int numShards = Math.min(candidates.size(), numberOfThreads * 4);
+		int shardSize = (candidates.size() + numShards - 1) / numShards;
+		List<Future<List<CandidateMatch>>> futures = 
+				new ArrayList<Future<List<CandidateMatch>>>(numShards);
+		ExecutorService pool = getWorkerPool();
+		for (int from = 0; from < candidates.size(); from += shardSize) {
+			final List<OWLNamedIndividual> shard = 
+					candidates.subList(from, Math.min(from + shardSize, candidates.size()));
+			futures.add(pool.submit(new Callable<List<CandidateMatch>>() {
+				@Override
+				public List<CandidateMatch> call() throws Exception {
+					return scoreCandidates(shard, csetV, searchProfileBM, minSimJPct, minMaxIC);
+				}
+			}));
+		}
+
+		List<CandidateMatch> matches = new ArrayList<CandidateMatch>(candidates.size());
+		try {
+			for (Future<List<CandidateMatch>> future : futures) {
+				matches.addAll(future.get());
+			}
+		} catch (ExecutionException e) {
+			for (Future<List<CandidateMatch>> future : futures) {
+				future.cancel(true);
+			}
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+		return matches;
+	}
+
+	private CandidateMatch scoreCandidate(OWLNamedIndividual j,
+			Vector<OWLClass> csetV, EWAHCompressedBitmap searchProfileBM,
+			double minSimJPct, double minMaxIC) throws UnknownOWLClassException {
+		CandidateMatch m = scoreCandidateBounds(j, searchProfileBM, minSimJPct, minMaxIC);
+		if (m.scores != null) {
+			completeCandidateScores(m, csetV, searchProfileBM);
+		}
+		return m;
+	}
+
+	// applies the cheap SimJ and maxIC cutoffs. If these are passed, m.scores
+	// is populated with simJ and maxIC, and completeCandidateScores must be
+	// called to calculate the remaining scores
+	private CandidateMatch scoreCandidateBounds(OWLNamedIndividual j,
+			EWAHCompressedBitmap searchProfileBM,
+			double minSimJPct, double minMaxIC) throws UnknownOWLClassException {
+		CandidateMatch m = new CandidateMatch();
+		boolean isSelf = isSelfIndividual(j);
+		m.isSelf = isSelf;
+		// todo - provide other ways of filtering the set of candidates
+		// for now we limit this to the ID space
+		//if (!isSelf && targetIdSpace != null && !j.getIRI().toString().contains("/"+targetIdSpace+"_")) {
+		//					continue;
+		//}
+		long t = System.currentTimeMillis();
+		// SIMJ
+		EWAHCompressedBitmap jAttsBM;
+		if (isSelf) {
+			jAttsBM = searchProfileBM;
+		}
+		else {
+			jAttsBM = ancsBitmapCachedModifiable(j);
+		}
+		int cadSize = searchProfileBM.andCardinality(jAttsBM);
+		int cudSize = searchProfileBM.orCardinality(jAttsBM);
+		if (cudSize == 0) {
+			m.isEmptyUnion = true;
+			return m;
+		}
+		int simJPct = (cadSize * 100) / cudSize;
+		m.tSimJ = tdelta(t);
+
+		if (simJPct < minSimJPct) {
+			//LOG.info("simJ pct too low : "+simJPct+" = "+cadSize+" / "+cudSize);
+			return m;
+		}
+		m.isAboveMinSimJ = true;
+		ElementPairScores s = new ElementPairScores(null, j);
+		s.simjScore = simJPct / (double) 100;
+		EWAHCompressedBitmap cad = searchProfileBM.and(jAttsBM);
+
+		// MAXIC
+		// TODO - evaluate if this is optimal;
+		// MaxIC falls out of BMA calculation, but it may be useful
+		// to calculate here to test if more expensive AxA is required
+		t = System.currentTimeMillis();
+		double icBest = getMaxInformationContent(cad);
+		m.tMaxIC = tdelta(t);
+		m.icBest = icBest;
+		if (icBest <= minMaxIC) {
+			//LOG.info("maxIC too low : "+icBest);
+			return m;
+		}
+		s.maxIC = icBest;
+		m.jAttsBM = jAttsBM;
+		// only needed for simGIC
+		m.icSumCAD = getSumOfInformationContent(cad);
+		m.scores = s;
+		return m;
+	}
+
+	private void completeCandidateScores(CandidateMatch m,
+			Vector<OWLClass> csetV, EWAHCompressedBitmap searchProfileBM) throws UnknownOWLClassException {
+		ElementPairScores s = m.scores;
+		OWLNamedIndividual j = s.j;
+		boolean isSelf = m.isSelf;
+		EWAHCompressedBitmap jAttsBM = m.jAttsBM;
+		double icSumCAD = m.icSumCAD;
+		//LOG.info("computing simGIC");
+
+		// SIMGIC
+		long t = System.currentTimeMillis();
+		EWAHCompressedBitmap cud = searchProfileBM.or(jAttsBM);
+		double icSumCUD = getSumOfInformationContent(cud);
+		s.simGIC = icSumCAD / icSumCUD;
+		m.tSimGIC = tdelta(t);
+
+		// BEST MATCHES
+		t = System.currentTimeMillis();
+		Vector<OWLClass> dsetV = new Vector<OWLClass>(csetV.size());
+		if (isSelf) {
+			dsetV = csetV;
+		}
+		else {
+			for (OWLClass d : this.getAttributesForElement(j)) {
+				dsetV.add(d);
+			}
+		}
+		populateSimilarityMatrix(csetV, dsetV, s);
+		m.tBMA = tdelta(t);
+		// no longer needed
+		m.jAttsBM = null;
+	}
+
+	/**
+	 * Fills all lazily-populated caches that are consulted when scoring a
+	 * candidate, so that worker threads only ever read from the shared
+	 * maps. The only shared structure written during a concurrent search
+	 * is the LCS cache, which is written cell-by-cell.
+	 * 
+	 * @throws UnknownOWLClassException
+	 */
+	synchronized void prepareForConcurrentSearch() throws UnknownOWLClassException {
+		if (isPreparedForConcurrentSearch)
+			return;
+		LOG.info("Preparing caches for concurrent search");
+		for (int cix = 0; cix < classArray.length; cix++) {
+			if (classArray[cix] == null)
+				continue;
+			getInformationContentForAttribute(cix);
+			ancsBitmapCachedModifiable(cix);
+			ancsProperBitmapCachedModifiable(classArray[cix]);
+		}
+		for (OWLNamedIndividual i : getAllElements()) {
+			ancsBitmapCachedModifiable(i);
+		}
+		if (!isDisableLCSCache && lcsCache == null) {
+			clearLCSCache();
+		}
+		if (lcsStrategy == LCSStrategy.SORTED_ANCESTORS) {
+			getSortedAncestorIndex();
+		}
+		if (isUseCandidateIndex) {
+			getCandidateIndex();
+		}
+		isPreparedForConcurrentSearch = true;
+	}
+
+	private synchronized ExecutorService getWorkerPool() {
+		if (workerPool == null) {
+			LOG.info("Creating worker pool with "+numberOfThreads+" threads");
+			workerPool = Executors.newFixedThreadPool(numberOfThreads, new ThreadFactory() {
+				private int n = 0;
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "owlsim-worker-"+(n++));
+					// never block JVM exit, e.g. for command line usage
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return workerPool;
+	}
+
+	/**
+	 * @return number of threads used when searching for matches
+	 */
+	public int getNumberOfThreads() {
+		return numberOfThreads;
+	}
+
+	/**
+	 * Sets the number of worker threads used by {@link #findMatchesWithin(Set, Set, double, double)}.
+	 * If set to 1 (the default), the search is sequential.
+	 * 
+	 * @param numberOfThreads
+	 */
+	public synchronized void setNumberOfThreads(int numberOfThreads) {
+		if (numberOfThreads < 1) {
+			throw new IllegalArgumentException("number of threads must be >= 1");
+		}
+		if (workerPool != null && numberOfThreads != this.numberOfThreads) {
+			workerPool.shutdown();
+			workerPool = null;
+		}
+		this.numberOfThreads = numberOfThreads;
+	}
+
+	/**
+	 * Finds the top k matches for an individual, using the default cutoffs.
+	 * 
+	 * @see #findTopMatchesWithin(Set, Set, int, double, double)
+	 * @param i
+	 * @param k
+	 * @param targetIdSpace
+	 * @return sorted scores, at most k
+	 * @throws Exception
+	 */
+	public List<ElementPairScores> findTopMatches(OWLNamedIndividual i, int k, String targetIdSpace) throws Exception {
+		Set<OWLClass> atts = getAttributesForElement(i);
+		List<ElementPairScores> matches = findTopMatches(atts, k, targetIdSpace);
+		for (ElementPairScores m : matches) {
+			m.i = i;
+		}
+		return matches;
+	}
+
+	/**
+	 * Finds the top k matches for a set of attributes, using the default cutoffs.
+	 * 
+	 * @see #findTopMatchesWithin(Set, Set, int, double, double)
+	 * @param atts
+	 * @param k
+	 * @param targetIdSpace
+	 * @return sorted scores, at most k
+	 * @throws Exception
+	 */
+	public List<ElementPairScores> findTopMatches(Set<OWLClass> atts, int k, String targetIdSpace) throws Exception {
+		double minSimJPct = getPropertyAsDouble(SimConfigurationProperty.minimumSimJ, 0.05) * 100;
+		double minMaxIC = getPropertyAsDouble(SimConfigurationProperty.minimumMaxIC, 2.5);
+		return findTopMatches(atts, k, targetIdSpace, minSimJPct, minMaxIC);
+	}
+
+	public List<ElementPairScores> findTopMatches(Set<OWLClass> atts, int k, String targetIdSpace, double minSimJPct, double minMaxIC) throws Exception {
+		Set<OWLNamedIndividual> candidateTargetSet = getCandidateTargetSet(targetIdSpace);
+		return findTopMatchesWithin(atts, candidateTargetSet, k, minSimJPct, minMaxIC);
+	}
+
+	/**
+	 * Finds the top k matches for a set of attributes, amongst a set of candidates.
+	 * <p>
+	 * Unlike {@link #findMatchesWithin(Set, Set, double, double)}, the best-match
+	 * (BMA) step is only performed for candidates that may enter the top k.
+	 * The combined score of a candidate is normalized using the maxIC and
+	 * BMA of the query profile against itself; both are known before any
+	 * candidate is scored. As the BMA score of a candidate can never exceed
+	 * its maxIC, the maxIC yields an upper bound for the combined score.
+	 * Candidates are visited in order of decreasing upper bound, and the search
+	 * terminates once the upper bound falls below the worst score in the top k.
+	 * <p>
+	 * This combined score is not the one of {@link #findMatchesWithin(Set, Set, double, double)},
+	 * which is normalized using the highest maxIC and BMA amongst all candidates,
+	 * so the two searches may rank candidates differently, and the top k
+	 * matches are not necessarily the first k matches of findMatchesWithin.
+	 * The maxIC, BMA and SimJ scores of each match are the same. The BMA of a
+	 * candidate can exceed the BMA of the query against itself, e.g. if the
+	 * query has an attribute that subsumes another, so the combined score is
+	 * capped at 100. Candidates are ranked by the uncapped score, then by IRI.
+	 * <p>
+	 * The number of candidates that passed the cutoffs but were not fully scored
+	 * is available afterwards from {@link #getNumberOfCandidatesPrunedInLastSearch()},
+	 * and is added to {@link #getNumberOfCandidatesPruned()}
+	 * 
+	 * @param atts
+	 * @param candidateTargetSet
+	 * @param k
+	 * @param minSimJPct
+	 * @param minMaxIC
+	 * @return sorted scores, at most k
+	 * @throws Exception
+	 */
+	public List<ElementPairScores> findTopMatchesWithin(Set<OWLClass> atts, Set<OWLNamedIndividual> candidateTargetSet, int k, double minSimJPct, double minMaxIC) throws Exception {
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be >= 1");
+		}
+		long startTime = System.currentTimeMillis();
+		Vector<OWLClass> csetV = new Vector<OWLClass>(atts.size());
+		EWAHCompressedBitmap searchProfileBM = getSearchProfile(atts, csetV);
+		List<ElementPairScores> scoreSets = 
+				new ArrayList<ElementPairScores>();
+		int pruned = 0;
+
+		// the query profile compared with itself yields the normalization factors;
+		// no candidate can have a higher maxIC
+		CandidateMatch self = 
+				scoreCandidate(getSelfIndividual(), csetV, searchProfileBM, 0, minMaxIC);
+		if (self.isEmptyUnion || self.scores == null || self.scores.bmaSymIC <= 0) {
+			lastSearchPrunedCount = 0;
+			return scoreSets;
+		}
+		final double maxMaxIC = self.icBest;
+		final double maxBMA = self.scores.bmaSymIC;
+
+		// cheap bounds for all candidates
+		List<CandidateMatch> bounded = new ArrayList<CandidateMatch>();
+		for (OWLNamedIndividual j : selectCandidates(candidateTargetSet, searchProfileBM, minMaxIC)) {
+			if (isSelfIndividual(j)) {
+				continue;
+			}
+			CandidateMatch m = scoreCandidateBounds(j, searchProfileBM, minSimJPct, minMaxIC);
+			if (m.scores != null) {
+				bounded.add(m);
+			}
+		}
+		// sort is stable; ties are visited in candidate order
+		Collections.sort(bounded, new Comparator<CandidateMatch>() {
+			@Override
+			public int compare(CandidateMatch m1, CandidateMatch m2) {
+				return Double.compare(m2.icBest, m1.icBest);
+			}
+		});
+
+		// bounded min-heap on the (unscaled) combined score; ties are broken by
+		// IRI, so that the result does not depend on the order of the candidates
+		Comparator<ElementPairScores> scoreComparator = new Comparator<ElementPairScores>() {
+			@Override
+			public int compare(ElementPairScores s1, ElementPairScores s2) {
+				int c = Double.compare(getUnscaledCombinedScore(s1, maxMaxIC, maxBMA),
+						getUnscaledCombinedScore(s2, maxMaxIC, maxBMA));
+				return c != 0 ? c : s2.j.compareTo(s1.j);
+			}
+		};
+		PriorityQueue<ElementPairScores> topK = 
+				new PriorityQueue<ElementPairScores>(Math.min(k, bounded.size()) + 1, scoreComparator);
+		int n = 0;
+		for (CandidateMatch m : bounded) {
+			if (topK.size() == k) {
+				double upperBound = m.icBest / maxMaxIC + m.icBest / maxBMA;
+				if (upperBound < getUnscaledCombinedScore(topK.peek(), maxMaxIC, maxBMA)) {
+					// all remaining candidates have an equal or lower bound
+					pruned = bounded.size() - n;
+					break;
+				}
+			}
+			n++;
+			completeCandidateScores(m, csetV, searchProfileBM);
+			topK.add(m.scores);
+			if (topK.size() > k) {
+				topK.poll();
+			}
+		}
+		LOG.info("Top "+k+" search: |passed cutoffs|="+bounded.size()+
+				" |scored|="+n+" |pruned|="+pruned);
+		lastSearchPrunedCount = pruned;
+		prunedCount.addAndGet(pruned);
+
+		scoreSets.addAll(topK);
+		Collections.sort(scoreSets, Collections.reverseOrder(scoreComparator));
+		calculateCombinedScores(scoreSets, maxMaxIC, maxBMA);
+		for (int i = 0; i < scoreSets.size(); i++) {
+			if (scoreSets.get(i).combinedScore > 100) {
+				scoreSets.get(i).combinedScore = 100;
+			}
+			scoreSets.get(i).rank = i;
+		}
+		LOG.info("tSearch = "+tdelta(startTime));
+		return scoreSets;
+	}
+
+	// combinedScore prior to scaling and rounding
+	private double getUnscaledCombinedScore(ElementPairScores s, double maxMaxIC, double maxBMA) {
+		return s.maxIC / maxMaxIC + s.bmaSymIC / maxBMA;
+	}
+
+	/**
+	 * Only meaningful if searches are not run concurrently, e.g. by
+	 * {@link #findMatchesForAll(Map, String, int, SimResultRenderer)} with
+	 * several threads; see {@link #getNumberOfCandidatesPruned()}.
+	 * 
+	 * @return number of candidates that passed the SimJ and maxIC cutoffs in the
+	 * last top k search, but which were not fully scored as they could not enter the top k 
+	 */
+	public int getNumberOfCandidatesPrunedInLastSearch() {
+		return lastSearchPrunedCount;
+	}
+
+	/**
+	 * @return number of candidates that passed the SimJ and maxIC cutoffs in all
+	 * top k searches so far, including concurrent ones, but which were not fully
+	 * scored as they could not enter the top k
+	 */
+	public long getNumberOfCandidatesPruned() {
+		return prunedCount.get();
+	}
+
+	/**
+	 * Finds matches for a batch of query profiles in a single pass.
+	 * <p>
+	 * Work that does not depend on the query is done once for the whole batch:
+	 * the candidate set is computed once, and queries with the same attributes
+	 * are only searched once. If numberOfThreads &gt; 1, the lazily-populated
+	 * caches (ancestor bitmaps, ICs, candidate index and LCS cache) are filled
+	 * up front and shared by all queries, and whole queries are searched
+	 * concurrently on the worker pool.
+	 * <p>
+	 * Queries are reported in the order of the map, except that queries with the
+	 * same attributes are reported together, at the position of the first one.
+	 * At most 4 * numberOfThreads searches are held in memory at any time.
+	 * If k &gt; 0, the matches of each query are those of
+	 * {@link #findTopMatchesWithin(Set, Set, int, double, double)}.
+	 *
+	 * @param queries - attributes of each query
+	 * @param targetIdSpace
+	 * @param k - if &gt; 0, only the top k matches of each query are written
+	 * @param renderer
+	 * @throws Exception
+	 */
+	@Override
+	public void findMatchesForAll(Map<OWLNamedIndividual, Set<OWLClass>> queries, String targetIdSpace,
+			final int k, SimResultRenderer renderer) throws Exception {
+		final double minSimJPct = getPropertyAsDouble(SimConfigurationProperty.minimumSimJ, 0.05) * 100;
+		final double minMaxIC = getPropertyAsDouble(SimConfigurationProperty.minimumMaxIC, 2.5);
+		long startTime = System.currentTimeMillis();
+		long prunedBefore = prunedCount.get();
+
+		final Set<OWLNamedIndividual> candidateTargetSet = getCandidateTargetSet(targetIdSpace);
+		final Set<OWLNamedIndividual> candidateTargetSetWithSelf =
+				new HashSet<OWLNamedIndividual>(candidateTargetSet);
+		candidateTargetSetWithSelf.add(getSelfIndividual());
+
+		Map<Set<OWLClass>, List<OWLNamedIndividual>> queriesByProfile =
+				new LinkedHashMap<Set<OWLClass>, List<OWLNamedIndividual>>();
+		for (Entry<OWLNamedIndividual, Set<OWLClass>> e : queries.entrySet()) {
+			List<OWLNamedIndividual> profileQueries = queriesByProfile.get(e.getValue());
+			if (profileQueries == null) {
+				profileQueries = new ArrayList<OWLNamedIndividual>(1);
+				queriesByProfile.put(e.getValue(), profileQueries);
+			}
+			profileQueries.add(e.getKey());
+		}
+		LOG.info("Batch search: |queries|="+queries.size()+" |distinct profiles|="+queriesByProfile.size());
+
+		if (numberOfThreads == 1 || queriesByProfile.size() < 2) {
+			for (Entry<Set<OWLClass>, List<OWLNamedIndividual>> e : queriesByProfile.entrySet()) {
+				List<ElementPairScores> matches = findMatchesForBatch(e.getKey(),
+						candidateTargetSet, candidateTargetSetWithSelf, k, minSimJPct, minMaxIC);
+				renderMatchesForBatch(e.getValue(), matches, renderer);
+			}
+		}
+		else {
+			prepareForConcurrentSearch();
+			ExecutorService pool = getWorkerPool();
+			int maxPending = numberOfThreads * 4;
+			ArrayDeque<Future<List<ElementPairScores>>> pendingSearches =
+					new ArrayDeque<Future<List<ElementPairScores>>>(maxPending);
+			ArrayDeque<List<OWLNamedIndividual>> pendingQueries =
+					new ArrayDeque<List<OWLNamedIndividual>>(maxPending);
+			try {
+				for (Entry<Set<OWLClass>, List<OWLNamedIndividual>> e : queriesByProfile.entrySet()) {
+					final Set<OWLClass> atts = e.getKey();
+					pendingSearches.add(pool.submit(new Callable<List<ElementPairScores>>() {
+						@Override
+						public List<ElementPairScores> call() throws Exception {
+							return findMatchesForBatch(atts,
+									candidateTargetSet, candidateTargetSetWithSelf, k, minSimJPct, minMaxIC);
+						}
+					}));
+					pendingQueries.add(e.getValue());
+					if (pendingSearches.size() == maxPending) {
+						renderMatchesForBatch(pendingQueries.poll(), pendingSearches.poll().get(), renderer);
+					}
+				}
+				while (!pendingSearches.isEmpty()) {
+					renderMatchesForBatch(pendingQueries.poll(), pendingSearches.poll().get(), renderer);
+				}
+			} catch (ExecutionException e) {
+				for (Future<List<ElementPairScores>> future : pendingSearches) {
+					future.cancel(true);
+				}
+				if (e.getCause() instanceof Exception) {
+					throw (Exception) e.getCause();
+				}
+				throw e;
+			}
+		}
+		if (k > 0) {
+			LOG.info("Batch search: |pruned|="+(prunedCount.get() - prunedBefore));
+		}
+		LOG.info("tBatchSearch = "+tdelta(startTime) +" / "+queries.size());
+	}
+
+	/**
+	 * Finds approximate top k matches for an individual by SimJ.
+	 * 
+	 * @see #findApproximateSimJMatches(Set, int, String, boolean)
+	 * @param i
+	 * @param k
+	 * @param targetIdSpace
+	 * @param isRerank
+	 * @return sorted scores, at most k
+	 * @throws Exception
+	 */
+	public List<ElementPairScores> findApproximateSimJMatches(OWLNamedIndividual i, int k, String targetIdSpace, boolean isRerank) throws Exception {
+		Set<OWLClass> atts = getAttributesForElement(i);
+		List<ElementPairScores> matches = findApproximateSimJMatches(atts, k, targetIdSpace, isRerank);
+		for (ElementPairScores m : matches) {
+			m.i = i;
+		}
+		return matches;
+	}
+
+	/**
+	 * Finds approximate top k matches for a set of attributes, avoiding
+	 * scoring every element: only the elements that share an LSH bucket
+	 * with the query are scored.
+	 * <p>
+	 * The candidates are the elements found in the LSH index
+	 * (see {@link #setMinHashParameters(int, int)}); an element with a high SimJ
+	 * may be missed, but each candidate is scored exactly.
+	 * If isRerank is false, candidates are ranked by SimJ only; the combined
+	 * score is SimJ as a percentage. If isRerank is true, the candidates
+	 * are ranked by the full phenodigm scoring with the default cutoffs, as in
+	 * {@link #findTopMatchesWithin(Set, Set, int, double, double)}.
+	 * 
+	 * @param atts
+	 * @param k
+	 * @param targetIdSpace
+	 * @param isRerank
+	 * @return sorted scores, at most k
+	 * @throws Exception
+	 */
+	public List<ElementPairScores> findApproximateSimJMatches(Set<OWLClass> atts, int k, String targetIdSpace, boolean isRerank) throws Exception {
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be >= 1");
+		}
+		long startTime = System.currentTimeMillis();
+		Vector<OWLClass> csetV = new Vector<OWLClass>(atts.size());
+		EWAHCompressedBitmap searchProfileBM = getSearchProfile(atts, csetV);
+		Set<OWLNamedIndividual> candidateTargetSet = new LinkedHashSet<OWLNamedIndividual>();
+		for (OWLNamedIndividual j : getMinHashIndex().getCandidates(searchProfileBM)) {
+			if (targetIdSpace == null || j.getIRI().toString().contains("/"+targetIdSpace+"_")) {
+				candidateTargetSet.add(j);
+			}
+		}
+		LOG.info("|LSH candidates|="+candidateTargetSet.size()+" / "+getAllElements().size());
+
+		if (isRerank) {
+			double minSimJPct = getPropertyAsDouble(SimConfigurationProperty.minimumSimJ, 0.05) * 100;
+			double minMaxIC = getPropertyAsDouble(SimConfigurationProperty.minimumMaxIC, 2.5);
+			return findTopMatchesWithin(atts, candidateTargetSet, k, minSimJPct, minMaxIC);
+		}
+
+		// bounded min-heap on SimJ
+		Comparator<ElementPairScores> simJComparator = new Comparator<ElementPairScores>() {
+			@Override
+			public int compare(ElementPairScores s1, ElementPairScores s2) {
+				return Double.compare(s1.simjScore, s2.simjScore);
+			}
+		};
+		PriorityQueue<ElementPairScores> topK = 
+				new PriorityQueue<ElementPairScores>(k + 1, simJComparator);
+		for (OWLNamedIndividual j : candidateTargetSet) {
+			EWAHCompressedBitmap jAttsBM = ancsBitmapCachedModifiable(j);
+			int cudSize = searchProfileBM.orCardinality(jAttsBM);
+			if (cudSize == 0)
+				continue;
+			ElementPairScores s = new ElementPairScores(null, j);
+			s.simjScore = searchProfileBM.andCardinality(jAttsBM) / (double) cudSize;
+			topK.add(s);
+			if (topK.size() > k) {
+				topK.poll();
+			}
+		}
+		List<ElementPairScores> scoreSets = new ArrayList<ElementPairScores>(topK);
+		for (ElementPairScores s : scoreSets) {
+			s.combinedScore = (int) Math.round(s.simjScore * 100);
+		}
+		Collections.sort(scoreSets, Collections.reverseOrder(simJComparator));
+		for (int i = 0; i < scoreSets.size(); i++) {
+			scoreSets.get(i).rank = i;
+		}
+		LOG.info("tApproximateSearch = "+tdelta(startTime));
+		return scoreSets;
+	}
+
+	// each search is sequential; when searching a batch, the parallelism is between queries
+	private List<ElementPairScores> findMatchesForBatch(Set<OWLClass> atts,
+			Set<OWLNamedIndividual> candidateTargetSet, Set<OWLNamedIndividual> candidateTargetSetWithSelf,
+			int k, double minSimJPct, double minMaxIC) throws Exception {
+		if (k > 0) {
+			return findTopMatchesWithin(atts, candidateTargetSet, k, minSimJPct, minMaxIC);
+		}
+		return findMatchesWithinIncludingSelf(atts, candidateTargetSetWithSelf, minSimJPct, minMaxIC, false);
+	}
+
+	// the matches are shared by all queries with the same attributes
+	private void renderMatchesForBatch(List<OWLNamedIndividual> queries,
+			List<ElementPairScores> matches, SimResultRenderer renderer) {
+		for (OWLNamedIndividual i : queries) {
+			for (ElementPairScores m : matches) {
+				m.i = i;
+				renderer.printPairScores(m);
+			}
+		}
+	}
+
 	public List<ElementPairScores> findMatchesRefactored(Set<OWLClass> atts, String targetIdSpace) throws Exception {
 
 		double minSimJPct = getPropertyAsDouble(SimConfigurationProperty.minimumSimJ, 0.05) * 100;
@@ -1713,17 +3001,8 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 		// to calculate here to test if more expensive AxA is required
 		t = System.currentTimeMillis();
 
-		double icBest = 0;
-		double icSumCAD = 0;
-		for (int ix : cad.toArray()) {
-			Double ic = getInformationContentForAttribute(ix);
-			//OWLClass c = n.getRepresentativeElement();
-			//Double ic = getInformationContentForAttribute(c);
-			if (ic > icBest) {
-				icBest = ic;
-			}
-			icSumCAD += ic;
-		}
+		double icBest = getMaxInformationContent(cad);
+		double icSumCAD = getSumOfInformationContent(cad);
 		tMaxIC += tdelta(t);
 		nMaxIC++;
 
@@ -1735,11 +3014,7 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 		// SIMGIC
 		t = System.currentTimeMillis();
 		EWAHCompressedBitmap cud = iAttsBM.or(jAttsBM);
-		double icSumCUD = 0;
-		for (int ix : cud.toArray()) {
-			Double ic = getInformationContentForAttribute(ix);
-			icSumCUD += ic;
-		}
+		double icSumCUD = getSumOfInformationContent(cud);
 		s.simGIC = icSumCAD / icSumCUD;
 		tSimGIC += tdelta(t);
 		nSimGIC++;
@@ -2034,64 +3309,72 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 	}
 
 
+	/**
+	 * Writes the LCS cache in the binary format of {@link LCSCache}, keyed by class index.
+	 * The file header contains the fingerprint of the class index, see
+	 * {@link #getClassIndexFingerprint()}.
+	 * 
+	 * @param fileName
+	 * @param thresholdIC - if non-null, pairs with an LCS below this IC are not written
+	 * @throws IOException
+	 */
 	@Override
 	public void saveLCSCache(String fileName, Double thresholdIC) throws IOException {
-		FileOutputStream fos = new FileOutputStream(fileName);
-
-		// iterate through all classes fetching their ICs, using the class index.
-		// this has the side effect of ensuring that icClassArray is populated.
-		for (OWLClass c : this.getAllAttributeClasses()) {
-			try {
-				int cix = classIndex.get(c);
-				Double ic = getInformationContentForAttribute(cix);
-				Double icCheck = icClassArray[cix]; // for debugging
-				Double icBase = getInformationContentForAttribute(c);
-				LOG.info("Class "+c+" has ix="+cix+" IC="+ic+
-						" IC(check)="+icCheck+" IC(base)="+icBase+
-						" C(check)="+getShortId(classArray[cix]));
-			} catch (UnknownOWLClassException e) {
-				LOG.error("cannot find IC values for class "+c, e);
-				throw new IOException("unknown: "+c);
+		long fingerprint;
+		boolean[] isExcluded = null;
+		try {
+			if (lcsCache == null) {
+				clearLCSCache();
 			}
-		}
-
-		// We assume ciPairIsCached is populated
-		for ( int cix = 0; cix< ciPairIsCached.length; cix++) {
-			boolean[] arr = ciPairIsCached[cix];
-			OWLClass c = classArray[cix];
-			for ( int dix = 0; dix< arr.length; dix++) {
-				// cix is always <= dix
-				if (cix > dix)
-					continue;
-				if (arr[dix]) {
-					int lcsix = ciPairLCS[cix][dix];
-					Double s = icClassArray[lcsix];
-					if (s == null || s.isNaN() || s.isInfinite()) {
-						throw new IOException("No IC for "+classArray[lcsix]);
-					}
-					if (thresholdIC == null || s.doubleValue() >= thresholdIC) {
-						OWLClass d = classArray[dix];
-						OWLClass lcs = classArray[lcsix];
-						IOUtils.write(getShortId((OWLClass) c) +"\t" + getShortId((OWLClass) d) + "\t" + s + "\t" + 
-								getShortId(lcs) + "\n", fos);
-
-					}
+			fingerprint = getClassIndexFingerprint();
+			if (thresholdIC != null) {
+				isExcluded = new boolean[classArray.length];
+				for (int cix = 0; cix < classArray.length; cix++) {
+					if (classArray[cix] == null)
+						continue;
+					isExcluded[cix] = getInformationContentForAttribute(cix) < thresholdIC;
 				}
 			}
-
-
+		} catch (UnknownOWLClassException e) {
+			LOG.error("cannot find IC values for class "+e.getMessage(), e);
+			throw new IOException("unknown: "+e.getMessage());
 		}
-
-		fos.close();
+		LOG.info("Saving LCS cache to "+fileName);
+		lcsCache.save(new File(fileName), fingerprint, isExcluded);
 	}
 
 
 	/**
+	 * Loads an LCS cache written by {@link #saveLCSCache(String, Double)}.
+	 * The file is memory-mapped read-only, and must have been created for the same class index.
+	 * The tab-delimited format of earlier versions is also accepted.
+	 * 
 	 * @param fileName
-	 * @throws IOException
+	 * @throws IOException - if the ontology or the set of elements changed
+	 * since the cache was written
 	 */
 	@Override
 	public void loadLCSCache(String fileName) throws IOException {
+		File file = new File(fileName);
+		if (!LCSCache.isLCSCacheFile(file)) {
+			LOG.warn("Not a binary LCS cache; assuming tab-delimited format: "+fileName);
+			loadLCSCacheFromTSV(fileName);
+			return;
+		}
+		try {
+			if (classArray == null) {
+				createElementAttributeMapFromOntology();
+			}
+			closeLCSCache();
+			lcsCache = LCSCache.open(file, classArray.length, getClassIndexFingerprint(), true);
+		} catch (UnknownOWLClassException e) {
+			throw new IOException("Cannot load cache: "+e.getMessage());
+		}
+		LOG.info("Loaded LCS cache from "+fileName);
+		isLCSCacheFullyPopulated = true;
+	}
+
+	private void loadLCSCacheFromTSV(String fileName) throws IOException {
 		try {
 			clearLCSCache();
 		} catch (UnknownOWLClassException e) {
@@ -2124,35 +3407,285 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 			}
 
 			// Note that we only populate half the cache
-			// Ensure cix < dix
-			int temp;
-			if (cix > dix) {
-				// swap
-				temp = cix;
-				cix = dix;
-				dix = temp;
-			}
-
-			ciPairIsCached[cix][dix] = true;
-			//ciPairScaledScore[cix][dix] = (short)(Double.valueOf(vals[2]) * scaleFactor);
 			// TODO - set all IC caches
-			ciPairLCS[cix][dix] = aix;
+			lcsCache.put(cix, dix, aix);
 		}
 		s.close();
 		LOG.info("Finished loading LCS cache from "+fileName);
 		isLCSCacheFullyPopulated = true;
 	}
 
+	// "OWLSIMKB"
+	private static final long SNAPSHOT_MAGIC = 0x4F574C53494D4B42L;
+	private static final int SNAPSHOT_VERSION = 2;
+
+	/**
+	 * Saves the indexed knowledge base in a compact binary form: the class index,
+	 * the representative of each class, the ancestor bitmaps, the direct attributes and
+	 * type bitmaps of each element, and the information content of each class.
+	 * <p>
+	 * The snapshot can be restored with {@link #loadSnapshot(String)}, without
+	 * consulting the reasoner.
+	 * 
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public void saveSnapshot(String fileName) throws IOException {
+		LOG.info("Saving snapshot to "+fileName);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+		try {
+			out.writeLong(SNAPSHOT_MAGIC);
+			out.writeInt(SNAPSHOT_VERSION);
+			out.writeLong(getOntologyFingerprint());
+
+			// class index
+			out.writeInt(classArray.length);
+			for (int cix = 0; cix < classArray.length; cix++) {
+				OWLClass c = classArray[cix];
+				out.writeBoolean(c != null);
+				if (c != null) {
+					out.writeUTF(c.getIRI().toString());
+				}
+			}
+
+			// representatives; all classes are indexed
+			out.writeInt(classTorepresentativeClassMap.size());
+			for (Entry<OWLClass, OWLClass> e : classTorepresentativeClassMap.entrySet()) {
+				out.writeInt(getClassIndex(e.getKey()));
+				out.writeInt(getClassIndex(e.getValue()));
+			}
+			writeClassSet(out, allTypesDirect);
+			writeClassSet(out, allTypesInferred);
+
+			// ancestors, IC and frequency by class index
+			for (int cix = 0; cix < classArray.length; cix++) {
+				if (classArray[cix] == null)
+					continue;
+				ancsBitmapCachedModifiable(cix).serialize(out);
+				ancsProperBitmapCachedModifiable(classArray[cix]).serialize(out);
+				out.writeDouble(getInformationContentForAttribute(cix));
+				out.writeInt(getNumElementsForAttribute(classArray[cix]));
+			}
+
+			// ICs of classes outside the index, e.g. default ICs
+			Map<OWLClass, Double> nonIndexedICs = new HashMap<OWLClass, Double>();
+			for (Entry<OWLClass, Double> e : icCache.entrySet()) {
+				if (!classIndex.containsKey(e.getKey()) && e.getValue() != null) {
+					nonIndexedICs.put(e.getKey(), e.getValue());
+				}
+			}
+			out.writeInt(nonIndexedICs.size());
+			for (Entry<OWLClass, Double> e : nonIndexedICs.entrySet()) {
+				out.writeUTF(e.getKey().getIRI().toString());
+				out.writeDouble(e.getValue());
+			}
+
+			// elements
+			out.writeInt(elementToDirectAttributesMap.size());
+			for (Entry<OWLNamedIndividual, Set<OWLClass>> e : elementToDirectAttributesMap.entrySet()) {
+				out.writeUTF(e.getKey().getIRI().toString());
+				writeClassSet(out, e.getValue());
+				ancsBitmapCachedModifiable(e.getKey()).serialize(out);
+			}
+		} catch (UnknownOWLClassException e) {
+			throw new IOException("Cannot save snapshot: "+e.getMessage());
+		} finally {
+			out.close();
+		}
+		LOG.info("Saved snapshot to "+fileName);
+	}
+
+	/**
+	 * Calculates a fingerprint of the axioms of the imports closure of the
+	 * source ontology, which determine the class index, the ICs and the
+	 * attributes of each element. Unlike {@link #getClassIndexFingerprint()},
+	 * this does not require the class index to be built.
+	 * 
+	 * @return 64 bit fingerprint, independent of the order of the axioms
+	 */
+	public long getOntologyFingerprint() {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		long fingerprint = 0;
+		for (OWLOntology o : getSourceOntology().getImportsClosure()) {
+			for (OWLAxiom ax : o.getAxioms()) {
+				// the sum of the axiom hashes does not depend on their order
+				fingerprint += ByteBuffer.wrap(md.digest(ax.toString().getBytes(UTF8))).getLong();
+			}
+		}
+		return fingerprint;
+	}
+
+	private void writeClassSet(DataOutputStream out, Set<OWLClass> cs) throws IOException, UnknownOWLClassException {
+		out.writeInt(cs.size());
+		for (OWLClass c : cs) {
+			out.writeInt(getClassIndex(c));
+		}
+	}
+
+	private Set<OWLClass> readClassSet(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		Set<OWLClass> cs = new HashSet<OWLClass>(n);
+		for (int i = 0; i < n; i++) {
+			cs.add(classArray[in.readInt()]);
+		}
+		return cs;
+	}
+
+	/**
+	 * Restores the indexed knowledge base from a file written by {@link #saveSnapshot(String)},
+	 * replacing {@link #createElementAttributeMapFromOntology()}.
+	 * <p>
+	 * The reasoner is not consulted, either when loading or when searching for matches.
+	 * The snapshot must have been created for the same source ontology, with the
+	 * same axioms in its imports closure (see {@link #getOntologyFingerprint()}).
+	 * 
+	 * @param fileName
+	 * @throws IOException
+	 * @throws UnknownOWLClassException 
+	 */
+	public void loadSnapshot(String fileName) throws IOException, UnknownOWLClassException {
+		LOG.info("Loading snapshot from "+fileName);
+		OWLDataFactory df = getSourceOntology().getOWLOntologyManager().getOWLDataFactory();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName), 1 << 16));
+		try {
+			if (in.readLong() != SNAPSHOT_MAGIC) {
+				throw new IOException("Not an OwlSim snapshot: "+fileName);
+			}
+			int version = in.readInt();
+			if (version != SNAPSHOT_VERSION) {
+				throw new IOException("Unsupported snapshot version "+version+" in "+fileName);
+			}
+			long fingerprint = in.readLong();
+			if (fingerprint != getOntologyFingerprint()) {
+				throw new IOException("Snapshot "+fileName+" was created for a different ontology"+
+						" or a different version of it");
+			}
+
+			// class index
+			int size = in.readInt();
+			classArray = (OWLClass[]) Array.newInstance(OWLClass.class, size);
+			classIndex = new HashMap<OWLClass,Integer>();
+			for (int cix = 0; cix < size; cix++) {
+				if (in.readBoolean()) {
+					classArray[cix] = df.getOWLClass(IRI.create(in.readUTF()));
+					classIndex.put(classArray[cix], cix);
+				}
+			}
+
+			// representatives, and the nodes they represent
+			classTorepresentativeClassMap = new HashMap<OWLClass, OWLClass>();
+			Map<OWLClass, Set<OWLClass>> equivalents = new HashMap<OWLClass, Set<OWLClass>>();
+			int numReps = in.readInt();
+			for (int i = 0; i < numReps; i++) {
+				OWLClass c = classArray[in.readInt()];
+				OWLClass rep = classArray[in.readInt()];
+				classTorepresentativeClassMap.put(c, rep);
+				if (!equivalents.containsKey(rep))
+					equivalents.put(rep, new HashSet<OWLClass>());
+				equivalents.get(rep).add(c);
+			}
+			representativeClassMap = new HashMap<Node<OWLClass>, OWLClass>();
+			Map<OWLClass, Node<OWLClass>> nodeByRepresentative = new HashMap<OWLClass, Node<OWLClass>>();
+			for (Entry<OWLClass, Set<OWLClass>> e : equivalents.entrySet()) {
+				Node<OWLClass> n = new OWLClassNode(e.getValue());
+				representativeClassMap.put(n, e.getKey());
+				nodeByRepresentative.put(e.getKey(), n);
+			}
+			allTypesDirect = readClassSet(in);
+			allTypesInferred = readClassSet(in);
+
+			// ancestors, IC and frequency by class index
+			superclassBitmapIndex = new EWAHCompressedBitmap[size];
+			superclassBitmapMap = new HashMap<OWLClass,EWAHCompressedBitmap>();
+			properSuperclassBitmapMap = new HashMap<OWLClass,EWAHCompressedBitmap>();
+			icClassArray = createICArray();
+			numElementsArray = new int[size];
+			Arrays.fill(numElementsArray, -1);
+			icCache = new HashMap<OWLClass,Double>();
+			numElementsCache = new HashMap<OWLClass,Integer>();
+			for (int cix = 0; cix < size; cix++) {
+				OWLClass c = classArray[cix];
+				if (c == null)
+					continue;
+				EWAHCompressedBitmap bm = new EWAHCompressedBitmap();
+				bm.deserialize(in);
+				superclassBitmapIndex[cix] = bm;
+				superclassBitmapMap.put(c, bm);
+				EWAHCompressedBitmap pbm = new EWAHCompressedBitmap();
+				pbm.deserialize(in);
+				properSuperclassBitmapMap.put(c, pbm);
+				icClassArray[cix] = in.readDouble();
+				numElementsArray[cix] = in.readInt();
+			}
+			int numNonIndexedICs = in.readInt();
+			for (int i = 0; i < numNonIndexedICs; i++) {
+				OWLClass c = df.getOWLClass(IRI.create(in.readUTF()));
+				icCache.put(c, in.readDouble());
+			}
+
+			// elements
+			elementToDirectAttributesMap = new HashMap<OWLNamedIndividual,Set<OWLClass>>();
+			elementToInferredAttributesMap = new HashMap<OWLNamedIndividual,Set<Node<OWLClass>>>();
+			inferredTypesBitmapMap = new HashMap<OWLNamedIndividual, EWAHCompressedBitmap>();
+			int numElements = in.readInt();
+			for (int i = 0; i < numElements; i++) {
+				OWLNamedIndividual e = df.getOWLNamedIndividual(IRI.create(in.readUTF()));
+				elementToDirectAttributesMap.put(e, readClassSet(in));
+				EWAHCompressedBitmap bm = new EWAHCompressedBitmap();
+				bm.deserialize(in);
+				inferredTypesBitmapMap.put(e, bm);
+				Set<Node<OWLClass>> nodes = new HashSet<Node<OWLClass>>();
+				for (int cix : bm.toArray()) {
+					nodes.add(nodeByRepresentative.get(classArray[cix]));
+				}
+				elementToInferredAttributesMap.put(e, nodes);
+			}
+		} finally {
+			in.close();
+		}
+
+		isElementAttributeMapModified = false;
+
+		// derived caches are rebuilt on demand
+		superclassMap = null;
+		superclassIntMap = null;
+		inferredTypesMap = null;
+		inferredTypesIntMap = null;
+		individualIndex = null;
+		classToElementBitmapMap = null;
+		coAnnotationMatrix = null;
+		corpusSize = null;
+		testCache = null;
+		sortedAncestorIndex = null;
+		candidateIndex = null;
+		minHashIndex = null;
+		closeLCSCache();
+		isPreparedForConcurrentSearch = false;
+
+		LOG.info("Loaded snapshot from "+fileName+"; |C|="+classArray.length+" |I|="+getAllElements().size());
+		this.computeSystemStats();
+	}
+
 	@Override
 	protected void setInformtionContectForAttribute(OWLClass c, Double v) {
-		icCache.put(c, v);
-		if (icClassArray == null)
-			icClassArray = new Double[classArray.length];
-		if (!classIndex.containsKey(c)) {
+		if (classIndex == null) {
+			icCache.put(c, v);
+		}
+		else if (!classIndex.containsKey(c)) {
 			LOG.warn("Non-indexed class (this is OK assuming it has no data): "+c);
+			icCache.put(c, v);
 		}
 		else {
-			icClassArray[classIndex.get(c)] = v;
+			if (icClassArray == null)
+				icClassArray = createICArray();
+			icClassArray[classIndex.get(c)] = v == null ? Double.NaN : v;
+			sortedAncestorIndex = null;
+			candidateIndex = null;
 		}
 	}
 
@@ -2162,6 +3695,9 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 		testCache = null;
 		icCache = new HashMap<OWLClass,Double>();
 		icClassArray = null;
+		sortedAncestorIndex = null;
+		candidateIndex = null;
+		isPreparedForConcurrentSearch = false;
 	}
 
 	protected void clearLCSCache() throws UnknownOWLClassException  {
@@ -2169,9 +3705,77 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 		if (classArray == null) {
 			createElementAttributeMapFromOntology();
 		}
-		ciPairLCS = new int[classArray.length][classArray.length];
-		//ciPairScaledScore = new short[classArray.length][classArray.length];
-		ciPairIsCached = new boolean[classArray.length][classArray.length];		
+		closeLCSCache();
+		lcsCache = new LCSCache(classArray.length);
+	}
+
+	private void closeLCSCache() {
+		if (lcsCache != null) {
+			try {
+				lcsCache.close();
+			} catch (IOException e) {
+				LOG.error("Could not close LCS cache", e);
+			}
+			lcsCache = null;
+		}
+	}
+
+	/**
+	 * Replaces the LCS cache with one backed by a memory-mapped file.
+	 * <p>
+	 * If the file is opened for writing, it is created if it does not exist,
+	 * and any pairs that are subsequently computed are stored in it.
+	 * If the file is opened read-only, it can be shared between multiple
+	 * processes on the same host; pairs with no entry are computed but not
+	 * cached.
+	 * <p>
+	 * An existing file is only reused if it was created for the same class index
+	 * (see {@link #getClassIndexFingerprint()}).
+	 * 
+	 * @param file
+	 * @param isReadOnly
+	 * @throws IOException
+	 * @throws UnknownOWLClassException
+	 */
+	public void useMappedLCSCache(File file, boolean isReadOnly) throws IOException, UnknownOWLClassException {
+		if (classArray == null) {
+			createElementAttributeMapFromOntology();
+		}
+		closeLCSCache();
+		lcsCache = LCSCache.open(file, classArray.length, getClassIndexFingerprint(), isReadOnly);
+	}
+
+	/**
+	 * Calculates a fingerprint of the class index: the class at each index,
+	 * its ancestors, and its IC. This changes if either the ontology or the
+	 * set of elements changes in a way that may affect the LCS of any pair.
+	 * 
+	 * @return 64 bit fingerprint
+	 * @throws UnknownOWLClassException
+	 */
+	public long getClassIndexFingerprint() throws UnknownOWLClassException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		ByteBuffer buf = ByteBuffer.allocate(8);
+		md.update(buf.putLong(classArray.length).array());
+		for (int cix = 0; cix < classArray.length; cix++) {
+			OWLClass c = classArray[cix];
+			if (c == null)
+				continue;
+			md.update(c.getIRI().toString().getBytes(UTF8));
+			IntIterator it = ancsBitmapCachedModifiable(cix).intIterator();
+			while (it.hasNext()) {
+				buf.clear();
+				md.update(buf.putLong(it.next()).array());
+			}
+			buf.clear();
+			md.update(buf.putLong(Double.doubleToLongBits(getInformationContentForAttribute(cix))).array());
+		}
+		return ByteBuffer.wrap(md.digest()).getLong();
 	}
 
 	@Override
@@ -2240,7 +3844,7 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 		md.classCount = this.getAllAttributeClasses().size();
 		md.classIndexSize = classArray.length;
 		md.individualCount = getAllElements().size();
-		md.lcsCacheWidth = ciPairLCS.length;
+		md.lcsCacheWidth = lcsCache == null ? 0 : lcsCache.getSize();
 		md.scaleFactor = scaleFactor;
 		md.reasonerClass = this.getReasoner().getClass().toString();
 		md.allTypesDirectCount = allTypesDirect.size();
@@ -2311,33 +3915,46 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 	}
 	
 	public List<ClassCount> getCoannotatedClassesForAttribute(OWLClass c, Double cutoff, int numIndividualsInBackground) throws Exception {
-		//make a co-annotation matrix for all classes
+		return getCoannotatedClassesForAttribute(c, cutoff, numIndividualsInBackground, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Uses the co-annotation matrix, see {@link #populateFullCoannotationMatrix()};
+	 * only the limit highest scoring classes are kept while scoring
+	 * 
+	 * @param c
+	 * @param cutoff - only classes with a TF-IDF score above this value are returned
+	 * @param numIndividualsInBackground
+	 * @param limit - maximum number of classes
+	 * @return classes co-annotated with c, by decreasing TF-IDF score
+	 * @throws Exception
+	 */
+	public List<ClassCount> getCoannotatedClassesForAttribute(OWLClass c, Double cutoff, 
+			final int numIndividualsInBackground, int limit) throws Exception {
 		Integer cid = classIndex.get(c);
-		
-		if (this.coaMatrix == null) {
-			this.populateFullCoannotationMatrix();
+		if (cid == null) {
+			throw new UnknownOWLClassException(c);
 		}
-		
-		int[] annotCocounts = coaMatrix[cid];
-		List<ClassCount> classToCount = new ArrayList<ClassCount>();
-		
-		for (int i=0; i<annotCocounts.length; i++) {
-			if (classArray[i] == null) {
-				continue;
-			}
-			Double tf = Math.log(annotCocounts[i]);
-			int n = getElementsForAttribute(classArray[i]).size();
-			Double idf = Math.log(numIndividualsInBackground / 1+n);
-			Double tfidf = tf*idf;
-			if (tfidf > cutoff) {
-				ClassCount cc = new ClassCount(classArray[i],tfidf);
-				classToCount.add(cc);			
+		CoAnnotationMatrix matrix = getCoAnnotationMatrix();
+		CoAnnotationMatrix.ColumnScorer scorer = new CoAnnotationMatrix.ColumnScorer() {
+
+			@Override
+			public double score(int column, int count) {
+				if (classArray[column] == null) {
+					return Double.NaN;
+				}
+				Double tf = Math.log(count);
+				int n = getNumElementsForAttribute(classArray[column]);
+				Double idf = Math.log(numIndividualsInBackground / 1+n);
+				return tf*idf;
 			}
+		};
+		int[] top = matrix.getTopColumns(cid, limit, cutoff, scorer);
+		List<ClassCount> classToCount = new ArrayList<ClassCount>(top.length);
+		for (int dix : top) {
+			classToCount.add(new ClassCount(classArray[dix], scorer.score(dix, matrix.get(cid, dix))));
 		}
-		Collections.sort(classToCount,ClassCountComparator);
-		Collections.reverse(classToCount);
 		return classToCount;
-		
 	}
 
 	public List<ClassCount> getCoAnnotatedClassesForIndividual(OWLNamedIndividual i) throws Exception {
@@ -2388,6 +4005,22 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 	}
 	
 	//http://textanddatamining.blogspot.co.uk/2012/01/extract-meta-concepts-through-co.html
+	/**
+	 * Scores each attribute in atts by the TF-IDF of its co-annotations with
+	 * the other attributes in atts, amongst the first matchCutoff+1 matches.
+	 * <p>
+	 * The co-annotation counts of the matches are held in a sparse
+	 * {@link CoAnnotationMatrix}, and TF-IDF scores are only computed for the
+	 * pairs of attributes in atts with a non-zero count; a zero count has no
+	 * term frequency. The TF-IDF of a pair is that of
+	 * {@link #computeTFIDFMatrix(int[][], int, int[][], int)} for the pair.
+	 * 
+	 * @param matches
+	 * @param atts
+	 * @param matchCutoff
+	 * @return attributes with a positive score, by decreasing score
+	 * @throws Exception
+	 */
 	public List<ClassCount> getCoAnnotatedClassesForMatches(List<ElementPairScores> matches, Set<OWLClass> atts, int matchCutoff) throws Exception {
 		List<ClassCount> classToCount = new ArrayList<ClassCount>();
 		Set<OWLNamedIndividual> indSubset = new HashSet<OWLNamedIndividual>();
@@ -2404,61 +4037,43 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 			}
 		}
 		LOG.info("added "+indSubset.size()+" matching individuals to the subset");
-		//initialize the full coannotation matrix
-		if (this.coaMatrix == null) {
-			this.populateFullCoannotationMatrix();
-		}
-//		if (this.coaMatrix == null) {
-//			this.coaMatrix = this.initCoannotationMatrix(this.coaMatrix);
-//		}
 		//compute the subset coannotation matrix for the top similar individuals
-		int[][] subsetMatrix = getSubsetCoannotationMatrix(indSubset);
-
-//		logCountMatrix(subsetMatrix);
-		LOG.info("Computing TFIDFMatrix for the subset");
-		Double[][] tfidfmatrix = this.computeTFIDFMatrix(subsetMatrix, indSubset.size(), this.coaMatrix, this.getAllElements().size());
-		LOG.info("Done");
+		CoAnnotationMatrix subsetMatrix = createCoAnnotationMatrix(indSubset, null, 1);
+		int numIndividualsInBackground = getAllElements().size();
 		double cutoff = 0.0;
-				
-		//rather than object, flatten it here
-		Double[] usedArray = new Double[classArray.length];
-		//initialize
-		for (int a=0; a<usedArray.length; a++) {
-			usedArray[a] = 0.0;
-		}
 
-		//use supers?
-		//weighting by IC?
-		for (OWLClass c : atts) {
-			Integer cid = classIndex.get(c);
-			for (i=0; i<cid-1; i++) {
-				if (classArray[i] == null) {
-					continue;
+		OWLClass[] attArray = atts.toArray(new OWLClass[atts.size()]);
+		int[] cids = new int[attArray.length];
+		for (int a = 0; a < attArray.length; a++) {
+			Integer cid = classIndex.get(attArray[a]);
+			if (cid == null) {
+				throw new UnknownOWLClassException(attArray[a]);
+			}
+			cids[a] = cid;
+		}
+		// the TF-IDF of a pair is read from the row of the lower class index;
+		// pairs of adjacent classes are not used
+		double[] scores = new double[attArray.length];
+		for (int a = 0; a < attArray.length; a++) {
+			for (int b = 0; b < attArray.length; b++) {
+				double tfidf;
+				if (cids[a] < cids[b] - 1) {
+					tfidf = getTFIDF(subsetMatrix, cids[a], cids[b], indSubset.size(), numIndividualsInBackground);
 				}
-				if (tfidfmatrix[i][cid] > cutoff) {
-					ClassCount cc = new ClassCount(classArray[i],tfidfmatrix[i][cid]);
-					classToCount.add(cc);			
-					usedArray[i] += tfidfmatrix[i][cid];
+				else if (cids[b] <= cids[a]) {
+					tfidf = getTFIDF(subsetMatrix, cids[b], cids[a], indSubset.size(), numIndividualsInBackground);
 				}
-			}
-			for (int j=cid; j<classArray.length; j++) {
-				if (classArray[j] == null) {
+				else {
 					continue;
 				}
-				if (tfidfmatrix[cid][j] > cutoff) {
-					ClassCount cc = new ClassCount(classArray[j],tfidfmatrix[cid][j]);
-					classToCount.add(cc);			
-					usedArray[j] += tfidfmatrix[cid][j];
+				if (tfidf > cutoff) {
+					scores[a] += tfidf;
 				}
 			}
 		}
-		classToCount = new ArrayList<ClassCount>(); 
-		for (OWLClass c : atts) {
-			Integer cid = classIndex.get(c);
-			Double score = usedArray[cid];
-			ClassCount cc = new ClassCount(c,score);
-			if (score > cutoff) {
-			classToCount.add(cc);
+		for (int a = 0; a < attArray.length; a++) {
+			if (scores[a] > cutoff) {
+				classToCount.add(new ClassCount(attArray[a], scores[a]));
 			}
 		}
 		Collections.sort(classToCount,ClassCountComparator);
@@ -2466,36 +4081,39 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 		
 		return classToCount;
 	}
-	
 
+	// TF-IDF of a pair with a non-zero count in the subset, as in computeTFIDFMatrix
+	private double getTFIDF(CoAnnotationMatrix subsetMatrix, int row, int column,
+			int numIndividualsInSubset, int numIndividualsInBackground) {
+		if (classArray[row] == null || classArray[column] == null) {
+			return Double.NaN;
+		}
+		int count = subsetMatrix.get(row, column);
+		if (count == 0) {
+			return Double.NaN;
+		}
+		Double tf = Math.log(count/(numIndividualsInSubset + 1));
+		int n = this.getNumElementsForAttribute(classArray[row]);
+		Double idf = Math.log(numIndividualsInBackground / (1+n));
+		return tf*idf;
+	}
 
-	
+	/**
+	 * Dense: for large class indexes, prefer {@link #getCoAnnotatedClassesForMatches(List, Set, int)},
+	 * which uses a sparse matrix.
+	 * 
+	 * @param individualSubset
+	 * @return co-annotation counts of the individuals, by class index; only
+	 * the upper half, including the diagonal, is filled
+	 * @throws Exception
+	 */
 	public int[][] getSubsetCoannotationMatrix(Set<OWLNamedIndividual> individualSubset) throws Exception {
+		CoAnnotationMatrix matrix = createCoAnnotationMatrix(individualSubset, null, 1);
 		int[][] subsetCoaMatrix = new int[classArray.length][classArray.length];
-		//initialize matrix to 0
-		subsetCoaMatrix = this.initCoannotationMatrix(subsetCoaMatrix);
-		for (int i=0; i<classArray.length; i++) {
-			int cix = i;
-			if (classArray[i] == null) {
-				continue;
-			}
-			Set<OWLNamedIndividual> inds = getElementsForAttribute(classArray[i]);
-			//only keep those individuals that are in our desired subset of individuals
-			inds.retainAll(individualSubset);
-			for (OWLNamedIndividual e : inds) {
-				Set<OWLClass> jcs = this.getAttributesForElement(e);
-
-				for (OWLClass c : jcs) {
-					Integer dix = classIndex.get(c);
-					//only populate half of the cache
-					int temp;
-					if (i > dix) {
-						// swap
-						temp = cix;
-						cix = dix;
-						dix = temp;
-					}
-					subsetCoaMatrix[cix][dix] += 1;
+		for (int cix = 0; cix < classArray.length; cix++) {
+			for (int dix : matrix.getColumns(cix)) {
+				if (dix >= cix) {
+					subsetCoaMatrix[cix][dix] = matrix.get(cix, dix);
 				}
 			}
 		}
@@ -2504,43 +4122,148 @@ public class FastOwlSim extends AbstractOwlSim implements OwlSim {
 		return subsetCoaMatrix;
 	}
 	
+	/**
+	 * Builds the co-annotation matrix, if it was not built or loaded yet;
+	 * see {@link CoAnnotationMatrix}. Rows are computed concurrently, 
+	 * using {@link #getNumberOfThreads()} threads.
+	 * 
+	 * @throws Exception
+	 */
 	public void populateFullCoannotationMatrix() throws Exception {
+		getCoAnnotationMatrix();
+	}
+
+	/**
+	 * @return co-annotation counts, by class index; built if required
+	 * @throws Exception
+	 */
+	CoAnnotationMatrix getCoAnnotationMatrix() throws Exception {
+		CoAnnotationMatrix matrix = coAnnotationMatrix;
+		if (matrix == null) {
+			matrix = createCoAnnotationMatrix();
+		}
+		return matrix;
+	}
+
+	private synchronized CoAnnotationMatrix createCoAnnotationMatrix() throws Exception {
+		if (coAnnotationMatrix != null)
+			return coAnnotationMatrix;
 		//TODO use ICs to scale?
 		LOG.info("About to populate the full Co-annotation matrix");
-		coaMatrix = new int[classArray.length][classArray.length];
-		coaMatrix = this.initCoannotationMatrix(coaMatrix);
+		long t = System.currentTimeMillis();
+		CoAnnotationMatrix matrix;
+		if (numberOfThreads > 1) {
+			matrix = createCoAnnotationMatrix(getAllElements(), getWorkerPool(), numberOfThreads * 4);
+		}
+		else {
+			matrix = createCoAnnotationMatrix(getAllElements(), null, 1);
+		}
+		LOG.info("Finished populating the full coannotation matrix; entries: "+
+				matrix.getNumberOfEntries()+" ms = "+tdelta(t));
+		coAnnotationMatrix = matrix;
+		return matrix;
+	}
 
-		//initialize matrix to 0
-		for (int i=0; i<classArray.length; i++) {
-			int cix = i;
-			if (classArray[i] == null) {
+	/**
+	 * @param elements
+	 * @param pool - if non-null, rows are computed on this pool
+	 * @param numTasks
+	 * @return co-annotation counts of the elements, by class index
+	 * @throws Exception
+	 */
+	private CoAnnotationMatrix createCoAnnotationMatrix(Set<OWLNamedIndividual> elements,
+			ExecutorService pool, int numTasks) throws Exception {
+		// type bitmaps only hold owl:Thing implicitly, and the representative of
+		// equivalent classes; counts are for all classes in the index
+		List<List<Integer>> classesByRepresentative = new ArrayList<List<Integer>>(classArray.length);
+		for (int cix = 0; cix < classArray.length; cix++) {
+			classesByRepresentative.add(new ArrayList<Integer>(1));
+		}
+		for (int cix = 1; cix < classArray.length; cix++) {
+			if (classArray[cix] == null)
 				continue;
+			OWLClass rc = classTorepresentativeClassMap.get(classArray[cix]);
+			classesByRepresentative.get(getClassIndex(rc == null ? classArray[cix] : rc)).add(cix);
+		}
+		EWAHCompressedBitmap[] types = new EWAHCompressedBitmap[elements.size()];
+		int[][] directTypes = new int[elements.size()][];
+		int eix = 0;
+		for (OWLNamedIndividual e : elements) {
+			Set<Integer> cixs = new HashSet<Integer>();
+			cixs.add(classIndex.get(owlThing()));
+			IntIterator it = ancsBitmapCachedModifiable(e).intIterator();
+			while (it.hasNext()) {
+				cixs.addAll(classesByRepresentative.get(it.next()));
 			}
-			//LOG.info("i="+i+" class="+classArray[i].toStringID());
-			Set<OWLNamedIndividual> inds = this.getElementsForAttribute(classArray[i]);
-			for (OWLNamedIndividual e : inds) {
-				Set<OWLClass> jcs = this.getAttributesForElement(e);
-				
-				for (OWLClass c : jcs) {
-					Integer dix = classIndex.get(c);
-					//only populate half of the cache
-					int temp;
-					if (i > dix) {
-						// swap
-						temp = cix;
-						cix = dix;
-						dix = temp;
-					}
-					coaMatrix[cix][dix] = coaMatrix[cix][dix] + 1;
-				}
-			}
-			if (i % 100 == 0) {
-				LOG.info("Finished "+i);
+			types[eix] = convertIntsToBitmap(cixs);
+			Set<OWLClass> atts = getAttributesForElement(e);
+			int[] dixs = new int[atts.size()];
+			int n = 0;
+			for (OWLClass c : atts) {
+				Integer dix = classIndex.get(c);
+				if (dix != null)
+					dixs[n++] = dix;
 			}
+			directTypes[eix] = Arrays.copyOf(dixs, n);
+			eix++;
 		}
-		LOG.info("Finished populating the full coannotation matrix");
+		return CoAnnotationMatrix.create(classArray.length, types, directTypes, pool, numTasks);
+	}
 
-		return;
+	/**
+	 * Writes the co-annotation matrix in the binary format of {@link CoAnnotationMatrix};
+	 * the matrix is built first if required
+	 * 
+	 * @param fileName
+	 * @throws Exception
+	 */
+	public void saveCoAnnotationMatrix(String fileName) throws Exception {
+		CoAnnotationMatrix matrix = getCoAnnotationMatrix();
+		LOG.info("Saving co-annotation matrix to "+fileName);
+		matrix.save(new File(fileName), getCoAnnotationFingerprint());
+	}
+
+	/**
+	 * Loads a co-annotation matrix written by {@link #saveCoAnnotationMatrix(String)}
+	 * 
+	 * @param fileName
+	 * @throws IOException - if the ontology or the elements changed since
+	 * the matrix was written
+	 * @throws UnknownOWLClassException
+	 */
+	public synchronized void loadCoAnnotationMatrix(String fileName) throws IOException, UnknownOWLClassException {
+		if (classArray == null) {
+			createElementAttributeMapFromOntology();
+		}
+		coAnnotationMatrix = 
+				CoAnnotationMatrix.load(new File(fileName), classArray.length, getCoAnnotationFingerprint());
+		LOG.info("Loaded co-annotation matrix from "+fileName+"; entries: "+coAnnotationMatrix.getNumberOfEntries());
+	}
+
+	// fingerprint of the class index and the direct types of all elements
+	private long getCoAnnotationFingerprint() throws UnknownOWLClassException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		md.update(ByteBuffer.allocate(8).putLong(getClassIndexFingerprint()).array());
+		// independent of the order of the elements
+		List<String> elements = new ArrayList<String>();
+		for (OWLNamedIndividual i : getAllElements()) {
+			List<Integer> cixs = new ArrayList<Integer>();
+			for (OWLClass c : getAttributesForElement(i)) {
+				cixs.add(classIndex.get(c));
+			}
+			Collections.sort(cixs);
+			elements.add(i.getIRI().toString()+" "+cixs);
+		}
+		Collections.sort(elements);
+		for (String e : elements) {
+			md.update(e.getBytes(UTF8));
+		}
+		return ByteBuffer.wrap(md.digest()).getLong();
 	}
 	
 	public int[][] convertCountMatrixToFrequency(int[][] matrix, int normalizationFactor) {
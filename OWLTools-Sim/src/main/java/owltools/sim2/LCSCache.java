@@ -0,0 +1,337 @@
+package owltools.sim2;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Cache of the lowest common subsumer (LCS) for pairs of class indices.
+ * <p>
+ * The LCS is symmetric, so only the upper triangle (cix &lt;= dix) is
+ * stored, as a flat array of n*(n+1)/2 int slots. Each slot packs both the
+ * LCS index and whether the pair has been cached: 0 means not cached,
+ * otherwise the slot holds lcsix+1. As a single int is written per pair,
+ * a reader never sees a pair marked as cached without its LCS.
+ * <p>
+ * The slots are held either on the heap, or in a memory-mapped file. A
+ * mapped cache lives off-heap, and can be opened read-only by multiple
+ * processes on the same host, which then share the same physical pages.
+ * <p>
+ * File format (big-endian): a fixed-length header of {@link #HEADER_LENGTH} bytes
+ * <ul>
+ * <li>magic number (long)</li>
+ * <li>format version (int)</li>
+ * <li>number of classes in the class index (int)</li>
+ * <li>fingerprint of the class index (long)</li>
+ * </ul>
+ * followed by the slots, row by row. The fingerprint is supplied by the caller, and
+ * should change whenever the class index or the ontology changes; a file is
+ * only opened if its fingerprint matches.
+ * <p>
+ * Slots are split into segments, as a single buffer is limited to 2^31 bytes.
+ */
+public class LCSCache {
+
+	private static Logger LOG = Logger.getLogger(LCSCache.class);
+
+	/**
+	 * returned by {@link #get(int, int)} if there is no entry for a pair
+	 */
+	public static final int NOT_CACHED = -1;
+
+	// "OWLSIMLC"
+	private static final long MAGIC = 0x4F574C53494D4C43L;
+	private static final int VERSION = 1;
+
+	/**
+	 * length of the file header; slots start at this offset
+	 */
+	public static final int HEADER_LENGTH = 64;
+
+	// 2^28 ints (1Gb) per segment
+	private static final int SEGMENT_SHIFT = 28;
+	private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+	private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	private final int size;
+	private final long numSlots;
+	private final IntBuffer[] segments;
+	private final boolean isReadOnly;
+	private RandomAccessFile file = null;
+	private MappedByteBuffer[] mappedSegments = null;
+
+	/**
+	 * Creates an empty heap-backed cache
+	 *
+	 * @param size - number of classes in the class index
+	 */
+	public LCSCache(int size) {
+		this.size = size;
+		this.numSlots = getNumberOfSlots(size);
+		this.isReadOnly = false;
+		int numSegments = getNumberOfSegments(numSlots);
+		segments = new IntBuffer[numSegments];
+		for (int i = 0; i < numSegments; i++) {
+			segments[i] = IntBuffer.allocate(getSegmentLength(i));
+		}
+	}
+
+	private LCSCache(int size, RandomAccessFile file, long offset, boolean isReadOnly) throws IOException {
+		this.size = size;
+		this.numSlots = getNumberOfSlots(size);
+		this.isReadOnly = isReadOnly;
+		this.file = file;
+		FileChannel channel = file.getChannel();
+		MapMode mode = isReadOnly ? MapMode.READ_ONLY : MapMode.READ_WRITE;
+		int numSegments = getNumberOfSegments(numSlots);
+		segments = new IntBuffer[numSegments];
+		mappedSegments = new MappedByteBuffer[numSegments];
+		for (int i = 0; i < numSegments; i++) {
+			long start = offset + (i * SEGMENT_SIZE * 4);
+			mappedSegments[i] = channel.map(mode, start, getSegmentLength(i) * 4L);
+			segments[i] = mappedSegments[i].order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+		}
+	}
+
+	/**
+	 * Maps a cache file into memory.
+	 * <p>
+	 * If the file is opened for writing and does not exist (or is empty), it
+	 * is created, with no pairs cached.
+	 *
+	 * @param f
+	 * @param size - number of classes in the class index
+	 * @param fingerprint - fingerprint of the class index
+	 * @param isReadOnly - if true, the file must already exist, and the
+	 * cache cannot be modified
+	 * @return cache backed by f
+	 * @throws IOException - if the file is not a cache file, or was created for
+	 * a different class index
+	 */
+	public static LCSCache open(File f, int size, long fingerprint, boolean isReadOnly) throws IOException {
+		long requiredLength = HEADER_LENGTH + getNumberOfSlots(size) * 4;
+		RandomAccessFile raf = new RandomAccessFile(f, isReadOnly ? "r" : "rw");
+		try {
+			if (raf.length() == 0 && !isReadOnly) {
+				writeHeader(raf, size, fingerprint);
+				raf.setLength(requiredLength);
+			}
+			else {
+				checkHeader(f, raf, size, fingerprint);
+				if (raf.length() < requiredLength) {
+					throw new IOException("LCS cache file "+f+" is truncated; expected "+
+							requiredLength+" bytes, found "+raf.length());
+				}
+			}
+			LOG.info("Mapping LCS cache "+f+" for "+size+" classes; read only: "+isReadOnly);
+			return new LCSCache(size, raf, HEADER_LENGTH, isReadOnly);
+		}
+		catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @param f
+	 * @return true if f starts with the magic number of an LCS cache file
+	 * @throws IOException
+	 */
+	public static boolean isLCSCacheFile(File f) throws IOException {
+		if (f.length() < HEADER_LENGTH) {
+			return false;
+		}
+		DataInputStream in = new DataInputStream(new FileInputStream(f));
+		try {
+			return in.readLong() == MAGIC;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static void writeHeader(DataOutput out, int size, long fingerprint) throws IOException {
+		out.writeLong(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(size);
+		out.writeLong(fingerprint);
+		// reserved
+		out.write(new byte[HEADER_LENGTH - 24]);
+	}
+
+	private static void checkHeader(File f, DataInput in, int size, long fingerprint) throws IOException {
+		if (in.readLong() != MAGIC) {
+			throw new IOException("Not an LCS cache file: "+f);
+		}
+		int version = in.readInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported LCS cache version "+version+" in "+f);
+		}
+		int fileSize = in.readInt();
+		long fileFingerprint = in.readLong();
+		if (fileSize != size || fileFingerprint != fingerprint) {
+			throw new IOException("LCS cache "+f+" was created for a different ontology or class index"+
+					" (classes: "+fileSize+", expected: "+size+")");
+		}
+	}
+
+	/**
+	 * Writes the cache to a file, which can be opened using
+	 * {@link #open(File, int, long, boolean)}
+	 *
+	 * @param f
+	 * @param fingerprint - fingerprint of the class index
+	 * @param isExcluded - if non-null, pairs whose LCS index is set in this array are not written
+	 * @throws IOException
+	 */
+	public void save(File f, long fingerprint, boolean[] isExcluded) throws IOException {
+		DataOutputStream out = 
+				new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+		try {
+			writeHeader(out, size, fingerprint);
+			for (IntBuffer segment : segments) {
+				for (int i = 0; i < segment.limit(); i++) {
+					int v = segment.get(i);
+					if (v != 0 && isExcluded != null && isExcluded[v - 1]) {
+						v = 0;
+					}
+					out.writeInt(v);
+				}
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @param size
+	 * @return number of slots required for the upper triangle of a size * size matrix
+	 */
+	public static long getNumberOfSlots(int size) {
+		return ((long)size * (size + 1)) / 2;
+	}
+
+	private static int getNumberOfSegments(long numSlots) {
+		return (int) ((numSlots + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+	}
+
+	private int getSegmentLength(int segment) {
+		return (int) Math.min(SEGMENT_SIZE, numSlots - (segment * SEGMENT_SIZE));
+	}
+
+	// position of (cix,dix) in the flattened upper triangle; assumes cix <= dix
+	private long getSlot(int cix, int dix) {
+		return (long)cix * size - ((long)cix * (cix - 1)) / 2 + (dix - cix);
+	}
+
+	/**
+	 * @param cix
+	 * @param dix
+	 * @return index of the LCS of cix and dix, or {@link #NOT_CACHED}
+	 */
+	public int get(int cix, int dix) {
+		if (cix > dix) {
+			int temp = cix;
+			cix = dix;
+			dix = temp;
+		}
+		long slot = getSlot(cix, dix);
+		return segments[(int) (slot >>> SEGMENT_SHIFT)].get((int) (slot & SEGMENT_MASK)) - 1;
+	}
+
+	/**
+	 * @param cix
+	 * @param dix
+	 * @param lcsix - index of the LCS of cix and dix
+	 */
+	public void put(int cix, int dix, int lcsix) {
+		if (isReadOnly) {
+			throw new UnsupportedOperationException("LCS cache is read only");
+		}
+		if (cix > dix) {
+			int temp = cix;
+			cix = dix;
+			dix = temp;
+		}
+		long slot = getSlot(cix, dix);
+		segments[(int) (slot >>> SEGMENT_SHIFT)].put((int) (slot & SEGMENT_MASK), lcsix + 1);
+	}
+
+	/**
+	 * Removes the entry for a pair, if any
+	 *
+	 * @param cix
+	 * @param dix
+	 */
+	public void remove(int cix, int dix) {
+		put(cix, dix, NOT_CACHED);
+	}
+
+	/**
+	 * @return number of classes in the class index
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return number of pairs in the upper triangle
+	 */
+	public long getNumberOfSlots() {
+		return numSlots;
+	}
+
+	/**
+	 * @return true if the cache may not be modified
+	 */
+	public boolean isReadOnly() {
+		return isReadOnly;
+	}
+
+	/**
+	 * @return true if the cache is backed by a memory-mapped file
+	 */
+	public boolean isMapped() {
+		return mappedSegments != null;
+	}
+
+	/**
+	 * Writes any modifications of a mapped cache to disk
+	 */
+	public void flush() {
+		if (mappedSegments != null && !isReadOnly) {
+			for (MappedByteBuffer b : mappedSegments) {
+				b.force();
+			}
+		}
+	}
+
+	/**
+	 * Flushes and closes the underlying file, if any. The mapping itself is
+	 * released once the cache is garbage collected.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (file != null) {
+			flush();
+			file.close();
+			file = null;
+		}
+	}
+}
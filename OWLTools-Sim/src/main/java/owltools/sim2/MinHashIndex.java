@@ -0,0 +1,211 @@
+package owltools.sim2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import com.googlecode.javaewah.IntIterator;
+
+/**
+ * Locality-sensitive hashing (LSH) index for finding elements with a
+ * high Jaccard similarity (SimJ) to a query profile, without comparing
+ * the query to every element.
+ * <p>
+ * Each element is summarized by a MinHash signature of its inferred types:
+ * for each of b * r hash functions, the minimum hash value over all types.
+ * Two elements have the same value for a hash function with a probability
+ * equal to their SimJ. The signature is split into b bands of r rows; elements
+ * with identical values for all rows of at least one band are placed in the same bucket.
+ * The candidates for a query are the elements that share a bucket with it.
+ * <p>
+ * An element with SimJ s is found with probability 1 - (1 - s<sup>r</sup>)<sup>b</sup>;
+ * this rises steeply around s = (1/b)<sup>1/r</sup>. More bands increase recall,
+ * more rows per band reduce the number of false candidates.
+ * <p>
+ * The index is immutable; it must be rebuilt if the class index or the
+ * element types change.
+ */
+public class MinHashIndex {
+
+	private final OWLNamedIndividual[] elements;
+	private final int numberOfBands;
+	private final int rowsPerBand;
+	private final long[] hashSeeds;
+	// bucket key to element indices, by band
+	private final List<Map<Long, int[]>> buckets;
+
+	/**
+	 * @param elements - elements, by element index
+	 * @param elementTypeBitmaps - inferred types of each element, by element index
+	 * @param numberOfBands
+	 * @param rowsPerBand
+	 * @param seed - seed for the hash functions
+	 */
+	public MinHashIndex(OWLNamedIndividual[] elements, EWAHCompressedBitmap[] elementTypeBitmaps,
+			int numberOfBands, int rowsPerBand, long seed) {
+		if (numberOfBands < 1 || rowsPerBand < 1) {
+			throw new IllegalArgumentException("number of bands and rows per band must be >= 1");
+		}
+		this.elements = elements;
+		this.numberOfBands = numberOfBands;
+		this.rowsPerBand = rowsPerBand;
+		hashSeeds = new long[numberOfBands * rowsPerBand];
+		Random random = new Random(seed);
+		for (int h = 0; h < hashSeeds.length; h++) {
+			hashSeeds[h] = random.nextLong();
+		}
+
+		List<Map<Long, List<Integer>>> bucketLists = new ArrayList<Map<Long, List<Integer>>>(numberOfBands);
+		for (int band = 0; band < numberOfBands; band++) {
+			bucketLists.add(new HashMap<Long, List<Integer>>());
+		}
+		for (int eix = 0; eix < elementTypeBitmaps.length; eix++) {
+			// elements without types would all share the same buckets
+			if (elementTypeBitmaps[eix] == null || elementTypeBitmaps[eix].cardinality() == 0)
+				continue;
+			long[] signature = getSignature(elementTypeBitmaps[eix]);
+			for (int band = 0; band < numberOfBands; band++) {
+				Long key = getBucketKey(signature, band);
+				List<Integer> bucket = bucketLists.get(band).get(key);
+				if (bucket == null) {
+					bucket = new ArrayList<Integer>(1);
+					bucketLists.get(band).put(key, bucket);
+				}
+				bucket.add(eix);
+			}
+		}
+
+		// compact the buckets
+		buckets = new ArrayList<Map<Long, int[]>>(numberOfBands);
+		for (Map<Long, List<Integer>> bandBuckets : bucketLists) {
+			Map<Long, int[]> compactBuckets = new HashMap<Long, int[]>(bandBuckets.size() * 2);
+			for (Map.Entry<Long, List<Integer>> e : bandBuckets.entrySet()) {
+				List<Integer> bucket = e.getValue();
+				int[] eixs = new int[bucket.size()];
+				for (int n = 0; n < eixs.length; n++) {
+					eixs[n] = bucket.get(n);
+				}
+				compactBuckets.put(e.getKey(), eixs);
+			}
+			buckets.add(compactBuckets);
+		}
+	}
+
+	/**
+	 * @param bm - a set of class indices
+	 * @return MinHash signature, numberOfBands * rowsPerBand values
+	 */
+	public long[] getSignature(EWAHCompressedBitmap bm) {
+		long[] signature = new long[hashSeeds.length];
+		Arrays.fill(signature, Long.MAX_VALUE);
+		IntIterator it = bm.intIterator();
+		while (it.hasNext()) {
+			int cix = it.next();
+			for (int h = 0; h < hashSeeds.length; h++) {
+				long v = hash(cix, hashSeeds[h]);
+				if (v < signature[h])
+					signature[h] = v;
+			}
+		}
+		return signature;
+	}
+
+	/**
+	 * @param s1
+	 * @param s2
+	 * @return fraction of equal values, an estimate of the SimJ of the two sets
+	 */
+	public static double estimateSimJ(long[] s1, long[] s2) {
+		int n = 0;
+		for (int h = 0; h < s1.length; h++) {
+			if (s1[h] == s2[h])
+				n++;
+		}
+		return n / (double) s1.length;
+	}
+
+	/**
+	 * @param profileBM - reflexive closure of a query profile, as class indices
+	 * @return elements that share a bucket with the profile in at least one band,
+	 * in element index order
+	 */
+	public List<OWLNamedIndividual> getCandidates(EWAHCompressedBitmap profileBM) {
+		List<OWLNamedIndividual> candidates = new ArrayList<OWLNamedIndividual>();
+		if (profileBM.cardinality() == 0)
+			return candidates;
+		long[] signature = getSignature(profileBM);
+		// members of all matching buckets, sorted and deduplicated, so that the
+		// cost depends on the size of the buckets rather than of the corpus
+		List<int[]> matchingBuckets = new ArrayList<int[]>(numberOfBands);
+		int n = 0;
+		for (int band = 0; band < numberOfBands; band++) {
+			int[] bucket = buckets.get(band).get(getBucketKey(signature, band));
+			if (bucket == null)
+				continue;
+			matchingBuckets.add(bucket);
+			n += bucket.length;
+		}
+		int[] eixs = new int[n];
+		n = 0;
+		for (int[] bucket : matchingBuckets) {
+			System.arraycopy(bucket, 0, eixs, n, bucket.length);
+			n += bucket.length;
+		}
+		Arrays.sort(eixs);
+		for (int k = 0; k < eixs.length; k++) {
+			if (k == 0 || eixs[k] != eixs[k - 1])
+				candidates.add(elements[eixs[k]]);
+		}
+		return candidates;
+	}
+
+	/**
+	 * @return number of bands
+	 */
+	public int getNumberOfBands() {
+		return numberOfBands;
+	}
+
+	/**
+	 * @return number of signature values hashed together in each band
+	 */
+	public int getRowsPerBand() {
+		return rowsPerBand;
+	}
+
+	/**
+	 * @return total number of non-empty buckets, over all bands
+	 */
+	public int getNumberOfBuckets() {
+		int n = 0;
+		for (Map<Long, int[]> bandBuckets : buckets) {
+			n += bandBuckets.size();
+		}
+		return n;
+	}
+
+	private Long getBucketKey(long[] signature, int band) {
+		long key = band;
+		for (int row = band * rowsPerBand; row < (band + 1) * rowsPerBand; row++) {
+			key = key * 31 + signature[row];
+		}
+		return key;
+	}
+
+	// 64 bit finalizer of MurmurHash3
+	private static long hash(int x, long seed) {
+		long h = x ^ seed;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
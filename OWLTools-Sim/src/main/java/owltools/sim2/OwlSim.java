@@ -26,6 +26,7 @@ import owltools.sim2.FastOwlSim.ClassCount;
 import owltools.sim2.SimpleOwlSim.Direction;
 import owltools.sim2.SimpleOwlSim.Metric;
 import owltools.sim2.SimpleOwlSim.SimConfigurationProperty;
+import owltools.sim2.io.SimResultRenderer;
 import owltools.sim2.io.SimResultRenderer.AttributesSimScores;
 import owltools.sim2.scores.AttributePairScores;
 import owltools.sim2.scores.ElementPairScores;
@@ -759,7 +760,24 @@ public interface OwlSim {
 	public List<ElementPairScores> findMatches(OWLNamedIndividual i, String targetIdSpace, double minSimJPct, double minMaxIC) throws Exception;
 
 	public List<ElementPairScores> findMatchesWithin(OWLNamedIndividual i, Set<OWLNamedIndividual> candidateTargets) throws Exception;
-	
+
+	/**
+	 * Finds matches for a batch of query profiles, using the default cutoffs,
+	 * and writes them to a renderer.
+	 * <p>
+	 * The ranked matches of each query are written as a block, with the query
+	 * as the first element of each pair, as soon as they are available.
+	 * The result for a query is the same as that of {@link #findMatches(Set, String)}
+	 * (or the top k matches, if k &gt; 0).
+	 *
+	 * @param queries - attributes of each query
+	 * @param targetIdSpace
+	 * @param k - if &gt; 0, only the top k matches of each query are written
+	 * @param renderer
+	 * @throws Exception
+	 */
+	public void findMatchesForAll(Map<OWLNamedIndividual, Set<OWLClass>> queries, String targetIdSpace, int k, SimResultRenderer renderer) throws Exception;
+
 	/**
 	 * Resnick similarity measure, together with all LCSs (MICAs) that
 	 * have this as IC
@@ -1163,6 +1181,7 @@ public interface OwlSim {
 	public List<ClassCount> getCoannotatedClassesForAttribute(OWLClass c, int numIndividualsInBackground) throws Exception ;
 	public List<ClassCount> getCoannotatedClassesForAttribute(OWLClass c) throws Exception;
 	public List<ClassCount> getCoannotatedClassesForAttribute(OWLClass c, Double cutoff, int numIndividualsInBackground) throws Exception ;
+	public List<ClassCount> getCoannotatedClassesForAttribute(OWLClass c, Double cutoff, int numIndividualsInBackground, int limit) throws Exception ;
 	
 	public List<ClassCount> getCoAnnotatedClassesForIndividual(OWLNamedIndividual i) throws Exception ;
 	public List<ClassCount> getCoAnnotatedClassesForIndividual(OWLNamedIndividual i, int matchCutoff) throws Exception ;
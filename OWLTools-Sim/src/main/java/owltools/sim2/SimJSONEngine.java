@@ -490,7 +490,8 @@ public class SimJSONEngine {
 	
 	public String getCoAnnotationListForAttribute(OWLClass c, int limit) throws Exception {
 		Gson gson = new Gson();
-		List<ClassCount> classCounts = sos.getCoannotatedClassesForAttribute(c);
+		List<ClassCount> classCounts = 
+				sos.getCoannotatedClassesForAttribute(c, 0.0, sos.getAllElements().size(), limit);
 		return gson.toJson(makeCoAnnotationList(classCounts, limit));
 	}
 
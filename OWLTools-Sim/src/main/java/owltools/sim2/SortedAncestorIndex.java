@@ -0,0 +1,132 @@
+package owltools.sim2;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import com.googlecode.javaewah.IntIterator;
+
+/**
+ * Index of the reflexive ancestors of each class, sorted by descending
+ * information content (IC).
+ * <p>
+ * All lists share a single total order: descending IC, then ascending class index.
+ * The common ancestor with the highest IC of two classes is therefore the
+ * first element the two lists share, and can be found by walking both
+ * lists in step, as in a merge, without creating any bitmap.
+ * As IC never decreases from a class to its subclasses, this is also a lowest
+ * common subsumer (LCS) with maximal IC.
+ * <p>
+ * The index is immutable; it must be rebuilt if the class index or the ICs change.
+ */
+public class SortedAncestorIndex {
+
+	/**
+	 * returned by {@link #getLowestCommonSubsumer(int, int)} if there is no common ancestor
+	 */
+	public static final int NONE = -1;
+
+	private final int[][] ancestors;
+	private final double[] ic;
+
+	/**
+	 * @param ancestorBitmaps - reflexive ancestors, by class index; may contain null
+	 * @param ic - IC by class index; must be set for every ancestor
+	 */
+	public SortedAncestorIndex(EWAHCompressedBitmap[] ancestorBitmaps, double[] ic) {
+		this.ic = ic;
+		ancestors = new int[ancestorBitmaps.length][];
+		for (int cix = 0; cix < ancestorBitmaps.length; cix++) {
+			if (ancestorBitmaps[cix] == null) {
+				ancestors[cix] = new int[0];
+				continue;
+			}
+			ancestors[cix] = sort(ancestorBitmaps[cix]);
+		}
+	}
+
+	// sorts the ancestors of a class on (IC desc, index asc)
+	private int[] sort(EWAHCompressedBitmap bm) {
+		Integer[] ixs = new Integer[bm.cardinality()];
+		IntIterator it = bm.intIterator();
+		int i = 0;
+		while (it.hasNext()) {
+			ixs[i++] = it.next();
+		}
+		Arrays.sort(ixs, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				if (a.equals(b))
+					return 0;
+				return isBefore(a, b) ? -1 : 1;
+			}
+		});
+		int[] sorted = new int[ixs.length];
+		for (i = 0; i < ixs.length; i++) {
+			sorted[i] = ixs[i];
+		}
+		return sorted;
+	}
+
+	// true if a precedes b in the order shared by all lists
+	private boolean isBefore(int a, int b) {
+		return ic[a] > ic[b] || (ic[a] == ic[b] && a < b);
+	}
+
+	/**
+	 * @param cix
+	 * @return reflexive ancestors of cix, by descending IC. Must not be modified
+	 */
+	public int[] getAncestors(int cix) {
+		return ancestors[cix];
+	}
+
+	/**
+	 * @param cix
+	 * @return IC of cix
+	 */
+	public double getInformationContent(int cix) {
+		return ic[cix];
+	}
+
+	/**
+	 * Walks the ancestor lists of both classes in step, stopping at the first
+	 * common ancestor
+	 *
+	 * @param cix
+	 * @param dix
+	 * @return index of the common ancestor with the highest IC, or {@link #NONE}
+	 */
+	public int getLowestCommonSubsumer(int cix, int dix) {
+		int[] a = ancestors[cix];
+		int[] b = ancestors[dix];
+		int i = 0;
+		int j = 0;
+		while (i < a.length && j < b.length) {
+			int x = a[i];
+			int y = b[j];
+			if (x == y) {
+				return x;
+			}
+			// the earlier of the two cannot occur in the rest of the other list
+			if (isBefore(x, y)) {
+				i++;
+			}
+			else {
+				j++;
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * @return total number of ancestor entries in the index
+	 */
+	public long getNumberOfEntries() {
+		long n = 0;
+		for (int[] a : ancestors) {
+			n += a.length;
+		}
+		return n;
+	}
+}
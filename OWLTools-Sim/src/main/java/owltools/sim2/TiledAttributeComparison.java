@@ -0,0 +1,537 @@
+package owltools.sim2;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.semanticweb.owlapi.model.OWLClass;
+
+import owltools.sim2.OwlSim.ScoreAttributeSetPair;
+import owltools.sim2.SimpleOwlSim.Metric;
+import owltools.sim2.io.OrderedPairScoresWriter;
+import owltools.sim2.io.SimResultRenderer;
+import owltools.sim2.scores.AttributePairScores;
+
+/**
+ * All by all comparison of attribute classes, split into tiles that are
+ * scored in parallel.
+ * <p>
+ * The row and column classes are merged into a single list, sorted by IRI,
+ * and the matrix of pairs over that list is divided into square tiles. Only
+ * the tiles on or above the diagonal are computed: each unordered pair {c,d}
+ * is scored once, and reported as (c,d) and/or (d,c), depending on which of
+ * c and d are row and column classes.
+ * <p>
+ * Tiles are written in order through an {@link OrderedPairScoresWriter}, so the
+ * output only depends on the tile size, not on the number of threads. Within a
+ * tile, pairs are ordered by position in the sorted class list.
+ * <p>
+ * A pair is the best match for its row class if no other pair in the row has a
+ * higher simJ. As rows are spread over many tiles, the best simJ of each row is
+ * computed in a first pass, before any pair is written.
+ * <p>
+ * If a checkpoint file is set, each tile is recorded in it once written, together
+ * with the length of the output file at that point. A run with the same checkpoint
+ * resumes after the last recorded tile: see {@link #openCheckpoint(File, File)}.
+ */
+public class TiledAttributeComparison {
+
+	private static Logger LOG = Logger.getLogger(TiledAttributeComparison.class);
+
+	private static final String CHECKPOINT_HEADER = "# tiled-attribute-comparison";
+
+	private final OwlSim sim;
+	// all row and column classes, sorted
+	private final OWLClass[] classes;
+	private final boolean[] isRowClass;
+	private final boolean[] isColumnClass;
+	private final boolean isDescendingPairsOnly;
+
+	private Set<Metric> metrics = Collections.singleton(Metric.SIMJ);
+	private Double minimumSimJ = null;
+	private boolean isBestOnly = false;
+	private int numberOfThreads = 1;
+	private int tileSize = 256;
+	private int maxPendingTiles = 0;
+
+	private File checkpointFile = null;
+	private File outputFile = null;
+	private Set<Integer> checkpointedTiles = new HashSet<Integer>();
+
+	// best simJ for each row class, by position in classes
+	private double[] maxSimJ;
+	private final AtomicLong numberOfPairsScored = new AtomicLong();
+
+	/**
+	 * @param sim
+	 * @param rowClasses - classes compared, i.e. c in each pair (c,d)
+	 * @param columnClasses - classes compared against, i.e. d in each pair (c,d)
+	 * @param isDescendingPairsOnly - if true, only pairs (c,d) with c &gt; d are
+	 *  compared; this is the default for a comparison of a set with itself
+	 */
+	public TiledAttributeComparison(OwlSim sim, Set<OWLClass> rowClasses,
+			Set<OWLClass> columnClasses, boolean isDescendingPairsOnly) {
+		this.sim = sim;
+		Set<OWLClass> all = new TreeSet<OWLClass>(rowClasses);
+		all.addAll(columnClasses);
+		classes = all.toArray(new OWLClass[all.size()]);
+		isRowClass = new boolean[classes.length];
+		isColumnClass = new boolean[classes.length];
+		for (int p = 0; p < classes.length; p++) {
+			isRowClass[p] = rowClasses.contains(classes[p]);
+			isColumnClass[p] = columnClasses.contains(classes[p]);
+		}
+		this.isDescendingPairsOnly = isDescendingPairsOnly;
+	}
+
+	/**
+	 * @param metrics - SIMJ (or JACCARD), LCSIC and GIC are computed
+	 */
+	public void setMetrics(Set<Metric> metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @param minimumSimJ - pairs with a lower simJ are not reported; may be null
+	 */
+	public void setMinimumSimJ(Double minimumSimJ) {
+		this.minimumSimJ = minimumSimJ;
+	}
+
+	/**
+	 * @param isBestOnly - if true, only the best matches for each row class are reported
+	 */
+	public void setBestOnly(boolean isBestOnly) {
+		this.isBestOnly = isBestOnly;
+	}
+
+	/**
+	 * Only a {@link FastOwlSim} can be shared by worker threads; other
+	 * implementations are always compared with a single thread.
+	 *
+	 * @param numberOfThreads
+	 */
+	public void setNumberOfThreads(int numberOfThreads) {
+		if (numberOfThreads < 1) {
+			throw new IllegalArgumentException("Number of threads must be at least 1: "+numberOfThreads);
+		}
+		this.numberOfThreads = numberOfThreads;
+	}
+
+	/**
+	 * @param tileSize - number of classes along each side of a tile
+	 */
+	public void setTileSize(int tileSize) {
+		if (tileSize < 1) {
+			throw new IllegalArgumentException("Tile size must be at least 1: "+tileSize);
+		}
+		this.tileSize = tileSize;
+	}
+
+	/**
+	 * @param maxPendingTiles - maximum number of scored tiles held in memory
+	 *  while waiting to be written; defaults to four per thread
+	 */
+	public void setMaxPendingTiles(int maxPendingTiles) {
+		this.maxPendingTiles = maxPendingTiles;
+	}
+
+	/**
+	 * @return number of tiles; tiles are numbered from 0
+	 */
+	public int getNumberOfTiles() {
+		int n = getNumberOfBlocks();
+		return n * (n + 1) / 2;
+	}
+
+	/**
+	 * @return number of unordered pairs scored by the last run
+	 */
+	public long getNumberOfPairsScored() {
+		return numberOfPairsScored.get();
+	}
+
+	private int getNumberOfBlocks() {
+		return (classes.length + tileSize - 1) / tileSize;
+	}
+
+	/**
+	 * Sets the checkpoint file, and prepares the output file for resuming a previous run.
+	 * <p>
+	 * If the checkpoint file exists, it must have been written with the same
+	 * classes and tile size. The output file is then truncated to its length
+	 * after the last recorded tile, discarding any partly written tile, and
+	 * must be opened for appending. Call before the output file is opened.
+	 *
+	 * @param checkpointFile
+	 * @param outputFile - file the results are written to
+	 * @return true if resuming a previous run, i.e. the output already contains some tiles
+	 * @throws IOException
+	 */
+	public boolean openCheckpoint(File checkpointFile, File outputFile) throws IOException {
+		this.checkpointFile = checkpointFile;
+		this.outputFile = outputFile;
+		checkpointedTiles.clear();
+		if (!checkpointFile.exists()) {
+			PrintStream out = new PrintStream(new FileOutputStream(checkpointFile));
+			try {
+				out.println(getCheckpointHeader());
+			}
+			finally {
+				out.close();
+			}
+			return false;
+		}
+		String[] lines = readCheckpoint(checkpointFile);
+		if (lines.length == 0 || !getCheckpointHeader().equals(lines[0])) {
+			throw new IOException("Checkpoint "+checkpointFile+" was written for a different comparison");
+		}
+		long outputLength = 0;
+		for (int n = 1; n < lines.length; n++) {
+			String[] vals = lines[n].split("\t");
+			checkpointedTiles.add(Integer.valueOf(vals[0]));
+			outputLength = Long.parseLong(vals[1]);
+		}
+		if (outputFile.exists()) {
+			if (outputFile.length() < outputLength) {
+				throw new IOException("Output "+outputFile+" is shorter than recorded in checkpoint "+checkpointFile);
+			}
+			RandomAccessFile raf = new RandomAccessFile(outputFile, "rw");
+			try {
+				raf.setLength(outputLength);
+			}
+			finally {
+				raf.close();
+			}
+		}
+		else if (outputLength > 0) {
+			throw new IOException("Output "+outputFile+" is missing for checkpoint "+checkpointFile);
+		}
+		LOG.info("Resuming from checkpoint "+checkpointFile+", tiles done: "+
+				checkpointedTiles.size()+" / "+getNumberOfTiles());
+		return !checkpointedTiles.isEmpty();
+	}
+
+	/**
+	 * @param checkpointFile
+	 * @return complete lines; the last line may have been cut short if the previous run was killed
+	 * @throws IOException
+	 */
+	private String[] readCheckpoint(File checkpointFile) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		Reader reader = new BufferedReader(new FileReader(checkpointFile));
+		try {
+			char[] buf = new char[8192];
+			int n;
+			while ((n = reader.read(buf)) != -1) {
+				sb.append(buf, 0, n);
+			}
+		}
+		finally {
+			reader.close();
+		}
+		int end = sb.lastIndexOf("\n");
+		if (end < 0) {
+			return new String[0];
+		}
+		return sb.substring(0, end).split("\n");
+	}
+
+	private String getCheckpointHeader() {
+		return CHECKPOINT_HEADER+"\tclasses="+classes.length+"\ttileSize="+tileSize+
+				"\tdescending="+isDescendingPairsOnly;
+	}
+
+	/**
+	 * Scores all pairs, and writes them to the renderer.
+	 * The renderer is flushed after each tile, but not disposed.
+	 *
+	 * @param renderer
+	 * @throws UnknownOWLClassException
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void run(SimResultRenderer renderer)
+			throws UnknownOWLClassException, IOException, InterruptedException {
+		int nThreads = numberOfThreads;
+		if (sim instanceof FastOwlSim) {
+			((FastOwlSim) sim).prepareForConcurrentSearch();
+		}
+		else if (nThreads > 1) {
+			LOG.warn("Concurrent comparison is not supported by "+sim.getClass().getSimpleName()+
+					", using a single thread");
+			nThreads = 1;
+		}
+		int numTiles = getNumberOfTiles();
+		LOG.info("All by all for "+classes.length+" classes, tiles: "+numTiles+
+				", tile size: "+tileSize+", threads: "+nThreads);
+		numberOfPairsScored.set(0);
+		long t = System.currentTimeMillis();
+
+		ExecutorService pool = createPool(nThreads);
+		try {
+			maxSimJ = null;
+			if (isSimJ()) {
+				computeMaxSimJ(pool, numTiles);
+				LOG.info("Computed best simJ for each class, ms = "+(System.currentTimeMillis() - t));
+			}
+			writeTiles(pool, numTiles, renderer, nThreads);
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		LOG.info("FINISHED All by all for "+classes.length+" classes, pairs scored = "+
+				numberOfPairsScored.get()+", ms = "+(System.currentTimeMillis() - t));
+	}
+
+	private ExecutorService createPool(int nThreads) {
+		return Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+			private int n = 0;
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "owlsim-tile-worker-"+(n++));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	private boolean isSimJ() {
+		return metrics.contains(Metric.SIMJ) || metrics.contains(Metric.JACCARD);
+	}
+
+	/**
+	 * First pass: simJ only, over all tiles, including those already checkpointed,
+	 * as their pairs may still be the best for a row that continues in a later tile.
+	 */
+	private void computeMaxSimJ(ExecutorService pool, int numTiles)
+			throws IOException, InterruptedException {
+		maxSimJ = new double[classes.length];
+		Arrays.fill(maxSimJ, Double.NEGATIVE_INFINITY);
+		List<Future<?>> tasks = new ArrayList<Future<?>>(numTiles);
+		for (int tile = 0; tile < numTiles; tile++) {
+			final int[] blocks = getBlocks(tile);
+			tasks.add(pool.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					updateMaxSimJ(blocks[0], blocks[1]);
+					return null;
+				}
+			}));
+		}
+		awaitCompletion(tasks);
+	}
+
+	private void updateMaxSimJ(int rowBlock, int columnBlock) throws UnknownOWLClassException {
+		int pStart = rowBlock * tileSize;
+		int qStart = columnBlock * tileSize;
+		double[] rowMax = new double[tileSize];
+		double[] columnMax = new double[tileSize];
+		Arrays.fill(rowMax, Double.NEGATIVE_INFINITY);
+		Arrays.fill(columnMax, Double.NEGATIVE_INFINITY);
+		int pEnd = Math.min(pStart + tileSize, classes.length);
+		int qEnd = Math.min(qStart + tileSize, classes.length);
+		for (int p = pStart; p < pEnd; p++) {
+			for (int q = rowBlock == columnBlock ? p : qStart; q < qEnd; q++) {
+				boolean isForward = isSelected(p, q);
+				boolean isBackward = p != q && isSelected(q, p);
+				if (!isForward && !isBackward)
+					continue;
+				double simj = sim.getAttributeJaccardSimilarity(classes[p], classes[q]);
+				if (minimumSimJ != null && simj < minimumSimJ)
+					continue;
+				if (isForward && simj > rowMax[p - pStart])
+					rowMax[p - pStart] = simj;
+				if (isBackward && simj > columnMax[q - qStart])
+					columnMax[q - qStart] = simj;
+			}
+		}
+		synchronized (maxSimJ) {
+			for (int p = pStart; p < pEnd; p++) {
+				maxSimJ[p] = Math.max(maxSimJ[p], rowMax[p - pStart]);
+			}
+			for (int q = qStart; q < qEnd; q++) {
+				maxSimJ[q] = Math.max(maxSimJ[q], columnMax[q - qStart]);
+			}
+		}
+	}
+
+	/**
+	 * Second pass: all metrics, written in tile order.
+	 */
+	private void writeTiles(ExecutorService pool, int numTiles, SimResultRenderer renderer,
+			int nThreads) throws IOException, InterruptedException {
+		int maxPending = maxPendingTiles > 0 ? maxPendingTiles : 4 * nThreads;
+		final OrderedPairScoresWriter writer = new OrderedPairScoresWriter(renderer, maxPending);
+		if (checkpointFile != null) {
+			final PrintStream checkpoint = new PrintStream(new FileOutputStream(checkpointFile, true));
+			writer.setBatchListener(new OrderedPairScoresWriter.BatchListener() {
+				@Override
+				public void batchWritten(int tile) throws IOException {
+					checkpoint.println(tile+"\t"+outputFile.length());
+					checkpoint.flush();
+					if (checkpoint.checkError()) {
+						throw new IOException("Could not write to checkpoint "+checkpointFile);
+					}
+				}
+			});
+			try {
+				submitTiles(pool, writer, numTiles);
+			}
+			finally {
+				checkpoint.close();
+			}
+		}
+		else {
+			submitTiles(pool, writer, numTiles);
+		}
+	}
+
+	private void submitTiles(ExecutorService pool, final OrderedPairScoresWriter writer, int numTiles)
+			throws IOException, InterruptedException {
+		List<Future<?>> tasks = new ArrayList<Future<?>>(numTiles);
+		for (int tile = 0; tile < numTiles; tile++) {
+			writer.reserve();
+			if (checkpointedTiles.contains(tile)) {
+				writer.skip(tile);
+				continue;
+			}
+			final int currentTile = tile;
+			final int[] blocks = getBlocks(tile);
+			tasks.add(pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						writer.write(currentTile, scoreTile(blocks[0], blocks[1]));
+					}
+					catch (Throwable e) {
+						// wakes up the submitting thread, which then fails
+						writer.fail(e);
+					}
+				}
+			}));
+		}
+		awaitCompletion(tasks);
+		writer.checkFailure();
+	}
+
+	private void awaitCompletion(List<Future<?>> tasks) throws IOException, InterruptedException {
+		for (Future<?> task : tasks) {
+			try {
+				task.get();
+			}
+			catch (ExecutionException e) {
+				throw new IOException("Failed to score tile: "+e.getCause().getMessage(), e.getCause());
+			}
+		}
+	}
+
+	private List<AttributePairScores> scoreTile(int rowBlock, int columnBlock)
+			throws UnknownOWLClassException {
+		List<AttributePairScores> scoresList = new ArrayList<AttributePairScores>();
+		boolean isSimJ = isSimJ();
+		boolean isLCSIC = metrics.contains(Metric.LCSIC);
+		boolean isGIC = metrics.contains(Metric.GIC);
+		int pStart = rowBlock * tileSize;
+		int qStart = columnBlock * tileSize;
+		int pEnd = Math.min(pStart + tileSize, classes.length);
+		int qEnd = Math.min(qStart + tileSize, classes.length);
+		long n = 0;
+		for (int p = pStart; p < pEnd; p++) {
+			for (int q = rowBlock == columnBlock ? p : qStart; q < qEnd; q++) {
+				boolean isForward = isSelected(p, q);
+				boolean isBackward = p != q && isSelected(q, p);
+				if (!isForward && !isBackward)
+					continue;
+				n++;
+				OWLClass c = classes[p];
+				OWLClass d = classes[q];
+				AttributePairScores scores = new AttributePairScores(c, d);
+				AttributePairScores inverseScores = new AttributePairScores(d, c);
+				if (isSimJ) {
+					double simj = sim.getAttributeJaccardSimilarity(c, d);
+					if (minimumSimJ != null && simj < minimumSimJ)
+						continue;
+					scores.simjScore = simj;
+					inverseScores.simjScore = simj;
+					if (isForward)
+						scores.asymmetricSimjScore = sim.getAsymmetricAttributeJaccardSimilarity(c, d);
+					if (isBackward)
+						inverseScores.asymmetricSimjScore = sim.getAsymmetricAttributeJaccardSimilarity(d, c);
+				}
+				if (isLCSIC) {
+					ScoreAttributeSetPair iclcs = sim.getLowestCommonSubsumerWithIC(c, d);
+					scores.lcsIC = iclcs.score;
+					scores.lcsSet = iclcs.attributeClassSet;
+					inverseScores.lcsIC = iclcs.score;
+					inverseScores.lcsSet = iclcs.attributeClassSet;
+				}
+				if (isGIC) {
+					scores.simGIC = sim.getAttributeGraphInformationContentSimilarity(c, d);
+					inverseScores.simGIC = scores.simGIC;
+				}
+				if (isForward)
+					addScores(scoresList, scores, p);
+				if (isBackward)
+					addScores(scoresList, inverseScores, q);
+			}
+		}
+		numberOfPairsScored.addAndGet(n);
+		return scoresList;
+	}
+
+	private void addScores(List<AttributePairScores> scoresList, AttributePairScores scores, int row) {
+		// without simJ, all pairs are equally good
+		scores.isBestMatchForI = maxSimJ == null || scores.simjScore == maxSimJ[row];
+		if (isBestOnly && !scores.isBestMatchForI)
+			return;
+		scoresList.add(scores);
+	}
+
+	/**
+	 * @param p
+	 * @param q
+	 * @return true if (classes[p], classes[q]) is a pair to report
+	 */
+	private boolean isSelected(int p, int q) {
+		return isRowClass[p] && isColumnClass[q] && (!isDescendingPairsOnly || p > q);
+	}
+
+	/**
+	 * Tiles are numbered row by row over the blocks on or above the diagonal
+	 *
+	 * @param tile
+	 * @return row block and column block of the tile
+	 */
+	private int[] getBlocks(int tile) {
+		int n = getNumberOfBlocks();
+		int rowBlock = 0;
+		int rowLength = n;
+		while (tile >= rowLength) {
+			tile -= rowLength;
+			rowBlock++;
+			rowLength--;
+		}
+		return new int[] { rowBlock, rowBlock + tile };
+	}
+}
@@ -45,6 +45,9 @@ public abstract class AbstractRenderer implements SimResultRenderer {
 	public OWLGraphWrapper graph;
 	protected OWLPrettyPrinter owlpp;
 
+	// true until the first line with column names has been written
+	boolean isHeaderLine = true;
+
 	public OWLGraphWrapper getGraph() {
 		return graph;
 	}
@@ -64,6 +67,14 @@ public abstract class AbstractRenderer implements SimResultRenderer {
 	public void setResultOutStream(PrintStream resultOutStream) {
 		this.resultOutStream = resultOutStream;
 	}
+
+	/**
+	 * @param isHeaderLine - if false, no line with column names is written;
+	 * e.g. when appending to existing results
+	 */
+	public void setHeaderLine(boolean isHeaderLine) {
+		this.isHeaderLine = isHeaderLine;
+	}
 	
 	
 
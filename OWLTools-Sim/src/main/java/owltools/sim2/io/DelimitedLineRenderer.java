@@ -23,7 +23,6 @@ public class DelimitedLineRenderer extends AbstractRenderer implements SimResult
 	
 	private static NumberFormat doubleRenderer = new DecimalFormat("#.##########");
 	
-	boolean isHeaderLine = true;
 
 	private final String separator;
 	private final String commentPrefix;
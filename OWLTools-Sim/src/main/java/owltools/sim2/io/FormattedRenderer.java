@@ -19,7 +19,6 @@ public class FormattedRenderer extends AbstractRenderer implements SimResultRend
 
 	private static NumberFormat doubleRenderer = new DecimalFormat("#.##########");
 
-	boolean isHeaderLine = true;
 
 	public FormattedRenderer(PrintStream resultOutStream, OWLPrettyPrinter owlpp) {
 		this.resultOutStream = resultOutStream;
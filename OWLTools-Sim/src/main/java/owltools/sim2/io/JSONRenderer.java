@@ -25,7 +25,6 @@ public class JSONRenderer extends AbstractRenderer implements SimResultRenderer
 
 	private static NumberFormat doubleRenderer = new DecimalFormat("#.##########");
 
-	boolean isHeaderLine = true;
 
 	private final String separator;
 	private final String commentPrefix;
@@ -40,7 +40,6 @@ public class OWLRenderer extends AbstractRenderer implements SimResultRenderer {
 
 	private static NumberFormat doubleRenderer = new DecimalFormat("#.###");
 
-	boolean isHeaderLine = true;
 
 	private OWLOntology ontology;
 
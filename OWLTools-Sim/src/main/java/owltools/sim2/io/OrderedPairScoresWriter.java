@@ -0,0 +1,144 @@
+package owltools.sim2.io;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import owltools.sim2.scores.AttributePairScores;
+
+/**
+ * Writes batches of attribute pair scores, produced concurrently by
+ * multiple threads, to a single {@link SimResultRenderer}.
+ * <p>
+ * Batches are numbered from 0, and written in that order whatever the order
+ * they are produced in; a batch that arrives early is held until all
+ * previous batches have been written. The renderer is only ever called by one
+ * thread at a time.
+ * <p>
+ * Buffering is bounded: a producer must {@link #reserve()} a slot before
+ * computing a batch, and at most maxPendingBatches batches can be
+ * reserved but not yet written.
+ */
+public class OrderedPairScoresWriter {
+
+	/**
+	 * Called after each batch has been written, in batch order
+	 */
+	public interface BatchListener {
+		public void batchWritten(int batch) throws IOException;
+	}
+
+	private final SimResultRenderer renderer;
+	private final Semaphore capacity;
+	private final Map<Integer, List<AttributePairScores>> pendingBatches =
+			new HashMap<Integer, List<AttributePairScores>>();
+	private int nextBatch = 0;
+	private BatchListener listener = null;
+	private volatile Throwable failure = null;
+
+	/**
+	 * @param renderer
+	 * @param maxPendingBatches - maximum number of batches held in memory
+	 */
+	public OrderedPairScoresWriter(SimResultRenderer renderer, int maxPendingBatches) {
+		this.renderer = renderer;
+		this.capacity = new Semaphore(maxPendingBatches);
+	}
+
+	/**
+	 * @param listener
+	 */
+	public void setBatchListener(BatchListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Blocks until a batch can be buffered. Must be called once for every
+	 * batch, in batch order, before the batch is passed to {@link #write(int, List)}
+	 * or {@link #skip(int)}.
+	 *
+	 * @throws InterruptedException
+	 * @throws IOException - if a producer failed, or a batch could not be written
+	 */
+	public void reserve() throws InterruptedException, IOException {
+		capacity.acquire();
+		checkFailure();
+	}
+
+	/**
+	 * Buffers a batch, and writes any batches that are now in order
+	 *
+	 * @param batch
+	 * @param scores
+	 * @throws IOException
+	 */
+	public synchronized void write(int batch, List<AttributePairScores> scores) throws IOException {
+		pendingBatches.put(batch, scores);
+		try {
+			while (pendingBatches.containsKey(nextBatch)) {
+				List<AttributePairScores> nextScores = pendingBatches.remove(nextBatch);
+				// skipped batches are not reported
+				if (nextScores != null) {
+					for (AttributePairScores s : nextScores) {
+						renderer.printPairScores(s);
+					}
+					renderer.getResultOutStream().flush();
+					if (listener != null) {
+						listener.batchWritten(nextBatch);
+					}
+				}
+				nextBatch++;
+				capacity.release();
+			}
+		}
+		catch (IOException e) {
+			fail(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Marks a batch as having nothing to write, e.g. as it was written by a previous run
+	 *
+	 * @param batch
+	 * @throws IOException
+	 */
+	public void skip(int batch) throws IOException {
+		write(batch, null);
+	}
+
+	/**
+	 * Records that a batch will never be written; any producer waiting in
+	 * {@link #reserve()} is woken up and fails
+	 *
+	 * @param t
+	 */
+	public void fail(Throwable t) {
+		if (failure == null) {
+			failure = t;
+		}
+		// wake up any waiting producer
+		capacity.release();
+	}
+
+	/**
+	 * @throws IOException - if a producer failed
+	 */
+	public void checkFailure() throws IOException {
+		if (failure != null) {
+			if (failure instanceof IOException) {
+				throw (IOException) failure;
+			}
+			throw new IOException("Failed to compute batch: "+failure.getMessage(), failure);
+		}
+	}
+
+	/**
+	 * @return number of batches written or skipped so far
+	 */
+	public synchronized int getNumberOfBatchesWritten() {
+		return nextBatch;
+	}
+}
@@ -24,7 +24,6 @@ public class TabularRenderer extends AbstractRenderer implements SimResultRender
 
 	private static NumberFormat doubleRenderer = new DecimalFormat("#.##########");
 
-	boolean isHeaderLine = true;
 
 	private final String separator;
 	private final String commentPrefix;
@@ -335,6 +334,12 @@ public class TabularRenderer extends AbstractRenderer implements SimResultRender
 			vals.add("");
 		}
 
+		// only if the results were annotated with p-values
+		if (scores.pValue != null) {
+			cols.add("PValue");
+			vals.add(String.format("%.3g", scores.pValue));
+		}
+
 		cols.add("SimJ");
 		if (scores.simjScore != null) {
 			vals.add(doubleRenderer.format(scores.simjScore));
@@ -0,0 +1,415 @@
+package owltools.sim2.kb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+
+import owltools.sim2.OwlSim;
+import owltools.sim2.scores.ElementPairScores;
+
+/**
+ * Empirical distribution of match scores for random query profiles, used to
+ * assign p-values to search results without computing any statistics per query.
+ * <p>
+ * The distribution is created by searching with random profiles of a set of
+ * sizes, and keeping a fixed number of quantiles of the scores of all matches,
+ * for each size and score. Classes are drawn with the frequency with which
+ * they are used to annotate elements. A query profile uses the quantiles of
+ * the largest sampled size not greater than its own size.
+ * <p>
+ * The p-value of a score x is the fraction of random matches with a score
+ * of at least x, interpolated between quantiles; it is found by binary
+ * search. The p-value is never below 1/(n+1), where n is the number of
+ * random matches sampled.
+ * <p>
+ * The combined score of a match depends on the other matches of the search,
+ * so the distribution only applies to searches with the target ID space and
+ * cutoffs it was sampled with; these are stored with the distribution, and
+ * checked by {@link #load(File, long, String, double, double)}.
+ * <p>
+ * File format (big-endian): magic number (long), format version (int),
+ * fingerprint (long), whether there is a target ID space (boolean), the
+ * target ID space (UTF, if any), minimum SimJ percentage (double), minimum
+ * maxIC (double), number of quantiles (int), number of profile sizes (int);
+ * then for each profile size: the size (int), the number of random matches
+ * (long), and for each {@link Score}, the quantiles (double).
+ */
+public class NullScoreDistribution {
+
+	private static Logger LOG = Logger.getLogger(NullScoreDistribution.class);
+
+	/**
+	 * Scores of {@link ElementPairScores} with a null distribution
+	 */
+	public enum Score {
+		COMBINED, MAX_IC, BMA_SYM_IC, SIMJ;
+
+		/**
+		 * @param s
+		 * @return value of this score; null if not set
+		 */
+		public Double getValue(ElementPairScores s) {
+			switch (this) {
+			case COMBINED: return s.combinedScore == null ? null : s.combinedScore.doubleValue();
+			case MAX_IC: return s.maxIC;
+			case BMA_SYM_IC: return s.bmaSymIC;
+			case SIMJ: return s.simjScore;
+			default: throw new IllegalStateException();
+			}
+		}
+	}
+
+	/**
+	 * default profile sizes
+	 */
+	public static final int[] DEFAULT_PROFILE_SIZES = {1, 2, 3, 5, 8, 13, 20, 30, 50};
+
+	// "OWLSIMNS"
+	private static final long MAGIC = 0x4F574C53494D4E53L;
+	private static final int VERSION = 2;
+
+	private final long fingerprint;
+	// search parameters of the random matches
+	private final String targetIdSpace;
+	private final double minSimJPct;
+	private final double minMaxIC;
+	private final int numQuantiles;
+	// increasing
+	private final int[] profileSizes;
+	private final long[] numSamples;
+	// by profile size index, score ordinal; numQuantiles+1 values, increasing
+	private final double[][][] quantiles;
+
+	private NullScoreDistribution(long fingerprint, String targetIdSpace, double minSimJPct, double minMaxIC,
+			int numQuantiles, int[] profileSizes, long[] numSamples, double[][][] quantiles) {
+		this.fingerprint = fingerprint;
+		this.targetIdSpace = targetIdSpace;
+		this.minSimJPct = minSimJPct;
+		this.minMaxIC = minMaxIC;
+		this.numQuantiles = numQuantiles;
+		this.profileSizes = profileSizes;
+		this.numSamples = numSamples;
+		this.quantiles = quantiles;
+	}
+
+	/**
+	 * Searches with random profiles amongst all elements; all matches are used,
+	 * regardless of the minimum SimJ and maxIC of the sim.
+	 *
+	 * @param sim
+	 * @param profileSizes - sizes of the random profiles
+	 * @param numProfiles - number of random profiles of each size
+	 * @param numQuantiles - number of quantiles kept, e.g. 1000
+	 * @param seed - seed for the random profiles
+	 * @param fingerprint - stored in the file, see {@link #load(File, long)}
+	 * @return distribution
+	 * @throws Exception
+	 */
+	public static NullScoreDistribution create(OwlSim sim, int[] profileSizes, int numProfiles,
+			int numQuantiles, long seed, long fingerprint) throws Exception {
+		return create(sim, null, 0, 0, profileSizes, numProfiles, numQuantiles, seed, fingerprint);
+	}
+
+	/**
+	 * Searches with random profiles, with the same parameters as the searches
+	 * whose matches are to be annotated.
+	 *
+	 * @param sim
+	 * @param targetIdSpace - may be null
+	 * @param minSimJPct
+	 * @param minMaxIC
+	 * @param profileSizes - sizes of the random profiles
+	 * @param numProfiles - number of random profiles of each size
+	 * @param numQuantiles - number of quantiles kept, e.g. 1000
+	 * @param seed - seed for the random profiles
+	 * @param fingerprint - stored in the file, see {@link #load(File, long)}
+	 * @return distribution
+	 * @throws Exception
+	 */
+	public static NullScoreDistribution create(OwlSim sim, String targetIdSpace, double minSimJPct, double minMaxIC,
+			int[] profileSizes, int numProfiles, int numQuantiles, long seed, long fingerprint) throws Exception {
+		if (numQuantiles < 1 || numProfiles < 1) {
+			throw new IllegalArgumentException("number of quantiles and profiles must be >= 1");
+		}
+		int[] sizes = profileSizes.clone();
+		Arrays.sort(sizes);
+		// every annotation, so that classes are drawn by frequency
+		List<OWLClass> pool = new ArrayList<OWLClass>();
+		for (OWLNamedIndividual i : sim.getAllElements()) {
+			pool.addAll(sim.getAttributesForElement(i));
+		}
+		Set<OWLClass> distinctClasses = new HashSet<OWLClass>(pool);
+		Random random = new Random(seed);
+		Score[] scores = Score.values();
+		long[] numSamples = new long[sizes.length];
+		double[][][] quantiles = new double[sizes.length][][];
+		for (int six = 0; six < sizes.length; six++) {
+			long t = System.currentTimeMillis();
+			int size = Math.min(sizes[six], distinctClasses.size());
+			double[][] values = new double[scores.length][];
+			int n = 0;
+			for (int p = 0; p < numProfiles; p++) {
+				Set<OWLClass> profile = new HashSet<OWLClass>();
+				while (profile.size() < size) {
+					profile.add(pool.get(random.nextInt(pool.size())));
+				}
+				List<ElementPairScores> matches = sim.findMatches(profile, targetIdSpace, minSimJPct, minMaxIC);
+				for (int k = 0; k < scores.length; k++) {
+					if (values[k] == null) {
+						values[k] = new double[Math.max(16, matches.size() * numProfiles)];
+					}
+					else if (values[k].length < n + matches.size()) {
+						values[k] = Arrays.copyOf(values[k], Math.max(values[k].length * 2, n + matches.size()));
+					}
+					int m = n;
+					for (ElementPairScores s : matches) {
+						Double v = scores[k].getValue(s);
+						values[k][m++] = v == null ? 0 : v;
+					}
+				}
+				n += matches.size();
+			}
+			numSamples[six] = n;
+			quantiles[six] = new double[scores.length][];
+			for (int k = 0; k < scores.length; k++) {
+				double[] sorted = values[k] == null ? new double[0] : Arrays.copyOf(values[k], n);
+				Arrays.sort(sorted);
+				quantiles[six][k] = getQuantiles(sorted, numQuantiles);
+			}
+			LOG.info("Null distribution for profile size "+sizes[six]+": "+n+
+					" matches, ms = "+(System.currentTimeMillis() - t));
+		}
+		return new NullScoreDistribution(fingerprint, targetIdSpace, minSimJPct, minMaxIC,
+				numQuantiles, sizes, numSamples, quantiles);
+	}
+
+	private static double[] getQuantiles(double[] sorted, int numQuantiles) {
+		double[] q = new double[numQuantiles + 1];
+		if (sorted.length == 0)
+			return q;
+		for (int k = 0; k <= numQuantiles; k++) {
+			long ix = Math.round((double) k * (sorted.length - 1) / numQuantiles);
+			q[k] = sorted[(int) ix];
+		}
+		return q;
+	}
+
+	/**
+	 * @param score
+	 * @param profileSize - number of attributes of the query
+	 * @param value
+	 * @return estimated probability of a match of a random profile having at least this score
+	 */
+	public double getPValue(Score score, int profileSize, double value) {
+		int six = getProfileSizeIndex(profileSize);
+		double[] q = quantiles[six][score.ordinal()];
+		double minP = 1.0 / (numSamples[six] + 1);
+		// first quantile >= value
+		int lo = 0;
+		int hi = q.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (q[mid] < value)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		if (lo == 0)
+			return 1.0;
+		if (lo == q.length)
+			return minP;
+		// fraction of matches below value
+		double below = (lo - 1) + (value - q[lo - 1]) / (q[lo] - q[lo - 1]);
+		return Math.max(minP, 1.0 - below / numQuantiles);
+	}
+
+	/**
+	 * Sets the p-value of each match, for its combined score
+	 *
+	 * @param matches
+	 * @param profileSize - number of attributes of the query
+	 */
+	public void annotate(List<ElementPairScores> matches, int profileSize) {
+		for (ElementPairScores s : matches) {
+			if (s.combinedScore != null) {
+				s.pValue = getPValue(Score.COMBINED, profileSize, s.combinedScore);
+			}
+		}
+	}
+
+	private int getProfileSizeIndex(int profileSize) {
+		int k = Arrays.binarySearch(profileSizes, profileSize);
+		if (k >= 0)
+			return k;
+		// largest size below, or the smallest
+		return Math.max(0, -k - 2);
+	}
+
+	/**
+	 * @return sampled profile sizes, increasing
+	 */
+	public int[] getProfileSizes() {
+		return profileSizes.clone();
+	}
+
+	/**
+	 * @return number of quantiles
+	 */
+	public int getNumberOfQuantiles() {
+		return numQuantiles;
+	}
+
+	/**
+	 * @return fingerprint supplied at creation
+	 */
+	public long getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * @return target ID space of the random matches; null for all elements
+	 */
+	public String getTargetIdSpace() {
+		return targetIdSpace;
+	}
+
+	/**
+	 * @return minimum SimJ percentage of the random matches
+	 */
+	public double getMinimumSimJPct() {
+		return minSimJPct;
+	}
+
+	/**
+	 * @return minimum maxIC of the random matches
+	 */
+	public double getMinimumMaxIC() {
+		return minMaxIC;
+	}
+
+	/**
+	 * @param targetIdSpace
+	 * @param minSimJPct
+	 * @param minMaxIC
+	 * @return true if the random matches were found with these search parameters
+	 */
+	public boolean isSampledWith(String targetIdSpace, double minSimJPct, double minMaxIC) {
+		return (this.targetIdSpace == null ? targetIdSpace == null : this.targetIdSpace.equals(targetIdSpace)) &&
+				this.minSimJPct == minSimJPct && this.minMaxIC == minMaxIC;
+	}
+
+	/**
+	 * @param f
+	 * @throws IOException
+	 */
+	public void save(File f) throws IOException {
+		DataOutputStream out =
+				new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+		try {
+			out.writeLong(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(fingerprint);
+			out.writeBoolean(targetIdSpace != null);
+			if (targetIdSpace != null) {
+				out.writeUTF(targetIdSpace);
+			}
+			out.writeDouble(minSimJPct);
+			out.writeDouble(minMaxIC);
+			out.writeInt(numQuantiles);
+			out.writeInt(profileSizes.length);
+			for (int six = 0; six < profileSizes.length; six++) {
+				out.writeInt(profileSizes[six]);
+				out.writeLong(numSamples[six]);
+				for (double[] q : quantiles[six]) {
+					for (double v : q) {
+						out.writeDouble(v);
+					}
+				}
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @param f
+	 * @param fingerprint - must match the fingerprint the distribution was created with
+	 * @return distribution written by {@link #save(File)}
+	 * @throws IOException - if the file is not a null distribution, or the fingerprint differs
+	 */
+	public static NullScoreDistribution load(File f, long fingerprint) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+		try {
+			if (in.readLong() != MAGIC) {
+				throw new IOException("Not a null score distribution file: "+f);
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported null score distribution version "+version+" in "+f);
+			}
+			long fileFingerprint = in.readLong();
+			if (fileFingerprint != fingerprint) {
+				throw new IOException("Null score distribution "+f+" was created for a different ontology or set of elements");
+			}
+			String targetIdSpace = in.readBoolean() ? in.readUTF() : null;
+			double minSimJPct = in.readDouble();
+			double minMaxIC = in.readDouble();
+			int numQuantiles = in.readInt();
+			int numSizes = in.readInt();
+			int[] sizes = new int[numSizes];
+			long[] numSamples = new long[numSizes];
+			double[][][] quantiles = new double[numSizes][Score.values().length][numQuantiles + 1];
+			for (int six = 0; six < numSizes; six++) {
+				sizes[six] = in.readInt();
+				numSamples[six] = in.readLong();
+				for (double[] q : quantiles[six]) {
+					for (int k = 0; k < q.length; k++) {
+						q[k] = in.readDouble();
+					}
+				}
+			}
+			return new NullScoreDistribution(fingerprint, targetIdSpace, minSimJPct, minMaxIC,
+					numQuantiles, sizes, numSamples, quantiles);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @param f
+	 * @param fingerprint - must match the fingerprint the distribution was created with
+	 * @param targetIdSpace - must match the target ID space the distribution was created with
+	 * @param minSimJPct - must match the minimum SimJ the distribution was created with
+	 * @param minMaxIC - must match the minimum maxIC the distribution was created with
+	 * @return distribution written by {@link #save(File)}
+	 * @throws IOException - if the file is not a null distribution, or the fingerprint
+	 * or search parameters differ
+	 */
+	public static NullScoreDistribution load(File f, long fingerprint, String targetIdSpace,
+			double minSimJPct, double minMaxIC) throws IOException {
+		NullScoreDistribution nsd = load(f, fingerprint);
+		if (!nsd.isSampledWith(targetIdSpace, minSimJPct, minMaxIC)) {
+			throw new IOException("Null score distribution "+f+" was created for target ID space "+
+					nsd.targetIdSpace+", minimum SimJ "+nsd.minSimJPct+"% and minimum maxIC "+nsd.minMaxIC+
+					", not "+targetIdSpace+", "+minSimJPct+"% and "+minMaxIC);
+		}
+		return nsd;
+	}
+}
@@ -1,9 +1,8 @@
 package owltools.sim2.kb;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -94,7 +93,8 @@ public class OWLSimReferenceBasedStatistics {
 	}
 
 	protected double[] retrieveCandidatesIC(Set<OWLClass> candidates) {
-		List<Double> icList = new ArrayList<Double>();
+		double[] icData = new double[candidates.size()];
+		int n = 0;
 
 		// Create IC list for candidates provided
 		for (OWLClass c : candidates) {
@@ -111,18 +111,13 @@ public class OWLSimReferenceBasedStatistics {
 					ic = owlsim.getSummaryStatistics().max.getMax();
 				}
 				
-				icList.add(ic);
+				icData[n++] = ic;
 			} catch (UnknownOWLClassException e) {
 				LOG.info("Unknown class "+c.toStringID()+" submitted for summary stats. Removed from calculation.");
 				continue;
 			}
 		}
-		
-		double[] result = new double[icList.size()];
-		for (int i = 0 ;i < icList.size(); i++) {
-			result[i] = icList.get(i).doubleValue();
-		}
-		return result;
+		return n == icData.length ? icData : Arrays.copyOf(icData, n);
 	}
 	
 	protected Map<IRI, Map<IRI, OWLClass>> getDescendants(Set<OWLClass> topLevelReferenceEntities) {
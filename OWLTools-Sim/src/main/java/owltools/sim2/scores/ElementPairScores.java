@@ -25,6 +25,9 @@ public class ElementPairScores implements PairScores<OWLNamedIndividual>, Compar
 	public Integer combinedScore;
 	public Integer rank;
 	
+	// p-value of the combined score; see owltools.sim2.kb.NullScoreDistribution
+	public Double pValue = null;
+	
 	public Double avgIC = null;
 	public Double maxIC = null;
 	public Set<OWLClass> maxICwitness = null;
@@ -1,8 +1,16 @@
 package owltools.sim2;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 
@@ -113,4 +121,176 @@ public class CoannotatedTest extends AbstractOWLSimTest {
 		}
 	}
 
+	/**
+	 * Compares the sparse co-annotation counts, built sequentially and
+	 * concurrently, and after saving and loading, with counts over all elements
+	 * @throws Exception
+	 */
+	@Test
+	public void testCoAnnotationMatrix() throws Exception {
+		ParserWrapper pw = new ParserWrapper();
+		sourceOntol = pw.parseOWL(getResourceIRIString("sim/mp-subset-1.obo"));
+		g =  new OWLGraphWrapper(sourceOntol);
+		parseAssociations(getResource("sim/mgi-gene2mp-subset-1.tbl"), g);
+		FastOwlSim fsim = (FastOwlSim) new FastOwlSimFactory().createOwlSim(sourceOntol);
+		try {
+			fsim.createElementAttributeMapFromOntology();
+			fsim.populateFullCoannotationMatrix();
+			CoAnnotationMatrix matrix = fsim.getCoAnnotationMatrix();
+			assertEquals(fsim.classArray.length, matrix.getSize());
+			long n = 0;
+			for (int cix = 0; cix < fsim.classArray.length; cix++) {
+				OWLClass c = fsim.classArray[cix];
+				if (c == null)
+					continue;
+				for (int dix = 0; dix < fsim.classArray.length; dix++) {
+					OWLClass d = fsim.classArray[dix];
+					if (d == null)
+						continue;
+					int expected = countCoAnnotations(fsim, c, d);
+					if (cix != dix) {
+						expected += countCoAnnotations(fsim, d, c);
+					}
+					assertEquals(c+" "+d, expected, matrix.get(cix, dix));
+					if (expected > 0)
+						n++;
+				}
+			}
+			assertEquals(n, matrix.getNumberOfEntries());
+
+			// concurrent build
+			fsim.setNumberOfThreads(4);
+			fsim.setAttributesForElement(fsim.getAllElements().iterator().next(), 
+					fsim.getAttributesForElement(fsim.getAllElements().iterator().next()));
+			CoAnnotationMatrix concurrentMatrix = fsim.getCoAnnotationMatrix();
+			assertNotSame(matrix, concurrentMatrix);
+			assertSameMatrix(matrix, concurrentMatrix);
+
+			// save and load
+			File f = new File("target/coannotation-matrix-test.bin");
+			fsim.saveCoAnnotationMatrix(f.getPath());
+			fsim.loadCoAnnotationMatrix(f.getPath());
+			assertSameMatrix(matrix, fsim.getCoAnnotationMatrix());
+
+			// top N is a prefix of all
+			int inds = fsim.getAllElements().size();
+			for (OWLClass c : fsim.getAllAttributeClasses()) {
+				List<ClassCount> all = fsim.getCoannotatedClassesForAttribute(c, 0.0, inds);
+				List<ClassCount> top = fsim.getCoannotatedClassesForAttribute(c, 0.0, inds, 3);
+				assertEquals(Math.min(3, all.size()), top.size());
+				for (int k = 0; k < top.size(); k++) {
+					assertEquals(all.get(k).score, top.get(k).score, 0.000001);
+					if (k > 0)
+						assertTrue(top.get(k - 1).score >= top.get(k).score);
+				}
+			}
+		}
+		finally {
+			fsim.dispose();
+		}
+	}
+
+	/**
+	 * Compares the co-annotated classes of matches, computed from sparse counts,
+	 * with the dense subset matrix and TF-IDF matrix
+	 * @throws Exception
+	 */
+	@Test
+	public void testCoAnnotatedClassesForMatches() throws Exception {
+		ParserWrapper pw = new ParserWrapper();
+		sourceOntol = pw.parseOWL(getResourceIRIString("sim/mp-subset-1.obo"));
+		g =  new OWLGraphWrapper(sourceOntol);
+		parseAssociations(getResource("sim/mgi-gene2mp-subset-1.tbl"), g);
+		FastOwlSim fsim = (FastOwlSim) new FastOwlSimFactory().createOwlSim(sourceOntol);
+		try {
+			fsim.createElementAttributeMapFromOntology();
+			int matchCutoff = 2;
+			int compared = 0;
+			for (OWLNamedIndividual i : fsim.getAllElements()) {
+				Set<OWLClass> atts = fsim.getAttributesForElement(i);
+				List<ElementPairScores> matches = fsim.findMatches(i, null);
+				Set<OWLNamedIndividual> subset = new HashSet<OWLNamedIndividual>();
+				for (ElementPairScores m : matches.subList(0, Math.min(matchCutoff + 1, matches.size()))) {
+					subset.add(m.j);
+				}
+				if (subset.isEmpty())
+					continue;
+
+				int[][] dense = fsim.getSubsetCoannotationMatrix(subset);
+				for (OWLClass c : atts) {
+					int cid = fsim.classIndex.get(c);
+					for (OWLClass d : atts) {
+						int did = fsim.classIndex.get(d);
+						if (did < cid)
+							continue;
+						int n = countCoAnnotations(fsim, subset, c, d);
+						if (did != cid)
+							n += countCoAnnotations(fsim, subset, d, c);
+						assertEquals(n, dense[cid][did]);
+					}
+				}
+				Double[][] tfidf = fsim.computeTFIDFMatrix(dense, subset.size(), null, fsim.getAllElements().size());
+				Map<OWLClass, Double> expected = new HashMap<OWLClass, Double>();
+				for (OWLClass c : atts) {
+					expected.put(c, 0.0);
+				}
+				for (OWLClass c : atts) {
+					int cid = fsim.classIndex.get(c);
+					for (OWLClass d : atts) {
+						int did = fsim.classIndex.get(d);
+						// only non-zero counts have a term frequency
+						if (did < cid - 1 && dense[did][cid] > 0 && tfidf[did][cid] > 0)
+							expected.put(d, expected.get(d) + tfidf[did][cid]);
+						else if (did >= cid && dense[cid][did] > 0 && tfidf[cid][did] > 0)
+							expected.put(d, expected.get(d) + tfidf[cid][did]);
+					}
+				}
+
+				List<ClassCount> actual = fsim.getCoAnnotatedClassesForMatches(matches, atts, matchCutoff);
+				Set<OWLClass> found = new HashSet<OWLClass>();
+				for (int k = 0; k < actual.size(); k++) {
+					ClassCount cc = actual.get(k);
+					assertEquals(expected.get(cc.c), cc.score, 0.000001);
+					if (k > 0)
+						assertTrue(actual.get(k - 1).score >= cc.score);
+					found.add(cc.c);
+				}
+				for (OWLClass c : atts) {
+					assertEquals(expected.get(c) > 0, found.contains(c));
+				}
+				compared++;
+			}
+			assertTrue(compared > 0);
+		}
+		finally {
+			fsim.dispose();
+		}
+	}
+
+	private int countCoAnnotations(FastOwlSim fsim, OWLClass inferred, OWLClass direct) throws Exception {
+		return countCoAnnotations(fsim, fsim.getAllElements(), inferred, direct);
+	}
+
+	private int countCoAnnotations(FastOwlSim fsim, Set<OWLNamedIndividual> elements,
+			OWLClass inferred, OWLClass direct) throws Exception {
+		int n = 0;
+		for (OWLNamedIndividual e : fsim.getElementsForAttribute(inferred)) {
+			if (elements.contains(e) && fsim.getAttributesForElement(e).contains(direct))
+				n++;
+		}
+		return n;
+	}
+
+	private void assertSameMatrix(CoAnnotationMatrix expected, CoAnnotationMatrix actual) {
+		assertEquals(expected.getSize(), actual.getSize());
+		assertEquals(expected.getNumberOfEntries(), actual.getNumberOfEntries());
+		for (int r = 0; r < expected.getSize(); r++) {
+			int[] columns = expected.getColumns(r);
+			assertArrayEquals(columns, actual.getColumns(r));
+			for (int c : columns) {
+				assertEquals(expected.get(r, c), actual.get(r, c));
+			}
+		}
+	}
+
 }
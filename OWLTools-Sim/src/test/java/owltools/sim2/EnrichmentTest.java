@@ -3,6 +3,8 @@ package owltools.sim2;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -122,7 +124,92 @@ public class EnrichmentTest extends AbstractOWLSimTest {
 
 	}
 
+	/**
+	 * Compares the results of the all by all enrichment analysis, sequential and
+	 * concurrent, with those of pairwise enrichment tests
+	 */
+	@Test
+	public void testAllByAllEnrichmentMatchesPairwise() throws Exception, MathException {
+		ParserWrapper pw = new ParserWrapper();
+		sourceOntol = pw.parseOBO(getResourceIRIString("go-subset-t1.obo"));
+		OWLObjectProperty INVOLVED_IN = OBOUpperVocabulary.RO_involved_in.getObjectProperty(sourceOntol);
+		Map<OWLClass, OWLClass> qmap =
+				TransformationUtils.createObjectPropertyView(sourceOntol, sourceOntol,
+						INVOLVED_IN, null, true);
+		g = new OWLGraphWrapper(sourceOntol);
+		TableToAxiomConverter ttac = new TableToAxiomConverter(g);
+		ttac.config.axiomType = AxiomType.CLASS_ASSERTION;
+		ttac.config.property = INVOLVED_IN.getIRI();
+		ttac.config.isSwitchSubjectObject = true;
+		ttac.parse("src/test/resources/simplegaf-t1.txt");
+		g.getManager().removeAxioms(sourceOntol,
+				sourceOntol.getAxioms(AxiomType.DISJOINT_CLASSES));
 
+		try {
+			createOwlSim();
+			owlsim.createElementAttributeMapFromOntology();
+			OWLClass pc = g.getDataFactory().getOWLThing();
+			OWLClass vc1 = qmap.get(get("biological_process"));
+			OWLClass vc2 = qmap.get(get("cellular_component"));
+
+			EnrichmentConfig ec = new EnrichmentConfig();
+			ec.pValueCorrectedCutoff = 0.05;
+			owlsim.setEnrichmentConfig(ec);
+			List<EnrichmentResult> expected = calculatePairwise(pc, vc1, vc2, ec);
+			assertTrue(expected.size() > 0);
+			for (int threads : new int[]{1, 4}) {
+				ec.numberOfThreads = threads;
+				List<EnrichmentResult> results = owlsim.calculateAllByAllEnrichment(pc, vc1, vc2);
+				assertEquals(expected.size(), results.size());
+				for (int i = 0; i < expected.size(); i++) {
+					EnrichmentResult e = expected.get(i);
+					EnrichmentResult r = results.get(i);
+					assertEquals(e.sampleSetClass, r.sampleSetClass);
+					assertEquals(e.enrichedClass, r.enrichedClass);
+					assertEquals(e.eiSetSize, r.eiSetSize);
+					assertEquals(e.enrichedClassSize, r.enrichedClassSize);
+					// the commons-math tail sums lose precision for very small p-values
+					if (e.pValue > 1e-10) {
+						assertEquals(e.pValue, r.pValue, e.pValue * 1e-3);
+						assertEquals(e.pValueCorrected, r.pValueCorrected, e.pValueCorrected * 1e-3);
+					}
+					else {
+						assertTrue(r.pValue < 1e-9);
+					}
+				}
+			}
+		}
+		finally {
+			owlsim.getReasoner().dispose();
+		}
+	}
 
+	private List<EnrichmentResult> calculatePairwise(OWLClass pc, OWLClass pc1, OWLClass pc2, EnrichmentConfig ec) 
+			throws Exception {
+		OWLClass nothing = g.getDataFactory().getOWLNothing();
+		OWLReasoner reasoner = owlsim.getReasoner();
+		List<EnrichmentResult> results = new ArrayList<EnrichmentResult>();
+		for (OWLClass sc : reasoner.getSubClasses(pc1, false).getFlattened()) {
+			int n = owlsim.getNumElementsForAttribute(sc);
+			if (sc.equals(nothing) || n < 2 || n > ec.maximumClassSize)
+				continue;
+			List<EnrichmentResult> row = new ArrayList<EnrichmentResult>();
+			for (OWLClass c : reasoner.getSubClasses(pc2, false).getFlattened()) {
+				int m = owlsim.getNumElementsForAttribute(c);
+				if (c.equals(nothing) || m < 2 || m > ec.maximumClassSize)
+					continue;
+				if (sc.equals(c)
+						|| reasoner.getSuperClasses(c, false).getFlattened().contains(sc)
+						|| reasoner.getSuperClasses(sc, false).getFlattened().contains(c))
+					continue;
+				EnrichmentResult r = owlsim.calculatePairwiseEnrichment(pc, sc, c);
+				if (r != null && r.pValueCorrected <= ec.pValueCorrectedCutoff)
+					row.add(r);
+			}
+			Collections.sort(row);
+			results.addAll(row);
+		}
+		return ((AbstractOwlSim) owlsim).filterEnrichmentResults(results);
+	}
 
 }
@@ -1,16 +1,36 @@
 package owltools.sim2;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.commons.math.MathException;
 import org.apache.log4j.Logger;
 import org.junit.Test;
 import org.obolibrary.oboformat.parser.OBOFormatParserException;
 import org.semanticweb.elk.owlapi.ElkReasonerFactory;
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
 import org.semanticweb.owlapi.model.OWLNamedIndividual;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 import org.semanticweb.owlapi.model.OWLOntologyStorageException;
+import org.semanticweb.owlapi.model.OWLSubClassOfAxiom;
 import org.semanticweb.owlapi.reasoner.OWLReasoner;
 
 import owltools.graph.OWLGraphWrapper;
@@ -19,10 +39,14 @@ import owltools.io.OWLPrettyPrinter;
 import owltools.io.ParserWrapper;
 import owltools.sim2.AbstractOWLSimTest;
 import owltools.sim2.SimpleOwlSim;
+import owltools.sim2.OwlSim.ScoreAttributeSetPair;
 import owltools.sim2.UnknownOWLClassException;
 import owltools.sim2.io.FormattedRenderer;
+import owltools.sim2.io.TabularRenderer;
 import owltools.sim2.scores.ElementPairScores;
 
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+
 /**
  * This is the main test class for PropertyViewOntologyBuilder
  * 
@@ -71,7 +95,407 @@ public class FindMatchesSimTest extends AbstractOWLSimTest {
 		}
 	}
 
-	
+	@Test
+	public void testParallelSearch() throws Exception {
+		ParserWrapper pw = new ParserWrapper();
+		sourceOntol = pw.parseOWL(getResourceIRIString("sim/mp-subset-1.obo"));
+		g =  new OWLGraphWrapper(sourceOntol);
+		parseAssociations(getResource("sim/mgi-gene2mp-subset-1.tbl"), g);
+
+		this.createOwlSim();
+		owlsim.createElementAttributeMapFromOntology();
+		FastOwlSim fsim = (FastOwlSim) owlsim;
+		try {
+			for (OWLNamedIndividual i : sourceOntol.getIndividualsInSignature()) {
+				fsim.setNumberOfThreads(1);
+				List<ElementPairScores> seqScoreSets = owlsim.findMatches(i, "MGI");
+				fsim.setNumberOfThreads(4);
+				List<ElementPairScores> parScoreSets = owlsim.findMatches(i, "MGI");
+				assertEquals(seqScoreSets.size(), parScoreSets.size());
+				for (int k = 0; k < seqScoreSets.size(); k++) {
+					ElementPairScores s = seqScoreSets.get(k);
+					ElementPairScores p = parScoreSets.get(k);
+					assertEquals(s.j, p.j);
+					assertEquals(s.rank, p.rank);
+					assertEquals(s.combinedScore, p.combinedScore);
+					assertEquals(s.maxIC, p.maxIC, 0.0001);
+					assertEquals(s.bmaSymIC, p.bmaSymIC, 0.0001);
+					assertEquals(s.simjScore, p.simjScore, 0.0001);
+				}
+			}
+		}
+		finally {
+			owlsim.dispose();
+		}
+	}
+
+	@Test
+	public void testTopMatches() throws Exception {
+		ParserWrapper pw = new ParserWrapper();
+		sourceOntol = pw.parseOWL(getResourceIRIString("sim/mp-subset-1.obo"));
+		g =  new OWLGraphWrapper(sourceOntol);
+		parseAssociations(getResource("sim/mgi-gene2mp-subset-1.tbl"), g);
+
+		this.createOwlSim();
+		owlsim.createElementAttributeMapFromOntology();
+		FastOwlSim fsim = (FastOwlSim) owlsim;
+		int k = 2;
+		try {
+			for (OWLNamedIndividual i : sourceOntol.getIndividualsInSignature()) {
+				Set<OWLClass> atts = owlsim.getAttributesForElement(i);
+				// exhaustive: no candidate can be pruned
+				List<ElementPairScores> allScoreSets = fsim.findTopMatches(atts, Integer.MAX_VALUE, null, 0, 0);
+				assertEquals(0, fsim.getNumberOfCandidatesPrunedInLastSearch());
+				long pruned = fsim.getNumberOfCandidatesPruned();
+				List<ElementPairScores> topScoreSets = fsim.findTopMatches(atts, k, null, 0, 0);
+				assertEquals(pruned + fsim.getNumberOfCandidatesPrunedInLastSearch(), fsim.getNumberOfCandidatesPruned());
+				assertEquals(Math.min(k, allScoreSets.size()), topScoreSets.size());
+				for (int n = 0; n < topScoreSets.size(); n++) {
+					assertEquals(allScoreSets.get(n).combinedScore, topScoreSets.get(n).combinedScore);
+					assertEquals(allScoreSets.get(n).bmaSymIC, topScoreSets.get(n).bmaSymIC, 0.0001);
+				}
+			}
+		}
+		finally {
+			owlsim.dispose();
+		}
+	}
+
+	/**
+	 * The top k matches are the first k matches of findMatches, once these are
+	 * ranked by the combined score of the top k search, which is normalized by
+	 * the scores of the query against itself.
+	 */
+	@Test
+	public void testTopMatchesAgainstFindMatches() throws Exception {
+		ParserWrapper pw = new ParserWrapper();
+		sourceOntol = pw.parseOWL(getResourceIRIString("sim/mp-subset-1.obo"));
+		g =  new OWLGraphWrapper(sourceOntol);
+		parseAssociations(getResource("sim/mgi-gene2mp-subset-1.tbl"), g);
+
+		this.createOwlSim();
+		owlsim.createElementAttributeMapFromOntology();
+		FastOwlSim fsim = (FastOwlSim) owlsim;
+		int k = 3;
+		try {
+			int n = 0;
+			int compared = 0;
+			for (OWLNamedIndividual i : sourceOntol.getIndividualsInSignature()) {
+				// no cutoffs, so that there are more matches than the query itself
+				Set<OWLClass> atts = owlsim.getAttributesForElement(i);
+				List<ElementPairScores> all = new ArrayList<ElementPairScores>(fsim.findMatches(atts, "MGI", 0, 0));
+				ElementPairScores self = null;
+				for (ElementPairScores s : all) {
+					if (s.j.equals(i))
+						self = s;
+				}
+				if (self == null) {
+					continue;
+				}
+				n++;
+				final double maxMaxIC = self.maxIC;
+				final double maxBMA = self.bmaSymIC;
+				Collections.sort(all, new Comparator<ElementPairScores>() {
+					@Override
+					public int compare(ElementPairScores s1, ElementPairScores s2) {
+						int c = Double.compare(s2.maxIC / maxMaxIC + s2.bmaSymIC / maxBMA,
+								s1.maxIC / maxMaxIC + s1.bmaSymIC / maxBMA);
+						return c != 0 ? c : s1.j.compareTo(s2.j);
+					}
+				});
+				List<ElementPairScores> top = fsim.findTopMatches(atts, k, "MGI", 0, 0);
+				assertEquals(Math.min(k, all.size()), top.size());
+				for (int r = 0; r < top.size(); r++) {
+					ElementPairScores s = all.get(r);
+					ElementPairScores t = top.get(r);
+					assertEquals(s.j, t.j);
+					assertEquals(s.maxIC, t.maxIC, 0.0001);
+					assertEquals(s.bmaSymIC, t.bmaSymIC, 0.0001);
+					assertEquals(s.simjScore, t.simjScore, 0.0001);
+					assertTrue(t.combinedScore <= 100);
+					assertEquals(r, t.rank.intValue());
+					compared++;
+				}
+			}
+			assertTrue(n > 0);
+			assertTrue(compared > n);
+		}
+		finally {
+			owlsim.dispose();
+		}
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		ParserWrapper pw = new ParserWrapper();
+		sourceOntol = pw.parseOWL(getResourceIRIString("sim/mp-subset-1.obo"));
+		g =  new OWLGraphWrapper(sourceOntol);
+		parseAssociations(getResource("sim/mgi-gene2mp-subset-1.tbl"), g);
+
+		this.createOwlSim();
+		owlsim.createElementAttributeMapFromOntology();
+		String fn = "target/owlsim-snapshot-test.bin";
+		((FastOwlSim) owlsim).saveSnapshot(fn);
+
+		FastOwlSim restored = new FastOwlSim(sourceOntol);
+		restored.loadSnapshot(fn);
+		try {
+			assertEquals(owlsim.getAllElements(), restored.getAllElements());
+			assertEquals(owlsim.getAllAttributeClasses(), restored.getAllAttributeClasses());
+			for (OWLNamedIndividual i : sourceOntol.getIndividualsInSignature()) {
+				assertEquals(owlsim.getAttributesForElement(i), restored.getAttributesForElement(i));
+				List<ElementPairScores> scoreSets = owlsim.findMatches(i, "MGI");
+				List<ElementPairScores> restoredScoreSets = restored.findMatches(i, "MGI");
+				assertEquals(scoreSets.size(), restoredScoreSets.size());
+				for (int k = 0; k < scoreSets.size(); k++) {
+					ElementPairScores s = scoreSets.get(k);
+					ElementPairScores r = restoredScoreSets.get(k);
+					assertEquals(s.j, r.j);
+					assertEquals(s.combinedScore, r.combinedScore);
+					assertEquals(s.maxIC, r.maxIC, 0.0001);
+					assertEquals(s.bmaSymIC, r.bmaSymIC, 0.0001);
+					assertEquals(s.simjScore, r.simjScore, 0.0001);
+				}
+			}
+		}
+		finally {
+			owlsim.dispose();
+			restored.dispose();
+		}
+
+		// reparent a class: the number of axioms is unchanged
+		OWLDataFactory df = sourceOntol.getOWLOntologyManager().getOWLDataFactory();
+		OWLSubClassOfAxiom ax = sourceOntol.getAxioms(AxiomType.SUBCLASS_OF).iterator().next();
+		int axiomCount = sourceOntol.getAxiomCount();
+		sourceOntol.getOWLOntologyManager().removeAxiom(sourceOntol, ax);
+		sourceOntol.getOWLOntologyManager().addAxiom(sourceOntol,
+				df.getOWLSubClassOfAxiom(ax.getSubClass(), df.getOWLThing()));
+		assertEquals(axiomCount, sourceOntol.getAxiomCount());
+		FastOwlSim stale = new FastOwlSim(sourceOntol);
+		try {
+			stale.loadSnapshot(fn);
+			fail("snapshot of a different ontology must be rejected");
+		}
+		catch (IOException e) {
+			// expected
+		}
+		finally {
+			stale.dispose();
+		}
+	}
+
+	@Test
+	public void testBitmapInformationContent() throws Exception {
+		ParserWrapper pw = new ParserWrapper();
+		sourceOntol = pw.parseOWL(getResourceIRIString("sim/mp-subset-1.obo"));
+		g =  new OWLGraphWrapper(sourceOntol);
+		parseAssociations(getResource("sim/mgi-gene2mp-subset-1.tbl"), g);
+
+		this.createOwlSim();
+		owlsim.createElementAttributeMapFromOntology();
+		FastOwlSim fsim = (FastOwlSim) owlsim;
+		try {
+			for (OWLNamedIndividual i : fsim.getAllElements()) {
+				Set<Integer> ixs = new TreeSet<Integer>();
+				double sumIC = 0;
+				double maxIC = 0;
+				for (OWLClass c : fsim.getAttributesForElement(i)) {
+					ixs.add(fsim.classIndex.get(c));
+					Double ic = fsim.getInformationContentForAttribute(c);
+					sumIC += ic;
+					maxIC = Math.max(maxIC, ic);
+				}
+				EWAHCompressedBitmap bm = new EWAHCompressedBitmap();
+				for (int ix : ixs) {
+					bm.set(ix);
+				}
+				assertEquals(sumIC, fsim.getSumOfInformationContent(bm), 0.000001);
+				assertEquals(maxIC, fsim.getMaxInformationContent(bm), 0.000001);
+			}
+		}
+		finally {
+			owlsim.dispose();
+		}
+	}
+
+	@Test
+	public void testSortedAncestorsLCSStrategy() throws Exception {
+		ParserWrapper pw = new ParserWrapper();
+		sourceOntol = pw.parseOWL(getResourceIRIString("sim/mp-subset-1.obo"));
+		g =  new OWLGraphWrapper(sourceOntol);
+		parseAssociations(getResource("sim/mgi-gene2mp-subset-1.tbl"), g);
+
+		this.createOwlSim();
+		owlsim.createElementAttributeMapFromOntology();
+		FastOwlSim fsim = (FastOwlSim) owlsim;
+		fsim.setDisableLCSCache(true);
+		try {
+			Set<OWLClass> atts = fsim.getAllAttributeClasses();
+			for (OWLClass c : atts) {
+				for (OWLClass d : atts) {
+					fsim.setLCSStrategy(FastOwlSim.LCSStrategy.BITMAP);
+					ScoreAttributeSetPair bitmapSap = fsim.getLowestCommonSubsumerWithIC(c, d);
+					fsim.setLCSStrategy(FastOwlSim.LCSStrategy.SORTED_ANCESTORS);
+					ScoreAttributeSetPair sortedSap = fsim.getLowestCommonSubsumerWithIC(c, d);
+					assertEquals(bitmapSap.score, sortedSap.score, 0.000001);
+					if (!sortedSap.attributeClassSet.isEmpty()) {
+						OWLClass lcs = sortedSap.attributeClassSet.iterator().next();
+						assertEquals(sortedSap.score, fsim.getInformationContentForAttribute(lcs), 0.000001);
+					}
+				}
+			}
+		}
+		finally {
+			owlsim.dispose();
+		}
+	}
+
+	@Test
+	public void testCandidateIndex() throws Exception {
+		ParserWrapper pw = new ParserWrapper();
+		sourceOntol = pw.parseOWL(getResourceIRIString("sim/mp-subset-1.obo"));
+		g =  new OWLGraphWrapper(sourceOntol);
+		parseAssociations(getResource("sim/mgi-gene2mp-subset-1.tbl"), g);
 
+		this.createOwlSim();
+		owlsim.createElementAttributeMapFromOntology();
+		FastOwlSim fsim = (FastOwlSim) owlsim;
+		try {
+			for (double floor : new double[] { 2.5, 1.0 }) {
+				fsim.setCandidateIndexICFloor(floor);
+				for (OWLNamedIndividual i : sourceOntol.getIndividualsInSignature()) {
+					fsim.setUseCandidateIndex(false);
+					List<ElementPairScores> scoreSets = fsim.findMatches(i, "MGI");
+					List<ElementPairScores> topScoreSets = fsim.findTopMatches(i, 5, "MGI");
+					fsim.setUseCandidateIndex(true);
+					List<ElementPairScores> indexedScoreSets = fsim.findMatches(i, "MGI");
+					List<ElementPairScores> indexedTopScoreSets = fsim.findTopMatches(i, 5, "MGI");
+					assertSameMatches(scoreSets, indexedScoreSets);
+					assertSameMatches(topScoreSets, indexedTopScoreSets);
+				}
+				assertTrue(fsim.getCandidateIndex().getNumberOfIndexedClasses() > 0);
+			}
+		}
+		finally {
+			owlsim.dispose();
+		}
+	}
 
+	@Test
+	public void testFindMatchesForAll() throws Exception {
+		ParserWrapper pw = new ParserWrapper();
+		sourceOntol = pw.parseOWL(getResourceIRIString("sim/mp-subset-1.obo"));
+		g =  new OWLGraphWrapper(sourceOntol);
+		parseAssociations(getResource("sim/mgi-gene2mp-subset-1.tbl"), g);
+
+		this.createOwlSim();
+		owlsim.createElementAttributeMapFromOntology();
+		FastOwlSim fsim = (FastOwlSim) owlsim;
+		try {
+			Map<OWLNamedIndividual, Set<OWLClass>> queries = 
+					new LinkedHashMap<OWLNamedIndividual, Set<OWLClass>>();
+			for (OWLNamedIndividual i : owlsim.getAllElements()) {
+				queries.put(i, owlsim.getAttributesForElement(i));
+			}
+			// a query that is not in the corpus, with the same profile as another query
+			OWLNamedIndividual copy = g.getDataFactory().getOWLNamedIndividual(IRI.create("http://x.org/copy"));
+			queries.put(copy, queries.values().iterator().next());
+
+			for (int k : new int[] { 0, 3 }) {
+				Map<OWLNamedIndividual, List<ElementPairScores>> expected = 
+						new HashMap<OWLNamedIndividual, List<ElementPairScores>>();
+				for (OWLNamedIndividual i : queries.keySet()) {
+					expected.put(i, k > 0 ? 
+							fsim.findTopMatches(queries.get(i), k, "MGI") : fsim.findMatches(queries.get(i), "MGI"));
+				}
+				for (int numberOfThreads : new int[] { 1, 4 }) {
+					fsim.setNumberOfThreads(numberOfThreads);
+					final Map<OWLNamedIndividual, List<ElementPairScores>> found = 
+							new HashMap<OWLNamedIndividual, List<ElementPairScores>>();
+					TabularRenderer r = new TabularRenderer(new PrintStream(new ByteArrayOutputStream())) {
+						OWLNamedIndividual last = null;
+						@Override
+						public void printPairScores(ElementPairScores scores) {
+							if (scores.i != last) {
+								// the matches of a query must be contiguous
+								assertFalse(found.containsKey(scores.i));
+								found.put(scores.i, new ArrayList<ElementPairScores>());
+								last = scores.i;
+							}
+							found.get(scores.i).add(scores);
+						}
+					};
+					fsim.findMatchesForAll(queries, "MGI", k, r);
+					assertFalse(found.isEmpty());
+					for (OWLNamedIndividual i : queries.keySet()) {
+						List<ElementPairScores> matches = found.get(i);
+						assertSameMatches(expected.get(i), 
+								matches == null ? Collections.<ElementPairScores>emptyList() : matches);
+					}
+				}
+			}
+		}
+		finally {
+			owlsim.dispose();
+		}
+	}
+
+	@Test
+	public void testApproximateSimJMatches() throws Exception {
+		ParserWrapper pw = new ParserWrapper();
+		sourceOntol = pw.parseOWL(getResourceIRIString("sim/mp-subset-1.obo"));
+		g =  new OWLGraphWrapper(sourceOntol);
+		parseAssociations(getResource("sim/mgi-gene2mp-subset-1.tbl"), g);
+
+		this.createOwlSim();
+		owlsim.createElementAttributeMapFromOntology();
+		FastOwlSim fsim = (FastOwlSim) owlsim;
+		int k = 3;
+		try {
+			// single row bands: almost any element with a non-zero SimJ is a candidate
+			fsim.setMinHashParameters(128, 1);
+			for (OWLNamedIndividual i : owlsim.getAllElements()) {
+				List<Double> expected = new ArrayList<Double>();
+				for (OWLNamedIndividual j : owlsim.getAllElements()) {
+					expected.add(owlsim.getElementJaccardSimilarity(i, j));
+				}
+				Collections.sort(expected, Collections.reverseOrder());
+				List<ElementPairScores> approx = fsim.findApproximateSimJMatches(i, k, null, false);
+				assertEquals(Math.min(k, expected.size()), approx.size());
+				for (int n = 0; n < approx.size(); n++) {
+					assertEquals(expected.get(n), approx.get(n).simjScore, 0.0001);
+					assertEquals(i, approx.get(n).i);
+					assertEquals(n, approx.get(n).rank.intValue());
+				}
+
+				List<ElementPairScores> reranked = fsim.findApproximateSimJMatches(i, k, "MGI", true);
+				assertSameMatches(fsim.findTopMatches(i, k, "MGI"), reranked);
+			}
+
+			// fewer, more selective buckets
+			fsim.setMinHashParameters(4, 8);
+			assertEquals(4, fsim.getMinHashIndex().getNumberOfBands());
+			for (OWLNamedIndividual i : owlsim.getAllElements()) {
+				List<ElementPairScores> approx = fsim.findApproximateSimJMatches(i, k, null, false);
+				// identical profiles always collide
+				assertTrue(approx.size() > 0);
+				assertEquals(1.0, approx.get(0).simjScore, 0.0001);
+			}
+		}
+		finally {
+			owlsim.dispose();
+		}
+	}
+
+	private void assertSameMatches(List<ElementPairScores> expected, List<ElementPairScores> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int k = 0; k < expected.size(); k++) {
+			ElementPairScores s = expected.get(k);
+			ElementPairScores r = actual.get(k);
+			assertEquals(s.j, r.j);
+			assertEquals(s.combinedScore, r.combinedScore);
+			assertEquals(s.maxIC, r.maxIC, 0.0001);
+			assertEquals(s.bmaSymIC, r.bmaSymIC, 0.0001);
+		}
+	}
 }
@@ -0,0 +1,132 @@
+package owltools.sim2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+import owltools.graph.OWLGraphWrapper;
+import owltools.io.ParserWrapper;
+import owltools.sim2.scores.ElementPairScores;
+
+/**
+ * Tests for incremental updates of the elements of {@link FastOwlSim}:
+ * after each update, the results must be the same as those of a FastOwlSim
+ * created from an ontology with the same class assertions.
+ */
+public class IncrementalUpdateTest extends AbstractOWLSimTest {
+
+	@Test
+	public void testIncrementalUpdates() throws Exception {
+		FastOwlSim fsim = createOwlSim(null, null, null);
+		// all LCSs are cached, so that stale entries would be used
+		fsim.precomputeAttributeAllByAll();
+
+		Iterator<OWLNamedIndividual> inds = fsim.getAllElements().iterator();
+		OWLNamedIndividual x = inds.next();
+		OWLNamedIndividual y = inds.next();
+		Set<OWLClass> xAtts = fsim.getAttributesForElement(x);
+		Set<OWLClass> yAtts = fsim.getAttributesForElement(y);
+
+		// remove
+		fsim.removeElement(x);
+		assertFalse(fsim.getAllElements().contains(x));
+		assertSameSim(createOwlSim(x, null, null), fsim);
+
+		// add back
+		fsim.setAttributesForElement(x, xAtts);
+		assertSameSim(createOwlSim(null, null, null), fsim);
+
+		// replace
+		fsim.setAttributesForElement(x, yAtts);
+		assertSameSim(createOwlSim(x, x, yAtts), fsim);
+
+		// a new element
+		fsim.setAttributesForElement(x, xAtts);
+		OWLNamedIndividual z = df.getOWLNamedIndividual(IRI.create("http://x.org/new-element"));
+		fsim.addAttributesToElement(z, xAtts);
+		assertTrue(fsim.getAllElements().contains(z));
+		assertSameSim(createOwlSim(null, z, xAtts), fsim);
+
+		// removing all attributes removes the element
+		fsim.removeAttributesFromElement(z, xAtts);
+		assertFalse(fsim.getAllElements().contains(z));
+		assertSameSim(createOwlSim(null, null, null), fsim);
+	}
+
+	/**
+	 * @param removed - if not null, all class assertions of this individual are removed
+	 * @param added - if not null, this individual is asserted to be an instance of all addedAtts
+	 * @param addedAtts
+	 * @return sim over the ontology with the associations
+	 * @throws Exception
+	 */
+	private FastOwlSim createOwlSim(OWLNamedIndividual removed, OWLNamedIndividual added, Set<OWLClass> addedAtts) throws Exception {
+		ParserWrapper pw = new ParserWrapper();
+		OWLOntology ont = pw.parseOWL(getResourceIRIString("sim/mp-subset-1.obo"));
+		OWLGraphWrapper wrapper = new OWLGraphWrapper(ont);
+		parseAssociations(getResource("sim/mgi-gene2mp-subset-1.tbl"), wrapper);
+		OWLDataFactory factory = ont.getOWLOntologyManager().getOWLDataFactory();
+		if (removed != null) {
+			ont.getOWLOntologyManager().removeAxioms(ont, ont.getClassAssertionAxioms(removed));
+		}
+		if (added != null) {
+			for (OWLClass c : addedAtts) {
+				OWLAxiom ax = factory.getOWLClassAssertionAxiom(c, added);
+				ont.getOWLOntologyManager().addAxiom(ont, ax);
+			}
+		}
+		FastOwlSim fsim = (FastOwlSim) new FastOwlSimFactory().createOwlSim(ont);
+		fsim.createElementAttributeMapFromOntology();
+		return fsim;
+	}
+
+	private void assertSameSim(FastOwlSim expected, FastOwlSim actual) throws Exception {
+		try {
+			assertEquals(expected.getAllElements(), actual.getAllElements());
+			assertEquals(expected.getCorpusSize(), actual.getCorpusSize());
+			List<OWLClass> atts = new ArrayList<OWLClass>(expected.getAllAttributeClasses());
+			for (OWLClass c : atts) {
+				assertEquals(c.toString(), expected.getNumElementsForAttribute(c), actual.getNumElementsForAttribute(c));
+				assertEquals(c.toString(), expected.getInformationContentForAttribute(c),
+						actual.getInformationContentForAttribute(c), 0.000001);
+				assertEquals(expected.getElementsForAttribute(c), actual.getElementsForAttribute(c));
+			}
+			for (OWLClass c : atts) {
+				for (OWLClass d : atts) {
+					assertEquals(expected.getLowestCommonSubsumerWithIC(c, d).score,
+							actual.getLowestCommonSubsumerWithIC(c, d).score, 0.000001);
+				}
+			}
+			for (OWLNamedIndividual i : expected.getAllElements()) {
+				assertEquals(expected.getAttributesForElement(i), actual.getAttributesForElement(i));
+				List<ElementPairScores> expectedMatches = expected.findMatches(i, null);
+				List<ElementPairScores> actualMatches = actual.findMatches(i, null);
+				assertEquals(expectedMatches.size(), actualMatches.size());
+				for (int n = 0; n < expectedMatches.size(); n++) {
+					ElementPairScores s = expectedMatches.get(n);
+					ElementPairScores r = actualMatches.get(n);
+					assertEquals(s.combinedScore, r.combinedScore);
+					assertEquals(s.maxIC, r.maxIC, 0.000001);
+					assertEquals(s.bmaSymIC, r.bmaSymIC, 0.000001);
+					assertEquals(s.simjScore, r.simjScore, 0.000001);
+				}
+			}
+		}
+		finally {
+			expected.dispose();
+		}
+	}
+}
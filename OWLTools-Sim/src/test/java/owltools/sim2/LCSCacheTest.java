@@ -0,0 +1,107 @@
+package owltools.sim2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests for the triangular LCS cache, on the heap and memory-mapped
+ */
+public class LCSCacheTest {
+
+	private static final long FINGERPRINT = 42L;
+
+	@Test
+	public void testHeapCache() {
+		LCSCache cache = new LCSCache(50);
+		assertEquals(50 * 51 / 2, cache.getNumberOfSlots());
+		checkPutAndGet(cache);
+	}
+
+	@Test
+	public void testMappedCache() throws IOException {
+		File f = new File("target/lcs-cache-test.bin");
+		f.delete();
+		LCSCache cache = LCSCache.open(f, 50, FINGERPRINT, false);
+		assertTrue(cache.isMapped());
+		checkPutAndGet(cache);
+		cache.close();
+
+		// reopen read-only, as a second process would
+		LCSCache roCache = LCSCache.open(f, 50, FINGERPRINT, true);
+		assertTrue(roCache.isReadOnly());
+		for (int cix = 0; cix < 50; cix++) {
+			for (int dix = cix; dix < 50; dix++) {
+				assertEquals(getExpectedLCS(cix, dix), roCache.get(cix, dix));
+			}
+		}
+		roCache.close();
+	}
+
+	@Test
+	public void testSaveAndOpen() throws IOException {
+		LCSCache cache = new LCSCache(50);
+		checkPutAndGet(cache);
+		File f = new File("target/lcs-cache-test-saved.bin");
+		boolean[] isExcluded = new boolean[50];
+		isExcluded[0] = true;
+		cache.save(f, FINGERPRINT, isExcluded);
+		assertTrue(LCSCache.isLCSCacheFile(f));
+
+		LCSCache savedCache = LCSCache.open(f, 50, FINGERPRINT, true);
+		for (int cix = 0; cix < 50; cix++) {
+			for (int dix = cix; dix < 50; dix++) {
+				int expected = getExpectedLCS(cix, dix);
+				if (expected == 0)
+					expected = LCSCache.NOT_CACHED;
+				assertEquals(expected, savedCache.get(cix, dix));
+			}
+		}
+		savedCache.close();
+	}
+
+	@Test(expected=IOException.class)
+	public void testFingerprintMismatch() throws IOException {
+		File f = new File("target/lcs-cache-test-fp.bin");
+		f.delete();
+		LCSCache.open(f, 10, FINGERPRINT, false).close();
+		LCSCache.open(f, 10, FINGERPRINT + 1, true);
+	}
+
+	@Test(expected=IOException.class)
+	public void testSizeMismatch() throws IOException {
+		File f = new File("target/lcs-cache-test-small.bin");
+		f.delete();
+		LCSCache.open(f, 10, FINGERPRINT, false).close();
+		LCSCache.open(f, 20, FINGERPRINT, true);
+	}
+
+	// every other pair is cached; the LCS is arbitrary
+	private int getExpectedLCS(int cix, int dix) {
+		if ((cix + dix) % 2 == 1)
+			return LCSCache.NOT_CACHED;
+		return (cix * dix) % 50;
+	}
+
+	private void checkPutAndGet(LCSCache cache) {
+		for (int cix = 0; cix < 50; cix++) {
+			for (int dix = cix; dix < 50; dix++) {
+				assertEquals(LCSCache.NOT_CACHED, cache.get(cix, dix));
+				int lcsix = getExpectedLCS(cix, dix);
+				if (lcsix != LCSCache.NOT_CACHED) {
+					cache.put(dix, cix, lcsix);
+				}
+			}
+		}
+		for (int cix = 0; cix < 50; cix++) {
+			for (int dix = 0; dix < 50; dix++) {
+				int expected = cix <= dix ? getExpectedLCS(cix, dix) : getExpectedLCS(dix, cix);
+				assertEquals(expected, cache.get(cix, dix));
+			}
+		}
+	}
+}
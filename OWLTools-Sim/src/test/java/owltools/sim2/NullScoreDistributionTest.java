@@ -0,0 +1,106 @@
+package owltools.sim2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+
+import owltools.graph.OWLGraphWrapper;
+import owltools.io.ParserWrapper;
+import owltools.sim2.kb.NullScoreDistribution;
+import owltools.sim2.kb.NullScoreDistribution.Score;
+import owltools.sim2.scores.ElementPairScores;
+
+public class NullScoreDistributionTest extends AbstractOWLSimTest {
+
+	@Test
+	public void testNullScoreDistribution() throws Exception {
+		ParserWrapper pw = new ParserWrapper();
+		sourceOntol = pw.parseOWL(getResourceIRIString("sim/mp-subset-1.obo"));
+		g = new OWLGraphWrapper(sourceOntol);
+		parseAssociations(getResource("sim/mgi-gene2mp-subset-1.tbl"), g);
+		FastOwlSim fsim = (FastOwlSim) new FastOwlSimFactory().createOwlSim(sourceOntol);
+		try {
+			fsim.createElementAttributeMapFromOntology();
+			long fingerprint = fsim.getClassIndexFingerprint();
+			NullScoreDistribution nsd =
+					NullScoreDistribution.create(fsim, new int[]{5, 1, 3}, 20, 100, 1, fingerprint);
+			assertEquals(3, nsd.getProfileSizes().length);
+			assertEquals(1, nsd.getProfileSizes()[0]);
+
+			// p-values decrease with the score
+			for (Score score : Score.values()) {
+				for (int size = 1; size <= 6; size++) {
+					assertEquals(1.0, nsd.getPValue(score, size, -1), 0);
+					double prev = 1.0;
+					for (double v = 0; v <= 100; v += 0.5) {
+						double p = nsd.getPValue(score, size, v);
+						assertTrue(p > 0 && p <= prev);
+						prev = p;
+					}
+					assertTrue(nsd.getPValue(score, size, 1e9) < 0.01);
+				}
+			}
+
+			// annotate search results
+			OWLNamedIndividual i = fsim.getAllElements().iterator().next();
+			List<ElementPairScores> matches = fsim.findMatches(i, null);
+			assertTrue(matches.size() > 0);
+			nsd.annotate(matches, fsim.getAttributesForElement(i).size());
+			Double prev = null;
+			for (ElementPairScores m : matches) {
+				assertNotNull(m.pValue);
+				// matches are by decreasing combined score
+				if (prev != null)
+					assertTrue(m.pValue >= prev);
+				prev = m.pValue;
+			}
+
+			// save and load
+			File f = new File("target/null-score-distribution-test.bin");
+			nsd.save(f);
+			NullScoreDistribution loaded = NullScoreDistribution.load(f, fingerprint);
+			for (Score score : Score.values()) {
+				for (double v = 0; v <= 100; v += 0.5) {
+					assertEquals(nsd.getPValue(score, 4, v), loaded.getPValue(score, 4, v), 0);
+				}
+			}
+			try {
+				NullScoreDistribution.load(f, fingerprint + 1);
+				fail("fingerprint not checked");
+			}
+			catch (IOException e) {
+				// expected
+			}
+
+			// sampled with the search parameters of the annotated matches
+			NullScoreDistribution mgi =
+					NullScoreDistribution.create(fsim, "MGI", 5, 2.5, new int[]{1, 3}, 20, 100, 1, fingerprint);
+			assertTrue(mgi.isSampledWith("MGI", 5, 2.5));
+			assertTrue(nsd.isSampledWith(null, 0, 0));
+			assertFalse(mgi.isSampledWith(null, 5, 2.5));
+			mgi.save(f);
+			loaded = NullScoreDistribution.load(f, fingerprint, "MGI", 5, 2.5);
+			assertEquals("MGI", loaded.getTargetIdSpace());
+			assertEquals(mgi.getPValue(Score.COMBINED, 3, 50), loaded.getPValue(Score.COMBINED, 3, 50), 0);
+			try {
+				NullScoreDistribution.load(f, fingerprint, "MGI", 0, 0);
+				fail("cutoffs not checked");
+			}
+			catch (IOException e) {
+				// expected
+			}
+		}
+		finally {
+			fsim.dispose();
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package owltools.sim2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.semanticweb.owlapi.model.OWLClass;
+
+import owltools.graph.OWLGraphWrapper;
+import owltools.io.ParserWrapper;
+import owltools.sim2.SimpleOwlSim.Metric;
+import owltools.sim2.io.TabularRenderer;
+import owltools.sim2.scores.AttributePairScores;
+
+/**
+ * Tests for {@link TiledAttributeComparison}
+ */
+public class TiledAttributeComparisonTest extends AbstractOWLSimTest {
+
+	private Set<Metric> metrics = EnumSet.of(Metric.SIMJ, Metric.GIC);
+
+	@Before
+	public void setUp() throws Exception {
+		ParserWrapper pw = new ParserWrapper();
+		sourceOntol = pw.parseOWL(getResourceIRIString("sim/mp-subset-1.obo"));
+		g =  new OWLGraphWrapper(sourceOntol);
+		parseAssociations(getResource("sim/mgi-gene2mp-subset-1.tbl"), g);
+		owlsim = new FastOwlSimFactory().createOwlSim(sourceOntol);
+		owlsim.createElementAttributeMapFromOntology();
+	}
+
+	/**
+	 * All pairs c &gt; d must be reported once, with the same scores as when
+	 * compared one at a time, whatever the number of threads.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testParallelComparison() throws Exception {
+		Set<OWLClass> atts = owlsim.getAllAttributeClasses();
+		List<String> expected = new ArrayList<String>();
+		for (OWLClass c : atts) {
+			double best = Double.NEGATIVE_INFINITY;
+			List<AttributePairScores> row = new ArrayList<AttributePairScores>();
+			for (OWLClass d : atts) {
+				if (c.compareTo(d) <= 0)
+					continue;
+				AttributePairScores scores = new AttributePairScores(c, d);
+				scores.simjScore = owlsim.getAttributeJaccardSimilarity(c, d);
+				scores.asymmetricSimjScore = owlsim.getAsymmetricAttributeJaccardSimilarity(c, d);
+				scores.simGIC = owlsim.getAttributeGraphInformationContentSimilarity(c, d);
+				best = Math.max(best, scores.simjScore);
+				row.add(scores);
+			}
+			for (AttributePairScores scores : row) {
+				scores.isBestMatchForI = scores.simjScore == best;
+			}
+			expected.addAll(render(row));
+		}
+
+		String sequential = run(atts, 1, 7);
+		String parallel = run(atts, 4, 7);
+		assertEquals(sequential, parallel);
+
+		List<String> lines = new ArrayList<String>(Arrays.asList(parallel.split("\n")));
+		// column names
+		lines.remove(0);
+		Collections.sort(expected);
+		Collections.sort(lines);
+		assertEquals(expected, lines);
+	}
+
+	/**
+	 * A run killed part way through and resumed from its checkpoint must
+	 * produce the same output as an uninterrupted run.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testResumeFromCheckpoint() throws Exception {
+		Set<OWLClass> atts = owlsim.getAllAttributeClasses();
+		File out = new File("target/tiled-comparison.out");
+		File checkpoint = new File("target/tiled-comparison.checkpoint");
+		out.delete();
+		checkpoint.delete();
+
+		TiledAttributeComparison comparison = createComparison(atts, 2, 5);
+		assertFalse(comparison.openCheckpoint(checkpoint, out));
+		runToFile(comparison, out, false);
+		String complete = FileUtils.readFileToString(out);
+		List<String> checkpointLines = FileUtils.readLines(checkpoint);
+		assertEquals(comparison.getNumberOfTiles() + 1, checkpointLines.size());
+
+		// simulate a run killed while writing the fourth tile
+		FileUtils.writeLines(checkpoint, checkpointLines.subList(0, 4));
+		FileUtils.writeStringToFile(checkpoint, "7\t12", true);
+		FileUtils.writeStringToFile(out, "MP:partial", true);
+
+		comparison = createComparison(atts, 3, 5);
+		assertTrue(comparison.openCheckpoint(checkpoint, out));
+		runToFile(comparison, out, true);
+		assertEquals(complete, FileUtils.readFileToString(out));
+		assertTrue(comparison.getNumberOfPairsScored() > 0);
+	}
+
+	private TiledAttributeComparison createComparison(Set<OWLClass> atts, int numberOfThreads, int tileSize) {
+		TiledAttributeComparison comparison = new TiledAttributeComparison(owlsim, atts, atts, true);
+		comparison.setMetrics(metrics);
+		comparison.setNumberOfThreads(numberOfThreads);
+		comparison.setTileSize(tileSize);
+		return comparison;
+	}
+
+	private String run(Set<OWLClass> atts, int numberOfThreads, int tileSize) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TabularRenderer r = new TabularRenderer(new PrintStream(bytes));
+		r.setGraph(g);
+		createComparison(atts, numberOfThreads, tileSize).run(r);
+		r.dispose();
+		return bytes.toString();
+	}
+
+	private void runToFile(TiledAttributeComparison comparison, File out, boolean isResuming) throws Exception {
+		TabularRenderer r = new TabularRenderer(new PrintStream(new FileOutputStream(out, isResuming)));
+		r.setGraph(g);
+		r.setHeaderLine(!isResuming);
+		comparison.run(r);
+		r.dispose();
+	}
+
+	private List<String> render(List<AttributePairScores> scoresList) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TabularRenderer r = new TabularRenderer(new PrintStream(bytes));
+		r.setGraph(g);
+		r.setHeaderLine(false);
+		for (AttributePairScores scores : scoresList) {
+			r.printPairScores(scores);
+		}
+		r.dispose();
+		List<String> lines = new ArrayList<String>();
+		for (String line : bytes.toString().split("\n")) {
+			if (line.length() > 0)
+				lines.add(line);
+		}
+		return lines;
+	}
+}